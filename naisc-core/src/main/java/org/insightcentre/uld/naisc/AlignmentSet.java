@@ -4,12 +4,13 @@ import org.apache.commons.text.StringEscapeUtils;
 import org.insightcentre.uld.naisc.util.Option;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import java.io.PrintStream;
 import java.net.URL;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.insightcentre.uld.naisc.util.None;
-import org.insightcentre.uld.naisc.util.Pair;
 import org.insightcentre.uld.naisc.util.Some;
 import org.jetbrains.annotations.Nullable;
 
@@ -30,7 +31,22 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
     @JsonCreator public AlignmentSet(List<Alignment> alignments) {
         this.alignments = alignments;
     }
-    private Map<String, Map<Pair<URIRes,URIRes>, Alignment>> index;
+    /** The alignments by property and pair of entity identifiers */
+    private Map<String, Long2ObjectOpenHashMap<Alignment>> index;
+    private EntityRegistry lefts, rights;
+
+    private static long key(int id1, int id2) {
+        return ((long) id1 << 32) | (id2 & 0xffffffffL);
+    }
+
+    /**
+     * The key of a pair in the index
+     * @return The key or -1 if either entity is not in this set
+     */
+    private long find(URIRes id1, URIRes id2) {
+        final int l = lefts.find(id1), r = rights.find(id2);
+        return l < 0 || r < 0 ? -1 : key(l, r);
+    }
 
     /**
      * Get an alignment if it is in this set
@@ -43,24 +59,22 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
         if(index == null) {
             buildIndex();
         }
-        Map<Pair<URIRes, URIRes>, Alignment> byPair = index.get(property);
-        if(byPair == null)
+        Long2ObjectOpenHashMap<Alignment> byPair = index.get(property);
+        final long k = find(id1, id2);
+        if(byPair == null || k < 0)
             return new None<>();
-        final Pair<URIRes, URIRes> sp = new Pair<>(id1, id2);
-        return byPair.containsKey(sp) ? new Some<>(byPair.get(sp)) : new None<>();
+        final Alignment a = byPair.get(k);
+        return a != null ? new Some<>(a) : new None<>();
 
     }
 
     private void buildIndex() {
-        Map<String, Map<Pair<URIRes,URIRes>, Alignment>> map = new HashMap<>();
+        lefts = new EntityRegistry();
+        rights = new EntityRegistry();
+        index = new HashMap<>();
         for(Alignment alignment : alignments) {
-            if(!map.containsKey(alignment.property)) {
-                map.put(alignment.property, new HashMap<>());
-            }
-            map.get(alignment.property).put(new Pair<>(alignment.entity1,
-                    alignment.entity2), alignment);
+            addToIndex(alignment);
         }
-        index = map;
     }
 
 
@@ -75,9 +89,12 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
         if(index == null) {
             buildIndex();
         }
-        for(Map<Pair<URIRes,URIRes>, Alignment> byPair : index.values()) {
-            final Pair<URIRes, URIRes> sp = new Pair<>(id1, id2);
-            if(byPair.containsKey(sp)) {
+        final long k = find(id1, id2);
+        if(k < 0) {
+            return false;
+        }
+        for(Long2ObjectOpenHashMap<Alignment> byPair : index.values()) {
+            if(byPair.containsKey(k)) {
                 return true;
             }
         }
@@ -95,10 +112,14 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
         if(index == null) {
             buildIndex();
         }
-        for(Map<Pair<URIRes,URIRes>, Alignment> byPair : index.values()) {
-            final Pair<URIRes, URIRes> sp = new Pair<>(id1, id2);
-            if(byPair.containsKey(sp)) {
-                return byPair.get(sp).property;
+        final long k = find(id1, id2);
+        if(k < 0) {
+            return null;
+        }
+        for(Long2ObjectOpenHashMap<Alignment> byPair : index.values()) {
+            final Alignment a = byPair.get(k);
+            if(a != null) {
+                return a.property;
             }
         }
         return null;
@@ -116,7 +137,7 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
     public boolean remove(Alignment alignment) {
         boolean rv = alignments.remove(alignment);
         if(index != null) {
-            index.get(alignment.property).remove(new Pair<>(alignment.entity1, alignment.entity2));
+            removeFromIndex(alignment);
         }
         return rv;
 
@@ -142,17 +163,41 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
         });
     }
 
+    @Override
+    public boolean removeIf(Predicate<? super Alignment> filter) {
+        // Filter the list in one pass rather than removing one by one
+        boolean rv = alignments.removeIf(filter);
+        if(rv) {
+            index = null;
+        }
+        return rv;
+    }
+
     @Override
     public boolean add(Alignment alignment) {
         boolean rv = this.alignments.add(alignment);
         if(index != null) {
-            if(!index.containsKey(alignment.property))
-                index.put(alignment.property, new HashMap<>());
-            index.get(alignment.property).put(new Pair<>(alignment.entity1, alignment.entity2), alignment);
+            addToIndex(alignment);
         }
         return rv;
     }
 
+    private void addToIndex(Alignment alignment) {
+        Long2ObjectOpenHashMap<Alignment> byPair = index.get(alignment.property);
+        if(byPair == null) {
+            index.put(alignment.property, byPair = new Long2ObjectOpenHashMap<>());
+        }
+        byPair.put(key(lefts.id(alignment.entity1), rights.id(alignment.entity2)), alignment);
+    }
+
+    private void removeFromIndex(Alignment alignment) {
+        Long2ObjectOpenHashMap<Alignment> byPair = index.get(alignment.property);
+        final long k = find(alignment.entity1, alignment.entity2);
+        if(byPair != null && k >= 0) {
+            byPair.remove(k);
+        }
+    }
+
     @Override
     public Iterator<Alignment> iterator() {
         final Iterator<Alignment> iter = alignments.iterator();
@@ -171,7 +216,7 @@ public class AlignmentSet extends AbstractCollection<Alignment> {
             @Override
             public void remove() {
                 iter.remove();
-                if(index != null) index.get(next.property).remove(new Pair<>(next.entity1, next.entity2));
+                if(index != null) removeFromIndex(next);
             }
         };
     }
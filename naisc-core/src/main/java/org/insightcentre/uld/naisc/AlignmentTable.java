@@ -0,0 +1,335 @@
+package org.insightcentre.uld.naisc;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A set of alignments stored by column. Each alignment is a row of parallel
+ * arrays holding the identifiers of the entities (from an
+ * {@link EntityRegistry}), the code of the property and the probability (as a
+ * float), so that a large set takes a few bytes per alignment and can be
+ * scanned without following pointers. For each property there is an index
+ * from the pair of entities to the row.
+ *
+ * Removing an alignment only marks its row as removed; removed rows are
+ * dropped when the table is sorted.
+ *
+ * @author John McCrae
+ */
+public class AlignmentTable extends AbstractCollection<Alignment> {
+
+    private final EntityRegistry lefts = new EntityRegistry(), rights = new EntityRegistry();
+    private final Object2IntOpenHashMap<String> propIds = new Object2IntOpenHashMap<>();
+    private final List<String> propNames = new ArrayList<>();
+    private final List<Long2IntOpenHashMap> index = new ArrayList<>();
+    private int[] left = new int[16], right = new int[16], prop = new int[16];
+    private float[] prob = new float[16];
+    private final BitSet removed = new BitSet();
+    private int rows = 0, live = 0;
+
+    public AlignmentTable() {
+        propIds.defaultReturnValue(-1);
+    }
+
+    /**
+     * Create a table containing a collection of alignments
+     *
+     * @param alignments The alignments
+     * @return The table
+     */
+    public static AlignmentTable of(Collection<Alignment> alignments) {
+        AlignmentTable table = new AlignmentTable();
+        for (Alignment a : alignments) {
+            table.add(a);
+        }
+        return table;
+    }
+
+    private static long key(int id1, int id2) {
+        return ((long) id1 << 32) | (id2 & 0xffffffffL);
+    }
+
+    /**
+     * Add an alignment. If there is already an alignment between these
+     * entities with this property, it is replaced in the index by the new
+     * alignment.
+     *
+     * @param entity1 The left entity
+     * @param entity2 The right entity
+     * @param probability The probability
+     * @param property The property
+     * @return The row of the new alignment
+     */
+    public int add(URIRes entity1, URIRes entity2, double probability, String property) {
+        if (rows == left.length) {
+            final int n = Math.max(16, rows + (rows >> 1));
+            left = Arrays.copyOf(left, n);
+            right = Arrays.copyOf(right, n);
+            prop = Arrays.copyOf(prop, n);
+            prob = Arrays.copyOf(prob, n);
+        }
+        int p = propIds.getInt(property);
+        if (p < 0) {
+            p = propNames.size();
+            propNames.add(property);
+            propIds.put(property, p);
+            final Long2IntOpenHashMap byPair = new Long2IntOpenHashMap();
+            byPair.defaultReturnValue(-1);
+            index.add(byPair);
+        }
+        final int row = rows++;
+        left[row] = lefts.id(entity1);
+        right[row] = rights.id(entity2);
+        prop[row] = p;
+        prob[row] = (float) probability;
+        index.get(p).put(key(left[row], right[row]), row);
+        live++;
+        return row;
+    }
+
+    @Override
+    public boolean add(Alignment alignment) {
+        add(alignment.entity1, alignment.entity2, alignment.probability, alignment.property);
+        return true;
+    }
+
+    /**
+     * Find an alignment
+     *
+     * @param entity1 The left entity
+     * @param entity2 The right entity
+     * @param property The property
+     * @return The row of the alignment or -1 if there is no such alignment
+     */
+    public int find(URIRes entity1, URIRes entity2, String property) {
+        final int p = propIds.getInt(property);
+        final int l = lefts.find(entity1), r = rights.find(entity2);
+        if (p < 0 || l < 0 || r < 0) {
+            return -1;
+        }
+        return index.get(p).get(key(l, r));
+    }
+
+    /**
+     * Is there a link between two entities (with any property)
+     *
+     * @param entity1 The left entity
+     * @param entity2 The right entity
+     * @return True if a link exists
+     */
+    public boolean hasLink(URIRes entity1, URIRes entity2) {
+        return findLink(entity1, entity2) != null;
+    }
+
+    /**
+     * Find the property linking two entities
+     *
+     * @param entity1 The left entity
+     * @param entity2 The right entity
+     * @return The property or null if the entities are not linked
+     */
+    public @Nullable
+    String findLink(URIRes entity1, URIRes entity2) {
+        final int l = lefts.find(entity1), r = rights.find(entity2);
+        if (l < 0 || r < 0) {
+            return null;
+        }
+        final long k = key(l, r);
+        for (int p = 0; p < index.size(); p++) {
+            if (index.get(p).containsKey(k)) {
+                return propNames.get(p);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the alignment in a row
+     *
+     * @param row The row
+     * @return True if the row was not already removed
+     */
+    public boolean removeRow(int row) {
+        if (row < 0 || row >= rows || removed.get(row)) {
+            return false;
+        }
+        removed.set(row);
+        live--;
+        index.get(prop[row]).remove(key(left[row], right[row]), row);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o instanceof Alignment) {
+            final Alignment a = (Alignment) o;
+            final int row = find(a.entity1, a.entity2, a.property);
+            if (row >= 0 && prob[row] == (float) a.probability) {
+                return removeRow(row);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof Alignment) {
+            final Alignment a = (Alignment) o;
+            final int row = find(a.entity1, a.entity2, a.property);
+            return row >= 0 && prob[row] == (float) a.probability;
+        }
+        return false;
+    }
+
+    /**
+     * Sort the alignments by probability, highest first (alignments with the
+     * same probability keep their order). This also drops removed rows, so
+     * the rows of the alignments change.
+     */
+    public void sortByScore() {
+        int[] order = new int[live];
+        for (int i = 0, j = 0; i < rows; i++) {
+            if (!removed.get(i)) {
+                order[j++] = i;
+            }
+        }
+        final float[] p = prob;
+        IntArrays.mergeSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int i, int j) {
+                return Float.compare(p[j], p[i]);
+            }
+        });
+        final int[] l2 = new int[Math.max(16, live)], r2 = new int[l2.length], p2 = new int[l2.length];
+        final float[] s2 = new float[l2.length];
+        for (int i = 0; i < order.length; i++) {
+            l2[i] = left[order[i]];
+            r2[i] = right[order[i]];
+            p2[i] = prop[order[i]];
+            s2[i] = prob[order[i]];
+        }
+        left = l2;
+        right = r2;
+        prop = p2;
+        prob = s2;
+        rows = live;
+        removed.clear();
+        for (Long2IntOpenHashMap byPair : index) {
+            byPair.clear();
+        }
+        for (int i = 0; i < rows; i++) {
+            index.get(prop[i]).put(key(left[i], right[i]), i);
+        }
+    }
+
+    /**
+     * The number of rows, including removed rows
+     *
+     * @return The number of rows
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Has the alignment in a row been removed
+     *
+     * @param row The row
+     * @return True if the row is removed
+     */
+    public boolean isRemoved(int row) {
+        return removed.get(row);
+    }
+
+    public URIRes entity1(int row) {
+        return lefts.get(left[row]);
+    }
+
+    public URIRes entity2(int row) {
+        return rights.get(right[row]);
+    }
+
+    public double probability(int row) {
+        return prob[row];
+    }
+
+    public String property(int row) {
+        return propNames.get(prop[row]);
+    }
+
+    /**
+     * Get the alignment in a row. A new object is created for each call.
+     *
+     * @param row The row
+     * @return The alignment
+     */
+    public Alignment get(int row) {
+        return new Alignment(entity1(row), entity2(row), prob[row], propNames.get(prop[row]), null);
+    }
+
+    @Override
+    public int size() {
+        return live;
+    }
+
+    /**
+     * Iterate over the alignments. The alignment objects are created as they
+     * are read, so iterating does not hold the table in memory a second time.
+     *
+     * @return An iterator over the alignments that are not removed
+     */
+    @Override
+    public Iterator<Alignment> iterator() {
+        return new Iterator<Alignment>() {
+            int next = removed.nextClearBit(0), last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Alignment next() {
+                if (next >= rows) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = removed.nextClearBit(next + 1);
+                return get(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                removeRow(last);
+                last = -1;
+            }
+        };
+    }
+
+    /**
+     * Convert to an alignment set
+     *
+     * @return An alignment set containing the alignments of this table
+     */
+    public AlignmentSet toAlignmentSet() {
+        final List<Alignment> alignments = new ArrayList<>(live);
+        for (Alignment a : this) {
+            alignments.add(a);
+        }
+        return new AlignmentSet(alignments);
+    }
+}
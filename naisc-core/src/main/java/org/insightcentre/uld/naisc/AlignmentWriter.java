@@ -0,0 +1,34 @@
+package org.insightcentre.uld.naisc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A writer that outputs alignments one at a time, so that a set of
+ * alignments does not need to be rendered in memory before it is written.
+ *
+ * @author John McCrae
+ * @see org.insightcentre.uld.naisc.main.AlignmentWriters
+ */
+public interface AlignmentWriter extends Closeable {
+
+    /**
+     * Write an alignment
+     *
+     * @param alignment The alignment
+     * @throws IOException If the alignment could not be written
+     */
+    void write(Alignment alignment) throws IOException;
+
+    /**
+     * Write all the alignments in a collection
+     *
+     * @param alignments The alignments
+     * @throws IOException If an alignment could not be written
+     */
+    default void writeAll(Iterable<Alignment> alignments) throws IOException {
+        for (Alignment alignment : alignments) {
+            write(alignment);
+        }
+    }
+}
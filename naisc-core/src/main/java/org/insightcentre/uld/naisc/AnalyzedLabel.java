@@ -0,0 +1,147 @@
+package org.insightcentre.uld.naisc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
+
+/**
+ * A label with the analyses that text features make of it (such as its
+ * tokens). Each analysis is computed the first time it is requested and
+ * then kept, so that when a label is compared with many other labels it is
+ * only analysed once. The arrays and sets returned are shared and must not
+ * be modified.
+ *
+ * @author John McCrae
+ */
+public class AnalyzedLabel {
+
+    private final String string;
+    private volatile String lowerCase;
+    private volatile String[] tokens, lowerTokens, characters, lowerCharacters;
+    private volatile Set<String> tokenSet, lowerTokenSet;
+    private volatile ConcurrentHashMap<Object, Object> analyses;
+
+    public AnalyzedLabel(String string) {
+        this.string = string;
+    }
+
+    /**
+     * The label
+     *
+     * @return The label as a string
+     */
+    public String string() {
+        return string;
+    }
+
+    /**
+     * The label in lower case
+     *
+     * @return The lower-cased label
+     */
+    public String lowerCase() {
+        String s = lowerCase;
+        if (s == null) {
+            lowerCase = s = string.toLowerCase();
+        }
+        return s;
+    }
+
+    /**
+     * The tokens of the label
+     *
+     * @param lowerCase Tokenize the lower-cased label
+     * @return The tokens
+     */
+    public String[] tokens(boolean lowerCase) {
+        String[] t = lowerCase ? lowerTokens : tokens;
+        if (t == null) {
+            t = PrettyGoodTokenizer.tokenize(lowerCase ? lowerCase() : string);
+            if (lowerCase) {
+                lowerTokens = t;
+            } else {
+                tokens = t;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * The set of distinct tokens of the label
+     *
+     * @param lowerCase Tokenize the lower-cased label
+     * @return The set of tokens
+     */
+    public Set<String> tokenSet(boolean lowerCase) {
+        Set<String> s = lowerCase ? lowerTokenSet : tokenSet;
+        if (s == null) {
+            s = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(tokens(lowerCase))));
+            if (lowerCase) {
+                lowerTokenSet = s;
+            } else {
+                tokenSet = s;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * The characters of the label, each as a string
+     *
+     * @param lowerCase Use the lower-cased label
+     * @return The characters
+     */
+    public String[] characters(boolean lowerCase) {
+        String[] c = lowerCase ? lowerCharacters : characters;
+        if (c == null) {
+            c = (lowerCase ? lowerCase() : string).split("");
+            if (lowerCase) {
+                lowerCharacters = c;
+            } else {
+                characters = c;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Get an analysis of the label that is specific to a feature (for example
+     * the embeddings of its words)
+     *
+     * @param <T> The type of the analysis
+     * @param key The key that identifies the analysis (compared by equality)
+     * @param analysis The function that computes the analysis, called only if
+     * the analysis has not been computed already
+     * @return The analysis
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T analysis(Object key, Function<AnalyzedLabel, T> analysis) {
+        ConcurrentHashMap<Object, Object> a = analyses;
+        if (a == null) {
+            synchronized (this) {
+                a = analyses;
+                if (a == null) {
+                    analyses = a = new ConcurrentHashMap<>(4);
+                }
+            }
+        }
+        Object t = a.get(key);
+        if (t == null) {
+            t = analysis.apply(this);
+            final Object t2 = a.putIfAbsent(key, t);
+            if (t2 != null) {
+                t = t2;
+            }
+        }
+        return (T) t;
+    }
+
+    @Override
+    public String toString() {
+        return string;
+    }
+}
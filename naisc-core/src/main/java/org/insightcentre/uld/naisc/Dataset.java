@@ -54,4 +54,14 @@ public interface Dataset {
 
     public String id();
 
+    /**
+     * Hint that the statements about a resource will be needed soon. A
+     * dataset that is slow to query may fetch the statements of several
+     * resources at once; the default is to do nothing.
+     * 
+     * @param r The resource
+     */
+    default void prefetch(Resource r) {
+    }
+
 }
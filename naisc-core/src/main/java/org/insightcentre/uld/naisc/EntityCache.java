@@ -0,0 +1,94 @@
+package org.insightcentre.uld.naisc;
+
+import java.util.function.Supplier;
+import org.insightcentre.uld.naisc.util.StripedCache;
+
+/**
+ * A cache of what the lenses extract from each entity. A left entity is
+ * usually blocked with many right entities (and vice versa), so a lens that
+ * reads the labels of an entity and analyses them for every pair would
+ * repeat the same work many times. The cache is keyed by the entity and a
+ * key given by the lens (normally its identifier). It holds a fixed number
+ * of entries and drops the least recently used entry when full, and it
+ * may be used by several threads at once (each value is computed only once).
+ *
+ * @author John McCrae
+ */
+public class EntityCache {
+
+    /**
+     * A cache that keeps nothing, so that each value is computed every time
+     */
+    public static final EntityCache NONE = new EntityCache(0);
+
+    private final StripedCache<Key, Object> entries;
+
+    /**
+     * Create a cache
+     *
+     * @param maxSize The maximum number of entries (0 to keep nothing)
+     */
+    public EntityCache(int maxSize) {
+        this.entries = maxSize > 0 ? new StripedCache<>(maxSize) : null;
+    }
+
+    /**
+     * Get a value for an entity, computing it if it is not in the cache
+     *
+     * @param <T> The type of the value
+     * @param entity The entity
+     * @param key The key of the value (normally the lens identifier)
+     * @param compute The function to compute the value
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(URIRes entity, String key, Supplier<T> compute) {
+        if (entries == null) {
+            return compute.get();
+        }
+        return (T) entries.get(new Key(entity, key), k -> compute.get());
+    }
+
+    /**
+     * The number of entries in the cache
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return entries == null ? 0 : entries.size();
+    }
+
+    /**
+     * The proportion of lookups that found their value in the cache
+     *
+     * @return The hit rate
+     */
+    public double hitRate() {
+        return entries == null ? 0.0 : entries.hitRate();
+    }
+
+    private static final class Key {
+
+        private final URIRes entity;
+        private final String key;
+
+        public Key(URIRes entity, String key) {
+            this.entity = entity;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entity.hashCode() + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return entity.equals(other.entity) && key.equals(other.key);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.insightcentre.uld.naisc;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A registry that gives each entity a dense integer identifier (0, 1, 2...)
+ * in the order that they are first seen. Structures that hold many entities
+ * can then be keyed on these integers instead of on the URIs. The registry
+ * also interns the entities, so that each entity is held once.
+ *
+ * A registry is intended to live for a single run (or a single structure) and
+ * identifiers from different registries are not comparable.
+ *
+ * @author John McCrae
+ */
+public class EntityRegistry {
+
+    private final Object2IntOpenHashMap<URIRes> ids = new Object2IntOpenHashMap<>();
+    private final List<URIRes> entities = new ArrayList<>();
+
+    public EntityRegistry() {
+        ids.defaultReturnValue(-1);
+    }
+
+    /**
+     * Get the identifier of an entity, registering it if it is new
+     *
+     * @param entity The entity
+     * @return The identifier of the entity
+     */
+    public synchronized int id(URIRes entity) {
+        int i = ids.getInt(entity);
+        if (i < 0) {
+            i = entities.size();
+            ids.put(entity, i);
+            entities.add(entity);
+        }
+        return i;
+    }
+
+    /**
+     * Get the identifier of an entity without registering it
+     *
+     * @param entity The entity
+     * @return The identifier of the entity or -1 if it is not registered
+     */
+    public synchronized int find(URIRes entity) {
+        return ids.getInt(entity);
+    }
+
+    /**
+     * Get the entity with an identifier
+     *
+     * @param id The identifier
+     * @return The entity
+     * @throws IndexOutOfBoundsException If no entity has this identifier
+     */
+    public synchronized URIRes get(int id) {
+        return entities.get(id);
+    }
+
+    /**
+     * Get the registered instance of an entity
+     *
+     * @param entity The entity
+     * @return An equal entity, which is the same object for every call
+     */
+    public synchronized URIRes intern(URIRes entity) {
+        return entities.get(id(entity));
+    }
+
+    /**
+     * The number of registered entities
+     *
+     * @return The number of entities
+     */
+    public synchronized int size() {
+        return entities.size();
+    }
+}
@@ -0,0 +1,188 @@
+package org.insightcentre.uld.naisc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.insightcentre.uld.naisc.util.StringPair;
+
+/**
+ * The layout of the features (the names of the features in order) produced by
+ * a configuration. The text and graph feature extractors only report their
+ * feature names when they are called, so the layout is compiled from the
+ * first feature set that is built. Further feature sets with the same layout
+ * share the name array, are not checked again for duplicate names and take
+ * their value arrays from a pool. This replaces the repeated use of
+ * {@link FeatureSet#add(FeatureSet)}, which copies both arrays and checks all
+ * names on every call.
+ *
+ * @author John McCrae
+ */
+public class FeatureSchema {
+
+    /**
+     * The maximum number of distinct layouts that are remembered, e.g., for
+     * lenses that do not always produce a value
+     */
+    private static final int MAX_LAYOUTS = 16;
+    private final List<StringPair[]> layouts = new CopyOnWriteArrayList<>();
+    private volatile StringPair[] primary;
+    private final BlockingQueue<double[]> pool;
+    private final ThreadLocal<Builder> builders = ThreadLocal.withInitial(Builder::new);
+
+    /**
+     * Create a schema
+     *
+     * @param poolSize The maximum number of value arrays to keep for reuse
+     */
+    public FeatureSchema(int poolSize) {
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /**
+     * Get a builder for a feature set. The builder is reused by the calling
+     * thread and so must not be kept after calling {@link Builder#build()}.
+     *
+     * @return The (reset) builder for this thread
+     */
+    public Builder builder() {
+        Builder b = builders.get();
+        b.reset();
+        return b;
+    }
+
+    /**
+     * Return the values of a feature set that is no longer used so the array
+     * can be used for the next pair. The feature set must not be used after
+     * this call.
+     *
+     * @param featureSet The feature set
+     */
+    public void release(FeatureSet featureSet) {
+        StringPair[] p = primary;
+        if (p != null && featureSet.names == p) {
+            pool.offer(featureSet.values);
+        }
+    }
+
+    /**
+     * The layout of the features, if it is known
+     *
+     * @return The names of the features or null if no feature set has been
+     * built
+     */
+    public StringPair[] names() {
+        return primary;
+    }
+
+    private StringPair[] compile(String[] names, String[] tags, int n) {
+        for (StringPair[] layout : layouts) {
+            if (matches(layout, names, tags, n)) {
+                return layout;
+            }
+        }
+        StringPair[] layout = new StringPair[n];
+        // Names must be unique for WEKA!
+        Set<StringPair> nameSet = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            layout[i] = new StringPair(names[i], tags[i]);
+            if (!nameSet.add(layout[i])) {
+                throw new IllegalArgumentException("Adding features with duplicate names: " + layout[i]);
+            }
+        }
+        synchronized (this) {
+            if (primary == null) {
+                primary = layout;
+            }
+            if (layouts.size() < MAX_LAYOUTS) {
+                layouts.add(layout);
+            }
+        }
+        return layout;
+    }
+
+    private static boolean matches(StringPair[] layout, String[] names, String[] tags, int n) {
+        if (layout.length != n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (!same(layout[i], names[i], tags[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(StringPair sp, String name, String tag) {
+        return (sp._1 == name || (sp._1 != null && sp._1.equals(name)))
+                && (sp._2 == tag || (sp._2 != null && sp._2.equals(tag)));
+    }
+
+    /**
+     * Builds a single feature set
+     */
+    public class Builder {
+
+        private String[] names = new String[16];
+        private String[] tags = new String[16];
+        private double[] values = new double[16];
+        private int n;
+        private StringPair[] layout;
+        private boolean matches;
+
+        private void reset() {
+            n = 0;
+            layout = primary;
+            matches = true;
+        }
+
+        /**
+         * Add the features produced by an extractor
+         *
+         * @param features The features
+         * @param tag The tag of the lens or the ID of the graph feature
+         * @return This builder
+         */
+        public Builder add(Feature[] features, String tag) {
+            if (n + features.length > values.length) {
+                int size = Math.max(values.length * 2, n + features.length);
+                names = Arrays.copyOf(names, size);
+                tags = Arrays.copyOf(tags, size);
+                values = Arrays.copyOf(values, size);
+            }
+            for (Feature f : features) {
+                if (matches && (layout == null || n >= layout.length || !same(layout[n], f.name, tag))) {
+                    matches = false;
+                }
+                names[n] = f.name;
+                tags[n] = tag;
+                values[n] = f.value;
+                n++;
+            }
+            return this;
+        }
+
+        /**
+         * Create the feature set
+         *
+         * @return The feature set
+         */
+        public FeatureSet build() {
+            final StringPair[] l;
+            if (matches && layout != null && n == layout.length) {
+                l = layout;
+            } else {
+                l = compile(names, tags, n);
+            }
+            double[] v = l == primary ? pool.poll() : null;
+            if (v == null || v.length != n) {
+                v = new double[n];
+            }
+            System.arraycopy(values, 0, v, 0, n);
+            return new FeatureSet(l, v);
+        }
+    }
+}
@@ -31,4 +31,18 @@ public interface Lens {
      * @return The pair of labels extracted by this lens or None if no label could be extracted
      */
     Collection<LensResult> extract(URIRes entity1, URIRes entity2, NaiscListener log);
+
+    /**
+     * Extract from a lens, keeping what is extracted from each entity in a 
+     * cache so that it can be reused for the other pairs the entity is in. 
+     * Lenses that do not support this ignore the cache.
+     * @param entity1 The left entity to extract from
+     * @param entity2 The right entity to extract from
+     * @param log The listener
+     * @param cache The cache of the results for each entity
+     * @return The pair of labels extracted by this lens or None if no label could be extracted
+     */
+    default Collection<LensResult> extract(URIRes entity1, URIRes entity2, NaiscListener log, EntityCache cache) {
+        return extract(entity1, entity2, log);
+    }
 }
@@ -9,6 +9,7 @@ public class LensResult {
     public final String string1, string2;
     public final Language lang1, lang2;
     public final String tag;
+    private volatile AnalyzedLabel analysis1, analysis2;
 
     @JsonCreator
     public LensResult(@JsonProperty("lang1") Language lang1, @JsonProperty("lang2") Language lang2, @JsonProperty("string1") String string1, @JsonProperty("string2") String string2, @JsonProperty("tag") String tag) {
@@ -19,6 +20,23 @@ public class LensResult {
         this.tag = tag;
     }
 
+    /**
+     * Create a lens result with the analyses of its labels. A lens that 
+     * returns the same label for an entity in many pairs should return the 
+     * same analysis each time, so that the label is only analysed once.
+     * 
+     * @param lang1 The language of the left label
+     * @param lang2 The language of the right label
+     * @param analysis1 The left label
+     * @param analysis2 The right label
+     * @param tag The tag
+     */
+    public LensResult(Language lang1, Language lang2, AnalyzedLabel analysis1, AnalyzedLabel analysis2, String tag) {
+        this(lang1, lang2, analysis1.string(), analysis2.string(), tag);
+        this.analysis1 = analysis1;
+        this.analysis2 = analysis2;
+    }
+
     public static LensResult fromLangStringPair(LangStringPair lsp, String tag) {
         return new LensResult(lsp.lang1, lsp.lang2, lsp._1, lsp._2, tag);
     }
@@ -44,6 +62,34 @@ public class LensResult {
         return tag;
     }
 
+    /**
+     * The analysis of the left label. Text features should use this rather
+     * than analysing {@link #string1} themselves.
+     * 
+     * @return The analysis of the left label
+     */
+    public AnalyzedLabel analysis1() {
+        AnalyzedLabel a = analysis1;
+        if (a == null) {
+            analysis1 = a = new AnalyzedLabel(string1);
+        }
+        return a;
+    }
+
+    /**
+     * The analysis of the right label. Text features should use this rather
+     * than analysing {@link #string2} themselves.
+     * 
+     * @return The analysis of the right label
+     */
+    public AnalyzedLabel analysis2() {
+        AnalyzedLabel a = analysis2;
+        if (a == null) {
+            analysis2 = a = new AnalyzedLabel(string2);
+        }
+        return a;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -5,6 +5,7 @@ import org.insightcentre.uld.naisc.scorer.ModelNotTrainedException;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -27,4 +28,30 @@ public interface Scorer extends Closeable {
      * @return The similarity probability between 0.0 (not at all similar) and 1.0 (exactly the same)
      */
     List<ScoreResult> similarity(FeatureSet features, NaiscListener log) throws ModelNotTrainedException;
+
+    /**
+     * Predict the similarity of a batch of pairs of entities
+     * @param features The features of each pair
+     * @return The similarity results for each pair (in the same order as the input)
+     */
+    default List<List<ScoreResult>> similarityBatch(List<FeatureSet> features) throws ModelNotTrainedException {
+        return similarityBatch(features, NaiscListener.DEFAULT);
+    }
+
+    /**
+     * Predict the similarity of a batch of pairs of entities. The default
+     * implementation calls {@link #similarity(FeatureSet, NaiscListener)} for
+     * each element, scorers should override this if they can share work
+     * between the elements of the batch.
+     * @param features The features of each pair
+     * @param log The listener
+     * @return The similarity results for each pair (in the same order as the input)
+     */
+    default List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) throws ModelNotTrainedException {
+        List<List<ScoreResult>> results = new ArrayList<>(features.size());
+        for(FeatureSet fs : features) {
+            results.add(similarity(fs, log));
+        }
+        return results;
+    }
 }
@@ -11,6 +11,8 @@ import java.util.Map;
 public class URIRes {
     public final String uri;
     public final String dataset;
+    // Cached hash code (0 if not yet computed)
+    private int hash;
 
     public @JsonCreator URIRes(@JsonProperty("uri") String uri, @JsonProperty("dataset") String dataset) {
         if(uri == null || uri.equals("")) {
@@ -49,14 +51,20 @@ public class URIRes {
 
         URIRes resource = (URIRes) o;
 
+        if (hash != 0 && resource.hash != 0 && hash != resource.hash) return false;
+
         if (!uri.equals(resource.uri)) return false;
         return dataset.equals(resource.dataset);
     }
 
     @Override
     public int hashCode() {
-        int result = uri.hashCode();
-        result = 31 * result + dataset.hashCode();
+        int result = hash;
+        if (result == 0) {
+            result = uri.hashCode();
+            result = 31 * result + dataset.hashCode();
+            hash = result;
+        }
         return result;
     }
 
@@ -8,11 +8,14 @@ import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKN
 import static org.insightcentre.uld.naisc.lens.Label.*;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 import org.insightcentre.uld.naisc.NaiscListener.Stage;
@@ -51,11 +54,13 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
         if (config.metric == StringMetric.ngrams && config.ngrams < 1) {
             config.ngrams = 3;
         }
+        final int threads = config.threads > 0 ? config.threads : Runtime.getRuntime().availableProcessors();
         switch (config.metric) {
             case levenshtein:
-                return new LevenshteinApproximateStringMatch(config.maxMatches, config.property, config.rightProperty, config.queueMax, config.lowercase);
+                return new LevenshteinApproximateStringMatch(config.maxMatches, config.property, config.rightProperty, config.queueMax, config.lowercase, threads, config.maxDistance);
             case ngrams:
-                return new NgramApproximateStringMatch(config.maxMatches, config.property, config.rightProperty, config.ngrams, config.lowercase, config.type);
+                return new NgramApproximateStringMatch(config.maxMatches, config.property, config.rightProperty, config.ngrams, Collections.EMPTY_SET, Collections.EMPTY_SET, config.lowercase, config.type, threads,
+                        config.indexDirectory == null || config.indexDirectory.equals("") ? null : new File(config.indexDirectory));
             default:
                 throw new RuntimeException("Unreachable");
         }
@@ -108,6 +113,21 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
          */
          @ConfigurationParameter(description = "Type of the element. If set all matched elements are of rdf:type with this URI")
         public String type = null;
+        /**
+         * The number of threads to find the matches with
+         */
+         @ConfigurationParameter(description = "The number of threads used to find the matches for the left entities (0 for the number of processors)", defaultValue = "1")
+        public int threads = 1;
+        /**
+         * The maximum edit distance of a match (only for Levenshtein)
+         */
+         @ConfigurationParameter(description = "The maximum edit distance of a match (only for Levenshtein). If this is set (zero or more), all labels within this distance are searched exactly instead of searching with a queue of size `queueMax`", defaultValue = "-1")
+        public int maxDistance = -1;
+        /**
+         * The folder to store the index of the right dataset in (only for n-grams)
+         */
+         @ConfigurationParameter(description = "A folder to store the index of the right dataset in (only for n-grams). The index is named by the path, size and modification time of the dataset file and the settings, so later runs on the same file memory-map the index instead of building it. Datasets that are not loaded from a file are not indexed on disk")
+        public String indexDirectory = null;
     }
 
     public enum StringMetric {
@@ -124,19 +144,24 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
         private final Set<Resource> leftPreBlocks, rightPreBlocks;
         private final boolean lowercase;
         private final String type;
+        private final int threads;
+        private final File indexDirectory;
 
         public NgramApproximateStringMatch(int maxMatches, String property, String rightProperty, int n, boolean lowercase, String type) {
-            this.maxMatches = maxMatches;
-            this.property = property;
-            this.rightProperty = rightProperty;
-            this.n = n;
-            this.leftPreBlocks = Collections.EMPTY_SET;
-            this.rightPreBlocks = Collections.EMPTY_SET;
-            this.lowercase = lowercase;
-            this.type = type;
+            this(maxMatches, property, rightProperty, n, Collections.EMPTY_SET, Collections.EMPTY_SET, lowercase, type, 1);
         }
 
         public NgramApproximateStringMatch(int maxMatches, String property, String rightProperty, int n, Set<Resource> leftPreBlocks, Set<Resource> rightPreBlocks, boolean lowercase, String type) {
+            this(maxMatches, property, rightProperty, n, leftPreBlocks, rightPreBlocks, lowercase, type, 1);
+        }
+
+        public NgramApproximateStringMatch(int maxMatches, String property, String rightProperty, int n, Set<Resource> leftPreBlocks, Set<Resource> rightPreBlocks, boolean lowercase, String type, int threads) {
+            this(maxMatches, property, rightProperty, n, leftPreBlocks, rightPreBlocks, lowercase, type, threads, null);
+        }
+
+        public NgramApproximateStringMatch(int maxMatches, String property, String rightProperty, int n, Set<Resource> leftPreBlocks, Set<Resource> rightPreBlocks, boolean lowercase, String type, int threads, File indexDirectory) {
+            this.threads = threads;
+            this.indexDirectory = indexDirectory;
             this.maxMatches = maxMatches;
             this.property = property;
             this.rightProperty = rightProperty;
@@ -172,6 +197,73 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
             lefts.removeAll(leftPreBlocks);
             log.message(Stage.BLOCKING, NaiscListener.Level.INFO, String.format("%d entities in left dataset (%d preblocked)", lefts.size(), nLeft - lefts.size()));
 
+            final String indexKey = indexDirectory == null || !rightPreBlocks.isEmpty() ? null : indexKey(right);
+            if (indexDirectory != null && rightPreBlocks.isEmpty() && indexKey == null) {
+                log.message(Stage.BLOCKING, NaiscListener.Level.INFO, "The right dataset was not loaded from a file so its n-gram index is not stored");
+            }
+            final File indexFile = indexKey == null ? null : new File(indexDirectory, "ngram-" + indexKey + ".idx");
+            NgramIndex ngrams = null;
+            if (indexFile != null && indexFile.exists()) {
+                try {
+                    ngrams = NgramIndex.load(indexFile, n, right::createResource);
+                    log.message(Stage.BLOCKING, NaiscListener.Level.INFO, String.format("Loaded n-gram index of %d entities in right dataset from %s", ngrams.entityCount(), indexFile));
+                } catch (IOException x) {
+                    log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "Could not read n-gram index " + indexFile + " (" + x.getMessage() + ") so it will be rebuilt");
+                }
+            }
+            if (ngrams == null) {
+                ngrams = buildIndex(right, rightType, log);
+                if (indexFile != null) {
+                    try {
+                        indexFile.getAbsoluteFile().getParentFile().mkdirs();
+                        ngrams.write(indexFile);
+                    } catch (IOException x) {
+                        log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "Could not write n-gram index " + indexFile + " (" + x.getMessage() + ")");
+                    }
+                }
+            }
+            final NgramIndex index = ngrams;
+            final List<Pair<Resource, List<String>>> labels = new ArrayList<>();
+            for (Resource r : lefts) {
+                if (property.equals("")) {
+                    String s = URI2Label.fromURI(r.getURI());
+                            if(lowercase) s = s.toLowerCase();
+                    labels.add(new Pair(r, Arrays.asList(s)));
+                } else {
+                    NodeIterator iter = left.listObjectsOfProperty(r, left.createProperty(property));
+                    List<String> l = new ArrayList<>();
+                    while (iter.hasNext()) {
+                        RDFNode n = iter.next();
+                        if (n.isLiteral()) {
+                            String s = n.asLiteral().getLexicalForm();
+                            if(lowercase) s = s.toLowerCase();
+                            l.add(s);
+                        } else if(property.equals(SKOSXL_PREFLABEL) && n.isResource()) {
+                            NodeIterator iter2 = left.listObjectsOfProperty(n.asResource(), left.createProperty(SKOSXL_LITERAL_FORM));
+                            while(iter2.hasNext()) {
+                                RDFNode node2 = iter2.next();
+                                if(node2.isLiteral()) {
+                                    String s = node2.asLiteral().getLexicalForm();
+                                    if(lowercase) s = s.toLowerCase();
+                                    l.add(s);
+                                }
+                            }
+                        }
+                    }
+                    labels.add(new Pair(r, l));
+                }
+            }
+
+            return new ParallelQuery<>(labels, pair -> {
+                List<Blocking> blocks = new ArrayList<>();
+                for (Resource x : index.nearest(pair._2, maxMatches)) {
+                    blocks.add(new Blocking(pair._1, x, left.id(), right.id()));
+                }
+                return blocks;
+            }, threads, log);
+        }
+
+        private NgramIndex buildIndex(Dataset right, Resource rightType, NaiscListener log) {
             final List<Resource> rights = new ArrayList<>();
             final ResIterator rightIter;
             if (rightProperty.equals("")) {
@@ -190,12 +282,13 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
             rights.removeAll(rightPreBlocks);
             log.message(Stage.BLOCKING, NaiscListener.Level.INFO, String.format("%d entities in right dataset (%d preblocked)", rights.size(), nRight - rights.size()));
 
-            final Map<String, Map<Resource, FreqLen>> ngrams = new HashMap<>();
+            final NgramIndex ngrams = new NgramIndex(n);
             for (Resource r : rights) {
+                final int id = ngrams.addEntity(r);
                 if (rightProperty.equals("")) {
                     String s = URI2Label.fromURI(r.getURI());
                             if(lowercase) s = s.toLowerCase();
-                    extractNgram(s, ngrams, r);
+                    ngrams.add(id, s);
                 } else {
                     Property rightProp = right.createProperty(rightProperty);
                     NodeIterator iter = right.listObjectsOfProperty(r, rightProp);
@@ -204,7 +297,7 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
                         if (node.isLiteral()) {
                             String s = node.asLiteral().getLexicalForm();
                             if(lowercase) s = s.toLowerCase();
-                            extractNgram(s, ngrams, r);
+                            ngrams.add(id, s);
                         } else if(rightProperty.equals(SKOSXL_PREFLABEL) && node.isResource()) {
                             NodeIterator iter2 = right.listObjectsOfProperty(node.asResource(), right.createProperty(SKOSXL_LITERAL_FORM));
                             while(iter2.hasNext()) {
@@ -212,7 +305,7 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
                                 if(node2.isLiteral()) {
                                     String s = node2.asLiteral().getLexicalForm();
                                     if(lowercase) s = s.toLowerCase();
-                                    extractNgram(s, ngrams, r);
+                                    ngrams.add(id, s);
                                 }
                             }
                         }
@@ -220,110 +313,40 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
                 }
             }
             // Heuristically remove any very common n-grams
-            int ngramsSize = ngrams.size();
-            Iterator<Map.Entry<String, Map<Resource, FreqLen>>> ngramsIter = ngrams.entrySet().iterator();
-            while(ngramsIter.hasNext()) {
-                Map.Entry<String, Map<Resource, FreqLen>> e = ngramsIter.next();
-                if(e.getValue().size() > 1000)
-                    ngramsIter.remove();
-            }
-            if((double)ngrams.size() / ngramsSize < 0.9)
+            int ngramsSize = ngrams.ngramCount();
+            ngrams.compile(1000);
+            if((double)ngrams.ngramCount() / ngramsSize < 0.9)
                 log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "N-Gram in blocking leads to poor matching, consider changing the value of the parameter ngrams (current value=" + ngramsSize + ")");
-            final List<Pair<Resource, List<String>>> labels = new ArrayList<>();
-            for (Resource r : lefts) {
-                if (property.equals("")) {
-                    String s = URI2Label.fromURI(r.getURI());
-                            if(lowercase) s = s.toLowerCase();
-                    labels.add(new Pair(r, Arrays.asList(s)));
-                } else {
-                    NodeIterator iter = left.listObjectsOfProperty(r, left.createProperty(property));
-                    List<String> l = new ArrayList<>();
-                    while (iter.hasNext()) {
-                        RDFNode n = iter.next();
-                        if (n.isLiteral()) {
-                            String s = n.asLiteral().getLexicalForm();
-                            if(lowercase) s = s.toLowerCase();
-                            l.add(s);
-                        } else if(property.equals(SKOSXL_PREFLABEL) && n.isResource()) {
-                            NodeIterator iter2 = left.listObjectsOfProperty(n.asResource(), left.createProperty(SKOSXL_LITERAL_FORM));
-                            while(iter2.hasNext()) {
-                                RDFNode node2 = iter2.next();
-                                if(node2.isLiteral()) {
-                                    String s = node2.asLiteral().getLexicalForm();
-                                    if(lowercase) s = s.toLowerCase();
-                                    l.add(s);
-                                }
-                            }
-                        }
-                    }
-                    labels.add(new Pair(r, l));
-                }
-            }
-
-            return new AbstractCollection<Blocking>() {
-                @Override
-                public Iterator<Blocking> iterator() {
-                    return labels.stream().flatMap(pair -> {
-                        return nearest(pair._2, ngrams).stream().
-                                map(x -> new Blocking(pair._1, x, left.id(), right.id()));
-                    }).iterator();
-                }
-
-                @Override
-                public int size() {
-                    throw new UnsupportedOperationException();
-                }
-            };
+            return ngrams;
         }
 
-        private void extractNgram(String s, final Map<String, Map<Resource, FreqLen>> ngrams, Resource r) {
-            for (int i = 0; i < s.length() - this.n + 1; i++) {
-                String ng = s.substring(i, i + this.n);
-                final Map<Resource, FreqLen> ngMap;
-                if (!ngrams.containsKey(ng)) {
-                    ngrams.put(ng, ngMap = new HashMap<>());
-                } else {
-                    ngMap = ngrams.get(ng);
+        /**
+         * The name of the index of the right dataset, which changes if the
+         * data or any setting that affects the index changes. The data is
+         * identified by the path, size and modification time of its file, so
+         * datasets that were not loaded from a file are not indexed on disk.
+         *
+         * @return The key or null if the dataset is not a file
+         */
+        private String indexKey(Dataset right) {
+            final URL location = right.getLocation();
+            if (location == null || !"file".equals(location.getProtocol())) {
+                return null;
+            }
+            try {
+                final File file = new File(location.toURI());
+                final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(String.format("%s\n%d\n%d\n%s\n%d\n%s\n%s", file.getCanonicalPath(), file.length(), file.lastModified(),
+                        rightProperty, n, lowercase, type).getBytes(StandardCharsets.UTF_8));
+                final StringBuilder sb = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    sb.append(String.format("%02x", b));
                 }
-                ngMap.put(r, ngMap.get(r) == null ? new FreqLen(1.0, s.length()) : new FreqLen(ngMap.get(r).freq + 1, s.length()));
-            }
-        }
-
-        private List<Resource> nearest(List<String> labels, Map<String, Map<Resource, FreqLen>> ngrams) {
-            final Object2DoubleMap<Resource> freqsFinal = new Object2DoubleOpenHashMap<>();
-            final Object2IntMap<String> reps = new Object2IntOpenHashMap<>();
-            for (String r : labels) {
-                for (int i = 0; i < Math.min(100,r.length()) - n + 1; i++) {
-                    String ng = r.substring(i, i + n);
-                    Map<Resource, FreqLen> ngs = ngrams.get(ng);
-                    if (ngs != null) {
-                        for (Map.Entry<Resource, FreqLen> e : ngs.entrySet()) {
-                            if(reps.getInt(ng) < e.getValue().freq)
-                                freqsFinal.put(e.getKey(), freqsFinal.getDouble(e.getKey()) + 1.0 / (e.getValue().len + r.length()));
-                        }
-                            reps.put(ng, reps.getInt(ng) + 1);
-                    }
-                }
-            }
-            List<Resource> resList = new ArrayList<>(freqsFinal.keySet());
-            Collections.sort(resList, new Comparator<Resource>() {
-                @Override
-                public int compare(Resource o1, Resource o2) {
-                    double f1 = freqsFinal.getDouble(o1);
-                    double f2 = freqsFinal.getDouble(o2);
-                    if (f1 > f2) {
-                        return -1;
-                    } else if (f1 < f2) {
-                        return +1;
-                    } else {
-                        return o1.getURI().compareTo(o2.getURI());
-                    }
-                }
-            });
-            if (resList.size() > maxMatches) {
-                return resList.subList(0, maxMatches);
-            } else {
-                return resList;
+                return sb.substring(0, 32);
+            } catch (URISyntaxException | IllegalArgumentException | IOException x) {
+                return null;
+            } catch (NoSuchAlgorithmException x) {
+                throw new RuntimeException(x);
             }
         }
 
@@ -353,8 +376,16 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
         private final String rightProperty;
         private final int queueMax;
         private final boolean lowercase;
+        private final int threads;
+        private final int maxDistance;
 
         public LevenshteinApproximateStringMatch(int maxMatches, String property, String rightProperty, int queueMax, boolean lowercase) {
+            this(maxMatches, property, rightProperty, queueMax, lowercase, 1, -1);
+        }
+
+        public LevenshteinApproximateStringMatch(int maxMatches, String property, String rightProperty, int queueMax, boolean lowercase, int threads, int maxDistance) {
+            this.threads = threads;
+            this.maxDistance = maxDistance;
             this.maxMatches = maxMatches;
             this.property = property;
             this.rightProperty = rightProperty;
@@ -391,13 +422,19 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
                 log.message(NaiscListener.Stage.BLOCKING, NaiscListener.Level.CRITICAL, "No URIs in the right dataset have the property: " + property);
             }
 
-            final PatriciaTrie<Resource> trie = new PatriciaTrie<>();
+            final PatriciaTrie<Resource> trie = maxDistance < 0 ? new PatriciaTrie<>() : null;
+            final BKTree<Resource> bkTree = maxDistance < 0 ? null : new BKTree<>();
             for (Resource r : rights) {
                 NodeIterator iter = right.listObjectsOfProperty(r, rightProp);
                 while (iter.hasNext()) {
                     RDFNode n = iter.next();
                     if (n.isLiteral()) {
-                        trie.add(lowercase ? n.asLiteral().getLexicalForm().toLowerCase() : n.asLiteral().getLexicalForm(), r);
+                        String s = lowercase ? n.asLiteral().getLexicalForm().toLowerCase() : n.asLiteral().getLexicalForm();
+                        if (trie != null) {
+                            trie.add(s, r);
+                        } else {
+                            bkTree.add(s, r);
+                        }
                     } else {
                         log.message(NaiscListener.Stage.BLOCKING, NaiscListener.Level.WARNING, r + " had a non-literal value for property " + property);
                     }
@@ -417,20 +454,15 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
             }
 
             // TODO: Should only produce pairs per entry not label as NGram Approximate matcher
-            return new AbstractCollection<Blocking>() {
-                @Override
-                public Iterator<Blocking> iterator() {
-                    return labels.stream().flatMap(pair -> {
-                        return trie.nearest(pair._2, maxMatches, queueMax).stream().
-                                map(x -> new Blocking(pair._1, x, left.id(), right.id()));
-                    }).iterator();
+            return new ParallelQuery<>(labels, pair -> {
+                List<Blocking> blocks = new ArrayList<>();
+                List<Resource> nearest = trie != null ? trie.nearest(pair._2, maxMatches, queueMax)
+                        : bkTree.nearest(pair._2, maxMatches, maxDistance);
+                for (Resource x : nearest) {
+                    blocks.add(new Blocking(pair._1, x, left.id(), right.id()));
                 }
-                @Override
-                public int size() {
-                    throw new UnsupportedOperationException();
-                }
-
-            };
+                return blocks;
+            }, threads, log);
         }
 
         @Override
@@ -733,20 +765,4 @@ public class ApproximateStringMatching implements BlockingStrategyFactory {
         }
 
     }
-
-    private static class FreqLen {
-        public final double freq, len;
-
-        public FreqLen(double freq, double len) {
-            this.freq = freq;
-            this.len = len;
-        }
-
-        @Override
-        public String toString() {
-            return "FreqLen{" + "freq=" + freq + ", len=" + len + '}';
-        }
-
-        
-    }
 }
@@ -0,0 +1,225 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import it.unimi.dsi.fastutil.chars.Char2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A BK-tree of strings for finding the strings nearest to a query by edit
+ * distance. Edit distances are computed with Myers' bit-parallel algorithm
+ * for strings of up to 64 characters. Unlike the search of the
+ * {@link ApproximateStringMatching.PatriciaTrie}, the search of this tree is
+ * exact: all strings within the maximum distance are considered and the
+ * best are returned in order of the normalized edit distance (the edit
+ * distance divided by the sum of the lengths of the strings).
+ *
+ * @param <R> The type of the values associated with the strings
+ * @author John McCrae
+ */
+public class BKTree<R> {
+
+    private Node<R> root;
+    private int size;
+
+    /**
+     * Add a string to the tree
+     *
+     * @param s The string
+     * @param r The value for this string
+     */
+    public void add(String s, R r) {
+        if (s.length() == 0) {
+            return;
+        }
+        size++;
+        if (root == null) {
+            root = new Node<>(s);
+            root.values.add(r);
+            return;
+        }
+        final Pattern p = new Pattern(s);
+        Node<R> node = root;
+        while (true) {
+            int d = p.distance(node.label);
+            if (d == 0) {
+                node.values.add(r);
+                return;
+            }
+            Node<R> child = node.children.get(d);
+            if (child == null) {
+                child = new Node<>(s);
+                child.values.add(r);
+                node.children.put(d, child);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * The number of values in the tree
+     *
+     * @return The number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the nearest strings to a query. This may be called from several
+     * threads at once (but not at the same time as {@link #add(String, Object)})
+     *
+     * @param s The query
+     * @param n The maximum number of values to return
+     * @param maxDistance The maximum edit distance of a match
+     * @return The values of the nearest strings, nearest first
+     */
+    public List<R> nearest(String s, int n, int maxDistance) {
+        final List<R> result = new ArrayList<>();
+        if (root == null || n <= 0) {
+            return result;
+        }
+        final Pattern p = new Pattern(s);
+        // The worst of the best matches is at the head of the queue
+        final PriorityQueue<Match<R>> best = new PriorityQueue<>((m1, m2) -> m2.compareTo(m1));
+        final List<Node<R>> stack = new ArrayList<>();
+        stack.add(root);
+        int order = 0;
+        while (!stack.isEmpty()) {
+            final Node<R> node = stack.remove(stack.size() - 1);
+            final int d = p.distance(node.label);
+            if (d <= maxDistance) {
+                final double score = (double) d / (double) (s.length() + node.label.length());
+                for (R r : node.values) {
+                    Match<R> m = new Match<>(r, score, node.label, order++);
+                    if (best.size() < n) {
+                        best.add(m);
+                    } else if (m.compareTo(best.peek()) < 0) {
+                        best.poll();
+                        best.add(m);
+                    }
+                }
+            }
+            for (Int2ObjectMap.Entry<Node<R>> e : node.children.int2ObjectEntrySet()) {
+                // By the triangle inequality only these children can be in range
+                if (Math.abs(e.getIntKey() - d) <= maxDistance) {
+                    stack.add(e.getValue());
+                }
+            }
+        }
+        while (!best.isEmpty()) {
+            result.add(best.poll().r);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static class Node<R> {
+
+        private final String label;
+        private final List<R> values = new ArrayList<>(1);
+        private final Int2ObjectOpenHashMap<Node<R>> children = new Int2ObjectOpenHashMap<>(4);
+
+        public Node(String label) {
+            this.label = label;
+        }
+    }
+
+    private static class Match<R> implements Comparable<Match<R>> {
+
+        private final R r;
+        private final double score;
+        private final String label;
+        private final int order;
+
+        public Match(R r, double score, String label, int order) {
+            this.r = r;
+            this.score = score;
+            this.label = label;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Match<R> o) {
+            int c = Double.compare(score, o.score);
+            if (c == 0) {
+                c = label.compareTo(o.label);
+            }
+            if (c == 0) {
+                c = Integer.compare(order, o.order);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * A string prepared for computing the edit distance to other strings
+     */
+    static class Pattern {
+
+        private final String s;
+        private final long[] asciiPeq;
+        private final Char2LongOpenHashMap peq;
+
+        public Pattern(String s) {
+            this.s = s;
+            if (s.length() <= 64) {
+                this.asciiPeq = new long[128];
+                this.peq = new Char2LongOpenHashMap();
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    if (c < 128) {
+                        asciiPeq[c] |= 1L << i;
+                    } else {
+                        peq.put(c, peq.get(c) | (1L << i));
+                    }
+                }
+            } else {
+                this.asciiPeq = null;
+                this.peq = null;
+            }
+        }
+
+        /**
+         * The edit distance between this string and another string
+         *
+         * @param t The other string
+         * @return The Levenshtein distance
+         */
+        public int distance(String t) {
+            final int m = s.length();
+            if (m == 0) {
+                return t.length();
+            }
+            if (asciiPeq == null) {
+                return ApproximateStringMatching.editDistance(s, t);
+            }
+            final long last = 1L << (m - 1);
+            long pv = -1L, mv = 0L;
+            int score = m;
+            for (int j = 0; j < t.length(); j++) {
+                final char c = t.charAt(j);
+                final long eq = c < 128 ? asciiPeq[c] : peq.get(c);
+                final long xv = eq | mv;
+                final long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+                // The first row of the matrix increases by one in each column
+                ph = (ph << 1) | 1L;
+                mh = mh << 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+            return score;
+        }
+    }
+}
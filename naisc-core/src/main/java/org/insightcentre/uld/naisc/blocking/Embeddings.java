@@ -0,0 +1,285 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.rdf.model.NodeIterator;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.BlockingStrategy;
+import org.insightcentre.uld.naisc.BlockingStrategyFactory;
+import org.insightcentre.uld.naisc.ConfigurationClass;
+import org.insightcentre.uld.naisc.ConfigurationParameter;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+import org.insightcentre.uld.naisc.analysis.Analysis;
+import org.insightcentre.uld.naisc.feature.embeddings.SentenceVectors;
+import org.insightcentre.uld.naisc.feature.embeddings.WordVectorExtractor;
+import static org.insightcentre.uld.naisc.lens.Label.RDFS_LABEL;
+import org.insightcentre.uld.naisc.main.ConfigurationException;
+import org.insightcentre.uld.naisc.util.Lazy;
+import org.insightcentre.uld.naisc.util.Pair;
+import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
+
+/**
+ * Find candidates that are semantically similar by the word embeddings of
+ * their labels (or definitions). Each entity is represented by the average of
+ * the embeddings of the words of its labels and the entities of the right
+ * dataset are indexed in an HNSW graph for approximate nearest neighbour
+ * search.
+ *
+ * @author John McCrae
+ */
+public class Embeddings implements BlockingStrategyFactory {
+
+    @Override
+    public BlockingStrategy makeBlockingStrategy(Map<String, Object> params, Lazy<Analysis> analysis, NaiscListener listener) {
+        Configuration config = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false).convertValue(params, Configuration.class);
+        if (config.maxMatches < 1) {
+            throw new ConfigurationException("Max matches must be at least one (or is not set)");
+        }
+        if (config.embeddingPath == null || !new File(config.embeddingPath).exists()) {
+            throw new ConfigurationException("Embeddings path does not exist or is empty");
+        }
+        if (config.property == null || config.property.equals("")) {
+            throw new ConfigurationException("Property must be set");
+        }
+        if (config.rightProperty == null || config.rightProperty.equals("")) {
+            config.rightProperty = config.property;
+        }
+        return new EmbeddingsImpl(new WordVectorExtractor(config.embeddingPath), config.maxMatches,
+                config.property, config.rightProperty, config.m, config.efConstruction, config.efSearch,
+                config.indexFile == null || config.indexFile.equals("") ? null : new File(config.indexFile),
+                config.threads > 0 ? config.threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Configuration for embedding blocking
+     */
+    @ConfigurationClass("Embedding blocking finds the entities whose labels (or definitions) are nearest in meaning, by the cosine similarity of the average of the word embeddings of their labels. The right dataset is indexed in an HNSW graph for approximate nearest neighbour search")
+    public static class Configuration {
+
+        /**
+         * The path to the embeddings file.
+         */
+        @ConfigurationParameter(description = "The path to the embeddings file (in GloVe format or converted with EmbeddingStore)")
+        public String embeddingPath;
+        /**
+         * The maximum number of matches
+         */
+        @ConfigurationParameter(description = "The maximum number of matches to return per entity")
+        public int maxMatches;
+        /**
+         * The labeling property
+         */
+        @ConfigurationParameter(description = "The property to use to find a text label (or definition)", defaultValue = RDFS_LABEL)
+        public String property = RDFS_LABEL;
+        /**
+         * The property for the right ontology (if different)
+         */
+        @ConfigurationParameter(description = "The property to use in the right dataset. If this is null or omitted then the `property` is used for both the left and right dataset")
+        public String rightProperty = null;
+        /**
+         * The number of links of each node in the graph
+         */
+        @ConfigurationParameter(description = "The number of links of each entity in the HNSW graph", defaultValue = "16")
+        public int m = 16;
+        /**
+         * The size of the queue when building the graph
+         */
+        @ConfigurationParameter(description = "The size of the search queue when building the HNSW graph", defaultValue = "200")
+        public int efConstruction = 200;
+        /**
+         * The size of the queue when querying the graph
+         */
+        @ConfigurationParameter(description = "The size of the search queue when finding matches (larger is slower but has higher recall)", defaultValue = "100")
+        public int efSearch = 100;
+        /**
+         * The file to save the index to
+         */
+        @ConfigurationParameter(description = "A file to store the index of the right dataset in. If the file exists and was built for the same entities and vectors, it is loaded instead of building the index")
+        public String indexFile;
+        /**
+         * The number of threads to find the matches with
+         */
+        @ConfigurationParameter(description = "The number of threads used to find the matches for the left entities (0 for the number of processors)", defaultValue = "1")
+        public int threads = 1;
+    }
+
+    static class EmbeddingsImpl implements BlockingStrategy {
+
+        private final WordVectorExtractor wve;
+        private final int maxMatches;
+        private final String property, rightProperty;
+        private final int m, efConstruction, efSearch;
+        private final File indexFile;
+        private final int threads;
+
+        public EmbeddingsImpl(WordVectorExtractor wve, int maxMatches, String property, String rightProperty,
+                int m, int efConstruction, int efSearch, File indexFile, int threads) {
+            this.wve = wve;
+            this.maxMatches = maxMatches;
+            this.property = property;
+            this.rightProperty = rightProperty;
+            this.m = m;
+            this.efConstruction = efConstruction;
+            this.efSearch = efSearch;
+            this.indexFile = indexFile;
+            this.threads = threads;
+        }
+
+        @Override
+        public Collection<Blocking> block(Dataset left, Dataset right, NaiscListener log) {
+            final List<Pair<Resource, float[]>> lefts = vectors(left, property, log);
+            final List<Pair<Resource, float[]>> rights = vectors(right, rightProperty, log);
+            log.message(Stage.BLOCKING, NaiscListener.Level.INFO, String.format("%d entities in left dataset and %d entities in right dataset have embeddings", lefts.size(), rights.size()));
+            final Resource[] rightRes = new Resource[rights.size()];
+            for (int i = 0; i < rightRes.length; i++) {
+                rightRes[i] = rights.get(i)._1;
+            }
+            final HNSW index = index(rights, log);
+            return new ParallelQuery<>(lefts, pair -> {
+                List<Blocking> blocks = new ArrayList<>();
+                for (int r : index.nearest(pair._2, maxMatches, efSearch)) {
+                    blocks.add(new Blocking(pair._1, rightRes[r], left.id(), right.id()));
+                }
+                return blocks;
+            }, threads, log);
+        }
+
+        private HNSW index(List<Pair<Resource, float[]>> rights, NaiscListener log) {
+            if (indexFile != null && indexFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                    final int n = in.readInt();
+                    boolean valid = n == rights.size();
+                    for (int i = 0; i < n && valid; i++) {
+                        valid = in.readUTF().equals(rights.get(i)._1.getURI());
+                    }
+                    if (valid) {
+                        final HNSW index = HNSW.read(in);
+                        for (int i = 0; i < n && valid; i++) {
+                            valid = Arrays.equals(index.vector(i), rights.get(i)._2);
+                        }
+                        if (valid) {
+                            log.message(Stage.BLOCKING, NaiscListener.Level.INFO, "Loaded embedding index from " + indexFile);
+                            return index;
+                        }
+                    }
+                    log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "Embedding index " + indexFile + " is for different data and will be rebuilt");
+                } catch (IOException x) {
+                    log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "Could not read embedding index " + indexFile + " (" + x.getMessage() + ") so it will be rebuilt");
+                }
+            }
+            final HNSW index = new HNSW(rights.isEmpty() ? 0 : rights.get(0)._2.length, m, efConstruction);
+            for (Pair<Resource, float[]> r : rights) {
+                index.add(r._2);
+            }
+            if (indexFile != null) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+                    out.writeInt(rights.size());
+                    for (Pair<Resource, float[]> r : rights) {
+                        out.writeUTF(r._1.getURI());
+                    }
+                    index.write(out);
+                } catch (IOException x) {
+                    log.message(Stage.BLOCKING, NaiscListener.Level.WARNING, "Could not write embedding index " + indexFile + " (" + x.getMessage() + ")");
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Compute the (unit length) average of the word embeddings of the
+         * labels of each entity. Entities with no known words are omitted.
+         */
+        private List<Pair<Resource, float[]>> vectors(Dataset dataset, String prop, NaiscListener log) {
+            final List<Pair<Resource, float[]>> result = new ArrayList<>();
+            final Property p = dataset.createProperty(prop);
+            final ResIterator iter = dataset.listSubjectsWithProperty(p);
+            boolean found = false;
+            while (iter.hasNext()) {
+                Resource r = iter.next();
+                if (r.isURIResource()) {
+                    found = true;
+                    double[] centroid = null;
+                    NodeIterator iter2 = dataset.listObjectsOfProperty(r, p);
+                    while (iter2.hasNext()) {
+                        RDFNode n = iter2.next();
+                        if (n.isLiteral()) {
+                            SentenceVectors sv = wve.extractFeatures(PrettyGoodTokenizer.tokenize(n.asLiteral().getLexicalForm()));
+                            for (int i = 0; i < sv.words().length; i++) {
+                                if (centroid == null) {
+                                    centroid = new double[sv.vector(i).size()];
+                                }
+                                for (int j = 0; j < centroid.length; j++) {
+                                    centroid[j] += sv.vector(i).getDouble(j);
+                                }
+                            }
+                        }
+                    }
+                    float[] v = normalize(centroid);
+                    if (v != null) {
+                        result.add(new Pair<>(r, v));
+                    }
+                }
+            }
+            if (!found) {
+                log.message(NaiscListener.Stage.BLOCKING, NaiscListener.Level.CRITICAL, "No URIs in the dataset have the property: " + prop);
+            }
+            return result;
+        }
+
+        @Override
+        public int estimateSize(Dataset left, Dataset right) {
+            Iterator<Resource> i1 = left.listSubjects();
+            Iterator<Resource> i2 = right.listSubjects();
+            int n = 0;
+            while (i1.hasNext()) {
+                n++;
+                i1.next();
+            }
+            int m = 0;
+            while (i2.hasNext()) {
+                m++;
+                i2.next();
+            }
+            return n * Math.min(m, maxMatches);
+        }
+    }
+
+    private static float[] normalize(double[] v) {
+        if (v == null) {
+            return null;
+        }
+        double norm = 0.0;
+        for (double x : v) {
+            norm += x * x;
+        }
+        if (norm == 0.0) {
+            return null;
+        }
+        norm = Math.sqrt(norm);
+        float[] f = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            f[i] = (float) (v[i] / norm);
+        }
+        return f;
+    }
+}
@@ -0,0 +1,457 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A hierarchical navigable small world graph for approximate nearest neighbour
+ * search of unit vectors by cosine similarity (Malkov &amp; Yashunin, 2018).
+ * The vectors are stored in a single float array and the links of each layer
+ * of the graph as int arrays. The graph is built on a single thread (so it is
+ * deterministic) but may be searched from many threads at once.
+ *
+ * @author John McCrae
+ */
+public class HNSW {
+
+    private static final int MAGIC = 0x484e5357;
+    private final int dim, m, efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private float[] vectors;
+    private int size;
+    // links[node][layer] is a list of neighbours, where the first element is the count
+    private int[][][] links;
+    private int entryPoint = -1, maxLevel = -1;
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    /**
+     * Create an empty graph
+     *
+     * @param dim The dimension of the vectors
+     * @param m The number of links of each node (twice this on the bottom
+     * layer)
+     * @param efConstruction The size of the search queue when inserting
+     */
+    public HNSW(int dim, int m, int efConstruction) {
+        this.dim = dim;
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        this.random = new Random(this.m * 31 + dim);
+        this.vectors = new float[16 * dim];
+        this.links = new int[16][][];
+    }
+
+    /**
+     * The number of vectors in the graph
+     *
+     * @return The number of vectors
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The dimension of the vectors
+     *
+     * @return The dimension
+     */
+    public int dim() {
+        return dim;
+    }
+
+    /**
+     * Get a vector in the graph
+     *
+     * @param id The identifier of the vector
+     * @return A copy of the vector
+     */
+    public float[] vector(int id) {
+        return Arrays.copyOfRange(vectors, id * dim, (id + 1) * dim);
+    }
+
+    /**
+     * Add a vector to the graph
+     *
+     * @param vector The vector, which should be of unit length
+     * @return The identifier of the vector
+     */
+    public int add(float[] vector) {
+        if (vector.length != dim) {
+            throw new IllegalArgumentException("Vector has wrong dimension");
+        }
+        final int id = size++;
+        if (vectors.length < size * dim) {
+            vectors = Arrays.copyOf(vectors, Math.max(size * dim, vectors.length * 2));
+            links = Arrays.copyOf(links, Math.max(size, links.length * 2));
+        }
+        System.arraycopy(vector, 0, vectors, id * dim, dim);
+        final int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        links[id] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[id][l] = new int[maxLinks(l) + 1];
+        }
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return id;
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedy(vectors, id * dim, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Heap found = searchLayer(vectors, id * dim, ep, efConstruction, l);
+            int[] selected = select(found, m);
+            for (int n : selected) {
+                link(id, n, l);
+                link(n, id, l);
+            }
+            ep = found.best();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+        return id;
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * m : m;
+    }
+
+    private void link(int from, int to, int layer) {
+        int[] l = links[from][layer];
+        if (l[0] < l.length - 1) {
+            l[++l[0]] = to;
+            return;
+        }
+        // Too many links so keep the best by the selection heuristic
+        Heap candidates = new Heap(l.length, false);
+        candidates.push(to, distance(vectors, from * dim, to));
+        for (int i = 1; i <= l[0]; i++) {
+            candidates.push(l[i], distance(vectors, from * dim, l[i]));
+        }
+        int[] selected = select(candidates, l.length - 1);
+        l[0] = selected.length;
+        System.arraycopy(selected, 0, l, 1, selected.length);
+    }
+
+    /**
+     * Select the neighbours from a set of candidates. A candidate is selected
+     * if it is nearer to the node than to any neighbour selected so far, so
+     * that the links go in different directions. Unselected candidates fill up
+     * the remaining links.
+     */
+    private int[] select(Heap candidates, int max) {
+        final int[] ids = candidates.sortedIds();
+        final int[] selected = new int[Math.min(max, ids.length)];
+        final boolean[] used = new boolean[ids.length];
+        int n = 0;
+        for (int i = 0; i < ids.length && n < selected.length; i++) {
+            final double d = candidates.distanceOf(i);
+            boolean good = true;
+            for (int j = 0; j < n; j++) {
+                if (distance(vectors, ids[i] * dim, selected[j]) < d) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                selected[n++] = ids[i];
+                used[i] = true;
+            }
+        }
+        for (int i = 0; i < ids.length && n < selected.length; i++) {
+            if (!used[i]) {
+                selected[n++] = ids[i];
+            }
+        }
+        return selected;
+    }
+
+    private int greedy(float[] q, int offset, int ep, int layer) {
+        double best = distance(q, offset, ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] l = links[ep][layer];
+            for (int i = 1; i <= l[0]; i++) {
+                double d = distance(q, offset, l[i]);
+                if (d < best || (d == best && l[i] < ep)) {
+                    best = d;
+                    ep = l[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    private Heap searchLayer(float[] q, int offset, int ep, int ef, int layer) {
+        final Visited v = visited.get();
+        v.reset(size);
+        final Heap candidates = new Heap(ef * 2, true);
+        final Heap results = new Heap(ef + 1, false);
+        double d = distance(q, offset, ep);
+        candidates.push(ep, d);
+        results.push(ep, d);
+        v.visit(ep);
+        while (candidates.size() > 0) {
+            final double cd = candidates.topDistance();
+            if (results.size() >= ef && cd > results.topDistance()) {
+                break;
+            }
+            final int c = candidates.pop();
+            final int[] l = links[c][layer];
+            for (int i = 1; i <= l[0]; i++) {
+                final int n = l[i];
+                if (v.visit(n)) {
+                    d = distance(q, offset, n);
+                    if (results.size() < ef || d < results.topDistance()) {
+                        candidates.push(n, d);
+                        results.push(n, d);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Find the nearest vectors to a query
+     *
+     * @param query The query, which should be of unit length
+     * @param k The number of vectors to return
+     * @param ef The size of the search queue (at least k)
+     * @return The identifiers of the nearest vectors, nearest first
+     */
+    public int[] nearest(float[] query, int k, int ef) {
+        if (entryPoint < 0 || k <= 0) {
+            return new int[0];
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedy(query, 0, ep, l);
+        }
+        final int[] ids = searchLayer(query, 0, ep, Math.max(k, ef), 0).sortedIds();
+        return ids.length > k ? Arrays.copyOf(ids, k) : ids;
+    }
+
+    private double distance(float[] q, int offset, int id) {
+        final int o = id * dim;
+        double dot = 0.0;
+        for (int i = 0; i < dim; i++) {
+            dot += q[offset + i] * vectors[o + i];
+        }
+        return 1.0 - dot;
+    }
+
+    /**
+     * Write this graph
+     *
+     * @param out The output
+     * @throws IOException If an error occurs
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(dim);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int i = 0; i < size * dim; i++) {
+            out.writeFloat(vectors[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(links[i].length);
+            for (int[] l : links[i]) {
+                out.writeInt(l[0]);
+                for (int j = 1; j <= l[0]; j++) {
+                    out.writeInt(l[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a graph
+     *
+     * @param in The input
+     * @return The graph
+     * @throws IOException If the input is not a graph written by
+     * {@link #write(DataOutputStream)}
+     */
+    public static HNSW read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an HNSW index");
+        }
+        final HNSW hnsw = new HNSW(in.readInt(), in.readInt(), in.readInt());
+        hnsw.size = in.readInt();
+        hnsw.entryPoint = in.readInt();
+        hnsw.maxLevel = in.readInt();
+        hnsw.vectors = new float[hnsw.size * hnsw.dim];
+        for (int i = 0; i < hnsw.vectors.length; i++) {
+            hnsw.vectors[i] = in.readFloat();
+        }
+        hnsw.links = new int[hnsw.size][][];
+        for (int i = 0; i < hnsw.size; i++) {
+            hnsw.links[i] = new int[in.readInt()][];
+            for (int l = 0; l < hnsw.links[i].length; l++) {
+                final int n = in.readInt();
+                hnsw.links[i][l] = new int[hnsw.maxLinks(l) + 1];
+                hnsw.links[i][l][0] = n;
+                for (int j = 1; j <= n; j++) {
+                    hnsw.links[i][l][j] = in.readInt();
+                }
+            }
+        }
+        return hnsw;
+    }
+
+    /**
+     * The nodes visited in a search, marked by the number of the search so
+     * that the array does not need to be cleared
+     */
+    private static class Visited {
+
+        private int[] marks = new int[0];
+        private int search = 0;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                search = 0;
+            }
+            if (++search == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                search = 1;
+            }
+        }
+
+        boolean visit(int id) {
+            if (marks[id] == search) {
+                return false;
+            }
+            marks[id] = search;
+            return true;
+        }
+    }
+
+    /**
+     * A binary heap of node identifiers by distance
+     */
+    private static class Heap {
+
+        private int[] ids;
+        private double[] dists;
+        private int size;
+        private final boolean min;
+
+        Heap(int capacity, boolean min) {
+            this.ids = new int[Math.max(1, capacity)];
+            this.dists = new double[ids.length];
+            this.min = min;
+        }
+
+        int size() {
+            return size;
+        }
+
+        double topDistance() {
+            return dists[0];
+        }
+
+        private boolean above(double d1, int id1, double d2, int id2) {
+            if (d1 != d2) {
+                return min ? d1 < d2 : d1 > d2;
+            }
+            return min ? id1 < id2 : id1 > id2;
+        }
+
+        void push(int id, double d) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                dists = Arrays.copyOf(dists, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!above(d, id, dists[parent], ids[parent])) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                dists[i] = dists[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            dists[i] = d;
+        }
+
+        int pop() {
+            final int top = ids[0];
+            final int id = ids[--size];
+            final double d = dists[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && above(dists[child + 1], ids[child + 1], dists[child], ids[child])) {
+                    child++;
+                }
+                if (!above(dists[child], ids[child], d, id)) {
+                    break;
+                }
+                ids[i] = ids[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            ids[i] = id;
+            dists[i] = d;
+            return top;
+        }
+
+        private int[] sorted;
+        private double[] sortedDists;
+
+        /**
+         * Empty the heap into an array, nearest first
+         */
+        int[] sortedIds() {
+            if (sorted == null) {
+                final int n = size;
+                sorted = new int[n];
+                sortedDists = new double[n];
+                for (int i = 0; i < n; i++) {
+                    double d = dists[0];
+                    int id = pop();
+                    int j = min ? i : n - 1 - i;
+                    sorted[j] = id;
+                    sortedDists[j] = d;
+                }
+            }
+            return sorted;
+        }
+
+        /**
+         * The distance of an element of {@link #sortedIds()}
+         */
+        double distanceOf(int i) {
+            return sortedDists[i];
+        }
+
+        /**
+         * The nearest element
+         */
+        int best() {
+            return sortedIds()[0];
+        }
+    }
+}
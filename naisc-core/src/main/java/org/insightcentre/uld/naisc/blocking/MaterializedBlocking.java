@@ -0,0 +1,295 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+import org.insightcentre.uld.naisc.URIRes;
+
+/**
+ * A blocking that has been computed once and stored compactly. Entities are
+ * encoded as integers (one dictionary for the left and one for the right
+ * dataset) and the pairs are stored as an array of these integers. If the
+ * number of pairs exceeds the in-memory limit, the pairs are spilled to a
+ * temporary file. This collection can be iterated as many times as needed
+ * without re-running the blocking strategy. Closing the blocking deletes
+ * the temporary file and closes any iterators that are still reading it.
+ *
+ * @author John McCrae
+ */
+public class MaterializedBlocking extends AbstractCollection<Blocking> implements Closeable {
+
+    private final List<URIRes> leftRes = new ArrayList<>(), rightRes = new ArrayList<>();
+    private final Object2IntOpenHashMap<URIRes> leftIds = new Object2IntOpenHashMap<>(),
+            rightIds = new Object2IntOpenHashMap<>();
+    private final IntArrayList buffer = new IntArrayList();
+    private final int maxInMemory;
+    private File spillFile;
+    private DataOutputStream spill;
+    private int spilled = 0;
+    private int size = 0;
+    private final List<SpillIterator> readers = new ArrayList<>();
+
+    /**
+     * Create an empty blocking store
+     *
+     * @param maxInMemory The maximum number of pairs to keep in memory before
+     * spilling to disk (zero or less for no limit)
+     */
+    public MaterializedBlocking(int maxInMemory) {
+        this.maxInMemory = maxInMemory;
+        leftIds.defaultReturnValue(-1);
+        rightIds.defaultReturnValue(-1);
+    }
+
+    /**
+     * Compute a blocking (a single iteration) and store it
+     *
+     * @param blocks The blocks (as returned by the blocking strategy)
+     * @param maxInMemory The maximum number of pairs to keep in memory (zero
+     * or less for no limit)
+     * @param log The listener
+     * @return The materialized blocking
+     */
+    public static MaterializedBlocking materialize(Collection<Blocking> blocks, int maxInMemory, NaiscListener log) {
+        if(blocks instanceof MaterializedBlocking) {
+            return (MaterializedBlocking)blocks;
+        }
+        MaterializedBlocking store = new MaterializedBlocking(maxInMemory);
+        for(Blocking block : blocks) {
+            store.add(block);
+        }
+        log.message(Stage.BLOCKING, NaiscListener.Level.INFO,
+                String.format("Blocking produced %d pairs (%d left entities, %d right entities)",
+                        store.size, store.leftRes.size(), store.rightRes.size()));
+        return store;
+    }
+
+    @Override
+    public boolean add(Blocking block) {
+        add(block.entity1, block.entity2);
+        return true;
+    }
+
+    /**
+     * Add a pair to this store
+     *
+     * @param entity1 The left entity
+     * @param entity2 The right entity
+     */
+    public synchronized void add(URIRes entity1, URIRes entity2) {
+        buffer.add(id(entity1, leftRes, leftIds));
+        buffer.add(id(entity2, rightRes, rightIds));
+        size++;
+        if(maxInMemory > 0 && buffer.size() >= 2 * maxInMemory) {
+            try {
+                flush();
+            } catch(IOException x) {
+                throw new RuntimeException("Could not spill blocking to disk", x);
+            }
+        }
+    }
+
+    private static int id(URIRes res, List<URIRes> resources, Object2IntOpenHashMap<URIRes> ids) {
+        int i = ids.getInt(res);
+        if(i < 0) {
+            i = resources.size();
+            resources.add(res);
+            ids.put(res, i);
+        }
+        return i;
+    }
+
+    private void flush() throws IOException {
+        if(spill == null) {
+            spillFile = File.createTempFile("naisc-blocking", ".bin");
+            spillFile.deleteOnExit();
+            spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+        }
+        for(int i = 0; i < buffer.size(); i++) {
+            spill.writeInt(buffer.getInt(i));
+        }
+        spilled += buffer.size() / 2;
+        buffer.clear();
+        spill.flush();
+    }
+
+    /**
+     * Get the integer identifier of a left entity
+     * @param res The entity
+     * @return The identifier or -1 if the entity was not blocked
+     */
+    public int leftId(URIRes res) {
+        return leftIds.getInt(res);
+    }
+
+    /**
+     * Get the integer identifier of a right entity
+     * @param res The entity
+     * @return The identifier or -1 if the entity was not blocked
+     */
+    public int rightId(URIRes res) {
+        return rightIds.getInt(res);
+    }
+
+    /**
+     * Get a left entity by its identifier
+     * @param id The identifier
+     * @return The entity
+     */
+    public URIRes left(int id) {
+        return leftRes.get(id);
+    }
+
+    /**
+     * Get a right entity by its identifier
+     * @param id The identifier
+     * @return The entity
+     */
+    public URIRes right(int id) {
+        return rightRes.get(id);
+    }
+
+    /**
+     * The number of distinct left entities in the blocking
+     * @return The number of entities
+     */
+    public int leftSize() {
+        return leftRes.size();
+    }
+
+    /**
+     * The number of distinct right entities in the blocking
+     * @return The number of entities
+     */
+    public int rightSize() {
+        return rightRes.size();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Blocking> iterator() {
+        if(spill == null) {
+            return new BufferIterator(0);
+        } else {
+            try {
+                return new SpillIterator();
+            } catch(IOException x) {
+                throw new RuntimeException("Could not read spilled blocking", x);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for(SpillIterator reader : new ArrayList<>(readers)) {
+            reader.close();
+        }
+        if(spill != null) {
+            spill.close();
+            spill = null;
+            spillFile.delete();
+            spillFile = null;
+        }
+        buffer.clear();
+        spilled = 0;
+        size = 0;
+    }
+
+    private class BufferIterator implements Iterator<Blocking> {
+        private int i;
+
+        public BufferIterator(int i) {
+            this.i = i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < buffer.size();
+        }
+
+        @Override
+        public Blocking next() {
+            if(i >= buffer.size()) {
+                throw new NoSuchElementException();
+            }
+            Blocking b = new Blocking(leftRes.get(buffer.getInt(i)), rightRes.get(buffer.getInt(i + 1)));
+            i += 2;
+            return b;
+        }
+    }
+
+    private class SpillIterator implements Iterator<Blocking>, Closeable {
+        private final DataInputStream in;
+        private final int n;
+        private int read = 0;
+        private final BufferIterator rest = new BufferIterator(0);
+
+        public SpillIterator() throws IOException {
+            synchronized(MaterializedBlocking.this) {
+                spill.flush();
+                n = spilled;
+            }
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+            synchronized(MaterializedBlocking.this) {
+                readers.add(this);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized(MaterializedBlocking.this) {
+                readers.remove(this);
+            }
+            in.close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < n || rest.hasNext();
+        }
+
+        @Override
+        public Blocking next() {
+            if(read < n) {
+                try {
+                    int l = in.readInt();
+                    int r = in.readInt();
+                    if(++read == n) {
+                        close();
+                    }
+                    return new Blocking(leftRes.get(l), rightRes.get(r));
+                } catch(IOException x) {
+                    try {
+                        close();
+                    } catch(IOException x2) {
+                        x.addSuppressed(x2);
+                    }
+                    throw new RuntimeException("Could not read spilled blocking", x);
+                }
+            } else {
+                return rest.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.rdf.model.NodeIterator;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.BlockingStrategy;
+import org.insightcentre.uld.naisc.BlockingStrategyFactory;
+import org.insightcentre.uld.naisc.ConfigurationClass;
+import org.insightcentre.uld.naisc.ConfigurationParameter;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+import org.insightcentre.uld.naisc.analysis.Analysis;
+import static org.insightcentre.uld.naisc.lens.Label.RDFS_LABEL;
+import org.insightcentre.uld.naisc.main.ConfigurationException;
+import org.insightcentre.uld.naisc.util.Lazy;
+import org.insightcentre.uld.naisc.util.Pair;
+import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
+
+/**
+ * Find candidates by locality sensitive hashing of the MinHash signatures of
+ * the labels. Each entity is represented by the set of shingles (character
+ * n-grams or token n-grams) of its labels and entities that agree on all the
+ * rows of at least one band of their signatures are candidates. The
+ * candidates are ranked by the estimated Jaccard similarity of their
+ * shingles.
+ *
+ * @author John McCrae
+ */
+public class MinHashLSH implements BlockingStrategyFactory {
+
+    @Override
+    public BlockingStrategy makeBlockingStrategy(Map<String, Object> params, Lazy<Analysis> analysis, NaiscListener listener) {
+        Configuration config = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false).convertValue(params, Configuration.class);
+        if (config.maxMatches < 1) {
+            throw new ConfigurationException("Max matches must be at least one (or is not set)");
+        }
+        if (config.property == null || config.property.equals("")) {
+            throw new ConfigurationException("Property must be set");
+        }
+        if (config.rightProperty == null || config.rightProperty.equals("")) {
+            config.rightProperty = config.property;
+        }
+        if (config.bands < 1 || config.rows < 1) {
+            throw new ConfigurationException("Bands and rows must be at least one");
+        }
+        if (config.shingleSize < 1) {
+            throw new ConfigurationException("Shingle size must be at least one");
+        }
+        return new MinHashLSHImpl(config.maxMatches, config.property, config.rightProperty,
+                config.shingles == null ? Shingles.characters : config.shingles, config.shingleSize,
+                config.bands, config.rows, config.maxBucketSize, config.lowercase,
+                config.threads > 0 ? config.threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Configuration for MinHash LSH blocking
+     */
+    @ConfigurationClass(name = "MinHash LSH", value = "MinHash LSH generates a blocking by hashing the shingles (character or token n-grams) of the labels of the entities into MinHash signatures. Entities whose signatures agree on any band are candidates and the candidates are ranked by their estimated Jaccard similarity. More bands give higher recall and more rows give higher precision")
+    public static class Configuration {
+
+        /**
+         * The maximum number of matches
+         */
+        @ConfigurationParameter(description = "The maximum number of matches to return per entity")
+        public int maxMatches;
+        /**
+         * The labeling property
+         */
+        @ConfigurationParameter(description = "The property to use to find a text label", defaultValue = RDFS_LABEL)
+        public String property = RDFS_LABEL;
+        /**
+         * The property for the right ontology (if different)
+         */
+        @ConfigurationParameter(description = "The property to use in the right dataset. If this is null or omitted then the `property` is used for both the left and right dataset")
+        public String rightProperty = null;
+        /**
+         * The type of shingles
+         */
+        @ConfigurationParameter(description = "The shingles of the labels to hash", defaultValue = "characters")
+        public Shingles shingles = Shingles.characters;
+        /**
+         * The size of a shingle
+         */
+        @ConfigurationParameter(description = "The number of characters or tokens in a shingle", defaultValue = "3")
+        public int shingleSize = 3;
+        /**
+         * The number of bands
+         */
+        @ConfigurationParameter(description = "The number of bands of the signature", defaultValue = "20")
+        public int bands = 20;
+        /**
+         * The number of rows in each band
+         */
+        @ConfigurationParameter(description = "The number of rows (hash functions) in each band", defaultValue = "5")
+        public int rows = 5;
+        /**
+         * The maximum size of a bucket
+         */
+        @ConfigurationParameter(description = "Buckets with more entities than this are ignored (0 for no limit)", defaultValue = "1000")
+        public int maxBucketSize = 1000;
+        /**
+         * Lowercase all strings
+         */
+        @ConfigurationParameter(description = "Use case-insensitive matching", defaultValue = "true")
+        public boolean lowercase = true;
+        /**
+         * The number of threads to find the matches with
+         */
+        @ConfigurationParameter(description = "The number of threads used to find the matches for the left entities (0 for the number of processors)", defaultValue = "1")
+        public int threads = 1;
+    }
+
+    /**
+     * The type of shingles
+     */
+    public enum Shingles {
+        /**
+         * Character n-grams
+         */
+        characters,
+        /**
+         * Token n-grams
+         */
+        tokens
+    }
+
+    static class MinHashLSHImpl implements BlockingStrategy {
+
+        private final int maxMatches;
+        private final String property, rightProperty;
+        private final Shingles shingles;
+        private final int shingleSize, bands, rows, maxBucketSize;
+        private final boolean lowercase;
+        private final int threads;
+        private final long[] seeds;
+
+        public MinHashLSHImpl(int maxMatches, String property, String rightProperty, Shingles shingles,
+                int shingleSize, int bands, int rows, int maxBucketSize, boolean lowercase, int threads) {
+            this.maxMatches = maxMatches;
+            this.property = property;
+            this.rightProperty = rightProperty;
+            this.shingles = shingles;
+            this.shingleSize = shingleSize;
+            this.bands = bands;
+            this.rows = rows;
+            this.maxBucketSize = maxBucketSize;
+            this.lowercase = lowercase;
+            this.threads = threads;
+            this.seeds = new long[bands * rows];
+            long s = 0x2545F4914F6CDD1DL;
+            for (int i = 0; i < seeds.length; i++) {
+                s = mix(s + i);
+                seeds[i] = s;
+            }
+        }
+
+        @Override
+        public Collection<Blocking> block(Dataset left, Dataset right, NaiscListener log) {
+            final List<Pair<Resource, List<String>>> lefts = labels(left, property, log);
+            final List<Pair<Resource, List<String>>> rights = labels(right, rightProperty, log);
+            log.message(Stage.BLOCKING, NaiscListener.Level.INFO, String.format("%d entities in left dataset and %d entities in right dataset", lefts.size(), rights.size()));
+
+            // The signatures of the right entities (signature length per entity)
+            final int k = bands * rows;
+            final Resource[] rightRes = new Resource[rights.size()];
+            final int[] rightSigs = new int[rights.size() * k];
+            // Each entry is the bucket (high bits) and the right entity (low bits)
+            final long[] buckets = new long[rights.size() * bands];
+            final int[] sig = new int[k];
+            for (int i = 0; i < rights.size(); i++) {
+                rightRes[i] = rights.get(i)._1;
+                signature(rights.get(i)._2, sig);
+                System.arraycopy(sig, 0, rightSigs, i * k, k);
+                for (int b = 0; b < bands; b++) {
+                    buckets[i * bands + b] = ((long) bucket(sig, b) << 32) | i;
+                }
+            }
+            Arrays.sort(buckets);
+
+            return new ParallelQuery<>(lefts, pair -> {
+                final int[] s = new int[k];
+                signature(pair._2, s);
+                final IntOpenHashSet seen = new IntOpenHashSet();
+                final IntArrayList candidates = new IntArrayList();
+                for (int b = 0; b < bands; b++) {
+                    final int h = bucket(s, b);
+                    final int start = lowerBound(buckets, h);
+                    int end = start;
+                    while (end < buckets.length && (int) (buckets[end] >>> 32) == h) {
+                        end++;
+                    }
+                    if (maxBucketSize > 0 && end - start > maxBucketSize) {
+                        continue;
+                    }
+                    for (int j = start; j < end; j++) {
+                        int r = (int) buckets[j];
+                        if (seen.add(r)) {
+                            candidates.add(r);
+                        }
+                    }
+                }
+                final double[] scores = new double[candidates.size()];
+                for (int j = 0; j < candidates.size(); j++) {
+                    final int offset = candidates.getInt(j) * k;
+                    int agree = 0;
+                    for (int i = 0; i < k; i++) {
+                        if (s[i] == rightSigs[offset + i]) {
+                            agree++;
+                        }
+                    }
+                    scores[j] = (double) agree / k;
+                }
+                final Integer[] order = new Integer[candidates.size()];
+                for (int j = 0; j < order.length; j++) {
+                    order[j] = j;
+                }
+                Arrays.sort(order, (j1, j2) -> {
+                    int c = Double.compare(scores[j2], scores[j1]);
+                    return c != 0 ? c : Integer.compare(candidates.getInt(j1), candidates.getInt(j2));
+                });
+                final List<Blocking> blocks = new ArrayList<>();
+                for (int j = 0; j < order.length && j < maxMatches; j++) {
+                    blocks.add(new Blocking(pair._1, rightRes[candidates.getInt(order[j])], left.id(), right.id()));
+                }
+                return blocks;
+            }, threads, log);
+        }
+
+        private List<Pair<Resource, List<String>>> labels(Dataset dataset, String prop, NaiscListener log) {
+            final List<Pair<Resource, List<String>>> result = new ArrayList<>();
+            final Property p = dataset.createProperty(prop);
+            final ResIterator iter = dataset.listSubjectsWithProperty(p);
+            while (iter.hasNext()) {
+                Resource r = iter.next();
+                if (r.isURIResource()) {
+                    List<String> l = new ArrayList<>();
+                    NodeIterator iter2 = dataset.listObjectsOfProperty(r, p);
+                    while (iter2.hasNext()) {
+                        RDFNode n = iter2.next();
+                        if (n.isLiteral()) {
+                            l.add(lowercase ? n.asLiteral().getLexicalForm().toLowerCase() : n.asLiteral().getLexicalForm());
+                        }
+                    }
+                    if (!l.isEmpty()) {
+                        result.add(new Pair<>(r, l));
+                    }
+                }
+            }
+            if (result.isEmpty()) {
+                log.message(NaiscListener.Stage.BLOCKING, NaiscListener.Level.CRITICAL, "No URIs in the dataset have the property: " + prop);
+            }
+            return result;
+        }
+
+        /**
+         * Compute the MinHash signature of a set of labels
+         *
+         * @param labels The labels
+         * @param sig The array to write the signature to
+         */
+        void signature(List<String> labels, int[] sig) {
+            Arrays.fill(sig, Integer.MAX_VALUE);
+            for (String label : labels) {
+                if (shingles == Shingles.characters) {
+                    if (label.length() <= shingleSize) {
+                        addShingle(label.hashCode(), sig);
+                    } else {
+                        for (int i = 0; i + shingleSize <= label.length(); i++) {
+                            addShingle(label.substring(i, i + shingleSize).hashCode(), sig);
+                        }
+                    }
+                } else {
+                    String[] tokens = PrettyGoodTokenizer.tokenize(label);
+                    if (tokens.length <= shingleSize) {
+                        addShingle(Arrays.hashCode(tokens), sig);
+                    } else {
+                        for (int i = 0; i + shingleSize <= tokens.length; i++) {
+                            addShingle(Arrays.hashCode(Arrays.copyOfRange(tokens, i, i + shingleSize)), sig);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addShingle(int shingle, int[] sig) {
+            for (int i = 0; i < sig.length; i++) {
+                int h = (int) mix(shingle ^ seeds[i]);
+                if (h < sig[i]) {
+                    sig[i] = h;
+                }
+            }
+        }
+
+        private int bucket(int[] sig, int band) {
+            long h = band;
+            for (int i = band * rows; i < (band + 1) * rows; i++) {
+                h = mix(h * 31 + sig[i]);
+            }
+            return (int) h;
+        }
+
+        @Override
+        public int estimateSize(Dataset left, Dataset right) {
+            Iterator<Resource> i1 = left.listSubjects();
+            Iterator<Resource> i2 = right.listSubjects();
+            int n = 0;
+            while (i1.hasNext()) {
+                n++;
+                i1.next();
+            }
+            int m = 0;
+            while (i2.hasNext()) {
+                m++;
+                i2.next();
+            }
+            return n * Math.min(m, maxMatches);
+        }
+    }
+
+    /**
+     * Find the first entry with a bucket
+     */
+    private static int lowerBound(long[] buckets, int bucket) {
+        int lo = 0, hi = buckets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compare(buckets[mid] >> 32, bucket) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static long mix(long z) {
+        // The finalizer of SplitMix64
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
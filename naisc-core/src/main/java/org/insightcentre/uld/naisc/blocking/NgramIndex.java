@@ -0,0 +1,501 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * An index of the character n-grams of the labels of a set of entities.
+ * The n-grams and the entities are both encoded as integers and the postings
+ * of each n-gram are stored in packed arrays (ordered by entity), so that the
+ * index takes a few bytes per posting rather than a map entry and an object.
+ *
+ * Once compiled, the index can be written to a file and memory-mapped by later
+ * runs (or other processes), which then do not need to build the index. The
+ * n-gram dictionary is an open-addressing hash table over the characters of
+ * the n-grams, so the same lookup works on the heap and on the mapped file.
+ *
+ * @author John McCrae
+ */
+class NgramIndex {
+
+    private static final int MAGIC = 0x4e47524d;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+    private final int n;
+    // The index while it is being built
+    private List<Resource> building = new ArrayList<>();
+    private Object2IntOpenHashMap<String> ngramIds = new Object2IntOpenHashMap<>();
+    private Long2IntOpenHashMap postingIds = new Long2IntOpenHashMap();
+    private IntArrayList ngramOf = new IntArrayList(), entityOf = new IntArrayList(),
+            freqOf = new IntArrayList(), lenOf = new IntArrayList();
+    // The compiled index
+    private Resource[] entities;
+    private String[] uris;
+    private int ngramCount;
+    private CharBuffer ngramChars;
+    private IntBuffer table, offsets, postingEntity, postingFreq;
+    private FloatBuffer postingLen;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public NgramIndex(int n) {
+        this.n = n;
+        ngramIds.defaultReturnValue(-1);
+        postingIds.defaultReturnValue(-1);
+    }
+
+    /**
+     * Add an entity to the index
+     *
+     * @param r The entity
+     * @return The identifier of the entity
+     */
+    public int addEntity(Resource r) {
+        if (building == null) {
+            throw new IllegalStateException("Index is already compiled");
+        }
+        building.add(r);
+        return building.size() - 1;
+    }
+
+    /**
+     * Add a label for an entity
+     *
+     * @param entity The identifier of the entity
+     * @param s The label
+     */
+    public void add(int entity, String s) {
+        if (building == null) {
+            throw new IllegalStateException("Index is already compiled");
+        }
+        for (int i = 0; i < s.length() - this.n + 1; i++) {
+            String ng = s.substring(i, i + this.n);
+            int g = ngramIds.getInt(ng);
+            if (g < 0) {
+                g = ngramIds.size();
+                ngramIds.put(ng, g);
+            }
+            long key = ((long) g << 32) | entity;
+            int p = postingIds.get(key);
+            if (p < 0) {
+                postingIds.put(key, ngramOf.size());
+                ngramOf.add(g);
+                entityOf.add(entity);
+                freqOf.add(1);
+                lenOf.add(s.length());
+            } else {
+                freqOf.set(p, freqOf.getInt(p) + 1);
+                lenOf.set(p, s.length());
+            }
+        }
+    }
+
+    /**
+     * The number of distinct n-grams in the index
+     *
+     * @return The number of n-grams
+     */
+    public int ngramCount() {
+        return building != null ? ngramIds.size() : ngramCount;
+    }
+
+    /**
+     * The number of entities in the index
+     *
+     * @return The number of entities
+     */
+    public int entityCount() {
+        return building != null ? building.size() : entities.length;
+    }
+
+    /**
+     * Pack the postings, after which no more labels can be added
+     *
+     * @param maxPostings N-grams that occur in more entities than this are
+     * removed from the index
+     */
+    public void compile(int maxPostings) {
+        final int postings = ngramOf.size();
+        final int[] counts = new int[ngramIds.size()];
+        for (int p = 0; p < postings; p++) {
+            counts[ngramOf.getInt(p)]++;
+        }
+        final int[] remap = new int[counts.length];
+        int kept = 0;
+        for (int g = 0; g < counts.length; g++) {
+            remap[g] = counts[g] > maxPostings ? -1 : kept++;
+        }
+        final char[] chars = new char[kept * n];
+        for (Object2IntMap.Entry<String> e : ngramIds.object2IntEntrySet()) {
+            if (remap[e.getIntValue()] >= 0) {
+                e.getKey().getChars(0, n, chars, remap[e.getIntValue()] * n);
+            }
+        }
+        final int[] offs = new int[kept + 1];
+        for (int g = 0; g < counts.length; g++) {
+            if (remap[g] >= 0) {
+                offs[remap[g] + 1] = counts[g];
+            }
+        }
+        for (int g = 0; g < kept; g++) {
+            offs[g + 1] += offs[g];
+        }
+        final int[] pEntity = new int[offs[kept]];
+        final int[] pFreq = new int[offs[kept]];
+        final float[] pLen = new float[offs[kept]];
+        // Postings were created in order of entity so stay sorted by entity
+        final int[] next = Arrays.copyOf(offs, kept);
+        for (int p = 0; p < postings; p++) {
+            int g = remap[ngramOf.getInt(p)];
+            if (g >= 0) {
+                int q = next[g]++;
+                pEntity[q] = entityOf.getInt(p);
+                pFreq[q] = freqOf.getInt(p);
+                pLen[q] = lenOf.getInt(p);
+            }
+        }
+        this.ngramCount = kept;
+        this.ngramChars = CharBuffer.wrap(chars);
+        this.table = IntBuffer.wrap(buildTable(chars, kept, n));
+        this.offsets = IntBuffer.wrap(offs);
+        this.postingEntity = IntBuffer.wrap(pEntity);
+        this.postingFreq = IntBuffer.wrap(pFreq);
+        this.postingLen = FloatBuffer.wrap(pLen);
+        this.entities = building.toArray(new Resource[building.size()]);
+        this.uris = new String[entities.length];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = entities[i].getURI();
+        }
+        building = null;
+        ngramIds = null;
+        postingIds = null;
+        ngramOf = entityOf = freqOf = lenOf = null;
+    }
+
+    private static int[] buildTable(char[] chars, int count, int n) {
+        int size = 2;
+        while (size < count * 2) {
+            size *= 2;
+        }
+        final int[] t = new int[size];
+        for (int g = 0; g < count; g++) {
+            int slot = hash(CharBuffer.wrap(chars, g * n, n), 0, n) & (size - 1);
+            while (t[slot] != 0) {
+                slot = (slot + 1) & (size - 1);
+            }
+            t[slot] = g + 1;
+        }
+        return t;
+    }
+
+    private static int hash(CharSequence s, int start, int n) {
+        int h = 0;
+        for (int i = start; i < start + n; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Find an n-gram of a string in the dictionary
+     *
+     * @param s The string
+     * @param start The start of the n-gram
+     * @return The identifier of the n-gram or -1 if it is not in the index
+     */
+    private int lookup(String s, int start) {
+        final int mask = table.limit() - 1;
+        int slot = hash(s, start, n) & mask;
+        while (true) {
+            final int v = table.get(slot);
+            if (v == 0) {
+                return -1;
+            }
+            final int g = v - 1;
+            boolean match = true;
+            for (int k = 0; k < n; k++) {
+                if (ngramChars.get(g * n + k) != s.charAt(start + k)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return g;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Find the entities whose labels share the most n-grams with a set of
+     * labels. This may be called from several threads at once.
+     *
+     * @param labels The labels
+     * @param maxMatches The maximum number of entities to return
+     * @return The best matching entities, best first
+     */
+    public List<Resource> nearest(List<String> labels, int maxMatches) {
+        if (entities == null) {
+            throw new IllegalStateException("Index is not compiled");
+        }
+        final Scratch sc = scratch.get();
+        if (sc.scores.length < entities.length) {
+            sc.scores = new double[entities.length];
+        }
+        final double[] scores = sc.scores;
+        final IntArrayList touched = sc.touched;
+        final Int2IntOpenHashMap reps = sc.reps;
+        reps.clear();
+        for (String r : labels) {
+            for (int i = 0; i < Math.min(100, r.length()) - n + 1; i++) {
+                int g = lookup(r, i);
+                if (g >= 0) {
+                    int rep = reps.get(g);
+                    final int end = offsets.get(g + 1);
+                    for (int q = offsets.get(g); q < end; q++) {
+                        if (rep < postingFreq.get(q)) {
+                            int e = postingEntity.get(q);
+                            if (scores[e] == 0.0) {
+                                touched.add(e);
+                            }
+                            scores[e] += 1.0 / (postingLen.get(q) + r.length());
+                        }
+                    }
+                    reps.put(g, rep + 1);
+                }
+            }
+        }
+        // Keep the best matches in a heap with the worst match at the top
+        final int[] heap = new int[Math.min(maxMatches, touched.size())];
+        int size = 0;
+        for (int j = 0; j < touched.size(); j++) {
+            int e = touched.getInt(j);
+            if (size < heap.length) {
+                heap[size] = e;
+                siftUp(heap, size++, scores);
+            } else if (heap.length > 0 && better(e, heap[0], scores)) {
+                heap[0] = e;
+                siftDown(heap, size, scores);
+            }
+        }
+        final Resource[] result = new Resource[size];
+        while (size > 0) {
+            result[size - 1] = entities[heap[0]];
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores);
+        }
+        for (int j = 0; j < touched.size(); j++) {
+            scores[touched.getInt(j)] = 0.0;
+        }
+        touched.clear();
+        return Arrays.asList(result);
+    }
+
+    private boolean better(int e1, int e2, double[] scores) {
+        return scores[e1] > scores[e2]
+                || (scores[e1] == scores[e2] && uris[e1].compareTo(uris[e2]) < 0);
+    }
+
+    private void siftUp(int[] heap, int i, double[] scores) {
+        int e = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!better(heap[parent], e, scores)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = e;
+    }
+
+    private void siftDown(int[] heap, int size, double[] scores) {
+        if (size == 0) {
+            return;
+        }
+        int i = 0;
+        int e = heap[0];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && better(heap[child], heap[child + 1], scores)) {
+                child++;
+            }
+            if (!better(e, heap[child], scores)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = e;
+    }
+
+    /**
+     * Write a compiled index to a file. The file is written to a temporary
+     * file first, so other processes never see a partial index.
+     *
+     * @param file The file
+     * @throws IOException If the file could not be written
+     */
+    public void write(File file) throws IOException {
+        if (entities == null) {
+            throw new IllegalStateException("Index is not compiled");
+        }
+        final byte[][] uriBytes = new byte[uris.length][];
+        int uriLength = 0;
+        for (int i = 0; i < uris.length; i++) {
+            uriBytes[i] = uris[i].getBytes(StandardCharsets.UTF_8);
+            uriLength += uriBytes[i].length;
+        }
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(entities.length);
+            out.writeInt(ngramCount);
+            out.writeInt(table.limit());
+            out.writeInt(uriLength);
+            int offset = 0;
+            for (byte[] b : uriBytes) {
+                out.writeInt(offset);
+                offset += b.length;
+            }
+            out.writeInt(offset);
+            for (byte[] b : uriBytes) {
+                out.write(b);
+            }
+            pad(out, uriLength);
+            for (int i = 0; i < ngramCount * n; i++) {
+                out.writeChar(ngramChars.get(i));
+            }
+            pad(out, ngramCount * n * 2);
+            for (int i = 0; i < table.limit(); i++) {
+                out.writeInt(table.get(i));
+            }
+            for (int i = 0; i <= ngramCount; i++) {
+                out.writeInt(offsets.get(i));
+            }
+            final int postings = offsets.get(ngramCount);
+            for (int i = 0; i < postings; i++) {
+                out.writeInt(postingEntity.get(i));
+            }
+            for (int i = 0; i < postings; i++) {
+                out.writeInt(postingFreq.get(i));
+            }
+            for (int i = 0; i < postings; i++) {
+                out.writeFloat(postingLen.get(i));
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            if (!file.exists()) {
+                throw new IOException("Could not write index to " + file);
+            }
+        }
+    }
+
+    private static void pad(DataOutputStream out, int length) throws IOException {
+        for (int i = length; i % 4 != 0; i++) {
+            out.write(0);
+        }
+    }
+
+    /**
+     * Memory-map an index written by {@link #write(File)}
+     *
+     * @param file The file
+     * @param n The size of n-grams the index must have
+     * @param resources The function to create the entity for a URI
+     * @return The index
+     * @throws IOException If the file could not be read or is not an index
+     * with n-grams of this size
+     */
+    public static NgramIndex load(File file, int n, Function<String, Resource> resources) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index is too large to map");
+            }
+            final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < HEADER_INTS * 4 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IOException(file + " is not an n-gram index");
+            }
+            if (buf.getInt(8) != n) {
+                throw new IOException(file + " is an index of " + buf.getInt(8) + "-grams");
+            }
+            final NgramIndex index = new NgramIndex(n);
+            final int entityCount = buf.getInt(12);
+            final int ngramCount = buf.getInt(16);
+            final int tableSize = buf.getInt(20);
+            final int uriLength = buf.getInt(24);
+            int pos = HEADER_INTS * 4;
+            final IntBuffer uriOffsets = slice(buf, pos, (entityCount + 1) * 4).asIntBuffer();
+            pos += (entityCount + 1) * 4;
+            final ByteBuffer uriBytes = slice(buf, pos, uriLength);
+            pos += (uriLength + 3) / 4 * 4;
+            index.entities = new Resource[entityCount];
+            index.uris = new String[entityCount];
+            for (int i = 0; i < entityCount; i++) {
+                byte[] b = new byte[uriOffsets.get(i + 1) - uriOffsets.get(i)];
+                ((Buffer) uriBytes).position(uriOffsets.get(i));
+                uriBytes.get(b);
+                index.uris[i] = new String(b, StandardCharsets.UTF_8);
+                index.entities[i] = resources.apply(index.uris[i]);
+            }
+            index.ngramCount = ngramCount;
+            index.ngramChars = slice(buf, pos, ngramCount * n * 2).asCharBuffer();
+            pos += (ngramCount * n * 2 + 3) / 4 * 4;
+            index.table = slice(buf, pos, tableSize * 4).asIntBuffer();
+            pos += tableSize * 4;
+            index.offsets = slice(buf, pos, (ngramCount + 1) * 4).asIntBuffer();
+            pos += (ngramCount + 1) * 4;
+            final int postings = index.offsets.get(ngramCount);
+            index.postingEntity = slice(buf, pos, postings * 4).asIntBuffer();
+            pos += postings * 4;
+            index.postingFreq = slice(buf, pos, postings * 4).asIntBuffer();
+            pos += postings * 4;
+            index.postingLen = slice(buf, pos, postings * 4).asFloatBuffer();
+            index.building = null;
+            index.ngramIds = null;
+            index.postingIds = null;
+            index.ngramOf = index.entityOf = index.freqOf = index.lenOf = null;
+            return index;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException x) {
+            throw new IOException(file + " is not a valid n-gram index", x);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, int length) {
+        final ByteBuffer b = buf.duplicate();
+        ((Buffer) b).position(pos);
+        ((Buffer) b).limit(pos + length);
+        return b.slice();
+    }
+
+    private static class Scratch {
+
+        private double[] scores = new double[0];
+        private final IntArrayList touched = new IntArrayList();
+        private final Int2IntOpenHashMap reps = new Int2IntOpenHashMap();
+    }
+}
@@ -0,0 +1,132 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+
+/**
+ * The query phase of a blocking strategy, where the candidates for each left
+ * entity are found in an index of the right entities. If more than one thread
+ * is used, the left entities are split into partitions that are queried on a
+ * fork-join pool. The partitions are returned in order, so the blocking is
+ * the same as querying the entities one after another.
+ *
+ * @param <L> The type of the left entities (and their labels)
+ * @author John McCrae
+ */
+class ParallelQuery<L> extends AbstractCollection<Blocking> {
+
+    /**
+     * The largest number of left entities in a partition
+     */
+    private static final int MAX_PARTITION_SIZE = 1000;
+    private final List<L> lefts;
+    private final Function<L, List<Blocking>> query;
+    private final int threads;
+    private final NaiscListener log;
+
+    /**
+     * Create the query phase
+     *
+     * @param lefts The left entities
+     * @param query Finds the candidates for a single left entity, this must be
+     * thread-safe if more than one thread is used
+     * @param threads The number of threads (1 or less to query on the calling
+     * thread)
+     * @param log The listener
+     */
+    public ParallelQuery(List<L> lefts, Function<L, List<Blocking>> query, int threads, NaiscListener log) {
+        this.lefts = lefts;
+        this.query = query;
+        this.threads = threads;
+        this.log = log;
+    }
+
+    @Override
+    public Iterator<Blocking> iterator() {
+        if (threads <= 1 || lefts.size() <= 1) {
+            return lefts.stream().flatMap(l -> query.apply(l).stream()).iterator();
+        } else {
+            return new PartitionIterator();
+        }
+    }
+
+    @Override
+    public int size() {
+        throw new UnsupportedOperationException();
+    }
+
+    private class PartitionIterator implements Iterator<Blocking> {
+
+        private final ForkJoinPool pool = new ForkJoinPool(threads);
+        private final int partitionSize = Math.max(1, Math.min(MAX_PARTITION_SIZE, lefts.size() / (threads * 4)));
+        private final int partitions = (lefts.size() + partitionSize - 1) / partitionSize;
+        private final AtomicInteger completed = new AtomicInteger();
+        // At most two partitions per thread are computed ahead of the consumer
+        private final Deque<ForkJoinTask<List<Blocking>>> running = new ArrayDeque<>();
+        private int submitted = 0;
+        private Iterator<Blocking> current = Collections.emptyIterator();
+
+        public PartitionIterator() {
+            while (submitted < partitions && running.size() < 2 * threads) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            final int partition = submitted++;
+            final List<L> part = lefts.subList(partition * partitionSize,
+                    Math.min(lefts.size(), (partition + 1) * partitionSize));
+            running.add(pool.submit(() -> {
+                List<Blocking> result = new ArrayList<>();
+                for (L l : part) {
+                    result.addAll(query.apply(l));
+                }
+                int c = completed.incrementAndGet();
+                log.message(Stage.BLOCKING, NaiscListener.Level.STATUS,
+                        String.format("Blocking partition %d of %d complete (%d entities)", c, partitions, part.size()));
+                return result;
+            }));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (running.isEmpty()) {
+                    pool.shutdown();
+                    return false;
+                }
+                try {
+                    current = running.poll().join().iterator();
+                } catch (RuntimeException x) {
+                    pool.shutdownNow();
+                    throw x;
+                }
+                if (submitted < partitions) {
+                    submit();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Blocking next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
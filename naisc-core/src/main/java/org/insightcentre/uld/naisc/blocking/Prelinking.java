@@ -13,7 +13,7 @@ import org.apache.jena.rdf.model.StmtIterator;
 import org.insightcentre.uld.naisc.Dataset;
 import org.insightcentre.uld.naisc.NaiscListener;
 import org.insightcentre.uld.naisc.util.Pair;
-import org.insightcentre.uld.naisc.util.SimpleCache;
+import org.insightcentre.uld.naisc.util.StripedCache;
 import org.insightcentre.uld.naisc.util.URI2Label;
 
 /**
@@ -47,7 +47,7 @@ public class Prelinking {
     public Set<Pair<Resource, Resource>> prelink(Dataset left, Dataset right, NaiscListener log) {
         Set<Pair<Resource, Resource>> prelinks = new HashSet<>();
         for (Pair<String, String> p : prelinkProperties) {
-            SimpleCache<String, String> labelCache = new SimpleCache<>(10000);
+            StripedCache<String, String> labelCache = new StripedCache<>(10000);
 
             String leftUri = p._1;
             String rightUri = p._2;
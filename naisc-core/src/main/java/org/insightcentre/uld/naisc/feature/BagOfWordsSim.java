@@ -3,14 +3,11 @@ package org.insightcentre.uld.naisc.feature;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.insightcentre.uld.naisc.*;
 import org.insightcentre.uld.naisc.util.LangStringPair;
-import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
 
 /**
  * Compare the bag-of-words similarity of a bunch of features. This is often quite
@@ -76,12 +73,18 @@ public class BagOfWordsSim implements TextFeatureFactory {
 
         @Override
         public Feature[] extractFeatures(LensResult lsp, NaiscListener log) {
-            Set<String> w1 = new HashSet<>(Arrays.asList(PrettyGoodTokenizer.tokenize(lowercase ? lsp.string1.toLowerCase() : lsp.string1)));
+            Set<String> w1 = lsp.analysis1().tokenSet(lowercase);
             int a = w1.size();
-            Set<String> w2 = new HashSet<>(Arrays.asList(PrettyGoodTokenizer.tokenize(lowercase ? lsp.string2.toLowerCase() : lsp.string2)));
+            Set<String> w2 = lsp.analysis2().tokenSet(lowercase);
             int b = w2.size();
-            w1.retainAll(w2);
-            int ab = w1.size();
+            // The sets are shared with other features so they are not changed
+            final Set<String> smaller = a <= b ? w1 : w2, larger = a <= b ? w2 : w1;
+            int ab = 0;
+            for (String w : smaller) {
+                if (larger.contains(w)) {
+                    ab++;
+                }
+            }
 
             switch (method) {
                 case jaccard:
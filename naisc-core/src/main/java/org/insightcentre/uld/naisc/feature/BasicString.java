@@ -27,7 +27,6 @@ import org.apache.commons.text.similarity.LevenshteinDistance;
 import org.apache.commons.text.similarity.SimilarityScore;
 import org.insightcentre.uld.naisc.*;
 import org.insightcentre.uld.naisc.util.LangStringPair;
-import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
 
 /**
  * The basic features of string similarity
@@ -390,14 +389,13 @@ public class BasicString implements TextFeatureFactory {
         @Override
         public org.insightcentre.uld.naisc.Feature[] extractFeatures(LensResult sp, NaiscListener log) {
             DoubleArrayList featureValues = new DoubleArrayList();
-            final String label1 = lowerCase ? sp.string1.toLowerCase() : sp.string1;
-            final String label2 = lowerCase ? sp.string2.toLowerCase() : sp.string2;
-            final String[] l1tok = PrettyGoodTokenizer.tokenize(label1),
-                    l2tok = PrettyGoodTokenizer.tokenize(label2);
+            final AnalyzedLabel a1 = sp.analysis1(), a2 = sp.analysis2();
+            final String label1 = lowerCase ? a1.lowerCase() : a1.string();
+            final String label2 = lowerCase ? a2.lowerCase() : a2.string();
 
-            buildFeatures(sp.lang1, "", featureValues, label1, label2, l1tok, l2tok, false);
+            buildFeatures(sp.lang1, "", featureValues, label1, label2, a1.tokens(lowerCase), a2.tokens(lowerCase), false);
             if (labelCharFeatures) {
-                buildFeatures(sp.lang2, "char-", featureValues, label1, label2, label1.split(""), label2.split(""), true);
+                buildFeatures(sp.lang2, "char-", featureValues, label1, label2, a1.characters(lowerCase), a2.characters(lowerCase), true);
             }
 
             return org.insightcentre.uld.naisc.Feature.mkArray(featureValues.toDoubleArray(), getFeatureNames());
@@ -79,8 +79,7 @@ public class KeyWords implements TextFeatureFactory {
             return "keywords";
         }
 
-        private IntSet findKeywords(String sentence) {
-            String[] tokens = PrettyGoodTokenizer.tokenize(sentence);
+        private IntSet findKeywords(String[] tokens) {
             IntSet matches = new IntOpenHashSet();
             for (int i = 0; i < keywords.size(); i++) {
                 String[] keyword = keywords.get(i);
@@ -102,8 +101,8 @@ public class KeyWords implements TextFeatureFactory {
 
         @Override
         public Feature[] extractFeatures(LensResult lsp, NaiscListener log) {
-            IntSet s1 = findKeywords(lsp.string1.toLowerCase());
-            IntSet s2 = findKeywords(lsp.string2.toLowerCase());
+            IntSet s1 = findKeywords(lsp.analysis1().tokens(true));
+            IntSet s2 = findKeywords(lsp.analysis2().tokens(true));
             double A = s1.size();
             double B = s2.size();
             s1.retainAll(s2);
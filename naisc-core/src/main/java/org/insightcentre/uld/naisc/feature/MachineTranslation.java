@@ -3,7 +3,6 @@ package org.insightcentre.uld.naisc.feature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.insightcentre.uld.naisc.*;
 import org.insightcentre.uld.naisc.feature.mt.*;
-import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -70,9 +69,9 @@ public class MachineTranslation implements TextFeatureFactory  {
         @Override
         public Feature[] extractFeatures(LensResult facet, NaiscListener log) {
             Feature[] features = new Feature[config.methods.size()];
+            String[] string1tok = facet.analysis1().tokens(false);
+            String[] string2tok = facet.analysis2().tokens(false);
             for(int i = 0; i < config.methods.size(); i++) {
-                String[] string1tok = PrettyGoodTokenizer.tokenize(facet.string1);
-                String[] string2tok = PrettyGoodTokenizer.tokenize(facet.string2);
                 switch(config.methods.get(i)) {
                     case BLEU:
                         features[i] = new Feature("BLEU", BLEU.bleuScore(string1tok, string2tok, config.bleuN));
@@ -0,0 +1,163 @@
+package org.insightcentre.uld.naisc.feature;
+
+import eu.monnetproject.lang.Language;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.insightcentre.uld.naisc.Feature;
+import org.insightcentre.uld.naisc.LensResult;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.TextFeature;
+import org.insightcentre.uld.naisc.util.StripedCache;
+
+/**
+ * A text feature that remembers the features it has extracted, so that when
+ * the same pair of labels occurs again (for example for homographs or
+ * repeated definitions) the features are not computed again. The features
+ * are cached by the pair of labels and their languages, so this should only
+ * wrap features that depend on nothing else. The features returned may be
+ * shared between calls and must not be modified.
+ *
+ * @author John McCrae
+ */
+public class MemoizedTextFeature implements TextFeature {
+
+    private final TextFeature feature;
+    private final StripedCache<Key, Feature[]> cache;
+    private final LongAdder lookups = new LongAdder(), computed = new LongAdder();
+
+    /**
+     * Create a memoized feature
+     *
+     * @param feature The feature to memoize
+     * @param cache The cache (which may be shared with other features)
+     */
+    public MemoizedTextFeature(TextFeature feature, StripedCache<Key, Feature[]> cache) {
+        this.feature = feature;
+        this.cache = cache;
+    }
+
+    /**
+     * Memoize a list of features with one cache
+     *
+     * @param features The features
+     * @param cacheSize The number of results to keep of all features
+     * @return The memoized features
+     */
+    public static List<TextFeature> memoize(List<TextFeature> features, int cacheSize) {
+        final StripedCache<Key, Feature[]> cache = new StripedCache<>(cacheSize);
+        final List<TextFeature> memoized = new ArrayList<>(features.size());
+        for (TextFeature feature : features) {
+            memoized.add(new MemoizedTextFeature(feature, cache));
+        }
+        return memoized;
+    }
+
+    /**
+     * Send the hit rates of the memoized features in a list to a listener
+     *
+     * @param features The features (those that are not memoized are ignored)
+     * @param log The listener
+     */
+    public static void report(List<TextFeature> features, NaiscListener log) {
+        for (TextFeature feature : features) {
+            if (feature instanceof MemoizedTextFeature) {
+                ((MemoizedTextFeature) feature).report(log);
+            }
+        }
+    }
+
+    /**
+     * Send the hit rate of this feature to a listener
+     *
+     * @param log The listener
+     */
+    public void report(NaiscListener log) {
+        final long n = lookups.sum();
+        if (n > 0) {
+            log.message(NaiscListener.Stage.SCORING, NaiscListener.Level.INFO,
+                    String.format("Feature %s: %d of %d pairs of labels were cached (%.1f%%)",
+                            id(), n - computed.sum(), n, hitRate() * 100.0));
+        }
+    }
+
+    /**
+     * The proportion of calls that were answered from the cache
+     *
+     * @return The hit rate (0 if there have been no calls)
+     */
+    public double hitRate() {
+        final long n = lookups.sum();
+        return n == 0 ? 0.0 : (double) (n - computed.sum()) / n;
+    }
+
+    @Override
+    public String id() {
+        return feature.id();
+    }
+
+    @Override
+    public Feature[] extractFeatures(LensResult facet, NaiscListener log) {
+        lookups.increment();
+        return cache.get(new Key(feature, facet), k -> {
+            computed.increment();
+            return feature.extractFeatures(facet, log);
+        });
+    }
+
+    @Override
+    public Set<String> tags() {
+        return feature.tags();
+    }
+
+    @Override
+    public void close() throws IOException {
+        feature.close();
+    }
+
+    /**
+     * The key of a result, that is the feature (by identity, as two
+     * differently configured features may have the same identifier) and the
+     * labels
+     */
+    public static final class Key {
+
+        private final TextFeature feature;
+        private final Language lang1, lang2;
+        private final String string1, string2;
+        private final int hash;
+
+        Key(TextFeature feature, LensResult facet) {
+            this.feature = feature;
+            this.lang1 = facet.lang1;
+            this.lang2 = facet.lang2;
+            this.string1 = facet.string1;
+            this.string2 = facet.string2;
+            int h = System.identityHashCode(feature);
+            h = 31 * h + Objects.hashCode(lang1);
+            h = 31 * h + Objects.hashCode(lang2);
+            h = 31 * h + string1.hashCode();
+            h = 31 * h + string2.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return feature == other.feature && hash == other.hash
+                    && string1.equals(other.string1) && string2.equals(other.string2)
+                    && Objects.equals(lang1, other.lang1) && Objects.equals(lang2, other.lang2);
+        }
+    }
+}
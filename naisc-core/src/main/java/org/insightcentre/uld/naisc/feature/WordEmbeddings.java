@@ -63,7 +63,7 @@ public class WordEmbeddings implements TextFeatureFactory {
         /**
          * The path to the embeddings file.
          */
-        @ConfigurationParameter(description = "The path to the embeddings file")
+        @ConfigurationParameter(description = "The path to the embeddings file (in GloVe format or converted with EmbeddingStore)")
         public String embeddingPath;
         /**
          * The features to use. Values include "fp", "bp", "ham", "max", "max2", "max.5", "max.1", "collp2", "collp10", "Hg"
@@ -159,22 +159,13 @@ public class WordEmbeddings implements TextFeatureFactory {
         public Feature[] extractFeatures(LensResult facet, NaiscListener log) {
             double[] d = new double[featureNames.length];
             if (facet.lang1.equals(facet.lang2)) {
-                d = _extractFeatures(facet.string1, facet.string2, wordAligner);
+                d = wordAligner.alignFeatures(facet.analysis1(), facet.analysis2(), stopwords, wafe);
                 return Feature.mkArray(d,featureNames);
             } else {
                 throw new IllegalArgumentException();
             }
         }
 
-        private double[] _extractFeatures(String s1, String s2, WordAligner a) {
-            if (stopwords != null) {
-                return wafe.makeFeatures(a.align(s1, s2, stopwords));
-            } else {
-                return wafe.makeFeatures(a.align(s1, s2));
-            }
-
-        }
-
         @Override
         public void close() throws IOException {
         }
@@ -172,8 +172,8 @@ public class AlignmentFeatures {
             return 0.0;
         }
         double sumStep = 0.0;
+        double[] vals = new double[alignment.getTargetSize()];
         for(int i = 0; i < alignment.getSourceSize(); i++) {
-            double[] vals = new double[alignment.getTargetSize()];
             for (int j = 0; j < alignment.getTargetSize(); j++) {
                 vals[j] = alignment.alignment(i, j);
             }
@@ -2,60 +2,127 @@ package org.insightcentre.uld.naisc.feature.embeddings;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.Set;
+import org.insightcentre.uld.naisc.AnalyzedLabel;
 import org.insightcentre.uld.naisc.util.PrettyGoodTokenizer;
-import org.insightcentre.uld.naisc.util.Vectors;
 
 /**
- * Produce a word-alignment based on cosine similarity
+ * Produce a word-alignment based on cosine similarity. The vector of each
+ * word is normalized to unit length as it is read from the embeddings, so
+ * that the similarity matrix is just the dot product of the two sets of
+ * vectors.
  * @author John McCrae
  */
 public class CosineSimAligner implements WordAligner {
-    private final WordVectorExtractor wve;
-
+    private final EmbeddingStore store;
+    private final ThreadLocal<double[]> matrix = ThreadLocal.withInitial(() -> new double[0]);
 
     public CosineSimAligner(WordVectorExtractor wve) {
-        this.wve = wve;
+        this.store = wve.store();
     }
-    
-    
-    @Override
-    public WordAlignment align(String x, String y) {
-        String[] s1 = PrettyGoodTokenizer.tokenize(x);
-        String[] s2 = PrettyGoodTokenizer.tokenize(y);
 
-        SentenceVectors sv1 = wve.extractFeatures(s1);
-        SentenceVectors sv2 = wve.extractFeatures(s2);
 
-        return doAlign(sv1, sv2);
+    @Override
+    public WordAlignment align(String x, String y) {
+        return align(vectors(PrettyGoodTokenizer.tokenize(x), null), 
+                vectors(PrettyGoodTokenizer.tokenize(y), null), null);
     }
 
     @Override
     public WordAlignment align(String x, String y, Set<String> stopwords) {
-        ArrayList<String> s1 = new ArrayList<>(Arrays.asList(PrettyGoodTokenizer.tokenize(x)));
-        ArrayList<String> s2 = new ArrayList<>(Arrays.asList(PrettyGoodTokenizer.tokenize(y)));
-
-        removeStopWords(s1, stopwords);
-        removeStopWords(s2, stopwords);
+        return align(vectors(PrettyGoodTokenizer.tokenize(x), stopwords), 
+                vectors(PrettyGoodTokenizer.tokenize(y), stopwords), null);
+    }
 
-        SentenceVectors sv1 = wve.extractFeatures(s1.toArray(new String[s1.size()]));
-        SentenceVectors sv2 = wve.extractFeatures(s2.toArray(new String[s2.size()]));
+    @Override
+    public double[] alignFeatures(AnalyzedLabel x, AnalyzedLabel y, Set<String> stopwords,
+            StandardWordAlignmentFeatureExtractor wafe) {
+        final Object key = new VectorsKey(this, stopwords);
+        final UnitVectors v1 = x.analysis(key, a -> vectors(a.tokens(false), stopwords));
+        final UnitVectors v2 = y.analysis(key, a -> vectors(a.tokens(false), stopwords));
+        double[] m = matrix.get();
+        if(m.length < v1.tokens.length * v2.tokens.length) {
+            m = new double[v1.tokens.length * v2.tokens.length];
+            matrix.set(m);
+        }
+        return wafe.makeFeatures(align(v1, v2, m));
+    }
 
-        return doAlign(sv1, sv2);
+    /**
+     * Align two sentences
+     * @param v1 The source sentence
+     * @param v2 The target sentence
+     * @param matrix The array to write the alignment into or null to
+     *  allocate a new array
+     * @return The alignment
+     */
+    private WordAlignment align(UnitVectors v1, UnitVectors v2, double[] matrix) {
+        if(matrix == null) {
+            matrix = new double[v1.tokens.length * v2.tokens.length];
+        }
+        similarities(v1.vectors, v1.tokens.length, v2.vectors, v2.tokens.length, store.dimension(), matrix);
+        return new WordAlignment(new Sentence(v1.tokens), new Sentence(v2.tokens), matrix);
     }
 
+    /**
+     * Read the vector of each word, normalized to unit length. Unknown words
+     * have a zero vector.
+     */
+    private UnitVectors vectors(String[] tokens, Set<String> stopwords) {
+        final String[] words = removeStopWords(tokens, stopwords);
+        final int dim = store.dimension();
+        final float[] dst = new float[words.length * dim];
+        for(int i = 0; i < words.length; i++) {
+            final int off = i * dim;
+            final int row = store.find(words[i].trim().toLowerCase());
+            if(row < 0) {
+                continue;
+            }
+            store.get(row, dst, off);
+            double norm = 0.0;
+            for(int k = off; k < off + dim; k++) {
+                norm += dst[k] * dst[k];
+            }
+            if(norm > 0.0) {
+                final float scale = (float)(1.0 / Math.sqrt(norm));
+                for(int k = off; k < off + dim; k++) {
+                    dst[k] *= scale;
+                }
+            }
+        }
+        return new UnitVectors(words, dst);
+    }
 
-    protected WordAlignment doAlign(SentenceVectors x, SentenceVectors y) {
-        double[][] aligns = new double[x.size()][y.size()];
-        for(int i = 0; i < x.size(); i++) {
-            for(int j = 0; j < y.size(); j++) {
-                aligns[i][j] = Vectors.cosine(x.vector(i), y.vector(j));
+    /**
+     * Compute the dot product of every pair of vectors
+     * @param a The source vectors, stored one after another
+     * @param n The number of source vectors
+     * @param b The target vectors, stored one after another
+     * @param m The number of target vectors
+     * @param dim The length of each vector
+     * @param out The matrix of dot products (by row of the source vectors)
+     */
+    static void similarities(float[] a, int n, float[] b, int m, int dim, double[] out) {
+        final int dim4 = dim & ~3;
+        for(int i = 0; i < n; i++) {
+            final int ai = i * dim;
+            for(int j = 0; j < m; j++) {
+                final int bj = j * dim;
+                float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+                int k = 0;
+                for(; k < dim4; k += 4) {
+                    s0 += a[ai + k] * b[bj + k];
+                    s1 += a[ai + k + 1] * b[bj + k + 1];
+                    s2 += a[ai + k + 2] * b[bj + k + 2];
+                    s3 += a[ai + k + 3] * b[bj + k + 3];
+                }
+                for(; k < dim; k++) {
+                    s0 += a[ai + k] * b[bj + k];
+                }
+                out[i * m + j] = (s0 + s1) + (s2 + s3);
             }
         }
-        return new WordAlignment(x, y, aligns);
     }
 
     @Override
@@ -66,11 +133,61 @@ public class CosineSimAligner implements WordAligner {
     public String id() {
         return "cosine";
     }
-    
-    private void removeStopWords(ArrayList<String> s1, Set<String> stopwords) {
-        Iterator<String> i = s1.iterator();
-        while(i.hasNext()) 
-            if(stopwords.contains(i.next().toLowerCase()))
-                i.remove();
+
+    private static String[] removeStopWords(String[] tokens, Set<String> stopwords) {
+        if(stopwords == null) {
+            return tokens;
+        }
+        // The tokenizer caches its results so they must not be changed
+        final String[] kept = new String[tokens.length];
+        int n = 0;
+        for(String token : tokens) {
+            if(!stopwords.contains(token.toLowerCase())) {
+                kept[n++] = token;
+            }
+        }
+        return n == tokens.length ? tokens : Arrays.copyOf(kept, n);
+    }
+
+    /**
+     * The words of a sentence and their unit vectors, stored one after 
+     * another
+     */
+    private static class UnitVectors {
+        final String[] tokens;
+        final float[] vectors;
+
+        public UnitVectors(String[] tokens, float[] vectors) {
+            this.tokens = tokens;
+            this.vectors = vectors;
+        }
+    }
+
+    /**
+     * The key of the vectors of a label, which depend on the aligner and the
+     * stopwords
+     */
+    private static final class VectorsKey {
+        private final CosineSimAligner aligner;
+        private final Set<String> stopwords;
+
+        public VectorsKey(CosineSimAligner aligner, Set<String> stopwords) {
+            this.aligner = aligner;
+            this.stopwords = stopwords;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(aligner) + System.identityHashCode(stopwords);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof VectorsKey)) {
+                return false;
+            }
+            final VectorsKey other = (VectorsKey) obj;
+            return aligner == other.aligner && stopwords == other.stopwords;
+        }
     }
 }
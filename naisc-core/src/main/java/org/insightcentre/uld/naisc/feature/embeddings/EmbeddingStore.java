@@ -0,0 +1,466 @@
+package org.insightcentre.uld.naisc.feature.embeddings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Word embeddings in a binary file that is memory-mapped, so that opening
+ * them is immediate and they are not held on the heap. The file contains the
+ * vocabulary, a hash table from words to their rows and the matrix of
+ * vectors, either as floats or quantized to one byte per value with a scale
+ * for each row.
+ *
+ * Use {@link #open(File)} to get the store for a file, which is shared by all
+ * users of that file. A text file (in GloVe format) is converted to the binary
+ * format the first time it is opened.
+ *
+ * @author John McCrae
+ */
+public class EmbeddingStore {
+
+    private static final int MAGIC = 0x4e454d42;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+    private static final Map<String, EmbeddingStore> OPEN = new HashMap<>();
+
+    private final int words, dim;
+    private final boolean quantized;
+    private final IntBuffer termOffsets, table;
+    private final ByteBuffer termBytes;
+    private final int rowsPerChunk;
+    private final FloatBuffer[] floats;
+    private final ByteBuffer[] bytes;
+
+    private EmbeddingStore(int words, int dim, boolean quantized, IntBuffer termOffsets, ByteBuffer termBytes,
+            IntBuffer table, int rowsPerChunk, FloatBuffer[] floats, ByteBuffer[] bytes) {
+        this.words = words;
+        this.dim = dim;
+        this.quantized = quantized;
+        this.termOffsets = termOffsets;
+        this.termBytes = termBytes;
+        this.table = table;
+        this.rowsPerChunk = rowsPerChunk;
+        this.floats = floats;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Get the (shared) store for a file. If the file is a text file, it is
+     * converted to a binary file in the temporary directory, unless this has
+     * already been done since the file was last changed.
+     *
+     * @param file The embeddings file (binary or text)
+     * @return The store
+     * @throws IOException If the file could not be read
+     */
+    public static EmbeddingStore open(File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        synchronized (OPEN) {
+            EmbeddingStore store = OPEN.get(path);
+            if (store == null) {
+                File binary = file;
+                if (!isStore(file)) {
+                    binary = convertedFile(file);
+                    if (!binary.exists()) {
+                        binary.getParentFile().mkdirs();
+                        convert(file, binary, false);
+                    }
+                }
+                store = read(binary);
+                OPEN.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Check if a file is in the binary format
+     *
+     * @param file The file
+     * @return True if the file starts with the header of the binary format
+     * @throws IOException If the file could not be read
+     */
+    public static boolean isStore(File file) throws IOException {
+        if (file.length() < HEADER_INTS * 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * The binary file that a text file is converted to. It is named by the
+     * canonical path, length and modification time of the text file (not by
+     * its content, which would have to be read every time)
+     */
+    private static File convertedFile(File file) throws IOException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((file.getCanonicalPath() + "\0" + file.length() + "\0" + file.lastModified()).getBytes(StandardCharsets.UTF_8));
+            final StringBuilder key = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+                key.append(String.format("%02x", b));
+            }
+            return new File(new File(System.getProperty("java.io.tmpdir"), "naisc-embeddings"),
+                    file.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "-" + key + ".emb");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    /**
+     * Convert a text embeddings file to the binary format. Each line of the
+     * text file is a word followed by the values of its vector, separated by
+     * white space. The file may be gzipped.
+     *
+     * @param text The text file
+     * @param binary The binary file to write
+     * @param quantize If true store each value in one byte
+     * @throws IOException If the file could not be read or written
+     */
+    public static void convert(File text, File binary, boolean quantize) throws IOException {
+        final File matrix = File.createTempFile("matrix", ".tmp", binary.getAbsoluteFile().getParentFile());
+        final List<String> vocab = new ArrayList<>();
+        int dim = -1;
+        try {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(text.getName().endsWith(".gz")
+                    ? new GZIPInputStream(new FileInputStream(text)) : new FileInputStream(text), StandardCharsets.UTF_8));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(matrix)))) {
+                String line;
+                float[] vec = null;
+                while ((line = in.readLine()) != null) {
+                    final String[] split = line.trim().split("\\s+");
+                    if (split.length < 2) {
+                        continue;
+                    }
+                    if (dim < 0) {
+                        dim = split.length - 1;
+                        vec = new float[dim];
+                    } else if (split.length - 1 != dim) {
+                        throw new IOException("Inconsistent vector length for " + split[0] + " in " + text);
+                    }
+                    for (int i = 0; i < dim; i++) {
+                        vec[i] = Float.parseFloat(split[i + 1]);
+                    }
+                    vocab.add(split[0]);
+                    if (quantize) {
+                        float max = 0;
+                        for (float f : vec) {
+                            max = Math.max(max, Math.abs(f));
+                        }
+                        final float scale = max / 127f;
+                        out.writeFloat(scale);
+                        for (float f : vec) {
+                            out.writeByte(scale == 0 ? 0 : Math.round(f / scale));
+                        }
+                        for (int i = dim; i % 4 != 0; i++) {
+                            out.writeByte(0);
+                        }
+                    } else {
+                        for (float f : vec) {
+                            out.writeFloat(f);
+                        }
+                    }
+                }
+            }
+            if (dim < 0) {
+                throw new IOException(text + " contains no vectors");
+            }
+            write(binary, vocab, dim, quantize, matrix);
+        } finally {
+            matrix.delete();
+        }
+    }
+
+    private static int hash(byte[] b) {
+        int h = Arrays.hashCode(b);
+        return h ^ (h >>> 16);
+    }
+
+    private static void write(File file, List<String> vocab, int dim, boolean quantize, File matrix) throws IOException {
+        final int n = vocab.size();
+        final byte[][] terms = new byte[n][];
+        int termLength = 0;
+        for (int i = 0; i < n; i++) {
+            terms[i] = vocab.get(i).getBytes(StandardCharsets.UTF_8);
+            termLength += terms[i].length;
+        }
+        int tableSize = 1;
+        while (tableSize < 2 * n) {
+            tableSize <<= 1;
+        }
+        final int[] hashTable = new int[tableSize];
+        for (int i = 0; i < n; i++) {
+            int slot = hash(terms[i]) & (tableSize - 1);
+            while (hashTable[slot] != 0) {
+                if (Arrays.equals(terms[hashTable[slot] - 1], terms[i])) {
+                    // A repeated word takes its last vector
+                    break;
+                }
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            hashTable[slot] = i + 1;
+        }
+        // Write to a new temporary file and move it in place, so that another
+        // process converting the same file never publishes a partial store
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            writeStore(tmp, n, dim, quantize, tableSize, termLength, terms, hashTable, matrix);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void writeStore(File tmp, int n, int dim, boolean quantize, int tableSize, int termLength,
+            byte[][] terms, int[] hashTable, File matrix) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(dim);
+            out.writeInt(quantize ? 1 : 0);
+            out.writeInt(tableSize);
+            out.writeInt(termLength);
+            int offset = 0;
+            for (int i = 0; i < n; i++) {
+                out.writeInt(offset);
+                offset += terms[i].length;
+            }
+            out.writeInt(offset);
+            for (byte[] t : terms) {
+                out.write(t);
+            }
+            for (int i = termLength; i % 4 != 0; i++) {
+                out.writeByte(0);
+            }
+            for (int h : hashTable) {
+                out.writeInt(h);
+            }
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(matrix))) {
+                final byte[] buf = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buf)) > 0) {
+                    out.write(buf, 0, read);
+                }
+            }
+        }
+    }
+
+    private static EmbeddingStore read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_INTS * 4).asIntBuffer();
+            if (header.get(0) != MAGIC || header.get(1) != VERSION) {
+                throw new IOException(file + " is not an embeddings file");
+            }
+            final int n = header.get(2), dim = header.get(3), tableSize = header.get(5), termLength = header.get(6);
+            final boolean quantized = header.get(4) != 0;
+            long position = HEADER_INTS * 4;
+            final IntBuffer termOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (n + 1)).asIntBuffer();
+            position += 4L * (n + 1);
+            final ByteBuffer termBytes = channel.map(FileChannel.MapMode.READ_ONLY, position, termLength);
+            position += (termLength + 3) / 4 * 4;
+            final IntBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * tableSize).asIntBuffer();
+            position += 4L * tableSize;
+            final long rowBytes = quantized ? 4 + (dim + 3) / 4 * 4 : 4L * dim;
+            if (position + rowBytes * n != channel.size()) {
+                throw new IOException(file + " is truncated or corrupt");
+            }
+            // A buffer can hold at most 2GB so large matrices are mapped in chunks
+            final int rowsPerChunk = (int) Math.max(1, Math.min(n, Integer.MAX_VALUE / rowBytes));
+            final int chunks = n == 0 ? 0 : (n + rowsPerChunk - 1) / rowsPerChunk;
+            final FloatBuffer[] floats = quantized ? null : new FloatBuffer[chunks];
+            final ByteBuffer[] bytes = quantized ? new ByteBuffer[chunks] : null;
+            for (int c = 0; c < chunks; c++) {
+                final int rows = Math.min(rowsPerChunk, n - c * rowsPerChunk);
+                final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, rowBytes * rows);
+                position += rowBytes * rows;
+                if (quantized) {
+                    bytes[c] = chunk;
+                } else {
+                    floats[c] = chunk.asFloatBuffer();
+                }
+            }
+            return new EmbeddingStore(n, dim, quantized, termOffsets, termBytes, table, rowsPerChunk, floats, bytes);
+        }
+    }
+
+    /**
+     * The number of words
+     *
+     * @return The size of the vocabulary
+     */
+    public int size() {
+        return words;
+    }
+
+    /**
+     * The length of the vectors
+     *
+     * @return The dimension
+     */
+    public int dimension() {
+        return dim;
+    }
+
+    /**
+     * Is this store quantized to one byte per value
+     *
+     * @return True if quantized
+     */
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Find the row of a word
+     *
+     * @param word The word
+     * @return The row or -1 if the word is not in the vocabulary
+     */
+    public int find(String word) {
+        final byte[] b = word.getBytes(StandardCharsets.UTF_8);
+        final int mask = table.limit() - 1;
+        int slot = hash(b) & mask;
+        while (true) {
+            final int i = table.get(slot) - 1;
+            if (i < 0) {
+                return -1;
+            }
+            final int start = termOffsets.get(i);
+            if (termOffsets.get(i + 1) - start == b.length) {
+                boolean match = true;
+                for (int j = 0; j < b.length; j++) {
+                    if (termBytes.get(start + j) != b[j]) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    return i;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Get the word in a row
+     *
+     * @param row The row
+     * @return The word
+     */
+    public String word(int row) {
+        final int start = termOffsets.get(row);
+        final byte[] b = new byte[termOffsets.get(row + 1) - start];
+        for (int j = 0; j < b.length; j++) {
+            b[j] = termBytes.get(start + j);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy the vector in a row
+     *
+     * @param row The row
+     * @param dst The array to copy into (of length at least the dimension)
+     */
+    public void get(int row, float[] dst) {
+        get(row, dst, 0);
+    }
+
+    /**
+     * Copy the vector in a row into part of an array
+     *
+     * @param row The row
+     * @param dst The array to copy into
+     * @param offset The position in the array to copy the vector to
+     */
+    public void get(int row, float[] dst, int offset) {
+        final int c = row / rowsPerChunk, r = row % rowsPerChunk;
+        if (quantized) {
+            final ByteBuffer b = bytes[c];
+            final int base = r * (4 + (dim + 3) / 4 * 4);
+            final float scale = b.getFloat(base);
+            for (int j = 0; j < dim; j++) {
+                dst[offset + j] = b.get(base + 4 + j) * scale;
+            }
+        } else {
+            final FloatBuffer f = floats[c];
+            final int base = r * dim;
+            for (int j = 0; j < dim; j++) {
+                dst[offset + j] = f.get(base + j);
+            }
+        }
+    }
+
+    /**
+     * Get the vector of a word
+     *
+     * @param word The word
+     * @return The vector or null if the word is not in the vocabulary
+     */
+    public float[] get(String word) {
+        final int row = find(word);
+        if (row < 0) {
+            return null;
+        }
+        final float[] v = new float[dim];
+        get(row, v);
+        return v;
+    }
+
+    /**
+     * Convert a text embeddings file to the binary format
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        final OptionParser p = new OptionParser() {
+            {
+                accepts("q", "Quantize the vectors to one byte per value");
+                nonOptions("The text embeddings file and the binary file to write");
+            }
+        };
+        try {
+            final OptionSet os = p.parse(args);
+            if (os.nonOptionArguments().size() != 2) {
+                p.printHelpOn(System.err);
+                System.exit(-1);
+                return;
+            }
+            convert(new File(os.nonOptionArguments().get(0).toString()),
+                    new File(os.nonOptionArguments().get(1).toString()), os.has("q"));
+        } catch (Exception x) {
+            x.printStackTrace();
+            System.exit(-1);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.insightcentre.uld.naisc.feature.embeddings;
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
+import org.insightcentre.uld.naisc.AnalyzedLabel;
 
 /**
  * An aligner between two sets of words
@@ -25,6 +26,23 @@ public interface WordAligner {
      * @return A matrix giving the alignment
      */
     public WordAlignment align(String x, String y, Set<String> stopwords);
+
+    /**
+     * Align two sentences and extract features from the alignment. The 
+     * alignment is not returned, so implementations may reuse its memory 
+     * between calls, and they may keep their analysis of each sentence 
+     * with the label.
+     * @param x The source sentence to align
+     * @param y The target sentence to align
+     * @param stopwords The list of stopwords (or null to keep all words)
+     * @param wafe The extractor of features from the alignment
+     * @return The features
+     */
+    public default double[] alignFeatures(AnalyzedLabel x, AnalyzedLabel y, Set<String> stopwords,
+            StandardWordAlignmentFeatureExtractor wafe) {
+        return wafe.makeFeatures(stopwords == null ? align(x.string(), y.string()) 
+                : align(x.string(), y.string(), stopwords));
+    }
     
     /**
      * Save the model to a file
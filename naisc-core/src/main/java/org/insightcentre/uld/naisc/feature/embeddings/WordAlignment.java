@@ -9,7 +9,7 @@ import java.util.Arrays;
  */
 public class WordAlignment {
     private final Sentence sourceSentence, targetSentence;
-    private final double[][] alignment;
+    private final double[] alignment;
 
     /**
      * Create a word alignment
@@ -21,14 +21,35 @@ public class WordAlignment {
         double[][] alignment) {
         this.sourceSentence = sourceSentence;
         this.targetSentence = targetSentence;
-        this.alignment = alignment;
         if(alignment.length != sourceSentence.size()) {
             throw new IllegalArgumentException("source not size of matrix");
         }
-        for (double[] alignment1 : alignment) {
-            if (alignment1.length != targetSentence.size()) {
+        final int m = targetSentence.size();
+        this.alignment = new double[alignment.length * m];
+        for (int i = 0; i < alignment.length; i++) {
+            if (alignment[i].length != m) {
                 throw new IllegalArgumentException("target not size of matrix");
             }
+            System.arraycopy(alignment[i], 0, this.alignment, i * m, m);
+        }
+    }
+
+    /**
+     * Create a word alignment from a matrix stored by row, so that the 
+     * alignment between the ith source word and the jth target word is at
+     * {@code i * targetSentence.size() + j}. The matrix is not copied and may
+     * be longer than needed (so that a buffer can be reused)
+     * @param sourceSentence The left phrase
+     * @param targetSentence The right phrase
+     * @param alignment The weights of alignment between the words
+     */
+    public WordAlignment(Sentence sourceSentence, Sentence targetSentence, 
+        double[] alignment) {
+        this.sourceSentence = sourceSentence;
+        this.targetSentence = targetSentence;
+        this.alignment = alignment;
+        if(alignment.length < sourceSentence.size() * targetSentence.size()) {
+            throw new IllegalArgumentException("matrix smaller than sentences");
         }
     }
 
@@ -62,7 +83,7 @@ public class WordAlignment {
      * @return The alignment score
      */
     public double alignment(int i, int j) {
-        return alignment[i][j];
+        return alignment[i * targetSentence.tokens.length + j];
     }
 
     @Override
@@ -85,7 +106,12 @@ public class WordAlignment {
 
     @Override
     public String toString() {
-        return "Alignment{\n" + "sourceSentence=" + sourceSentence + "\n targetSentence=" + targetSentence + "\n alignment=" + Arrays.deepToString(alignment) + "\n}";
+        final int m = targetSentence.size();
+        final double[][] rows = new double[sourceSentence.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = Arrays.copyOfRange(alignment, i * m, i * m + m);
+        }
+        return "Alignment{\n" + "sourceSentence=" + sourceSentence + "\n targetSentence=" + targetSentence + "\n alignment=" + Arrays.deepToString(rows) + "\n}";
     }
 
     public boolean isEmpty() {
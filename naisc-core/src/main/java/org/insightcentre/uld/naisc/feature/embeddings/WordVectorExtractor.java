@@ -1,13 +1,7 @@
 package org.insightcentre.uld.naisc.feature.embeddings;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * The extractor for word vectors
@@ -19,7 +13,23 @@ public class WordVectorExtractor {
     private final Word2Vector w2vec;
 
     public WordVectorExtractor(String embeddingPath) {
-        w2vec = new GloveVectors(embeddingPath);
+        if (!new File(embeddingPath).exists()) {
+            throw new IllegalArgumentException(embeddingPath + " does not exist");
+        }
+        try {
+            w2vec = new StoreVectors(EmbeddingStore.open(new File(embeddingPath)));
+        } catch (IOException x) {
+            throw new RuntimeException("Could not load embeddings from " + embeddingPath, x);
+        }
+    }
+
+    /**
+     * The embeddings used by this extractor
+     *
+     * @return The embeddings
+     */
+    public EmbeddingStore store() {
+        return ((StoreVectors) w2vec).store;
     }
 
     public SentenceVectors extractFeatures(String[] sentence) {
@@ -43,62 +53,32 @@ public class WordVectorExtractor {
     }
 
     /**
-     * Load glove vectors
-     *
-     * @author Kartik Asooja
+     * Word vectors from a (memory-mapped) embedding store
      */
-    public class GloveVectors implements Word2Vector {
+    private static class StoreVectors implements Word2Vector {
 
-        public Map<String, double[]> vecs = new HashMap<String, double[]>();
-        public String filePath = "src/test/resources/glove.6B.50d.txt";
-        public int n = -1;
+        private final EmbeddingStore store;
+        private final double[] zero;
 
-        public GloveVectors(String filePath) {
-            this.filePath = filePath;
-            loadEmbeddings(this.filePath);
-        }
-        
-        
-
-        private void loadEmbeddings(String filePath) {
-            if (!new java.io.File(filePath).exists()) {
-                throw new IllegalArgumentException(filePath + " does not exist");
-            }
-            BufferedReader br; 
-            try {
-                br = new BufferedReader(new FileReader(filePath));
-            } catch(IOException x) {
-                throw new RuntimeException(x);
-            }
-            String line = null;
-            try {
-                while ((line = br.readLine()) != null) {
-                    String[] split = line.split("\\s+");
-                    String word = split[0].trim();
-                    int i = 1;
-                    double[] vec = new double[split.length - 1];
-                    for (i = 1; i < split.length; i++) {
-                        vec[i - 1] = Double.parseDouble(split[i]);
-                    }
-                    if (n >= 0 && n != vec.length) {
-                        throw new RuntimeException("Inconsistent vector length");
-                    }
-                    n = vec.length;
-                    vecs.put(word, vec);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        public StoreVectors(EmbeddingStore store) {
+            this.store = store;
+            this.zero = new double[store.dimension()];
         }
 
+        @Override
         public double[] getWordVector(String word) {
-            double[] vec = vecs.get(word);
-            if (vec == null) {
-                vec = new double[n];
+            final int row = store.find(word);
+            if (row < 0) {
+                // The vectors are copied into a DenseVector so this is not changed
+                return zero;
+            }
+            final float[] f = new float[store.dimension()];
+            store.get(row, f);
+            final double[] vec = new double[f.length];
+            for (int i = 0; i < f.length; i++) {
+                vec[i] = f[i];
             }
             return vec;
         }
-
     }
-
 }
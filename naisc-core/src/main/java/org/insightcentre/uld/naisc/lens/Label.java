@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.NodeIterator;
@@ -42,6 +43,7 @@ public class Label implements LensFactory {
         private final Language language;
         private final Dataset model;
         private final String id;
+        private final String leftKey, rightKey;
 
         public LabelImpl(String leftProperty, String rightProperty, String language, Dataset model,
                 String id) {
@@ -50,6 +52,8 @@ public class Label implements LensFactory {
             this.language = language == null ? null : Language.get(language);
             this.model = model;
             this.id = id;
+            this.leftKey = id() + "|" + leftProp.getURI();
+            this.rightKey = id() + "|" + rightProp.getURI();
         }
 
         public String id() {
@@ -68,57 +72,64 @@ public class Label implements LensFactory {
 
         @Override
         public Collection<LensResult> extract(URIRes res1, URIRes res2, NaiscListener log) {
-            List<Literal> lit1 = new ArrayList<>();
-            Resource entity1 = res1.toJena(model);
-            Resource entity2 = res2.toJena(model);
-
-            NodeIterator iter1 = model.listObjectsOfProperty(entity1, leftProp);
-            while (iter1.hasNext()) {
-                RDFNode node1 = iter1.next();
-                if (node1.isLiteral()) {
-                    lit1.add(node1.asLiteral());
-               }
-            }
+            return extract(res1, res2, log, EntityCache.NONE);
+        }
 
-            List<Literal> lit2 = new ArrayList<>();
-            NodeIterator iter2 = model.listObjectsOfProperty(entity2, rightProp);
-            while (iter2.hasNext()) {
-                RDFNode node2 = iter2.next();
-                if (node2.isLiteral()) {
-                    lit2.add(node2.asLiteral());
-                }
+        @Override
+        public Collection<LensResult> extract(URIRes res1, URIRes res2, NaiscListener log, EntityCache cache) {
+            final EntityLabels labels1 = cache.get(res1, leftKey, () -> labels(res1, leftProp, "left", log));
+            final EntityLabels labels2 = cache.get(res2, rightKey, () -> labels(res2, rightProp, "right", log));
+            List<LangStringPair> labels = Labels.closestLabelsByLang(labels1.literals, labels2.literals);
 
+            for (LangStringPair label : labels) {
+                if (language == null || label.lang1.equals(language)) {
+                    return new Some<>(new LensResult(label.lang1, label.lang2, 
+                            labels1.analysis(label._1), labels2.analysis(label._2), id()));
+                }
             }
-            if(lit1.isEmpty()) {
-                if(leftProp.getURI().equals("")) {
-                    try {
-                        lit1.add(model.createLiteral(URI.getRaw(new java.net.URI(res1.getURI()), URI.LabelLocation.infer)));
-                    } catch(java.net.URISyntaxException x) {
-                        throw new RuntimeException("Jena URI is not valid Java URI?!", x);
-                    }
-                } else {
-                    log.message(NaiscListener.Stage.MATCHING, NaiscListener.Level.WARNING, String.format("Property %s not found in left ontology for %s\n", leftProp.getURI(), res1));
+            return new Some<>(LensResult.fromLangStringPair(new LangStringPair(Language.UNDEFINED, Language.UNDEFINED, "", ""), id()));
+        }
+
+        private EntityLabels labels(URIRes res, Property prop, String side, NaiscListener log) {
+            List<Literal> lits = new ArrayList<>();
+            Resource entity = res.toJena(model);
+
+            NodeIterator iter = model.listObjectsOfProperty(entity, prop);
+            while (iter.hasNext()) {
+                RDFNode node = iter.next();
+                if (node.isLiteral()) {
+                    lits.add(node.asLiteral());
                 }
             }
-            if(lit2.isEmpty()) {
-                if(rightProp.getURI().equals("")) {
+            if(lits.isEmpty()) {
+                if(prop.getURI().equals("")) {
                     try {
-                        lit2.add(model.createLiteral(URI.getRaw(new java.net.URI(res2.getURI()), URI.LabelLocation.infer)));
+                        lits.add(model.createLiteral(URI.getRaw(new java.net.URI(res.getURI()), URI.LabelLocation.infer)));
                     } catch(java.net.URISyntaxException x) {
                         throw new RuntimeException("Jena URI is not valid Java URI?!", x);
                     }
                 } else {
-                    log.message(NaiscListener.Stage.MATCHING, NaiscListener.Level.WARNING, String.format("Property %s not found in right ontology for %s\n", rightProp.getURI(), res2));
+                    log.message(NaiscListener.Stage.MATCHING, NaiscListener.Level.WARNING, String.format("Property %s not found in %s ontology for %s\n", prop.getURI(), side, res));
                 }
             }
-            List<LangStringPair> labels = Labels.closestLabelsByLang(lit1, lit2);
+            return new EntityLabels(lits);
+        }
+    }
 
-            for (LangStringPair label : labels) {
-                if (language == null || label.lang1.equals(language)) {
-                    return new Some<>(LensResult.fromLangStringPair(label,id()));
-                }
-            }
-            return new Some<>(LensResult.fromLangStringPair(new LangStringPair(Language.UNDEFINED, Language.UNDEFINED, "", ""), id()));
+    /**
+     * The labels of an entity and the analyses of those that have been used
+     */
+    private static class EntityLabels {
+
+        private final List<Literal> literals;
+        private final ConcurrentHashMap<String, AnalyzedLabel> analyses = new ConcurrentHashMap<>();
+
+        public EntityLabels(List<Literal> literals) {
+            this.literals = literals;
+        }
+
+        public AnalyzedLabel analysis(String label) {
+            return analyses.computeIfAbsent(label, AnalyzedLabel::new);
         }
     }
 
@@ -0,0 +1,271 @@
+package org.insightcentre.uld.naisc.main;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.insightcentre.uld.naisc.Alignment;
+import org.insightcentre.uld.naisc.AlignmentSet;
+import org.insightcentre.uld.naisc.AlignmentWriter;
+import org.insightcentre.uld.naisc.URIRes;
+
+/**
+ * Standard alignment writers. All the writers encode into a buffer that is
+ * written to a channel whenever it is full, so the output is produced as the
+ * alignments are written. The formats are:
+ * <ul>
+ * <li>N-Triples, as produced by {@link AlignmentSet#toRDF}, with the score as
+ * a comment after each triple (.nt)</li>
+ * <li>Tab-separated values of the left entity, right entity, score and
+ * property (.tsv)</li>
+ * <li>A binary format that gives each URI a number the first time it is
+ * written (.bin), which can be read with {@link #readBinary}</li>
+ * </ul>
+ * Any of these may be gzip-compressed (e.g., .nt.gz).
+ *
+ * @author John McCrae
+ */
+public class AlignmentWriters {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAGIC = 0x4e414c4e;
+    private static final int VERSION = 1;
+    private static final byte STRING = 0, ALIGNMENT = 1;
+
+    private AlignmentWriters() {
+    }
+
+    /**
+     * Open a writer for a file, choosing the format by the extension of the
+     * file (.tsv or .bin, otherwise N-Triples). If the file ends in .gz it is
+     * compressed.
+     *
+     * @param file The file to write to
+     * @return The writer
+     * @throws IOException If the file could not be opened
+     */
+    public static AlignmentWriter forFile(File file) throws IOException {
+        String name = file.getName();
+        final OutputStream out;
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+            out = new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        } else {
+            out = new FileOutputStream(file);
+        }
+        if (name.endsWith(".tsv")) {
+            return tsv(out);
+        } else if (name.endsWith(".bin")) {
+            return binary(out);
+        } else {
+            return nTriples(out);
+        }
+    }
+
+    /**
+     * Create an N-Triples writer
+     *
+     * @param out The stream to write to (closed when the writer is closed)
+     * @return The writer
+     */
+    public static AlignmentWriter nTriples(OutputStream out) {
+        return new TextWriter(Channels.newChannel(out)) {
+            @Override
+            public void write(Alignment a) throws IOException {
+                line(String.format(Locale.ROOT, "<%s> <%s> <%s> . # %.4f\n",
+                        a.entity1.uri, a.property, a.entity2.uri, a.probability));
+            }
+        };
+    }
+
+    /**
+     * Create a TSV writer
+     *
+     * @param out The stream to write to (closed when the writer is closed)
+     * @return The writer
+     */
+    public static AlignmentWriter tsv(OutputStream out) {
+        return new TextWriter(Channels.newChannel(out)) {
+            @Override
+            public void write(Alignment a) throws IOException {
+                line(a.entity1.uri + "\t" + a.entity2.uri + "\t" + a.probability + "\t" + a.property + "\n");
+            }
+        };
+    }
+
+    /**
+     * Create a binary writer
+     *
+     * @param out The stream to write to (closed when the writer is closed)
+     * @return The writer
+     * @throws IOException If the header could not be written
+     */
+    public static AlignmentWriter binary(OutputStream out) throws IOException {
+        return new BinaryWriter(Channels.newChannel(out));
+    }
+
+    private static abstract class ChannelWriter implements AlignmentWriter {
+
+        private final WritableByteChannel channel;
+        protected final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+        public ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        protected void flush() throws IOException {
+            ((Buffer) buf).flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            ((Buffer) buf).clear();
+        }
+
+        protected void ensure(int n) throws IOException {
+            if (buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static abstract class TextWriter extends ChannelWriter {
+
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        public TextWriter(WritableByteChannel channel) {
+            super(channel);
+        }
+
+        protected void line(String s) throws IOException {
+            final CharBuffer chars = CharBuffer.wrap(s);
+            while (true) {
+                final CoderResult result = encoder.encode(chars, buf, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+            encoder.reset();
+        }
+    }
+
+    /**
+     * Alignments are written as a record of the numbers of the left entity,
+     * the right entity and the property and the score as a float. Each string
+     * is written as a string record before the first alignment that uses it.
+     */
+    private static class BinaryWriter extends ChannelWriter {
+
+        private final Object2IntOpenHashMap<String> strings = new Object2IntOpenHashMap<>();
+
+        public BinaryWriter(WritableByteChannel channel) throws IOException {
+            super(channel);
+            strings.defaultReturnValue(-1);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+        }
+
+        private int string(String s) throws IOException {
+            int i = strings.getInt(s);
+            if (i < 0) {
+                i = strings.size();
+                strings.put(s, i);
+                final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                ensure(5);
+                buf.put(STRING);
+                buf.putInt(b.length);
+                for (int off = 0; off < b.length;) {
+                    ensure(1);
+                    final int n = Math.min(buf.remaining(), b.length - off);
+                    buf.put(b, off, n);
+                    off += n;
+                }
+            }
+            return i;
+        }
+
+        @Override
+        public void write(Alignment a) throws IOException {
+            final int l = string(a.entity1.uri), r = string(a.entity2.uri), p = string(a.property);
+            ensure(17);
+            buf.put(ALIGNMENT);
+            buf.putInt(l);
+            buf.putInt(r);
+            buf.putInt(p);
+            buf.putFloat((float) a.probability);
+        }
+    }
+
+    /**
+     * Read alignments written by the binary writer
+     *
+     * @param file The file
+     * @param leftDataset The identifier of the left dataset
+     * @param rightDataset The identifier of the right dataset
+     * @return The alignments
+     * @throws IOException If the file could not be read or is not in the
+     * binary format
+     */
+    public static AlignmentSet readBinary(File file, String leftDataset, String rightDataset) throws IOException {
+        final AlignmentSet alignments = new AlignmentSet();
+        final List<String> strings = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.getName().endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a binary alignment file");
+            }
+            while (true) {
+                final int tag = in.read();
+                if (tag < 0) {
+                    break;
+                }
+                try {
+                    if (tag == STRING) {
+                        final byte[] b = new byte[in.readInt()];
+                        in.readFully(b);
+                        strings.add(new String(b, StandardCharsets.UTF_8));
+                    } else if (tag == ALIGNMENT) {
+                        final String l = strings.get(in.readInt()), r = strings.get(in.readInt()), p = strings.get(in.readInt());
+                        alignments.add(new Alignment(new URIRes(l, leftDataset), new URIRes(r, rightDataset),
+                                in.readFloat(), p, null));
+                    } else {
+                        throw new IOException(file + " is corrupt");
+                    }
+                } catch (EOFException | IndexOutOfBoundsException x) {
+                    throw new IOException(file + " is truncated or corrupt", x);
+                }
+            }
+        }
+        return alignments;
+    }
+}
@@ -0,0 +1,184 @@
+package org.insightcentre.uld.naisc.main;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads a file in fixed-size blocks and keeps the most recently used blocks
+ * in memory. This is used to read a {@link CompactDataset} snapshot that is
+ * too large to be held in memory (or mapped). The blocks are divided by their
+ * number between a number of segments, each of which is a small LRU map with
+ * its own lock, so that threads reading different blocks rarely wait for
+ * each other.
+ *
+ * @author John McCrae
+ */
+class BlockCache implements CompactDataset.Source {
+
+    /**
+     * The default block size (64KB)
+     */
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    private static final int SEGMENTS = 16;
+
+    private final FileChannel channel;
+    private final int blockBits;
+    private final int blockSize;
+    private final Segment[] segments;
+    private final int mask;
+    private final LongAdder reads = new LongAdder(), hits = new LongAdder();
+
+    /**
+     * Create a block cache
+     *
+     * @param channel The file to read
+     * @param blockSize The size of a block, must be a power of two and a
+     * multiple of four
+     * @param maxBlocks The maximum number of blocks to keep in memory
+     */
+    public BlockCache(FileChannel channel, int blockSize, int maxBlocks) {
+        if (blockSize < 4 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two");
+        }
+        if (maxBlocks < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one block");
+        }
+        this.channel = channel;
+        this.blockSize = blockSize;
+        this.blockBits = Integer.numberOfTrailingZeros(blockSize);
+        int n = 1;
+        while (n * 2 <= SEGMENTS && n * 2 <= maxBlocks) {
+            n <<= 1;
+        }
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maxBlocks / n + (i < maxBlocks % n ? 1 : 0));
+        }
+        this.mask = n - 1;
+    }
+
+    private ByteBuffer block(long b) {
+        reads.increment();
+        final Segment segment = segments[(int) b & mask];
+        synchronized (segment) {
+            final ByteBuffer block = segment.getAndMoveToLast(b);
+            if (block != null) {
+                hits.increment();
+                return block;
+            }
+        }
+        // Read the block without holding the lock, if another thread reads
+        // the same block at the same time the first one read is kept
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        try {
+            long pos = b << blockBits;
+            while (block.hasRemaining()) {
+                int n = channel.read(block, pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+        ((Buffer) block).flip();
+        synchronized (segment) {
+            final ByteBuffer other = segment.get(b);
+            if (other != null) {
+                return other;
+            }
+            segment.putAndMoveToLast(b, block);
+            if (segment.size() > segment.capacity) {
+                segment.removeFirst();
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Read an integer. Integers must be aligned to four bytes so they are
+     * never split between blocks.
+     *
+     * @param pos The position in the file
+     * @return The integer at this position
+     */
+    public int getInt(long pos) {
+        return block(pos >>> blockBits).getInt((int) (pos & (blockSize - 1)));
+    }
+
+    /**
+     * Read bytes from the file
+     *
+     * @param pos The position in the file
+     * @param dst The array to fill
+     */
+    public void get(long pos, byte[] dst) {
+        int off = 0;
+        while (off < dst.length) {
+            final ByteBuffer block = block(pos >>> blockBits);
+            final int start = (int) (pos & (blockSize - 1));
+            final int n = Math.min(dst.length - off, blockSize - start);
+            for (int i = 0; i < n; i++) {
+                dst[off + i] = block.get(start + i);
+            }
+            off += n;
+            pos += n;
+        }
+    }
+
+    /**
+     * The proportion of reads that were served from memory
+     *
+     * @return The hit rate
+     */
+    public double hitRate() {
+        final long r = reads.sum();
+        return r == 0 ? 0.0 : (double) hits.sum() / r;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public CompactDataset.Ints ints(long position, int count) {
+        return new CompactDataset.Ints() {
+            @Override
+            public int get(int i) {
+                return getInt(position + 4L * i);
+            }
+
+            @Override
+            public int length() {
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public CompactDataset.Bytes bytes(long position, long length) {
+        return (pos, dst) -> get(position + pos, dst);
+    }
+
+    /**
+     * The most recently used blocks of one segment (least recently used
+     * first)
+     */
+    private static class Segment extends Long2ObjectLinkedOpenHashMap<ByteBuffer> {
+
+        private final int capacity;
+
+        public Segment(int capacity) {
+            super(capacity + 1);
+            this.capacity = capacity;
+        }
+    }
+}
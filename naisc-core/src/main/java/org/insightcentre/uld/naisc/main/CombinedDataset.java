@@ -75,6 +75,12 @@ public class CombinedDataset implements Dataset {
             dataset2.listObjectsOfProperty(r, createProperty)), null);
     }
 
+    @Override
+    public void prefetch(Resource r) {
+        dataset1.prefetch(r);
+        dataset2.prefetch(r);
+    }
+
     @Override
     public StmtIterator listStatements(Resource source, Property prop, RDFNode rdfNode) {
         return new StmtIteratorImpl(new PairIterator<>(dataset1.listStatements(source, prop, rdfNode),
@@ -0,0 +1,1043 @@
+package org.insightcentre.uld.naisc.main;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.NodeIterator;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.rdf.model.impl.NodeIteratorImpl;
+import org.apache.jena.rdf.model.impl.ResIteratorImpl;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.util.None;
+import org.insightcentre.uld.naisc.util.Option;
+
+/**
+ * A read-only dataset that stores its triples compactly. Every IRI, blank
+ * node and literal is interned to an integer and the triples are stored as
+ * sorted integer arrays, indexed by subject (subject-predicate-object) and by
+ * predicate (predicate-object-subject), so that a triple takes about 24 bytes
+ * rather than the several objects of a Jena model.
+ *
+ * The dataset is also a Jena model (through a graph over the same arrays), so
+ * SPARQL queries and the statement methods still work. Patterns with only an
+ * object are answered by a scan.
+ *
+ * A dataset can be written as a binary snapshot with {@link #write(File)} and
+ * opened again with {@link #open(File, String, URL)}, which memory-maps the
+ * snapshot instead of reading it, so concurrent runs share the same pages.
+ *
+ * @author John McCrae
+ */
+public class CompactDataset implements Dataset {
+
+    static final int MAGIC = 0x4e434453;
+    static final int VERSION = 3;
+    static final int HEADER_INTS = 12;
+    private final String id;
+    private final URL location;
+    private final Model model;
+    private final Dictionary dictionary;
+    private final int nodeCount;
+    private final AtomicReferenceArray<RDFNode> rdfNodes;
+    // Triples ordered by subject, predicate, object
+    private final Ints sOffsets, spoP, spoO;
+    // Triples ordered by predicate, object, subject
+    private final Ints pOffsets, posO, posS;
+    // The distinct subjects of each predicate
+    private final Ints psOffsets, psS;
+
+    private CompactDataset(String id, URL location, Dictionary dictionary,
+            Ints sOffsets, Ints spoP, Ints spoO, Ints pOffsets, Ints posO, Ints posS,
+            Ints psOffsets, Ints psS, boolean cacheNodes) {
+        this.id = id;
+        this.location = location;
+        this.dictionary = dictionary;
+        this.nodeCount = dictionary.size();
+        this.rdfNodes = cacheNodes ? new AtomicReferenceArray<>(nodeCount) : null;
+        this.sOffsets = sOffsets;
+        this.spoP = spoP;
+        this.spoO = spoO;
+        this.pOffsets = pOffsets;
+        this.posO = posO;
+        this.posS = posS;
+        this.psOffsets = psOffsets;
+        this.psS = psS;
+        this.model = ModelFactory.createModelForGraph(new CompactGraph());
+    }
+
+    /**
+     * Create a compact copy of a model
+     *
+     * @param model The model
+     * @param id The identifier of the dataset
+     * @param location The location of the dataset (or null)
+     * @return The compact dataset
+     */
+    public static CompactDataset fromModel(Model model, String id, URL location) {
+        final Builder builder = new Builder();
+        builder.addAll(model.getGraph().find());
+        return builder.build(id, location);
+    }
+
+    /**
+     * The number of triples in this dataset
+     *
+     * @return The number of triples
+     */
+    public int size() {
+        return spoO.length();
+    }
+
+    /**
+     * Get this dataset as a (read-only) Jena model
+     *
+     * @return The model view of this dataset
+     */
+    public Model asModel() {
+        return model;
+    }
+
+    private int idOf(RDFNode n) {
+        return n == null ? -1 : dictionary.id(n.asNode());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <X extends RDFNode> X rdfNode(int i) {
+        RDFNode n = rdfNodes == null ? null : rdfNodes.get(i);
+        if (n == null) {
+            final Node node = dictionary.node(i);
+            n = node.isLiteral() ? model.asRDFNode(node) : model.wrapAsResource(node);
+            if (rdfNodes != null) {
+                rdfNodes.compareAndSet(i, null, n);
+            }
+        }
+        return (X) n;
+    }
+
+    /**
+     * The first position in the sorted range {@code a[from..to)} whose value
+     * is at least key
+     */
+    private static int lowerBound(Ints a, int from, int to, int key) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (a.get(mid) < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    @Override
+    public URL getLocation() {
+        return location;
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public Option<URL> asEndpoint() {
+        return new None<>();
+    }
+
+    @Override
+    public ResIterator listSubjects() {
+        return new ResIteratorImpl(new Iterator<Resource>() {
+            int i = next(0);
+
+            private int next(int j) {
+                while (j < nodeCount && sOffsets.get(j) == sOffsets.get(j + 1)) {
+                    j++;
+                }
+                return j;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return i < nodeCount;
+            }
+
+            @Override
+            public Resource next() {
+                if (i >= nodeCount) {
+                    throw new NoSuchElementException();
+                }
+                Resource r = rdfNode(i);
+                i = next(i + 1);
+                return r;
+            }
+        });
+    }
+
+    @Override
+    public Property createProperty(String uri) {
+        return model.createProperty(uri);
+    }
+
+    @Override
+    public Resource createResource(String uri) {
+        return model.createResource(uri);
+    }
+
+    @Override
+    public Literal createLiteral(String value) {
+        return model.createLiteral(value);
+    }
+
+    @Override
+    public ResIterator listSubjectsWithProperty(Property property) {
+        final int p = idOf(property);
+        if (p < 0) {
+            return new ResIteratorImpl(Collections.emptyIterator());
+        }
+        return new ResIteratorImpl(new IdIterator<Resource>(psS, psOffsets.get(p), psOffsets.get(p + 1)));
+    }
+
+    @Override
+    public ResIterator listSubjectsWithProperty(Property property, RDFNode object) {
+        final int p = idOf(property), o = idOf(object);
+        if (p < 0 || o < 0) {
+            return new ResIteratorImpl(Collections.emptyIterator());
+        }
+        final int from = lowerBound(posO, pOffsets.get(p), pOffsets.get(p + 1), o);
+        final int to = lowerBound(posO, from, pOffsets.get(p + 1), o + 1);
+        return new ResIteratorImpl(new IdIterator<Resource>(posS, from, to));
+    }
+
+    @Override
+    public NodeIterator listObjectsOfProperty(Resource r, Property property) {
+        final int s = idOf(r), p = idOf(property);
+        if (s < 0 || p < 0) {
+            return new NodeIteratorImpl(Collections.emptyIterator(), null);
+        }
+        final int from = lowerBound(spoP, sOffsets.get(s), sOffsets.get(s + 1), p);
+        final int to = lowerBound(spoP, from, sOffsets.get(s + 1), p + 1);
+        return new NodeIteratorImpl(new IdIterator<RDFNode>(spoO, from, to), null);
+    }
+
+    @Override
+    public StmtIterator listStatements(Resource source, Property prop, RDFNode rdfNode) {
+        return model.listStatements(source, prop, rdfNode);
+    }
+
+    @Override
+    public StmtIterator listStatements() {
+        return model.listStatements();
+    }
+
+    @Override
+    public QueryExecution createQuery(Query query) {
+        return QueryExecutionFactory.create(query, model);
+    }
+
+    /**
+     * Write this dataset as a binary snapshot. The snapshot is written to a
+     * temporary file first, so other processes never see a partial snapshot.
+     *
+     * @param file The file to write to
+     * @throws IOException If the file could not be written
+     */
+    public void write(File file) throws IOException {
+        write(file, -1, -1);
+    }
+
+    /**
+     * Write this dataset as a binary snapshot of a file. The length and
+     * modification time of the file are stored in the snapshot, so that
+     * {@link #isSnapshotOf(File, File)} can tell if the file has changed.
+     *
+     * @param file The file to write to
+     * @param source The file the dataset was loaded from
+     * @throws IOException If the file could not be written
+     */
+    public void write(File file, File source) throws IOException {
+        write(file, source.length(), source.lastModified());
+    }
+
+    private void write(File file, long sourceLength, long sourceModified) throws IOException {
+        final byte[][] terms = new byte[nodeCount][];
+        long termLength = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            terms[i] = encode(dictionary.node(i));
+            termLength += terms[i].length;
+        }
+        final int[] table = MappedDictionary.buildTable(terms);
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, nodeCount, size(), psS.length(), table.length, termLength, sourceLength, sourceModified);
+            long offset = 0;
+            for (byte[] t : terms) {
+                out.writeLong(offset);
+                offset += t.length;
+            }
+            out.writeLong(offset);
+            for (byte[] t : terms) {
+                out.write(t);
+            }
+            pad(out, offset);
+            for (int x : table) {
+                out.writeInt(x);
+            }
+            for (Ints b : Arrays.asList(sOffsets, spoP, spoO, pOffsets, posO, posS, psOffsets, psS)) {
+                for (int i = 0; i < b.length(); i++) {
+                    out.writeInt(b.get(i));
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not write snapshot to " + file);
+        }
+    }
+
+    /**
+     * Write the header of a snapshot
+     */
+    static void writeHeader(DataOutputStream out, int nodeCount, int size, int psSize, int tableSize,
+            long termLength, long sourceLength, long sourceModified) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nodeCount);
+        out.writeInt(size);
+        out.writeInt(psSize);
+        out.writeInt(tableSize);
+        out.writeLong(termLength);
+        out.writeLong(sourceLength);
+        out.writeLong(sourceModified);
+    }
+
+    /**
+     * Pad the terms of a snapshot to a multiple of four bytes
+     */
+    static void pad(DataOutputStream out, long termLength) throws IOException {
+        for (long i = termLength; i % 4 != 0; i++) {
+            out.write(0);
+        }
+    }
+
+    /**
+     * Check if a snapshot was written from a file as it is now, that is the
+     * length and modification time of the file are those stored in the
+     * snapshot
+     *
+     * @param snapshot The snapshot file
+     * @param source The file the snapshot was written from
+     * @return True if the snapshot is of this version of the file, false if
+     * the file has changed or the snapshot cannot be read
+     */
+    public static boolean isSnapshotOf(File snapshot, File source) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), HEADER_INTS * 4))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            in.skipBytes(4 * 4 + 8);
+            return in.readLong() == source.length() && in.readLong() == source.lastModified();
+        } catch (IOException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a snapshot written by {@link #write(File)}. The snapshot is
+     * memory-mapped, so this does not read the triples.
+     *
+     * @param file The snapshot file
+     * @param id The identifier of the dataset
+     * @param location The location of the dataset (or null)
+     * @return The dataset
+     * @throws IOException If the file could not be read or is not a snapshot
+     */
+    public static CompactDataset open(File file, String id, URL location) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(file, id, location, new MappedSource(channel), true);
+        }
+    }
+
+    /**
+     * Open a snapshot written by {@link #write(File)} so that it stays on
+     * disk. The snapshot is read in blocks as it is used and at most the given
+     * number of blocks are kept in memory, so the dataset can be much larger
+     * than the heap (or the address space).
+     *
+     * @param file The snapshot file
+     * @param id The identifier of the dataset
+     * @param location The location of the dataset (or null)
+     * @param cacheBlocks The maximum number of blocks to keep in memory
+     * @return The dataset
+     * @throws IOException If the file could not be read or is not a snapshot
+     */
+    public static CompactDataset openOnDisk(File file, String id, URL location, int cacheBlocks) throws IOException {
+        return openOnDisk(file, id, location, BlockCache.BLOCK_SIZE, cacheBlocks);
+    }
+
+    static CompactDataset openOnDisk(File file, String id, URL location, int blockSize, int cacheBlocks) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return read(file, id, location, new BlockCache(channel, blockSize, cacheBlocks), false);
+        } catch (IOException | RuntimeException x) {
+            channel.close();
+            throw x;
+        }
+    }
+
+    private static CompactDataset read(File file, String id, URL location, Source source, boolean cacheNodes) throws IOException {
+        final long fileSize = source.size();
+        if (fileSize < HEADER_INTS * 4) {
+            throw new IOException(file + " is not a dataset snapshot");
+        }
+        final Ints header = source.ints(0, HEADER_INTS);
+        if (header.get(0) != MAGIC || header.get(1) != VERSION) {
+            throw new IOException(file + " is not a dataset snapshot");
+        }
+        final int n = header.get(2), t = header.get(3), ps = header.get(4);
+        final int tableSize = header.get(5);
+        final long termLength = ((long) header.get(6) << 32) | (header.get(7) & 0xffffffffL);
+        long position = HEADER_INTS * 4;
+        final Ints termOffsets = source.ints(position, 2 * (n + 1));
+        position += 8L * (n + 1);
+        if (position + termLength > fileSize) {
+            throw new IOException(file + " is truncated or corrupt");
+        }
+        final Bytes termBytes = source.bytes(position, termLength);
+        position += (termLength + 3) / 4 * 4;
+        final Ints table = source.ints(position, tableSize);
+        position += 4L * tableSize;
+        final Ints[] sections = new Ints[8];
+        final int[] lengths = new int[]{n + 1, t, t, n + 1, t, t, n + 1, ps};
+        for (int i = 0; i < sections.length; i++) {
+            if (position + 4L * lengths[i] > fileSize) {
+                throw new IOException(file + " is truncated or corrupt");
+            }
+            sections[i] = source.ints(position, lengths[i]);
+            position += 4L * lengths[i];
+        }
+        if (position != fileSize) {
+            throw new IOException(file + " is truncated or corrupt");
+        }
+        return new CompactDataset(id, location, new MappedDictionary(termOffsets, termBytes, table, cacheNodes),
+                sections[0], sections[1], sections[2], sections[3], sections[4], sections[5], sections[6], sections[7],
+                cacheNodes);
+    }
+
+    /**
+     * A read-only array of integers
+     */
+    interface Ints {
+
+        int get(int i);
+
+        int length();
+
+        static Ints of(int[] a) {
+            return new Ints() {
+                @Override
+                public int get(int i) {
+                    return a[i];
+                }
+
+                @Override
+                public int length() {
+                    return a.length;
+                }
+            };
+        }
+
+        static Ints of(IntBuffer b) {
+            return new Ints() {
+                @Override
+                public int get(int i) {
+                    return b.get(i);
+                }
+
+                @Override
+                public int length() {
+                    return b.limit();
+                }
+            };
+        }
+    }
+
+    /**
+     * A read-only array of bytes
+     */
+    interface Bytes {
+
+        /**
+         * Copy bytes from this array
+         *
+         * @param pos The position in this array to start copying from
+         * @param dst The array to copy to (completely)
+         */
+        void get(long pos, byte[] dst);
+    }
+
+    /**
+     * The file a snapshot is read from
+     */
+    interface Source {
+
+        long size() throws IOException;
+
+        Ints ints(long position, int count) throws IOException;
+
+        Bytes bytes(long position, long length) throws IOException;
+    }
+
+    private static class MappedSource implements Source {
+
+        private static final int CHUNK = 1 << 30;
+        private static final int CHUNK_OVERLAP = 1 << 28;
+
+        private final FileChannel channel;
+
+        public MappedSource(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public Ints ints(long position, int count) throws IOException {
+            return Ints.of(channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).asIntBuffer());
+        }
+
+        @Override
+        public Bytes bytes(long position, long length) throws IOException {
+            // A mapping is at most 2GB, so larger dictionaries are mapped in
+            // chunks, which overlap so that no term is split between them
+            final ByteBuffer[] chunks = new ByteBuffer[(int) Math.max(1, (length + CHUNK - 1) / CHUNK)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long start = (long) i * CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start,
+                        Math.min(length - start, (long) CHUNK + CHUNK_OVERLAP));
+            }
+            return (pos, dst) -> {
+                final ByteBuffer d = chunks[(int) (pos / CHUNK)].duplicate();
+                ((Buffer) d).position((int) (pos % CHUNK));
+                d.get(dst);
+            };
+        }
+    }
+
+    /**
+     * Encode a node as bytes. The first character gives the kind of node and
+     * literals are encoded as the datatype, the language and the lexical form
+     * separated by a zero byte.
+     */
+    static byte[] encode(Node n) {
+        final String s;
+        if (n.isURI()) {
+            s = "U" + n.getURI();
+        } else if (n.isBlank()) {
+            s = "B" + n.getBlankNodeLabel();
+        } else if (n.isLiteral()) {
+            s = "L" + n.getLiteralDatatypeURI() + "\u0000" + n.getLiteralLanguage() + "\u0000" + n.getLiteralLexicalForm();
+        } else {
+            throw new IllegalArgumentException("Cannot store " + n);
+        }
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Node decode(byte[] b) {
+        final String s = new String(b, StandardCharsets.UTF_8);
+        switch (s.charAt(0)) {
+            case 'U':
+                return NodeFactory.createURI(s.substring(1));
+            case 'B':
+                return NodeFactory.createBlankNode(s.substring(1));
+            default:
+                final int i = s.indexOf('\u0000');
+                final int j = s.indexOf('\u0000', i + 1);
+                final String lang = s.substring(i + 1, j);
+                return lang.isEmpty()
+                        ? NodeFactory.createLiteral(s.substring(j + 1), TypeMapper.getInstance().getSafeTypeByName(s.substring(1, i)))
+                        : NodeFactory.createLiteral(s.substring(j + 1), lang);
+        }
+    }
+
+    /**
+     * Iterate the nodes with the identifiers in a range of an array
+     */
+    private class IdIterator<X extends RDFNode> implements Iterator<X> {
+
+        private final Ints a;
+        private int i;
+        private final int to;
+
+        public IdIterator(Ints a, int from, int to) {
+            this.a = a;
+            this.i = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < to;
+        }
+
+        @Override
+        public X next() {
+            if (i >= to) {
+                throw new NoSuchElementException();
+            }
+            return rdfNode(a.get(i++));
+        }
+    }
+
+    /**
+     * The graph view of the compact dataset
+     */
+    private class CompactGraph extends GraphBase {
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple t) {
+            final Node sn = concrete(t.getSubject()), pn = concrete(t.getPredicate()), on = concrete(t.getObject());
+            final int s = sn == null ? -1 : dictionary.id(sn);
+            final int p = pn == null ? -1 : dictionary.id(pn);
+            final int o = on == null ? -1 : dictionary.id(on);
+            if ((sn != null && s < 0) || (pn != null && p < 0) || (on != null && o < 0)) {
+                return WrappedIterator.emptyIterator();
+            }
+            if (sn != null) {
+                int from = sOffsets.get(s), to = sOffsets.get(s + 1);
+                if (pn != null) {
+                    from = lowerBound(spoP, from, to, p);
+                    to = lowerBound(spoP, from, to, p + 1);
+                    if (on != null) {
+                        from = lowerBound(spoO, from, to, o);
+                        to = lowerBound(spoO, from, to, o + 1);
+                    }
+                }
+                return WrappedIterator.create(new SPOIterator(s, from, to, o));
+            } else if (pn != null) {
+                int from = pOffsets.get(p), to = pOffsets.get(p + 1);
+                if (on != null) {
+                    from = lowerBound(posO, from, to, o);
+                    to = lowerBound(posO, from, to, o + 1);
+                }
+                final int start = from, end = to;
+                return WrappedIterator.create(new Iterator<Triple>() {
+                    int i = start;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < end;
+                    }
+
+                    @Override
+                    public Triple next() {
+                        if (i >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        Triple triple = Triple.create(dictionary.node(posS.get(i)), pn, dictionary.node(posO.get(i)));
+                        i++;
+                        return triple;
+                    }
+                });
+            } else {
+                return WrappedIterator.create(new SPOIterator(0, 0, CompactDataset.this.size(), o));
+            }
+        }
+
+        /**
+         * Variables and {@code ANY} both match any node
+         */
+        private Node concrete(Node n) {
+            return n.isConcrete() ? n : null;
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return CompactDataset.this.size();
+        }
+    }
+
+    /**
+     * Iterate a range of the subject-predicate-object index, optionally only
+     * the triples with a given object
+     */
+    private class SPOIterator implements Iterator<Triple> {
+
+        private int s, i;
+        private final int to, o;
+
+        public SPOIterator(int s, int from, int to, int o) {
+            this.s = s;
+            this.i = from;
+            this.to = to;
+            this.o = o;
+            advance();
+        }
+
+        private void advance() {
+            while (i < to && o >= 0 && spoO.get(i) != o) {
+                i++;
+            }
+            while (i < to && sOffsets.get(s + 1) <= i) {
+                s++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < to;
+        }
+
+        @Override
+        public Triple next() {
+            if (i >= to) {
+                throw new NoSuchElementException();
+            }
+            Triple t = Triple.create(dictionary.node(s), dictionary.node(spoP.get(i)), dictionary.node(spoO.get(i)));
+            i++;
+            advance();
+            return t;
+        }
+    }
+
+    /**
+     * The mapping between nodes and their identifiers
+     */
+    private interface Dictionary {
+
+        int size();
+
+        Node node(int i);
+
+        /**
+         * @return The identifier of the node or -1 if it is not in the dataset
+         */
+        int id(Node n);
+    }
+
+    private static class HeapDictionary implements Dictionary {
+
+        private final Node[] nodes;
+        private final Object2IntOpenHashMap<Node> ids;
+
+        public HeapDictionary(Node[] nodes, Object2IntOpenHashMap<Node> ids) {
+            this.nodes = nodes;
+            this.ids = ids;
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        @Override
+        public Node node(int i) {
+            return nodes[i];
+        }
+
+        @Override
+        public int id(Node n) {
+            return ids.getInt(n);
+        }
+    }
+
+    /**
+     * A dictionary stored in a snapshot. The encoded nodes are found by an
+     * open-addressing hash table over their bytes. Decoded nodes are kept
+     * unless the snapshot is on disk.
+     */
+    static class MappedDictionary implements Dictionary {
+
+        private final Ints offsets;
+        private final Bytes bytes;
+        private final Ints table;
+        private final int size;
+        private final AtomicReferenceArray<Node> nodes;
+
+        public MappedDictionary(Ints offsets, Bytes bytes, Ints table, boolean cacheNodes) {
+            this.offsets = offsets;
+            this.bytes = bytes;
+            this.table = table;
+            this.size = offsets.length() / 2 - 1;
+            this.nodes = cacheNodes ? new AtomicReferenceArray<>(size) : null;
+        }
+
+        private long offset(int i) {
+            return ((long) offsets.get(2 * i) << 32) | (offsets.get(2 * i + 1) & 0xffffffffL);
+        }
+
+        /**
+         * The hash of an encoded term. The home slot of a term is given by the
+         * top bits of the hash, so terms in order of their (unsigned) hash are
+         * in order of their slot in a table of any size.
+         */
+        static int hash(byte[] b) {
+            return Arrays.hashCode(b) * 0x9E3779B9;
+        }
+
+        /**
+         * The number of bits of the hash used for the home slot of a table
+         */
+        static int tableBits(int terms) {
+            int bits = 1;
+            while ((1L << bits) < terms * 2L) {
+                bits++;
+            }
+            if (bits > 30) {
+                throw new IllegalArgumentException("Too many terms for a snapshot");
+            }
+            return bits;
+        }
+
+        /**
+         * Build the hash table of a dictionary. The probes do not wrap around
+         * the end of the table, instead the table grows past its power of two
+         * size and always ends with an empty slot.
+         */
+        static int[] buildTable(byte[][] terms) {
+            final int bits = tableBits(terms.length);
+            final int[] t = new int[(1 << bits) + terms.length + 1];
+            int last = -1;
+            for (int i = 0; i < terms.length; i++) {
+                int slot = hash(terms[i]) >>> (32 - bits);
+                while (t[slot] != 0) {
+                    slot++;
+                }
+                t[slot] = i + 1;
+                last = Math.max(last, slot);
+            }
+            return Arrays.copyOf(t, Math.max(1 << bits, last + 2));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Node node(int i) {
+            Node n = nodes == null ? null : nodes.get(i);
+            if (n == null) {
+                final long start = offset(i);
+                final byte[] b = new byte[(int) (offset(i + 1) - start)];
+                bytes.get(start, b);
+                n = decode(b);
+                if (nodes != null) {
+                    nodes.compareAndSet(i, null, n);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public int id(Node n) {
+            if (!n.isURI() && !n.isBlank() && !n.isLiteral()) {
+                return -1;
+            }
+            final byte[] b = encode(n);
+            final int bits = 31 - Integer.numberOfLeadingZeros(table.length());
+            int slot = hash(b) >>> (32 - bits);
+            while (true) {
+                final int v = table.get(slot);
+                if (v == 0) {
+                    return -1;
+                }
+                final int i = v - 1;
+                final long start = offset(i);
+                if (offset(i + 1) - start == b.length) {
+                    final byte[] c = new byte[b.length];
+                    bytes.get(start, c);
+                    if (Arrays.equals(b, c)) {
+                        return i;
+                    }
+                }
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Collects the triples of a compact dataset. Duplicate triples are
+     * removed when the dataset is built.
+     */
+    public static class Builder {
+
+        private final Object2IntOpenHashMap<Node> ids = new Object2IntOpenHashMap<>();
+        private final List<Node> nodes = new ArrayList<>();
+        private final IntArrayList subjects = new IntArrayList(),
+                predicates = new IntArrayList(), objects = new IntArrayList();
+
+        public Builder() {
+            ids.defaultReturnValue(-1);
+        }
+
+        private int intern(Node n) {
+            int i = ids.getInt(n);
+            if (i < 0) {
+                i = nodes.size();
+                ids.put(n, i);
+                nodes.add(n);
+            }
+            return i;
+        }
+
+        /**
+         * Add a triple
+         *
+         * @param t The triple
+         */
+        public void add(Triple t) {
+            subjects.add(intern(t.getSubject()));
+            predicates.add(intern(t.getPredicate()));
+            objects.add(intern(t.getObject()));
+        }
+
+        /**
+         * Add a number of triples
+         *
+         * @param triples The triples
+         */
+        public void addAll(Iterator<Triple> triples) {
+            while (triples.hasNext()) {
+                add(triples.next());
+            }
+        }
+
+        /**
+         * Build the dataset. The builder should not be used afterwards.
+         *
+         * @param id The identifier of the dataset
+         * @param location The location of the dataset (or null)
+         * @return The dataset
+         */
+        public CompactDataset build(String id, URL location) {
+            final int n = nodes.size();
+            // Subject-predicate-object: bucket by subject, then sort (p,o)
+            final int[] sOffsets = new int[n + 1];
+            final long[] keys = new long[subjects.size()];
+            bucket(subjects, predicates, objects, sOffsets, keys);
+            final int size = dedupe(sOffsets, keys);
+            final int[] spoP = new int[size], spoO = new int[size], spoS = new int[size];
+            for (int s = 0; s < n; s++) {
+                for (int i = sOffsets[s]; i < sOffsets[s + 1]; i++) {
+                    spoS[i] = s;
+                    spoP[i] = (int) (keys[i] >>> 32);
+                    spoO[i] = (int) keys[i];
+                }
+            }
+            // Predicate-object-subject: bucket by predicate, then sort (o,s)
+            final int[] pOffsets = new int[n + 1];
+            bucket(IntArrayList.wrap(spoP), IntArrayList.wrap(spoO), IntArrayList.wrap(spoS), pOffsets, keys);
+            final int[] posO = new int[size], posS = new int[size];
+            final int[] psOffsets = new int[n + 1];
+            final IntArrayList psS = new IntArrayList();
+            for (int p = 0; p < n; p++) {
+                psOffsets[p] = psS.size();
+                for (int i = pOffsets[p]; i < pOffsets[p + 1]; i++) {
+                    posO[i] = (int) (keys[i] >>> 32);
+                    posS[i] = (int) keys[i];
+                    psS.add(posS[i]);
+                }
+                // Sort and remove duplicates from the subjects of p
+                final int[] a = psS.elements();
+                Arrays.sort(a, psOffsets[p], psS.size());
+                int k = psOffsets[p];
+                for (int i = psOffsets[p]; i < psS.size(); i++) {
+                    if (i == psOffsets[p] || a[i] != a[k - 1]) {
+                        a[k++] = a[i];
+                    }
+                }
+                psS.size(k);
+            }
+            psOffsets[n] = psS.size();
+            return new CompactDataset(id, location, new HeapDictionary(nodes.toArray(new Node[n]), ids),
+                    Ints.of(sOffsets), Ints.of(spoP), Ints.of(spoO),
+                    Ints.of(pOffsets), Ints.of(posO), Ints.of(posS),
+                    Ints.of(psOffsets), Ints.of(psS.toIntArray()), true);
+        }
+
+        /**
+         * Sort triples by a first key (with a counting sort) and then by the
+         * second and third keys, which are packed into a long
+         */
+        private static void bucket(IntArrayList first, IntArrayList second, IntArrayList third,
+                int[] offsets, long[] keys) {
+            final int n = offsets.length - 1;
+            final int t = first.size();
+            for (int i = 0; i < t; i++) {
+                offsets[first.getInt(i) + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            final int[] next = Arrays.copyOf(offsets, n);
+            for (int i = 0; i < t; i++) {
+                keys[next[first.getInt(i)]++] = ((long) second.getInt(i) << 32) | third.getInt(i);
+            }
+            for (int i = 0; i < n; i++) {
+                Arrays.sort(keys, offsets[i], offsets[i + 1]);
+            }
+        }
+
+        /**
+         * Remove duplicate keys in each bucket
+         *
+         * @return The number of distinct keys
+         */
+        private static int dedupe(int[] offsets, long[] keys) {
+            int k = 0;
+            for (int b = 0; b < offsets.length - 1; b++) {
+                final int start = offsets[b], end = offsets[b + 1];
+                offsets[b] = k;
+                for (int i = start; i < end; i++) {
+                    if (i == start || keys[i] != keys[k - 1]) {
+                        keys[k++] = keys[i];
+                    }
+                }
+            }
+            offsets[offsets.length - 1] = k;
+            return k;
+        }
+    }
+}
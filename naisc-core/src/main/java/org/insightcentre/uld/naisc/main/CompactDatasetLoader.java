@@ -0,0 +1,95 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.*;
+import java.net.URL;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.DatasetLoader;
+
+/**
+ * A dataset loader that loads files into a {@link CompactDataset}. The triples
+ * are streamed from the file into the dictionary so the file is never held as
+ * a Jena model.
+ *
+ * @author John McCrae
+ */
+public class CompactDatasetLoader implements DatasetLoader<CompactDataset> {
+
+    private final int threads;
+    private final ExecuteListener monitor;
+
+    public CompactDatasetLoader() {
+        this(1, ExecuteListeners.NONE);
+    }
+
+    /**
+     * Create a loader that reads N-Triples files on several threads
+     *
+     * @param threads The number of threads to parse N-Triples with
+     * @param monitor The listener to report the loading throughput to
+     */
+    public CompactDatasetLoader(int threads, ExecuteListener monitor) {
+        this.threads = threads;
+        this.monitor = monitor;
+    }
+
+    @Override
+    public CompactDataset fromFile(File file, String name) throws IOException {
+        final CompactDataset.Builder builder = new CompactDataset.Builder();
+        read(file, builder::add);
+        return builder.build(name, file.toURI().toURL());
+    }
+
+    /**
+     * Stream the triples of a file, on several threads if it is N-Triples
+     *
+     * @param file The file
+     * @param triples The consumer of the triples (called on one thread)
+     * @throws IOException If the file could not be read
+     */
+    void read(File file, Consumer<Triple> triples) throws IOException {
+        final String fileName = file.getName();
+        final boolean gzip = fileName.endsWith(".gz");
+        final String baseName = gzip ? fileName.substring(0, fileName.length() - 3) : fileName;
+        final Lang lang;
+        if (baseName.endsWith(".ttl")) {
+            lang = Lang.TURTLE;
+        } else if (baseName.endsWith(".nt")) {
+            lang = Lang.NTRIPLES;
+        } else {
+            lang = Lang.RDFXML;
+        }
+        final StreamRDFBase sink = new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                triples.accept(triple);
+            }
+        };
+        if (threads > 1 && lang == Lang.NTRIPLES) {
+            ParallelNTriplesReader.read(file, sink, threads, monitor);
+            return;
+        }
+        try (InputStream in = gzip ? new GZIPInputStream(new FileInputStream(file)) : new BufferedInputStream(new FileInputStream(file))) {
+            RDFParser.create()
+                    .source(in)
+                    .lang(lang)
+                    .base(file.toURI().toString())
+                    .parse(sink);
+        }
+    }
+
+    @Override
+    public Dataset fromEndpoint(URL endpoint) {
+        return new DefaultDatasetLoader.EndpointDataset(endpoint, endpoint.toString());
+    }
+
+    @Override
+    public Dataset combine(CompactDataset dataset1, CompactDataset dataset2, String name) {
+        return DefaultDatasetLoader.union(dataset1.asModel(), dataset2.asModel(), dataset1.id() + "+" + dataset2.id());
+    }
+}
@@ -128,6 +128,26 @@ public class Configuration {
      */
      public String externalEndpoint = null;
 
+    /**
+     * The maximum number of blocked pairs to keep in memory before they are
+     * spilled to a temporary file (0 for no limit)
+     */
+    public int maxBlocksInMemory = 0;
+
+    /**
+     * The number of entities whose labels are kept after they are read by
+     * the lenses, so that they are not read and analysed again for the next
+     * pair (0 to keep none)
+     */
+    public int entityCacheSize = 10000;
+
+    /**
+     * The number of results of the text features to keep, so that a pair of
+     * labels that has been seen before is not computed again (0 to keep 
+     * none)
+     */
+    public int featureCacheSize = 0;
+
     @JsonCreator
     public Configuration(
             @JsonProperty("blocking") BlockingStrategyConfiguration blocking,
@@ -180,6 +200,9 @@ public class Configuration {
         if (extractors.isEmpty()) {
             System.err.println("No extractors loaded!");
         }
+        if (featureCacheSize > 0) {
+            return MemoizedTextFeature.memoize(extractors, featureCacheSize);
+        }
         return extractors;
     }
 
@@ -901,6 +924,8 @@ public class Configuration {
         IDMatch.class,
         LabelMatch.class,
         ApproximateStringMatching.class,
+        org.insightcentre.uld.naisc.blocking.MinHashLSH.class,
+        org.insightcentre.uld.naisc.blocking.Embeddings.class,
         Predefined.class,
         org.insightcentre.uld.naisc.blocking.OntoLex.class,
         Path.class,
@@ -154,7 +154,10 @@ public class ConfigurationToMarkDown {
                 "* `nThreads`: The maximum number of threads to use when aligning *(int > 0)*\n" +
                 "* `includeFeatures`: The calculated features will be included in the output alignments (can make the alignment files very large!) *(boolean)*\n" +
                 "* `ignorePreexisting`: If there are any links between the datasets already they will be discarded and Naisc will only infer new links *(boolean)*\n" +
-                "* `noPrematching`: Do not attempt to find unambiguous links and use the full pipeline for every link inference *(boolean)*\n");
+                "* `noPrematching`: Do not attempt to find unambiguous links and use the full pipeline for every link inference *(boolean)*\n" +
+                "* `maxBlocksInMemory`: The maximum number of blocked pairs to keep in memory, further pairs are stored in a temporary file (0 for no limit) *(int)*\n" +
+                "* `entityCacheSize`: The number of entities whose labels are kept after they are read by the lenses, so they are not read and analysed again for each pair (0 to keep none, default 10000) *(int)*\n" +
+                "* `featureCacheSize`: The number of results of the text features to keep, so that a pair of labels that has been seen before is not computed again (0 to keep none, the default) *(int)*\n");
     }
 
     private static void writeSingleConfiguration(PrintWriter out, Class config) throws Exception {
@@ -18,7 +18,11 @@ import static org.insightcentre.uld.naisc.main.ExecuteListeners.NONE;
 import static org.insightcentre.uld.naisc.main.ExecuteListeners.STDERR;
 import static org.insightcentre.uld.naisc.main.Main.mapper;
 
+import org.insightcentre.uld.naisc.analysis.Analysis;
+import org.insightcentre.uld.naisc.analysis.DatasetAnalyzer;
+import org.insightcentre.uld.naisc.blocking.MaterializedBlocking;
 import org.insightcentre.uld.naisc.scorer.ModelNotTrainedException;
+import org.insightcentre.uld.naisc.util.Lazy;
 import org.insightcentre.uld.naisc.util.LangStringPair;
 import org.insightcentre.uld.naisc.util.None;
 import org.insightcentre.uld.naisc.util.Pair;
@@ -145,20 +149,34 @@ public class CrossFold {
         Folds folds = splitDataset(goldAlignments, nFolds, direction);
         _monitor.updateStatus(ExecuteListener.Stage.INITIALIZING, "Folds created: " + folds.toString());
 
+        // The blocking does not depend on the fold, so it is computed once and shared by all folds
+        _monitor.updateStatus(ExecuteListener.Stage.BLOCKING, "Blocking");
+        Lazy<Analysis> analysis = Lazy.fromClosure(() -> {
+            DatasetAnalyzer analyzer = new DatasetAnalyzer();
+            return analyzer.analyseModel(leftModel, rightModel);
+        });
+        BlockingStrategy blocking = config.makeBlockingStrategy(analysis, _monitor);
+        MaterializedBlocking blocks = MaterializedBlocking.materialize(blocking.block(leftModel, rightModel, _monitor),
+                config.maxBlocksInMemory, _monitor);
+
         FoldExecuteListener monitor = new FoldExecuteListener(_monitor, nFolds);
         AlignmentSet as = new AlignmentSet();
-        for (int i = 0; i < nFolds; i++) {
-            monitor.foldNo++;
-            Train.execute(name, leftModel, rightModel, folds.train(goldAlignments, i), negativeSampling, config, monitor,loader, "fold" + i);
-            AlignmentSet predicted = Main.execute(name, leftModel, rightModel, config, new None<>(), monitor, folds.leftSplit.get(i), folds.rightSplit.get(i),loader);
-            as.addAll(predicted);
-            Evaluate.EvaluationResults er = Evaluate.evaluate(predicted, goldAlignments, monitor, true);
-            monitor.message(NaiscListener.Stage.TRAINING, NaiscListener.Level.INFO, String.format("Fold results (%d aligns):  precision = %.04f, recall = %.04f, fmeasure = %.04f", predicted.size(), er.precision(), er.recall(), er.fmeasure()));
-            for(Alignment a : predicted) {
-                a.valid = Alignment.Valid.unknown;
+        try {
+            for (int i = 0; i < nFolds; i++) {
+                monitor.foldNo++;
+                Train.execute(name, leftModel, rightModel, folds.train(goldAlignments, i), negativeSampling, config, monitor,loader, "fold" + i, blocks);
+                AlignmentSet predicted = Main.execute(name, leftModel, rightModel, config, new None<>(), monitor, folds.leftSplit.get(i), folds.rightSplit.get(i),loader, blocks);
+                as.addAll(predicted);
+                Evaluate.EvaluationResults er = Evaluate.evaluate(predicted, goldAlignments, monitor, true);
+                monitor.message(NaiscListener.Stage.TRAINING, NaiscListener.Level.INFO, String.format("Fold results (%d aligns):  precision = %.04f, recall = %.04f, fmeasure = %.04f", predicted.size(), er.precision(), er.recall(), er.fmeasure()));
+                for(Alignment a : predicted) {
+                    a.valid = Alignment.Valid.unknown;
+                }
             }
+            monitor.foldNo = 0;
+        } finally {
+            blocks.close();
         }
-        monitor.foldNo = 0;
 
         monitor.updateStatus(ExecuteListener.Stage.EVALUATION, "Starting Evaluation");
         Evaluate.EvaluationResults er = Evaluate.evaluate(as, folds.achievableGold(goldAlignments), monitor, false);
@@ -197,6 +215,7 @@ public class CrossFold {
                     accepts("s", "The negative sampling rate").withRequiredArg().ofType(Double.class);
                     accepts("d", "The direction of the folding (left|right|both)").withRequiredArg().ofType(String.class);
                     accepts("q", "Quiet (suppress output)");
+                    accepts("snapshot", "Keep a binary snapshot of each dataset and open the snapshot on later runs");
                     nonOptions("The two RDF files and the gold standard dataset");
                 }
             };
@@ -247,7 +266,7 @@ public class CrossFold {
             double negativeSampling = os.has("s")  ? (Double)os.valueOf("s") : 5.0;
             execute("crossfold", left, right, gold, nFolds, direction, negativeSampling, outputFile, configuration,
                     os.has("q") ? NONE : STDERR, 
-                    new DefaultDatasetLoader());
+                    os.has("snapshot") ? new SnapshotDatasetLoader() : new DefaultDatasetLoader());
         } catch (Throwable x) {
             x.printStackTrace();
             System.exit(-1);
@@ -4,6 +4,9 @@ import java.io.*;
 import java.net.URL;
 import java.util.zip.GZIPInputStream;
 
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.compose.Union;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
@@ -16,6 +19,9 @@ import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.insightcentre.uld.naisc.Dataset;
 import org.insightcentre.uld.naisc.DatasetLoader;
 import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
@@ -29,12 +35,31 @@ import org.insightcentre.uld.naisc.util.Some;
  * @author John McCrae
  */
 public class DefaultDatasetLoader implements DatasetLoader<ModelDataset> {
+    private final int threads;
+    private final ExecuteListener monitor;
+
+    public DefaultDatasetLoader() {
+        this(1, ExecuteListeners.NONE);
+    }
+
+    /**
+     * Create a loader that reads N-Triples files on several threads
+     *
+     * @param threads The number of threads to parse N-Triples with
+     * @param monitor The listener to report the loading throughput to
+     */
+    public DefaultDatasetLoader(int threads, ExecuteListener monitor) {
+        this.threads = threads;
+        this.monitor = monitor;
+    }
 
     @Override
     public ModelDataset fromFile(File file, String name) throws IOException {
 
         final Model model = ModelFactory.createDefaultModel();
-        if(file.getName().endsWith(".rdf")) {
+        if(threads > 1 && (file.getName().endsWith(".nt") || file.getName().endsWith(".nt.gz"))) {
+            ParallelNTriplesReader.read(file, StreamRDFLib.graph(model.getGraph()), threads, monitor);
+        } else if(file.getName().endsWith(".rdf")) {
             model.read(new FileReader(file), file.toURI().toString(), "RDF/XML");
         } else if(file.getName().endsWith(".ttl")) {
             model.read(new FileReader(file), file.toURI().toString(), "Turtle");
@@ -59,12 +84,42 @@ public class DefaultDatasetLoader implements DatasetLoader<ModelDataset> {
 
     @Override
     public ModelDataset combine(ModelDataset dataset1, ModelDataset dataset2, String name) {
-        final Model combined = ModelFactory.createDefaultModel();
-        final Model leftModel = dataset1.model;
-        final Model rightModel = dataset2.model;
-        combined.add(leftModel);
-        combined.add(rightModel);
-        return new ModelDataset(combined, dataset1.id() + "+" + dataset2.id(), null);
+        return union(dataset1.model, dataset2.model, dataset1.id() + "+" + dataset2.id());
+    }
+
+    /**
+     * Create a read-only view of the union of two models. No triples are
+     * copied (not even while the view is searched), a triple in both models
+     * is only returned once and the view can be queried with SPARQL.
+     *
+     * @param left The first model
+     * @param right The second model
+     * @param id The identifier of the combined dataset
+     * @return The union of the two models
+     */
+    public static ModelDataset union(Model left, Model right, String id) {
+        final Graph union = new GraphReadOnly(new StreamingUnion(left.getGraph(), right.getGraph()));
+        final Model combined = ModelFactory.createModelForGraph(union);
+        combined.setNsPrefixes(left.getNsPrefixMap());
+        return new ModelDataset(combined, id, null);
+    }
+
+    /**
+     * The union of two graphs. Jena's union collects the matching triples of
+     * the left graph in a set to remove them from the right graph, so a scan
+     * of the union holds every left triple in memory. Instead, this checks
+     * each matching triple of the right graph against the left graph.
+     */
+    private static class StreamingUnion extends Union {
+
+        public StreamingUnion(Graph L, Graph R) {
+            super(L, R);
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> _graphBaseFind(Triple t) {
+            return L.find(t).andThen(R.find(t).filterDrop(L::contains));
+        }
     }
 
     public static class ModelDataset implements Dataset {
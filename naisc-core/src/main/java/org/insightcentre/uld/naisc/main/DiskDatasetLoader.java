@@ -0,0 +1,70 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+
+/**
+ * A dataset loader for datasets that are larger than the heap. Each file is
+ * converted once into a snapshot (as by {@link SnapshotDatasetLoader}) and the
+ * snapshot is then read from disk through a bounded cache of blocks, so only
+ * the cache and the blocks in use are held in memory. The conversion streams
+ * the file into the snapshot with external sorts (see {@link SnapshotWriter})
+ * so the dataset is never held in memory either.
+ *
+ * @author John McCrae
+ */
+public class DiskDatasetLoader extends SnapshotDatasetLoader {
+
+    private final int cacheBlocks;
+    private final int runSize;
+    private final CompactDatasetLoader loader;
+    private final ExecuteListener monitor;
+
+    public DiskDatasetLoader() {
+        this(null, 256, 1, ExecuteListeners.NONE);
+    }
+
+    /**
+     * Create a disk-backed loader
+     *
+     * @param directory The folder to store the snapshots in, or null to store
+     * them next to the files
+     * @param cacheSize The size of the block cache (per dataset) in megabytes
+     * @param threads The number of threads to parse N-Triples with
+     * @param monitor The listener to report to
+     */
+    public DiskDatasetLoader(File directory, int cacheSize, int threads, ExecuteListener monitor) {
+        this(directory, cacheSize, threads, SnapshotWriter.RUN_SIZE, monitor);
+    }
+
+    DiskDatasetLoader(File directory, int cacheSize, int threads, int runSize, ExecuteListener monitor) {
+        super(directory, threads, monitor);
+        this.cacheBlocks = Math.max(1, (int) (((long) cacheSize << 20) / BlockCache.BLOCK_SIZE));
+        this.runSize = runSize;
+        this.loader = new CompactDatasetLoader(threads, monitor);
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected CompactDataset open(File snapshot, String name, URL location) throws IOException {
+        return CompactDataset.openOnDisk(snapshot, name, location, cacheBlocks);
+    }
+
+    @Override
+    protected CompactDataset convert(File file, File snapshot, String name, URL location) throws IOException {
+        // The sorts spill next to the snapshot rather than to the (often
+        // smaller) temporary folder
+        try (SnapshotWriter writer = new SnapshotWriter(snapshot.getAbsoluteFile().getParentFile(), runSize)) {
+            loader.read(file, writer::add);
+            monitor.updateStatus(Stage.INITIALIZING, "Sorting " + name + " into " + snapshot);
+            writer.write(snapshot, file);
+        } catch (UncheckedIOException x) {
+            throw x.getCause();
+        }
+        monitor.updateStatus(Stage.INITIALIZING, "Reading " + name + " from " + snapshot);
+        return open(snapshot, name, location);
+    }
+}
@@ -6,7 +6,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -18,12 +18,12 @@ import org.apache.jena.rdf.model.Resource;
 import org.insightcentre.uld.naisc.Alignment;
 import org.insightcentre.uld.naisc.Alignment.Valid;
 import org.insightcentre.uld.naisc.AlignmentSet;
+import org.insightcentre.uld.naisc.AlignmentTable;
 import org.insightcentre.uld.naisc.NaiscListener.Stage;
 import static org.insightcentre.uld.naisc.main.ExecuteListeners.NONE;
 import static org.insightcentre.uld.naisc.main.ExecuteListeners.STDERR;
 
 import org.insightcentre.uld.naisc.URIRes;
-import org.insightcentre.uld.naisc.util.Option;
 import org.insightcentre.uld.naisc.util.Pair;
 
 /**
@@ -109,15 +109,17 @@ public class Evaluate {
             goldRights = gold.stream().map(a -> a.entity2).collect(Collectors.toSet());
         }
 
-        Set<Alignment> seen = new HashSet<>();
+        // The rows of the table are in the same order as the gold alignments
+        final AlignmentTable goldTable = AlignmentTable.of(gold);
+        final BitSet seen = new BitSet();
         DoubleList outputScores = new DoubleArrayList(), goldScores = new DoubleArrayList();
         for (Alignment align : output) {
             if (align.valid != Valid.unknown) {
                 continue;
             }
-            Option<Alignment> galign = gold.find(align.entity1, align.entity2, align.property);
-            if (galign.has()) {
-                double gScore = galign.get().probability;
+            final int grow = goldTable.find(align.entity1, align.entity2, align.property);
+            if (grow >= 0) {
+                double gScore = gold.get(grow).probability;
                 outputScores.add(align.probability);
                 goldScores.add(gScore);
                 if (gScore > 0 && align.probability > 0) {
@@ -137,13 +139,13 @@ public class Evaluate {
                 if (gScore > 0 && align.probability > 0) {
                     align.valid = Valid.yes;
                 } else {
-                    if(gold.hasLink(align.entity1, align.entity2)) {
+                    if(goldTable.hasLink(align.entity1, align.entity2)) {
                         align.valid = Valid.bad_link;
                     } else {
                         align.valid = Valid.no;
                     }
                 }
-                seen.add(galign.get());
+                seen.set(grow);
             } else {
                 if (align.probability > 0) {
                     if(!ignoreNotInGold || goldLefts.contains(align.entity1)  || goldRights.contains(align.entity2)) {
@@ -156,7 +158,7 @@ public class Evaluate {
                     }
                 }
                 if (align.probability > 0) {
-                    if(gold.hasLink(align.entity1, align.entity2)) {
+                    if(goldTable.hasLink(align.entity1, align.entity2)) {
                         align.valid = Valid.bad_link;
                     } else {
                         align.valid = Valid.no;
@@ -189,12 +191,14 @@ public class Evaluate {
             }
         }
         int goldSize = 0;
-        for (Alignment a : gold.getAlignments()) {
+        final int n = gold.size();
+        for (int i = 0; i < n; i++) {
+            final Alignment a = gold.get(i);
             if (a.probability > 0) {
                 goldSize++;
             }
             try {
-                if (!seen.contains(a) && a.probability > 0) {
+                if (!seen.get(i) && a.probability > 0) {
                     output.add(new Alignment(a, a.probability, Valid.novel));
                 }
             } catch (UnsupportedOperationException x) {
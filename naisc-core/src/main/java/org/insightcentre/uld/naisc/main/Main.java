@@ -5,17 +5,8 @@ import eu.monnetproject.lang.Language;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import org.apache.http.client.methods.HttpPost;
@@ -36,6 +27,8 @@ import org.insightcentre.uld.naisc.util.Option;
 import org.insightcentre.uld.naisc.NaiscListener.Stage;
 import org.insightcentre.uld.naisc.analysis.Analysis;
 import org.insightcentre.uld.naisc.analysis.DatasetAnalyzer;
+import org.insightcentre.uld.naisc.blocking.MaterializedBlocking;
+import org.insightcentre.uld.naisc.feature.MemoizedTextFeature;
 import org.insightcentre.uld.naisc.matcher.Prematcher;
 import org.insightcentre.uld.naisc.util.Lazy;
 import org.insightcentre.uld.naisc.util.None;
@@ -59,6 +52,16 @@ public class Main {
 
     final static ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * The maximum number of pairs waiting at each stage of the scoring
+     */
+    private static final int PIPELINE_QUEUE_SIZE = 1000;
+
+    /**
+     * The maximum number of pairs that are scored in a single call to the scorer
+     */
+    private static final int SCORING_BATCH_SIZE = 100;
+
     private static final LangStringPair EMPTY_LANG_STRING_PAIR = new LangStringPair(Language.UNDEFINED, Language.UNDEFINED, "", "");
 
     /**
@@ -110,8 +113,12 @@ public class Main {
                 monitor.updateStatus(Stage.FINALIZING, "Saving");
                 if (outputXML) {
                     finalAlignment.toXML(outputFile == null ? System.out : new PrintStream(outputFile), leftFile.toURI().toURL(), rightFile.toURI().toURL());
+                } else if (outputFile == null) {
+                    finalAlignment.toRDF(System.out);
                 } else {
-                    finalAlignment.toRDF(outputFile == null ? System.out : new PrintStream(outputFile));
+                    try (AlignmentWriter out = AlignmentWriters.forFile(outputFile)) {
+                        out.writeAll(finalAlignment);
+                    }
                 }
             }
             monitor.updateStatus(Stage.COMPLETED, "Done");
@@ -261,6 +268,30 @@ public class Main {
     public static AlignmentSet execute(String name, Dataset leftModel, Dataset rightModel, Configuration config,
                                        Option<AlignmentSet> partialSoln, ExecuteListener monitor, Set<URIRes> left,
                                        Set<URIRes> right, DatasetLoader loader) throws ModelNotTrainedException {
+        return execute(name, leftModel, rightModel, config, partialSoln, monitor, left, right, loader, null);
+    }
+
+    /**
+     * Execute NAISC
+     *
+     * @param name        The identifier for this run
+     * @param leftModel   The left dataset
+     * @param rightModel  The right dataset
+     * @param config      The configuration
+     * @param partialSoln A partial solution
+     * @param monitor     Listener for status updates
+     * @param left        The left entities to restrict to (or null for no restriction)
+     * @param right       The right entities to restrict to (or null for no restriction)
+     * @param loader      The loader of datasets
+     * @param preblocked  A blocking that has already been computed for these
+     *                    datasets (or null to run the blocking strategy)
+     * @return The alignment
+     * @throws ModelNotTrainedException If the scorer has not been trained
+     */
+    @SuppressWarnings("UseSpecificCatch")
+    public static AlignmentSet execute(String name, Dataset leftModel, Dataset rightModel, Configuration config,
+                                       Option<AlignmentSet> partialSoln, ExecuteListener monitor, Set<URIRes> left,
+                                       Set<URIRes> right, DatasetLoader loader, Collection<Blocking> preblocked) throws ModelNotTrainedException {
         try {
             Lazy<Analysis> analysis = Lazy.fromClosure(() -> {
                 DatasetAnalyzer analyzer = new DatasetAnalyzer();
@@ -292,115 +323,81 @@ public class Main {
             Rescaler rescaler = config.makeRescaler();
 
             monitor.updateStatus(Stage.BLOCKING, "Blocking");
-            Collection<Blocking> _blocks = blocking.block(leftModel, rightModel, monitor);
-            final Collection<Blocking> blocks;
+            Collection<Blocking> _blocks = preblocked != null ? preblocked : blocking.block(leftModel, rightModel, monitor);
             if (config.ignorePreexisting) {
                 _blocks = ExistingLinks.filterBlocking(_blocks, ExistingLinks.findPreexisting(leftModel, rightModel));
             }
             if (left != null && right != null) {
-                blocks = new FilterBlocks(_blocks, left, right);
-            } else {
-                blocks = _blocks;
+                _blocks = new FilterBlocks(_blocks, left, right);
             }
-            monitor.updateStatus(Stage.BLOCKING, "Loading Graph Extractors");
-            AlignmentSet prematch = new Prematcher().prematch(blocks, leftModel, rightModel, monitor);
-            List<GraphFeature> dataFeatures = config.makeGraphFeatures(combined, analysis, prematch, monitor);
-
-            monitor.updateStatus(Stage.SCORING, "Scoring");
-            final AtomicInteger count = new AtomicInteger(0);
-            ConcurrentLinkedQueue<TmpAlignment> alignments = new ConcurrentLinkedQueue<>();
-            ExecutorService executor = new ThreadPoolExecutor(config.nThreads, config.nThreads, 0,
-                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1000),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
-            final AtomicReference<ModelNotTrainedException> modelNotTrainedException = new AtomicReference<>();
-            boolean blocksEmpty = true;
-            for (Blocking block : blocks) {
-                if(modelNotTrainedException.get() != null)
-                    throw modelNotTrainedException.get();
-                blocksEmpty = false;
-                String property = config.noPrematching ? null : prematch.findLink(block.entity1, block.entity2);
-                if(property != null) {
-                    alignments.add(new TmpAlignment(block.entity1, block.entity2, new ScoreResult(1.0, property), property, null));
-                    // Still run lens extraction so it is available in the results
-                    for(Lens lens : lenses) {
-                        for(LensResult facet: lens.extract(block.entity1, block.entity2, monitor)) {
-                            monitor.addLensResult(block.entity1, block.entity2, facet.tag, facet);
-                        }
-                    }
-                } else {
-                    executor.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            Resource block1 = block.asJena1(leftModel), block2 = block.asJena2(rightModel);
-                            try {
-                                if (block1.getURI() == null || block1.getURI().equals("")
-                                        || block2.getURI() == null || block2.getURI().equals("")) {
-                                    System.err.println(block1);
-                                    System.err.println(block2);
-                                    throw new RuntimeException("URIRes without URI");
-                                }
-                                monitor.addBlock(block.entity1, block.entity2);
-                                int c = count.incrementAndGet();
-                                if (c % 1000 == 0) {
-                                    monitor.updateStatus(Stage.SCORING, "Scoring (" + c + " done)");
-                                }
-                                FeatureSet featureSet = new FeatureSet();
-                                boolean labelsProduced = false;
-                                for (Lens lens : lenses) {
-                                    for(LensResult facet : lens.extract(block.entity1, block.entity2, monitor)) {
-                                        labelsProduced = true;
-                                        monitor.addLensResult(block.entity1, block.entity2, facet.tag, facet);
-                                        for (TextFeature featureExtractor : textFeatures) {
-                                            if (featureExtractor.tags() == null || facet.tag == null
-                                                    || featureExtractor.tags().contains(facet.tag)) {
-                                                Feature[] features = featureExtractor.extractFeatures(facet, monitor);
-                                                featureSet = featureSet.add(new FeatureSet(features,
-                                                        facet.tag));
-                                            }
-                                        }
-                                    }
-                                }
+            // The blocking is iterated by both the prematcher and the scorer so compute it only once
+            final MaterializedBlocking blocks = MaterializedBlocking.materialize(_blocks, config.maxBlocksInMemory, monitor);
+            final AlignmentSet alignmentSet;
+            try {
+                monitor.updateStatus(Stage.BLOCKING, "Loading Graph Extractors");
+                AlignmentSet prematch = new Prematcher().prematch(blocks, leftModel, rightModel, monitor);
+                List<GraphFeature> dataFeatures = config.makeGraphFeatures(combined, analysis, prematch, monitor);
+
+                monitor.updateStatus(Stage.SCORING, "Scoring");
+                final ScoringPipeline.Results results = new ScoringPipeline.Results(blocks);
+                final FeatureSchema schema = new FeatureSchema(2 * PIPELINE_QUEUE_SIZE);
+                final EntityCache entityCache = new EntityCache(config.entityCacheSize);
+                // Split the threads between feature extraction and scoring, a
+                // single thread does both
+                final int scoringThreads = config.nThreads <= 1 ? 0 : Math.max(1, config.nThreads / 4);
+                final ScoringPipeline pipeline = new ScoringPipeline(Math.max(1, config.nThreads - scoringThreads), scoringThreads,
+                        PIPELINE_QUEUE_SIZE, SCORING_BATCH_SIZE, new ScoringPipeline.FeatureExtraction() {
+                            @Override
+                            public FeatureSet extract(Blocking block) {
+                                return extractFeatures(block, leftModel, rightModel, lenses, textFeatures, dataFeatures, schema, entityCache, monitor);
+                            }
 
-                                if (!labelsProduced) {
-                                    monitor.updateStatus(Stage.SCORING, String.format("Lens produced no label for %s %s", block1, block2));
-                                }
-                                for (GraphFeature feature : dataFeatures) {
-                                    Feature[] features = feature.extractFeatures(block.entity1, block.entity2, monitor);
-                                    featureSet = featureSet.add(new FeatureSet(features, feature.id()));
-                                }
-                                if (featureSet.isEmpty()) {
-                                    monitor.message(Stage.SCORING, NaiscListener.Level.CRITICAL, "An empty feature set was created");
-                                }
-                                List<ScoreResult> scores = scorer.similarity(featureSet, monitor);
-                                for(ScoreResult score : scores) {
-                                    alignments.add(new TmpAlignment(block.entity1, block.entity2, score, score.getProperty(), config.includeFeatures ? featureSet : null));
+                            @Override
+                            public void release(FeatureSet featureSet) {
+                                schema.release(featureSet);
+                            }
+                        },
+                        scorer, config.includeFeatures, results, monitor);
+                boolean blocksEmpty = true;
+                try {
+                    for (Blocking block : blocks) {
+                        blocksEmpty = false;
+                        String property = config.noPrematching ? null : prematch.findLink(block.entity1, block.entity2);
+                        if (property != null) {
+                            results.add(block.entity1, block.entity2, 1.0, property, null);
+                            // Still run lens extraction so it is available in the results
+                            for (Lens lens : lenses) {
+                                for (LensResult facet : lens.extract(block.entity1, block.entity2, monitor, entityCache)) {
+                                    monitor.addLensResult(block.entity1, block.entity2, facet.tag, facet);
                                 }
-                            } catch (ModelNotTrainedException x) {
-                                modelNotTrainedException.set(x);
-                            } catch (Exception x) {
-                                monitor.updateStatus(Stage.FAILED, String.format("Failed to get probability %s <-> %s due to %s (%s)\n", block1, block2, x.getMessage(), x.getClass().getName()));
-                                x.printStackTrace();
-
                             }
-
+                        } else {
+                            combined.prefetch(combined.createResource(block.entity1.getURI()));
+                            combined.prefetch(combined.createResource(block.entity2.getURI()));
+                            pipeline.submit(block);
                         }
-                    });
+                    }
+                } catch (ModelNotTrainedException | RuntimeException | Error x) {
+                    pipeline.abort();
+                    throw x;
+                }
+                final int count = pipeline.finish();
+                MemoizedTextFeature.report(textFeatures, monitor);
+                monitor.updateStatus(Stage.SCORING, String.format("Scored %d pairs", count));
+                if (blocksEmpty) {
+                    monitor.message(Stage.BLOCKING, NaiscListener.Level.CRITICAL, "Blocking failed to extract any pairs");
+                } else if (count == 0) {
+                    monitor.message(Stage.SCORING, NaiscListener.Level.CRITICAL, "Failed to extract any pairs!");
                 }
-            }
-            executor.shutdown();
-            executor.awaitTermination(30, TimeUnit.DAYS);
-            if(modelNotTrainedException.get() != null)
-                throw modelNotTrainedException.get();
-            monitor.updateStatus(Stage.SCORING, String.format("Scored %d pairs", count.get()));
-            if (blocksEmpty) {
-                monitor.message(Stage.BLOCKING, NaiscListener.Level.CRITICAL, "Blocking failed to extract any pairs");
-            } else if (count.get() == 0) {
-                monitor.message(Stage.SCORING, NaiscListener.Level.CRITICAL, "Failed to extract any pairs!");
-            }
 
-            scorer.close();
+                scorer.close();
 
-            AlignmentSet alignmentSet = convertAligns(alignments, rescaler);
+                alignmentSet = results.toAlignmentSet(rescaler);
+            } finally {
+                if (blocks != preblocked) {
+                    blocks.close();
+                }
+            }
 
             monitor.updateStatus(Stage.MATCHING, "Matching");
             if (partialSoln.has()) {
@@ -540,6 +537,10 @@ public class Main {
                     accepts("xml", "Output as XML");
                     accepts("q", "Suppress output");
                     accepts("mwsa", "A MWSA file to link").withRequiredArg().ofType(File.class);
+                    accepts("compact", "Load the datasets into a compact (read-only) dictionary-encoded store");
+                    accepts("threads", "The number of threads to load N-Triples files with").withRequiredArg().ofType(Integer.class);
+                    accepts("snapshot", "Keep a binary snapshot of each dataset and open the snapshot on later runs");
+                    accepts("disk", "Read the datasets from their snapshots on disk with a block cache of this many MB per dataset").withRequiredArg().ofType(Integer.class);
                     nonOptions("Two RDF files");
                 }
             };
@@ -581,11 +582,14 @@ public class Main {
                 //final boolean example = os.has("x");
                 final boolean outputXML = os.has("xml");
                 //final boolean hard = !os.has("easy");
+                final ExecuteListener monitor = os.valueOf("q") != null && os.valueOf("q").equals(Boolean.TRUE)
+                                ? ExecuteListeners.NONE : ExecuteListeners.STDERR;
+                final int threads = os.has("threads") ? (Integer) os.valueOf("threads") : 1;
                 execute("naisc", left, right, configuration, outputFile,
-                        partialSoln, outputXML,
-                        os.valueOf("q") != null && os.valueOf("q").equals(Boolean.TRUE)
-                                ? ExecuteListeners.NONE : ExecuteListeners.STDERR,
-                        new DefaultDatasetLoader());
+                        partialSoln, outputXML, monitor,
+                        os.has("disk") ? new DiskDatasetLoader(null, (Integer) os.valueOf("disk"), threads, monitor)
+                                : os.has("snapshot") ? new SnapshotDatasetLoader(null, threads, monitor)
+                                : os.has("compact") ? new CompactDatasetLoader(threads, monitor) : new DefaultDatasetLoader(threads, monitor));
             }
         } catch (Throwable x) {
             x.printStackTrace();
@@ -643,41 +647,44 @@ public class Main {
         }
     }
 
-    private static AlignmentSet convertAligns(ConcurrentLinkedQueue<TmpAlignment> tmpAligns, Rescaler rescaler) {
-        List<Alignment> aligns = new ArrayList<>();
-        double[] scores = new double[tmpAligns.size()];
-        int i = 0;
-        for (TmpAlignment t : tmpAligns) {
-            scores[i++] = t.result.getProbability();
+    private static FeatureSet extractFeatures(Blocking block, Dataset leftModel, Dataset rightModel,
+                                              List<Lens> lenses, List<TextFeature> textFeatures,
+                                              List<GraphFeature> dataFeatures, FeatureSchema schema,
+                                              EntityCache entityCache,
+                                              ExecuteListener monitor) {
+        Resource block1 = block.asJena1(leftModel), block2 = block.asJena2(rightModel);
+        if (block1.getURI() == null || block1.getURI().equals("")
+                || block2.getURI() == null || block2.getURI().equals("")) {
+            System.err.println(block1);
+            System.err.println(block2);
+            throw new RuntimeException("URIRes without URI");
         }
-        i = 0;
-        scores = rescaler.rescale(scores);
-        for (TmpAlignment t : tmpAligns) {
-            aligns.add(new Alignment(t.left, t.right, scores[i++], t.relation, t.features));
-        }
-        return new AlignmentSet(aligns);
-    }
-
-    private static class TmpAlignment {
-
-        private final URIRes left, right;
-        private final ScoreResult result;
-        private final String relation;
-        private final Object2DoubleMap<String> features;
-
-        public TmpAlignment(URIRes left, URIRes right, ScoreResult result, String relation, FeatureSet featureSet) {
-            this.left = left;
-            this.right = right;
-            this.result = result;
-            this.relation = relation;
-            if (featureSet != null) {
-                this.features = new Object2DoubleOpenHashMap<>();
-                for (int i = 0; i < featureSet.names.length; i++) {
-                    this.features.put(featureSet.names[i]._1 + "-" + featureSet.names[i]._2, featureSet.values[i]);
+        monitor.addBlock(block.entity1, block.entity2);
+        FeatureSchema.Builder builder = schema.builder();
+        boolean labelsProduced = false;
+        for (Lens lens : lenses) {
+            for(LensResult facet : lens.extract(block.entity1, block.entity2, monitor, entityCache)) {
+                labelsProduced = true;
+                monitor.addLensResult(block.entity1, block.entity2, facet.tag, facet);
+                for (TextFeature featureExtractor : textFeatures) {
+                    if (featureExtractor.tags() == null || facet.tag == null
+                            || featureExtractor.tags().contains(facet.tag)) {
+                        builder.add(featureExtractor.extractFeatures(facet, monitor), facet.tag);
+                    }
                 }
-            } else {
-                this.features = null;
             }
         }
+
+        if (!labelsProduced) {
+            monitor.updateStatus(Stage.SCORING, String.format("Lens produced no label for %s %s", block1, block2));
+        }
+        for (GraphFeature feature : dataFeatures) {
+            builder.add(feature.extractFeatures(block.entity1, block.entity2, monitor), feature.id());
+        }
+        FeatureSet featureSet = builder.build();
+        if (featureSet.isEmpty()) {
+            monitor.message(Stage.SCORING, NaiscListener.Level.CRITICAL, "An empty feature set was created");
+        }
+        return featureSet;
     }
 }
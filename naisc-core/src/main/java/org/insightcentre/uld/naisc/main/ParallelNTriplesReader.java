@@ -0,0 +1,155 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+
+/**
+ * Read an N-Triples file (which may be gzipped) on several threads. The file
+ * is read through an NIO channel in blocks that end at a line break and each
+ * block is parsed on a thread pool. The triples are passed to the sink in the
+ * order of the file on the calling thread.
+ *
+ * Blank node labels are mapped by a hash seeded for the file, so the same
+ * label in different blocks is the same node.
+ *
+ * @author John McCrae
+ */
+class ParallelNTriplesReader {
+
+    private static final int BLOCK_SIZE = 1 << 22;
+    private static final long REPORT_INTERVAL = 5000;
+
+    private ParallelNTriplesReader() {
+    }
+
+    /**
+     * Read a file
+     *
+     * @param file The N-Triples file (ending in .gz if compressed)
+     * @param sink The sink to send the triples to
+     * @param threads The number of threads to parse with
+     * @param monitor The listener to report the throughput to
+     * @return The number of triples read
+     * @throws IOException If the file could not be read
+     */
+    public static long read(File file, StreamRDF sink, int threads, ExecuteListener monitor) throws IOException {
+        return read(file, sink, threads, monitor, BLOCK_SIZE);
+    }
+
+    static long read(File file, StreamRDF sink, int threads, ExecuteListener monitor, int blockSize) throws IOException {
+        final UUID seed = UUID.randomUUID();
+        final String base = file.toURI().toString();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Deque<Future<List<Triple>>> pending = new ArrayDeque<>();
+        final long start = System.currentTimeMillis();
+        long lastReport = start;
+        long triples = 0;
+        boolean success = false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                ReadableByteChannel source = file.getName().endsWith(".gz")
+                ? Channels.newChannel(new GZIPInputStream(Channels.newInputStream(channel), 65536))
+                : channel) {
+            ByteBuffer buf = ByteBuffer.allocate(blockSize);
+            boolean eof = false;
+            sink.start();
+            while (!eof) {
+                eof = source.read(buf) < 0;
+                if (!eof && buf.hasRemaining()) {
+                    continue;
+                }
+                final byte[] data = buf.array();
+                int end = buf.position();
+                if (!eof) {
+                    while (end > 0 && data[end - 1] != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        // A line longer than the block
+                        buf = ByteBuffer.wrap(Arrays.copyOf(data, data.length * 2));
+                        ((Buffer) buf).position(data.length);
+                        continue;
+                    }
+                }
+                final byte[] block = Arrays.copyOf(data, end);
+                pending.add(pool.submit(() -> parse(block, base, seed)));
+                // Keep the start of the next line
+                ((Buffer) buf).limit(buf.position());
+                ((Buffer) buf).position(end);
+                buf.compact();
+                while (pending.size() >= 2 * threads || (eof && !pending.isEmpty())) {
+                    for (Triple t : pending.poll().get()) {
+                        sink.triple(t);
+                        triples++;
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                if (now - lastReport > REPORT_INTERVAL) {
+                    lastReport = now;
+                    monitor.updateStatus(Stage.INITIALIZING, String.format("Loaded %d triples from %s (%.0f triples/s)",
+                            triples, file.getName(), triples * 1000.0 / (now - start)));
+                }
+            }
+            sink.finish();
+            success = true;
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file, x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) x.getCause();
+            }
+            throw new IOException(x.getCause());
+        } finally {
+            if (success) {
+                pool.shutdown();
+            } else {
+                pool.shutdownNow();
+            }
+        }
+        final long time = Math.max(1, System.currentTimeMillis() - start);
+        monitor.updateStatus(Stage.INITIALIZING, String.format("Loaded %d triples from %s in %.1fs (%.0f triples/s)",
+                triples, file.getName(), time / 1000.0, triples * 1000.0 / time));
+        return triples;
+    }
+
+    private static List<Triple> parse(byte[] block, String base, UUID seed) {
+        final List<Triple> triples = new ArrayList<>();
+        RDFParser.create()
+                .source(new ByteArrayInputStream(block))
+                .lang(Lang.NTRIPLES)
+                .base(base)
+                .labelToNode(LabelToNode.createScopeByDocumentHash(seed))
+                .parse(new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        triples.add(triple);
+                    }
+                });
+        return triples;
+    }
+}
@@ -13,25 +13,76 @@ import org.insightcentre.uld.naisc.util.Option;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import org.apache.jena.rdfconnection.*;
 import org.insightcentre.uld.naisc.util.Some;
 
 public class SPARQLDataset implements Dataset {
+    private static final int RETRIES = 3;
+    private static final long RETRY_WAIT = 500;
+    private static final ExecutorService PAGES = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sparql-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
     private final Model model = ModelFactory.createDefaultModel();
     private final String endpoint;
     private final String id;
     private final int limit;
     private final String graph;
     private final String uriSpace;
+    private final int batchSize;
+    private final int cacheSize;
+    private final int parallelism;
+    private final LinkedHashMap<String, List<Statement>> descriptions;
+    private final LinkedHashSet<String> pending = new LinkedHashSet<>();
+    // The subjects that are being fetched (guarded by the descriptions)
+    private final Map<String, CompletableFuture<List<Statement>>> inFlight = new HashMap<>();
+    private final Semaphore fetches;
 
     public SPARQLDataset(String endpoint, String id, int limit, String graph, String uriSpace) {
+        this(endpoint, id, limit, graph, uriSpace, 50, 100000, 4);
+    }
+
+    /**
+     * Create a dataset backed by a SPARQL endpoint. The statements about a
+     * subject are fetched together, in batches of subjects, and kept in a
+     * cache so that each subject is only fetched once.
+     *
+     * @param endpoint The URL of the endpoint
+     * @param id The identifier of the dataset
+     * @param limit The page size for queries
+     * @param graph The graph to query (or null for the default graph)
+     * @param uriSpace The prefix of the URIs of the subjects (or null for all subjects)
+     * @param batchSize The number of subjects to fetch in one query
+     * @param cacheSize The number of subjects to cache (0 to disable caching)
+     * @param parallelism The number of pages of subjects (or batches of
+     * prefetched subjects) to query at once
+     */
+    public SPARQLDataset(String endpoint, String id, int limit, String graph, String uriSpace,
+            int batchSize, int cacheSize, int parallelism) {
         this.endpoint = endpoint;
         this.id = id;
         this.limit = limit;
         this.graph = graph;
         this.uriSpace = uriSpace;
+        this.batchSize = Math.max(1, batchSize);
+        this.cacheSize = cacheSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.fetches = new Semaphore(this.parallelism);
+        this.descriptions = new LinkedHashMap<String, List<Statement>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Statement>> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     @Override
@@ -67,7 +118,7 @@ public class SPARQLDataset implements Dataset {
     @Override
     public ResIterator listSubjects() {
         String queryString = "SELECT DISTINCT ?s " + sparqlGraph() + "{ ?s ?p ?o " + uriFilter("s") + "}";
-        return new ResIteratorImpl(new OffsetLimitSPARQL<Resource>(queryString, limit) {
+        return new ResIteratorImpl(new PrefetchSPARQL<Resource>(queryString, "s") {
             @Override
             protected Resource makeResult(QuerySolution soln) {
                 return soln.getResource("s");
@@ -93,7 +144,7 @@ public class SPARQLDataset implements Dataset {
     @Override
     public ResIterator listSubjectsWithProperty(Property prop) {
         String queryString = "SELECT DISTINCT ?s " + sparqlGraph() + "{ ?s <" +  prop.getURI() + "> ?o " + uriFilter("s") + "}";
-        return new ResIteratorImpl(new OffsetLimitSPARQL<Resource>(queryString, limit) {
+        return new ResIteratorImpl(new PrefetchSPARQL<Resource>(queryString, "s") {
             @Override
             protected Resource makeResult(QuerySolution soln) {
                 return soln.getResource("s");
@@ -104,7 +155,7 @@ public class SPARQLDataset implements Dataset {
     @Override
     public ResIterator listSubjectsWithProperty(Property prop, RDFNode object) {
         String queryString = "SELECT DISTINCT ?s " + sparqlGraph() + "WHERE { ?s <" +  prop.getURI() + "> " + toID(object) +" " + uriFilter("s") + "}";
-        return new ResIteratorImpl(new OffsetLimitSPARQL<Resource>(queryString, limit) {
+        return new ResIteratorImpl(new PrefetchSPARQL<Resource>(queryString, "s") {
             @Override
             protected Resource makeResult(QuerySolution soln) {
                 return soln.getResource("s");
@@ -114,6 +165,16 @@ public class SPARQLDataset implements Dataset {
 
     @Override
     public NodeIterator listObjectsOfProperty(Resource r, Property p) {
+        List<Statement> description = describe(r);
+        if(description != null) {
+            List<RDFNode> objects = new ArrayList<>();
+            for(Statement st : description) {
+                if(st.getPredicate().equals(p) && !objects.contains(st.getObject())) {
+                    objects.add(st.getObject());
+                }
+            }
+            return new NodeIteratorImpl(objects.iterator(), null);
+        }
         String queryString = "SELECT DISTINCT ?o " + sparqlGraph() + "{ " + toID(r) + " <" +  p.getURI() + "> ?o }";
         return new NodeIteratorImpl(new OffsetLimitSPARQL<RDFNode>(queryString, limit) {
             @Override
@@ -137,6 +198,16 @@ public class SPARQLDataset implements Dataset {
 
     @Override
     public StmtIterator listStatements(Resource s, Property p, RDFNode o) {
+        List<Statement> description = s == null ? null : describe(s);
+        if(description != null) {
+            List<Statement> statements = new ArrayList<>();
+            for(Statement st : description) {
+                if((p == null || st.getPredicate().equals(p)) && (o == null || st.getObject().equals(o))) {
+                    statements.add(st);
+                }
+            }
+            return new StmtIteratorImpl(statements.iterator());
+        }
         String queryString = "SELECT * " + sparqlGraph() + "{ " +
                 (s == null ? "?s" : toID(s)) + " " +
                 (p == null ? "?p" : toID(p)) + " " +
@@ -163,6 +234,159 @@ public class SPARQLDataset implements Dataset {
         return id;
     }
 
+    @Override
+    public void prefetch(Resource r) {
+        if(cacheSize <= 0 || !r.isURIResource()) {
+            return;
+        }
+        Map<String, CompletableFuture<List<Statement>>> batch = null;
+        synchronized(descriptions) {
+            if(!descriptions.containsKey(r.getURI()) && !inFlight.containsKey(r.getURI())) {
+                pending.add(r.getURI());
+                if(pending.size() >= batchSize) {
+                    batch = takePending(null);
+                }
+            }
+        }
+        if(batch != null) {
+            // Fetch in the background, but wait if too many fetches are
+            // running so that the caller is slowed down to the endpoint
+            try {
+                fetches.acquire();
+            } catch(InterruptedException x) {
+                Thread.currentThread().interrupt();
+                fail(batch, x);
+                return;
+            }
+            final Map<String, CompletableFuture<List<Statement>>> b = batch;
+            try {
+                PAGES.submit(() -> {
+                    try {
+                        fetch(b);
+                    } finally {
+                        fetches.release();
+                    }
+                });
+            } catch(RuntimeException x) {
+                fetches.release();
+                fail(batch, x);
+                throw x;
+            }
+        }
+    }
+
+    /**
+     * Get all the statements with a subject, from the cache if possible.
+     * If the subject is being fetched, this waits for that fetch, otherwise
+     * it is fetched along with any subjects that are waiting to be
+     * prefetched, so each subject is fetched only once.
+     *
+     * @param r The subject
+     * @return The statements or null if this subject cannot be cached
+     */
+    private List<Statement> describe(Resource r) {
+        if(cacheSize <= 0 || !r.isURIResource()) {
+            return null;
+        }
+        final String uri = r.getURI();
+        CompletableFuture<List<Statement>> future;
+        Map<String, CompletableFuture<List<Statement>>> batch = null;
+        synchronized(descriptions) {
+            List<Statement> description = descriptions.get(uri);
+            if(description != null) {
+                return description;
+            }
+            future = inFlight.get(uri);
+            if(future == null) {
+                batch = takePending(uri);
+                future = batch.get(uri);
+            }
+        }
+        if(batch != null) {
+            fetch(batch);
+        }
+        try {
+            return future.get();
+        } catch(InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while querying " + endpoint, x);
+        } catch(ExecutionException x) {
+            if(x.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) x.getCause();
+            }
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    /**
+     * Take a batch of subjects to fetch (starting with a given subject) and
+     * mark them as being fetched. Must be called holding the lock on the
+     * descriptions.
+     */
+    private Map<String, CompletableFuture<List<Statement>>> takePending(String first) {
+        Map<String, CompletableFuture<List<Statement>>> batch = new LinkedHashMap<>();
+        if(first != null) {
+            batch.put(first, new CompletableFuture<>());
+            pending.remove(first);
+        }
+        Iterator<String> iter = pending.iterator();
+        while(iter.hasNext() && batch.size() < batchSize) {
+            batch.put(iter.next(), new CompletableFuture<>());
+            iter.remove();
+        }
+        inFlight.putAll(batch);
+        return batch;
+    }
+
+    /**
+     * Fetch the statements of several subjects with a single VALUES query,
+     * add them to the cache and complete the futures of the subjects
+     */
+    private void fetch(Map<String, CompletableFuture<List<Statement>>> subjects) {
+        Map<String, List<Statement>> result = new HashMap<>();
+        try {
+            StringBuilder queryString = new StringBuilder("SELECT DISTINCT ?s ?p ?o ").append(sparqlGraph()).append("WHERE { VALUES ?s {");
+            for(String subject : subjects.keySet()) {
+                result.put(subject, new ArrayList<>());
+                queryString.append(" <").append(subject).append(">");
+            }
+            queryString.append(" } ?s ?p ?o }");
+            Iterator<Statement> iter = new OffsetLimitSPARQL<Statement>(queryString.toString(), limit) {
+                @Override
+                protected Statement makeResult(QuerySolution soln) {
+                    return model.createStatement(soln.getResource("s"), model.createProperty(soln.getResource("p").getURI()),
+                            soln.get("o"));
+                }
+            };
+            while(iter.hasNext()) {
+                Statement st = iter.next();
+                List<Statement> description = result.get(st.getSubject().getURI());
+                if(description != null) {
+                    description.add(st);
+                }
+            }
+        } catch(RuntimeException | Error x) {
+            fail(subjects, x);
+            throw x;
+        }
+        synchronized(descriptions) {
+            descriptions.putAll(result);
+            inFlight.keySet().removeAll(subjects.keySet());
+        }
+        for(Map.Entry<String, CompletableFuture<List<Statement>>> e : subjects.entrySet()) {
+            e.getValue().complete(result.get(e.getKey()));
+        }
+    }
+
+    private void fail(Map<String, CompletableFuture<List<Statement>>> subjects, Throwable x) {
+        synchronized(descriptions) {
+            inFlight.keySet().removeAll(subjects.keySet());
+        }
+        for(CompletableFuture<List<Statement>> f : subjects.values()) {
+            f.completeExceptionally(x);
+        }
+    }
+
     protected RDFConnection makeConnection() { return RDFConnectionFactory.connect(endpoint); }
 
 
@@ -211,17 +435,19 @@ public class SPARQLDataset implements Dataset {
                 if(last != null) {
                     resultCache.add(last);
                 }
-                done = true;
                 Query query = QueryFactory.create(queryString + " LIMIT " + limit + " OFFSET " + offset);
                 offset += limit;
+                int count = 0;
                 try (QueryExecution qexec = conn.query(query)) {
                     ResultSet results = qexec.execSelect();
                     while(results.hasNext()) {
                         QuerySolution soln = results.next();
                         resultCache.add(makeResult(soln));
-                        done = false;
+                        count++;
                     }
                 }
+                // A short page is the last page
+                done = count < limit;
             }
 
         }
@@ -238,10 +464,112 @@ public class SPARQLDataset implements Dataset {
             if(done && index >= resultCache.size()) {
                 throw new NoSuchElementException();
             }
-            if(index == resultCache.size() - 1) {
+            if(!done && index == resultCache.size() - 1) {
                 advance();
             }
             return resultCache.get(index++);
         }
     }
+
+    /**
+     * Pages through the results of a query by querying several pages at once.
+     * At most {@code parallelism} pages are queried ahead of the page being
+     * read and failed queries are retried. As each page is a separate query,
+     * the results are ordered by a variable so that the pages neither overlap
+     * nor skip any result.
+     */
+    private abstract class PrefetchSPARQL<A> implements Iterator<A> {
+        private final String queryString;
+        private final String orderBy;
+        private final Deque<Future<List<A>>> pages = new ArrayDeque<>();
+        private int offset = 0;
+        private boolean done = false;
+        private Iterator<A> page = Collections.emptyIterator();
+
+        /**
+         * Create an iterator
+         *
+         * @param queryString The query (without ORDER BY, LIMIT or OFFSET)
+         * @param orderBy The variable that orders the results
+         */
+        public PrefetchSPARQL(String queryString, String orderBy) {
+            this.queryString = queryString;
+            this.orderBy = orderBy;
+            fill();
+        }
+
+        private void fill() {
+            while(!done && pages.size() < parallelism) {
+                final int pageOffset = offset;
+                offset += limit;
+                pages.add(PAGES.submit(() -> query(pageOffset)));
+            }
+        }
+
+        private List<A> query(int pageOffset) throws InterruptedException {
+            Query query = QueryFactory.create(queryString + " ORDER BY ?" + orderBy + " LIMIT " + limit + " OFFSET " + pageOffset);
+            for(int attempt = 1;; attempt++) {
+                List<A> results = new ArrayList<>();
+                try(RDFConnection conn = makeConnection(); QueryExecution qexec = conn.query(query)) {
+                    ResultSet rs = qexec.execSelect();
+                    while(rs.hasNext()) {
+                        results.add(makeResult(rs.next()));
+                    }
+                    return results;
+                } catch(RuntimeException x) {
+                    if(attempt >= RETRIES) {
+                        throw x;
+                    }
+                    Thread.sleep(RETRY_WAIT * attempt);
+                }
+            }
+        }
+
+        protected abstract A makeResult(QuerySolution soln);
+
+        @Override
+        public boolean hasNext() {
+            while(!page.hasNext()) {
+                if(pages.isEmpty()) {
+                    return false;
+                }
+                final List<A> results;
+                try {
+                    results = pages.poll().get();
+                } catch(InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while querying " + endpoint, x);
+                } catch(ExecutionException x) {
+                    for(Future<List<A>> f : pages) {
+                        f.cancel(true);
+                    }
+                    pages.clear();
+                    done = true;
+                    if(x.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) x.getCause();
+                    }
+                    throw new RuntimeException(x.getCause());
+                }
+                if(results.size() < limit) {
+                    // A short page is the last page so later pages are not needed
+                    done = true;
+                    for(Future<List<A>> f : pages) {
+                        f.cancel(true);
+                    }
+                    pages.clear();
+                }
+                fill();
+                page = results.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public A next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
 }
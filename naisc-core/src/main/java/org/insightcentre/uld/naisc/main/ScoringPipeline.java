@@ -0,0 +1,444 @@
+package org.insightcentre.uld.naisc.main;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.insightcentre.uld.naisc.Alignment;
+import org.insightcentre.uld.naisc.AlignmentSet;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.FeatureSet;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+import org.insightcentre.uld.naisc.Rescaler;
+import org.insightcentre.uld.naisc.ScoreResult;
+import org.insightcentre.uld.naisc.Scorer;
+import org.insightcentre.uld.naisc.URIRes;
+import org.insightcentre.uld.naisc.blocking.MaterializedBlocking;
+import org.insightcentre.uld.naisc.scorer.ModelNotTrainedException;
+
+/**
+ * The scoring stage of the pipeline. Blocked pairs are passed through bounded
+ * queues to a pool of feature extraction workers and then to a pool of scoring
+ * workers, so that the blocking, feature extraction and scoring run at the
+ * same time and a slow stage slows down the stages before it, rather than
+ * buffering all the pairs in memory. The scoring workers take whatever pairs
+ * are waiting (up to the batch size) and score them with a single call to
+ * {@link Scorer#similarityBatch(List, org.insightcentre.uld.naisc.NaiscListener)}. The scores are collected in a compact
+ * form ({@link Results}) until they are rescaled and passed to the matcher.
+ * If a batch cannot be scored, its pairs are scored one by one. With no
+ * scoring threads, each feature extraction thread scores its own batches.
+ * If a worker stops because of an error, the error is thrown to the thread
+ * that submits the pairs, so that the pipeline does not wait for it forever.
+ *
+ * @author John McCrae
+ */
+class ScoringPipeline {
+
+    private static final Blocking END_OF_BLOCKS = new Blocking((URIRes) null, (URIRes) null);
+    private static final Scored END_OF_FEATURES = new Scored(null, null);
+
+    /**
+     * The feature extraction step of the pipeline
+     */
+    static interface FeatureExtraction {
+
+        /**
+         * Extract the features for a single pair
+         *
+         * @param block The pair
+         * @return The features or null if the pair should not be scored
+         */
+        FeatureSet extract(Blocking block);
+
+        /**
+         * Called when the scorer has finished with a feature set that is not
+         * included in the results
+         *
+         * @param featureSet The feature set
+         */
+        default void release(FeatureSet featureSet) {
+        }
+    }
+
+    private final BlockingQueue<Blocking> blockQueue;
+    private final BlockingQueue<Scored> featureQueue;
+    private final int featureThreads, scoringThreads;
+    private final ExecutorService featurePool, scoringPool;
+    private final List<Future<?>> featureWorkers = new ArrayList<>(), scoringWorkers = new ArrayList<>();
+    private final AtomicReference<ModelNotTrainedException> modelNotTrainedException = new AtomicReference<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final FeatureExtraction extraction;
+    private final Scorer scorer;
+    private final boolean includeFeatures;
+    private final Results results;
+    private final ExecuteListener monitor;
+
+    /**
+     * Create and start a scoring pipeline
+     *
+     * @param featureThreads The number of threads for feature extraction
+     * @param scoringThreads The number of threads for scoring (0 to score in
+     * the feature extraction threads)
+     * @param queueSize The maximum number of pairs waiting at each stage
+     * @param batchSize The maximum number of pairs passed to the scorer at once
+     * @param extraction The feature extraction
+     * @param scorer The scorer
+     * @param includeFeatures Keep the features in the results
+     * @param results The collection of the scored pairs
+     * @param monitor The listener
+     */
+    public ScoringPipeline(int featureThreads, int scoringThreads, int queueSize, int batchSize,
+            FeatureExtraction extraction, Scorer scorer, boolean includeFeatures,
+            Results results, ExecuteListener monitor) {
+        this.featureThreads = Math.max(1, featureThreads);
+        this.scoringThreads = Math.max(0, scoringThreads);
+        this.extraction = extraction;
+        this.scorer = scorer;
+        this.includeFeatures = includeFeatures;
+        this.results = results;
+        this.monitor = monitor;
+        this.blockQueue = new ArrayBlockingQueue<>(queueSize);
+        this.featureQueue = new ArrayBlockingQueue<>(queueSize);
+        this.featurePool = Executors.newFixedThreadPool(this.featureThreads);
+        this.scoringPool = this.scoringThreads > 0 ? Executors.newFixedThreadPool(this.scoringThreads) : null;
+        for (int i = 0; i < this.featureThreads; i++) {
+            featureWorkers.add(featurePool.submit(worker(() -> {
+                // Without scoring threads each feature worker scores its own batches
+                final List<Scored> batch = this.scoringThreads == 0 ? new ArrayList<>(batchSize) : null;
+                Blocking block;
+                while ((block = take(blockQueue)) != END_OF_BLOCKS) {
+                    if (modelNotTrainedException.get() != null) {
+                        // Keep draining the queue so the producer does not block
+                        continue;
+                    }
+                    int c = count.incrementAndGet();
+                    if (c % 1000 == 0) {
+                        monitor.updateStatus(Stage.SCORING, "Scoring (" + c + " done)");
+                    }
+                    try {
+                        FeatureSet featureSet = extraction.extract(block);
+                        if (featureSet != null) {
+                            if (batch == null) {
+                                put(featureQueue, new Scored(block, featureSet));
+                            } else {
+                                batch.add(new Scored(block, featureSet));
+                                if (batch.size() >= batchSize || blockQueue.isEmpty()) {
+                                    score(batch);
+                                    batch.clear();
+                                }
+                            }
+                        }
+                    } catch (Exception x) {
+                        monitor.updateStatus(Stage.FAILED, String.format("Failed to extract features %s <-> %s due to %s (%s)\n", block.entity1, block.entity2, x.getMessage(), x.getClass().getName()));
+                        x.printStackTrace();
+                    }
+                }
+                if (batch != null && !batch.isEmpty() && modelNotTrainedException.get() == null) {
+                    score(batch);
+                }
+            })));
+        }
+        for (int i = 0; i < this.scoringThreads; i++) {
+            scoringWorkers.add(scoringPool.submit(worker(() -> {
+                final List<Scored> batch = new ArrayList<>(batchSize);
+                boolean finished = false;
+                while (!finished) {
+                    batch.clear();
+                    batch.add(take(featureQueue));
+                    featureQueue.drainTo(batch, batchSize - 1);
+                    if (batch.remove(END_OF_FEATURES)) {
+                        // Pass the marker on to the other scoring workers
+                        put(featureQueue, END_OF_FEATURES);
+                        finished = true;
+                    }
+                    if (modelNotTrainedException.get() != null || batch.isEmpty()) {
+                        continue;
+                    }
+                    score(batch);
+                }
+            })));
+        }
+    }
+
+    /**
+     * Score a batch of pairs and add them to the results. If the batch cannot
+     * be scored, each pair is scored on its own so that only the pairs that
+     * fail are lost.
+     */
+    private void score(List<Scored> batch) {
+        final List<FeatureSet> batchFeatures = new ArrayList<>(batch.size());
+        for (Scored scored : batch) {
+            batchFeatures.add(scored.features);
+        }
+        List<List<ScoreResult>> scores;
+        try {
+            scores = scorer.similarityBatch(batchFeatures, monitor);
+        } catch (ModelNotTrainedException x) {
+            modelNotTrainedException.set(x);
+            release(batch);
+            return;
+        } catch (Exception x) {
+            monitor.updateStatus(Stage.SCORING, String.format("Failed to get probability for %d pairs starting with %s <-> %s due to %s (%s), scoring them one by one\n", batch.size(), batch.get(0).block.entity1, batch.get(0).block.entity2, x.getMessage(), x.getClass().getName()));
+            scores = null;
+        }
+        for (int j = 0; j < batch.size(); j++) {
+            final Scored scored = batch.get(j);
+            List<ScoreResult> score;
+            if (scores != null) {
+                score = scores.get(j);
+            } else if (modelNotTrainedException.get() != null) {
+                score = null;
+            } else {
+                try {
+                    score = scorer.similarity(scored.features, monitor);
+                } catch (ModelNotTrainedException x) {
+                    modelNotTrainedException.set(x);
+                    score = null;
+                } catch (Exception x) {
+                    monitor.updateStatus(Stage.FAILED, String.format("Failed to get probability %s <-> %s due to %s (%s)\n", scored.block.entity1, scored.block.entity2, x.getMessage(), x.getClass().getName()));
+                    x.printStackTrace();
+                    score = null;
+                }
+            }
+            if (score != null) {
+                for (ScoreResult r : score) {
+                    results.add(scored.block.entity1, scored.block.entity2, r.getProbability(), r.getProperty(),
+                            includeFeatures ? scored.features : null);
+                }
+            }
+            if (!includeFeatures || score == null) {
+                extraction.release(scored.features);
+            }
+        }
+    }
+
+    private void release(List<Scored> batch) {
+        for (Scored scored : batch) {
+            extraction.release(scored.features);
+        }
+    }
+
+    /**
+     * Wrap the loop of a worker so that if it stops because of an error the
+     * error is recorded
+     */
+    private Runnable worker(Runnable loop) {
+        return () -> {
+            try {
+                loop.run();
+            } catch (RuntimeException | Error x) {
+                failure.compareAndSet(null, x);
+                throw x;
+            }
+        };
+    }
+
+    /**
+     * Throw the error that stopped a worker, if any
+     */
+    private void checkFailure() {
+        final Throwable x = failure.get();
+        if (x instanceof Error) {
+            throw (Error) x;
+        } else if (x instanceof RuntimeException) {
+            throw (RuntimeException) x;
+        }
+    }
+
+    /**
+     * Send a pair to be scored. This will block if the pipeline is full
+     *
+     * @param block The pair
+     * @throws ModelNotTrainedException If the scorer has failed
+     * @throws RuntimeException If a worker has stopped because of an error
+     */
+    public void submit(Blocking block) throws ModelNotTrainedException {
+        if (modelNotTrainedException.get() != null) {
+            throw modelNotTrainedException.get();
+        }
+        put(blockQueue, block);
+    }
+
+    /**
+     * Wait for all submitted pairs to be scored and stop the workers
+     *
+     * @return The number of pairs that were sent to feature extraction
+     * @throws ModelNotTrainedException If the scorer has failed
+     * @throws RuntimeException If a worker has stopped because of an error
+     */
+    public int finish() throws ModelNotTrainedException {
+        try {
+            for (int i = 0; i < featureThreads; i++) {
+                put(blockQueue, END_OF_BLOCKS);
+            }
+            await(featureWorkers);
+            if (scoringPool != null) {
+                put(featureQueue, END_OF_FEATURES);
+                await(scoringWorkers);
+            }
+            checkFailure();
+        } finally {
+            abort();
+        }
+        if (modelNotTrainedException.get() != null) {
+            throw modelNotTrainedException.get();
+        }
+        return count.get();
+    }
+
+    /**
+     * Stop the pipeline without waiting for the pairs to be scored
+     */
+    public void abort() {
+        featurePool.shutdownNow();
+        if (scoringPool != null) {
+            scoringPool.shutdownNow();
+        }
+    }
+
+    private void await(List<Future<?>> workers) {
+        for (Future<?> f : workers) {
+            try {
+                f.get();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(x);
+            } catch (ExecutionException x) {
+                checkFailure();
+                throw new RuntimeException(x.getCause());
+            }
+        }
+    }
+
+    private static <E> E take(BlockingQueue<E> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        }
+    }
+
+    /**
+     * Put an element in a queue, waiting for space unless a worker has
+     * stopped because of an error (so that nothing may ever take from the
+     * queue)
+     */
+    private <E> void put(BlockingQueue<E> queue, E e) {
+        try {
+            while (!queue.offer(e, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        }
+    }
+
+    private static class Scored {
+
+        private final Blocking block;
+        private final FeatureSet features;
+
+        public Scored(Blocking block, FeatureSet features) {
+            this.block = block;
+            this.features = features;
+        }
+    }
+
+    /**
+     * The scored pairs. The entities are stored by their identifiers in the
+     * (materialized) blocking and the properties are interned, so that a
+     * scored pair takes only a few bytes until the final alignment set is
+     * constructed.
+     */
+    static class Results {
+
+        private final MaterializedBlocking blocks;
+        private final IntArrayList left = new IntArrayList(), right = new IntArrayList(), props = new IntArrayList();
+        private final DoubleArrayList scores = new DoubleArrayList();
+        private final Object2IntMap<String> propIds = new Object2IntOpenHashMap<>();
+        private final List<String> propNames = new ArrayList<>();
+        private List<Object2DoubleMap<String>> features;
+
+        public Results(MaterializedBlocking blocks) {
+            this.blocks = blocks;
+            propIds.defaultReturnValue(-1);
+        }
+
+        /**
+         * Add a scored pair
+         *
+         * @param entity1 The left entity (must be in the blocking)
+         * @param entity2 The right entity (must be in the blocking)
+         * @param score The score
+         * @param property The property
+         * @param featureSet The features (or null if not to be included)
+         */
+        public synchronized void add(URIRes entity1, URIRes entity2, double score, String property, FeatureSet featureSet) {
+            left.add(blocks.leftId(entity1));
+            right.add(blocks.rightId(entity2));
+            scores.add(score);
+            int p = propIds.getInt(property);
+            if (p < 0) {
+                p = propNames.size();
+                propNames.add(property);
+                propIds.put(property, p);
+            }
+            props.add(p);
+            if (featureSet != null) {
+                if (features == null) {
+                    features = new ArrayList<>();
+                }
+                while (features.size() < scores.size() - 1) {
+                    features.add(null);
+                }
+                Object2DoubleMap<String> f = new Object2DoubleOpenHashMap<>();
+                for (int i = 0; i < featureSet.names.length; i++) {
+                    f.put(featureSet.names[i]._1 + "-" + featureSet.names[i]._2, featureSet.values[i]);
+                }
+                features.add(f);
+            }
+        }
+
+        /**
+         * The number of scored pairs
+         *
+         * @return The number of pairs
+         */
+        public int size() {
+            return scores.size();
+        }
+
+        /**
+         * Rescale the scores and convert them to an alignment set
+         *
+         * @param rescaler The rescaler
+         * @return The alignment set
+         */
+        public AlignmentSet toAlignmentSet(Rescaler rescaler) {
+            double[] s = rescaler.rescale(scores.toDoubleArray());
+            List<Alignment> aligns = new ArrayList<>(s.length);
+            for (int i = 0; i < s.length; i++) {
+                aligns.add(new Alignment(blocks.left(left.getInt(i)), blocks.right(right.getInt(i)), s[i],
+                        propNames.get(props.getInt(i)),
+                        features != null && i < features.size() ? features.get(i) : null));
+            }
+            return new AlignmentSet(aligns);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.DatasetLoader;
+import org.insightcentre.uld.naisc.NaiscListener.Level;
+import org.insightcentre.uld.naisc.NaiscListener.Stage;
+
+/**
+ * A dataset loader that keeps a binary snapshot of each file it loads. The
+ * first time a file is loaded it is parsed into a {@link CompactDataset} and
+ * written as a snapshot; later loads memory-map the snapshot instead of
+ * parsing the file. The snapshot records the length and modification time of
+ * the file and is rebuilt if either is different.
+ *
+ * Snapshots are named after the file with the extension {@code .snapshot}.
+ * A snapshot file can also be loaded directly.
+ *
+ * @author John McCrae
+ */
+public class SnapshotDatasetLoader implements DatasetLoader<CompactDataset> {
+
+    private final File directory;
+    private final CompactDatasetLoader loader;
+    private final ExecuteListener monitor;
+
+    public SnapshotDatasetLoader() {
+        this(null, 1, ExecuteListeners.NONE);
+    }
+
+    /**
+     * Create a snapshot loader
+     *
+     * @param directory The folder to store the snapshots in, or null to store
+     * them next to the files
+     * @param threads The number of threads to parse N-Triples with
+     * @param monitor The listener to report to
+     */
+    public SnapshotDatasetLoader(File directory, int threads, ExecuteListener monitor) {
+        this.directory = directory;
+        this.loader = new CompactDatasetLoader(threads, monitor);
+        this.monitor = monitor;
+    }
+
+    /**
+     * The snapshot file that would be used for a file
+     *
+     * @param file The RDF file
+     * @return The snapshot file
+     */
+    public File snapshotFile(File file) {
+        return directory == null ? new File(file.getPath() + ".snapshot")
+                : new File(directory, file.getName() + ".snapshot");
+    }
+
+    @Override
+    public CompactDataset fromFile(File file, String name) throws IOException {
+        if (file.getName().endsWith(".snapshot")) {
+            return open(file, name, file.toURI().toURL());
+        }
+        final File snapshot = snapshotFile(file);
+        if (CompactDataset.isSnapshotOf(snapshot, file)) {
+            try {
+                final CompactDataset dataset = open(snapshot, name, file.toURI().toURL());
+                monitor.updateStatus(Stage.INITIALIZING, "Opened snapshot " + snapshot + " of " + dataset.size() + " triples");
+                return dataset;
+            } catch (IOException x) {
+                monitor.message(Stage.INITIALIZING, Level.WARNING, "Could not open snapshot " + snapshot + " (" + x.getMessage() + ") so it will be rebuilt");
+            }
+        }
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        return convert(file, snapshot, name, file.toURI().toURL());
+    }
+
+    /**
+     * Open a snapshot
+     *
+     * @param snapshot The snapshot file
+     * @param name The identifier of the dataset
+     * @param location The location of the original file
+     * @return The dataset
+     * @throws IOException If the snapshot could not be read
+     */
+    protected CompactDataset open(File snapshot, String name, URL location) throws IOException {
+        return CompactDataset.open(snapshot, name, location);
+    }
+
+    /**
+     * Load a file that has no snapshot (or has changed) and write its
+     * snapshot
+     *
+     * @param file The RDF file
+     * @param snapshot The snapshot to write
+     * @param name The identifier of the dataset
+     * @param location The location of the file
+     * @return The dataset
+     * @throws IOException If the file could not be read
+     */
+    protected CompactDataset convert(File file, File snapshot, String name, URL location) throws IOException {
+        final CompactDataset dataset = loader.fromFile(file, name);
+        try {
+            dataset.write(snapshot, file);
+            monitor.updateStatus(Stage.INITIALIZING, "Wrote snapshot " + snapshot);
+        } catch (IOException x) {
+            monitor.message(Stage.INITIALIZING, Level.WARNING, "Could not write snapshot " + snapshot + " (" + x.getMessage() + ")");
+        }
+        return dataset;
+    }
+
+    @Override
+    public Dataset fromEndpoint(URL endpoint) {
+        return loader.fromEndpoint(endpoint);
+    }
+
+    @Override
+    public Dataset combine(CompactDataset dataset1, CompactDataset dataset2, String name) {
+        return loader.combine(dataset1, dataset2, name);
+    }
+}
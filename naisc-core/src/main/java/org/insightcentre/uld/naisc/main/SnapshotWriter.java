@@ -0,0 +1,619 @@
+package org.insightcentre.uld.naisc.main;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.jena.graph.Triple;
+
+/**
+ * Writes a {@link CompactDataset} snapshot from a stream of triples without
+ * holding the dataset in memory. The terms of each triple are spilled to disk
+ * with the position they occur at, and everything else is done by external
+ * sorts: sorting the terms gives each distinct term its identifier, sorting
+ * the identifiers by position gives the triples back as identifiers and these
+ * are then sorted into subject-predicate-object and predicate-object-subject
+ * order. Only one run of each sort is held in memory at a time.
+ *
+ * Identifiers (and so the number of distinct terms and triples) are still
+ * integers, and the hash table of the dictionary limits a snapshot to 2^29
+ * terms.
+ *
+ * @author John McCrae
+ */
+class SnapshotWriter implements Closeable {
+
+    /**
+     * The default number of records in a run of a sort
+     */
+    public static final int RUN_SIZE = 1 << 21;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MERGE_BUFFER_SIZE = 1 << 14;
+
+    private final File directory;
+    private final int runSize;
+    private final List<File> files = new ArrayList<>();
+    private final TermSorter terms;
+    private long triples;
+
+    /**
+     * Create a snapshot writer
+     *
+     * @param directory The folder to keep the temporary files in
+     * @param runSize The number of records in a run of a sort
+     */
+    public SnapshotWriter(File directory, int runSize) {
+        this.directory = directory;
+        this.runSize = runSize;
+        this.terms = new TermSorter();
+    }
+
+    /**
+     * Add a triple. Duplicate triples are removed when the snapshot is
+     * written.
+     *
+     * @param t The triple
+     * @throws UncheckedIOException If the terms could not be spilled to disk
+     */
+    public void add(Triple t) {
+        try {
+            terms.add(CompactDataset.encode(t.getSubject()), 3 * triples);
+            terms.add(CompactDataset.encode(t.getPredicate()), 3 * triples + 1);
+            terms.add(CompactDataset.encode(t.getObject()), 3 * triples + 2);
+            triples++;
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Write the snapshot. The writer should not be used afterwards.
+     *
+     * @param file The snapshot to write
+     * @param source The file the triples were read from
+     * @throws IOException If the snapshot could not be written
+     */
+    public void write(File file, File source) throws IOException {
+        // Number the distinct terms and recover the triples as identifiers
+        final File termOffsets = temp(), termBytes = temp();
+        final TupleSorter positions = new TupleSorter(3), hashes = new TupleSorter(2);
+        int n = 0;
+        long termLength = 0;
+        try (TermSorter.Cursor c = terms.sorted();
+                DataOutputStream offsetsOut = output(termOffsets);
+                DataOutputStream bytesOut = output(termBytes)) {
+            offsetsOut.writeLong(0);
+            byte[] last = null;
+            while (c.next()) {
+                if (last == null || !Arrays.equals(last, c.term)) {
+                    if (n == Integer.MAX_VALUE - 1) {
+                        throw new IOException("Too many terms for a snapshot");
+                    }
+                    last = c.term;
+                    n++;
+                    bytesOut.write(last);
+                    termLength += last.length;
+                    offsetsOut.writeLong(termLength);
+                    // Flip the sign bit so the hashes sort as unsigned
+                    hashes.add(CompactDataset.MappedDictionary.hash(last) ^ Integer.MIN_VALUE, n - 1);
+                }
+                // Flip the sign bit so the low word sorts as unsigned
+                positions.add((int) (c.ref >>> 32), (int) c.ref ^ Integer.MIN_VALUE, n - 1);
+            }
+        }
+        final File table = temp();
+        final int tableSize = writeTable(hashes, n, table);
+        final TupleSorter spo = new TupleSorter(3);
+        try (TupleSorter.Cursor c = positions.sorted()) {
+            final int[] t = new int[3];
+            while (c.next()) {
+                final long ref = ((long) c.get(0) << 32) | ((c.get(1) ^ Integer.MIN_VALUE) & 0xffffffffL);
+                t[(int) (ref % 3)] = c.get(2);
+                if (ref % 3 == 2) {
+                    spo.add(t[0], t[1], t[2]);
+                }
+            }
+        }
+        // Subject-predicate-object, without duplicates
+        final File sOffsets = temp(), spoP = temp(), spoO = temp();
+        final TupleSorter pos = new TupleSorter(3), ps = new TupleSorter(2);
+        int size = 0;
+        try (TupleSorter.Cursor c = spo.sorted();
+                Offsets sOut = new Offsets(sOffsets);
+                DataOutputStream pOut = output(spoP);
+                DataOutputStream oOut = output(spoO)) {
+            int s = -1, p = -1, o = -1;
+            while (c.next()) {
+                if (c.get(0) == s && c.get(1) == p && c.get(2) == o) {
+                    continue;
+                }
+                if (c.get(0) != s || c.get(1) != p) {
+                    ps.add(c.get(1), c.get(0));
+                }
+                s = c.get(0);
+                p = c.get(1);
+                o = c.get(2);
+                if (size == Integer.MAX_VALUE) {
+                    throw new IOException("Too many triples for a snapshot");
+                }
+                sOut.add(s, size++);
+                pOut.writeInt(p);
+                oOut.writeInt(o);
+                pos.add(p, o, s);
+            }
+            sOut.finish(n, size);
+        }
+        // Predicate-object-subject
+        final File pOffsets = temp(), posO = temp(), posS = temp();
+        try (TupleSorter.Cursor c = pos.sorted();
+                Offsets pOut = new Offsets(pOffsets);
+                DataOutputStream oOut = output(posO);
+                DataOutputStream sOut = output(posS)) {
+            int i = 0;
+            while (c.next()) {
+                pOut.add(c.get(0), i++);
+                oOut.writeInt(c.get(1));
+                sOut.writeInt(c.get(2));
+            }
+            pOut.finish(n, i);
+        }
+        // The distinct subjects of each predicate
+        final File psOffsets = temp(), psS = temp();
+        int psSize = 0;
+        try (TupleSorter.Cursor c = ps.sorted();
+                Offsets pOut = new Offsets(psOffsets);
+                DataOutputStream sOut = output(psS)) {
+            while (c.next()) {
+                pOut.add(c.get(0), psSize++);
+                sOut.writeInt(c.get(1));
+            }
+            pOut.finish(n, psSize);
+        }
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE))) {
+            CompactDataset.writeHeader(out, n, size, psSize, tableSize, termLength, source.length(), source.lastModified());
+            Files.copy(termOffsets.toPath(), out);
+            Files.copy(termBytes.toPath(), out);
+            CompactDataset.pad(out, termLength);
+            for (File f : Arrays.asList(table, sOffsets, spoP, spoO, pOffsets, posO, posS, psOffsets, psS)) {
+                Files.copy(f.toPath(), out);
+            }
+        } catch (IOException x) {
+            tmp.delete();
+            throw x;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not write snapshot to " + file);
+        }
+    }
+
+    /**
+     * Write the hash table of the dictionary. The terms are placed in order
+     * of their home slot, so each goes in the first free slot after its home.
+     *
+     * @return The size of the table
+     */
+    private int writeTable(TupleSorter hashes, int n, File table) throws IOException {
+        final int bits = CompactDataset.MappedDictionary.tableBits(n);
+        int next = 0;
+        try (TupleSorter.Cursor c = hashes.sorted(); DataOutputStream out = output(table)) {
+            while (c.next()) {
+                final int slot = Math.max(next, (c.get(0) ^ Integer.MIN_VALUE) >>> (32 - bits));
+                for (; next < slot; next++) {
+                    out.writeInt(0);
+                }
+                out.writeInt(c.get(1) + 1);
+                next++;
+            }
+            final int size = Math.max(1 << bits, next + 1);
+            for (; next < size; next++) {
+                out.writeInt(0);
+            }
+            return size;
+        }
+    }
+
+    private File temp() throws IOException {
+        final File f = File.createTempFile("snapshot", ".tmp", directory);
+        files.add(f);
+        return f;
+    }
+
+    private static DataOutputStream output(File f) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE));
+    }
+
+    private static DataInputStream input(File f) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(f), MERGE_BUFFER_SIZE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (File f : files) {
+            f.delete();
+        }
+        files.clear();
+    }
+
+    /**
+     * Compare two byte arrays as unsigned bytes
+     */
+    private static int compare(byte[] a, byte[] b) {
+        final int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xff) - (b[i] & 0xff);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Writes the offsets of a sorted index, that is for each key the position
+     * of its first entry
+     */
+    private static class Offsets implements Closeable {
+
+        private final DataOutputStream out;
+        private int next;
+
+        public Offsets(File file) throws IOException {
+            this.out = output(file);
+        }
+
+        /**
+         * Record an entry
+         *
+         * @param key The key of the entry, at least that of the last entry
+         * @param position The position of the entry
+         */
+        public void add(int key, int position) throws IOException {
+            for (; next <= key; next++) {
+                out.writeInt(position);
+            }
+        }
+
+        /**
+         * Write the offsets of the remaining keys
+         *
+         * @param keys The number of keys
+         * @param size The number of entries
+         */
+        public void finish(int keys, int size) throws IOException {
+            for (; next <= keys; next++) {
+                out.writeInt(size);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * An external sort of encoded terms with the position they occur at
+     */
+    private class TermSorter {
+
+        private static final long RUN_BYTES = 1L << 26;
+
+        private final List<File> runs = new ArrayList<>();
+        private final List<byte[]> terms = new ArrayList<>();
+        private long[] refs = new long[1024];
+        private long bytes;
+
+        public void add(byte[] term, long ref) throws IOException {
+            if (terms.size() == refs.length) {
+                refs = Arrays.copyOf(refs, refs.length * 2);
+            }
+            refs[terms.size()] = ref;
+            terms.add(term);
+            // Roughly the memory used by the array and the list entry
+            bytes += term.length + 32;
+            if (bytes >= RUN_BYTES || terms.size() >= runSize) {
+                spill();
+            }
+        }
+
+        private void sort() {
+            it.unimi.dsi.fastutil.Arrays.quickSort(0, terms.size(), new AbstractIntComparator() {
+                @Override
+                public int compare(int i, int j) {
+                    return SnapshotWriter.compare(terms.get(i), terms.get(j));
+                }
+            }, (i, j) -> {
+                terms.set(i, terms.set(j, terms.get(i)));
+                final long r = refs[i];
+                refs[i] = refs[j];
+                refs[j] = r;
+            });
+        }
+
+        private void spill() throws IOException {
+            sort();
+            final File run = temp();
+            try (DataOutputStream out = output(run)) {
+                for (int i = 0; i < terms.size(); i++) {
+                    out.writeInt(terms.get(i).length);
+                    out.write(terms.get(i));
+                    out.writeLong(refs[i]);
+                }
+            }
+            runs.add(run);
+            terms.clear();
+            bytes = 0;
+        }
+
+        /**
+         * Iterate the terms in order
+         */
+        public Cursor sorted() throws IOException {
+            if (!terms.isEmpty()) {
+                spill();
+            }
+            final PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> SnapshotWriter.compare(a.term, b.term));
+            final Cursor cursor = new Cursor(queue);
+            for (File f : runs) {
+                final Run r = new Run(input(f));
+                cursor.open.add(r);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            return cursor;
+        }
+
+        private class Run {
+
+            private final DataInputStream in;
+            private byte[] term;
+            private long ref;
+
+            public Run(DataInputStream in) {
+                this.in = in;
+            }
+
+            public boolean next() throws IOException {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException x) {
+                    return false;
+                }
+                term = new byte[length];
+                in.readFully(term);
+                ref = in.readLong();
+                return true;
+            }
+        }
+
+        private class Cursor implements Closeable {
+
+            private final PriorityQueue<Run> queue;
+            private final List<Run> open = new ArrayList<>();
+            private byte[] term;
+            private long ref;
+
+            public Cursor(PriorityQueue<Run> queue) {
+                this.queue = queue;
+            }
+
+            public boolean next() throws IOException {
+                final Run r = queue.poll();
+                if (r == null) {
+                    return false;
+                }
+                term = r.term;
+                ref = r.ref;
+                if (r.next()) {
+                    queue.add(r);
+                }
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (Run r : open) {
+                    r.in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * An external sort of tuples of integers
+     */
+    private class TupleSorter {
+
+        private final int width;
+        private final List<File> runs = new ArrayList<>();
+        private int[] buf;
+        private int count;
+
+        public TupleSorter(int width) {
+            this.width = width;
+            this.buf = new int[width * 1024];
+        }
+
+        public void add(int a, int b) throws IOException {
+            ensure();
+            buf[count * width] = a;
+            buf[count * width + 1] = b;
+            count++;
+        }
+
+        public void add(int a, int b, int c) throws IOException {
+            ensure();
+            buf[count * width] = a;
+            buf[count * width + 1] = b;
+            buf[count * width + 2] = c;
+            count++;
+        }
+
+        private void ensure() throws IOException {
+            if (count == runSize) {
+                spill();
+            } else if ((count + 1) * width > buf.length) {
+                buf = Arrays.copyOf(buf, Math.min(buf.length * 2, runSize * width));
+            }
+        }
+
+        private int compare(int i, int j) {
+            for (int k = 0; k < width; k++) {
+                final int c = Integer.compare(buf[i * width + k], buf[j * width + k]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+
+        private void sort() {
+            it.unimi.dsi.fastutil.Arrays.quickSort(0, count, new AbstractIntComparator() {
+                @Override
+                public int compare(int i, int j) {
+                    return TupleSorter.this.compare(i, j);
+                }
+            }, (i, j) -> {
+                for (int k = 0; k < width; k++) {
+                    final int x = buf[i * width + k];
+                    buf[i * width + k] = buf[j * width + k];
+                    buf[j * width + k] = x;
+                }
+            });
+        }
+
+        private void spill() throws IOException {
+            sort();
+            final File run = temp();
+            try (DataOutputStream out = output(run)) {
+                for (int i = 0; i < count * width; i++) {
+                    out.writeInt(buf[i]);
+                }
+            }
+            runs.add(run);
+            count = 0;
+        }
+
+        /**
+         * Iterate the tuples in order. If all the tuples fit in one run they
+         * are not written to disk.
+         */
+        public Cursor sorted() throws IOException {
+            if (runs.isEmpty()) {
+                sort();
+                return new Cursor(null);
+            }
+            if (count > 0) {
+                spill();
+            }
+            buf = null;
+            final PriorityQueue<Run> queue = new PriorityQueue<>(Run::compareTo);
+            final Cursor cursor = new Cursor(queue);
+            for (File f : runs) {
+                final Run r = new Run(input(f));
+                cursor.open.add(r);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            return cursor;
+        }
+
+        private class Run implements Comparable<Run> {
+
+            private final DataInputStream in;
+            private final int[] tuple = new int[width];
+
+            public Run(DataInputStream in) {
+                this.in = in;
+            }
+
+            public boolean next() throws IOException {
+                try {
+                    tuple[0] = in.readInt();
+                } catch (EOFException x) {
+                    return false;
+                }
+                for (int k = 1; k < width; k++) {
+                    tuple[k] = in.readInt();
+                }
+                return true;
+            }
+
+            @Override
+            public int compareTo(Run o) {
+                for (int k = 0; k < width; k++) {
+                    final int c = Integer.compare(tuple[k], o.tuple[k]);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        }
+
+        private class Cursor implements Closeable {
+
+            private final PriorityQueue<Run> queue;
+            private final List<Run> open = new ArrayList<>();
+            private final int[] tuple = new int[width];
+            private int i = -1;
+
+            /**
+             * @param queue The runs to merge, or null to read the tuples in
+             * memory
+             */
+            public Cursor(PriorityQueue<Run> queue) {
+                this.queue = queue;
+            }
+
+            public boolean next() throws IOException {
+                if (queue == null) {
+                    if (++i >= count) {
+                        return false;
+                    }
+                    System.arraycopy(buf, i * width, tuple, 0, width);
+                    return true;
+                }
+                final Run r = queue.poll();
+                if (r == null) {
+                    return false;
+                }
+                System.arraycopy(r.tuple, 0, tuple, 0, width);
+                if (r.next()) {
+                    queue.add(r);
+                }
+                return true;
+            }
+
+            public int get(int k) {
+                return tuple[k];
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (Run r : open) {
+                    r.in.close();
+                }
+                buf = null;
+            }
+        }
+    }
+}
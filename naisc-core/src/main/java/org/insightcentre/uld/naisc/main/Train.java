@@ -10,6 +10,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,8 @@ import org.insightcentre.uld.naisc.util.Pair;
 import org.insightcentre.uld.naisc.util.Option;
 import org.insightcentre.uld.naisc.analysis.Analysis;
 import org.insightcentre.uld.naisc.analysis.DatasetAnalyzer;
+import org.insightcentre.uld.naisc.blocking.MaterializedBlocking;
+import org.insightcentre.uld.naisc.feature.MemoizedTextFeature;
 import org.insightcentre.uld.naisc.matcher.Prematcher;
 import org.insightcentre.uld.naisc.util.Lazy;
 import org.jetbrains.annotations.Nullable;
@@ -193,8 +196,32 @@ public class Train {
     public static void execute(String name, Dataset leftModel, Dataset rightModel,
             AlignmentSet goldAlignments, double negativeSampling,
             Configuration config, ExecuteListener monitor, DatasetLoader loader, @Nullable String tag) throws IOException {
+        execute(name, leftModel, rightModel, goldAlignments, negativeSampling, config, monitor, loader, tag, null);
+    }
+
+    /**
+     * Train a NAISC model
+     *
+     * @param name The name of the run
+     * @param leftModel The left dataset
+     * @param rightModel The right dataset
+     * @param goldAlignments The gold standard alignments
+     * @param config The configuration object
+     * @param negativeSampling The rate at which to generate negative examples
+     * (zero for no negative sampling)
+     * @param monitor The listener for events
+     * @param loader The dataset loader
+     * @param tag The tag (for cross-fold validation)
+     * @param preblocked A blocking that has already been computed for these
+     * datasets (or null to run the blocking strategy)
+     * @throws IOException If an IO error occurs
+     */
+    public static void execute(String name, Dataset leftModel, Dataset rightModel,
+            AlignmentSet goldAlignments, double negativeSampling,
+            Configuration config, ExecuteListener monitor, DatasetLoader loader, @Nullable String tag,
+            @Nullable Collection<Blocking> preblocked) throws IOException {
         Map<String, List<FeatureSetWithScore>> trainingData
-                = extractData(name, leftModel, rightModel, goldAlignments, negativeSampling, config, monitor, loader);
+                = extractData(name, leftModel, rightModel, goldAlignments, negativeSampling, config, monitor, loader, preblocked);
 
         trainModels(monitor, config, trainingData, tag);
     }
@@ -216,6 +243,29 @@ public class Train {
     public static Map<String, List<FeatureSetWithScore>> extractData(String name, Dataset leftModel, Dataset rightModel,
             AlignmentSet goldAlignments, double negativeSampling,
             Configuration config, ExecuteListener monitor, DatasetLoader loader) throws IOException {
+        return extractData(name, leftModel, rightModel, goldAlignments, negativeSampling, config, monitor, loader, null);
+    }
+
+    /**
+     * Extract the data to be trained
+     *
+     * @param name The name of the run
+     * @param leftModel The left dataset
+     * @param rightModel The right dataset
+     * @param goldAlignments The gold standard
+     * @param negativeSampling The negative sampling rate
+     * @param config The configuration
+     * @param monitor The monitor
+     * @param loader The dataset loader
+     * @param preblocked A blocking that has already been computed for these
+     * datasets (or null to run the blocking strategy)
+     * @return The training data
+     * @throws IOException If a disk error occurred
+     */
+    public static Map<String, List<FeatureSetWithScore>> extractData(String name, Dataset leftModel, Dataset rightModel,
+            AlignmentSet goldAlignments, double negativeSampling,
+            Configuration config, ExecuteListener monitor, DatasetLoader loader,
+            @Nullable Collection<Blocking> preblocked) throws IOException {
         Map<String, List<FeatureSetWithScore>> trainingData = new HashMap<>();
         Lazy<Analysis> analysis = Lazy.fromClosure(() -> {
             DatasetAnalyzer analyzer = new DatasetAnalyzer();
@@ -229,88 +279,99 @@ public class Train {
         Dataset combined = loader.combine(leftModel, rightModel, name + "/combined");
         List<Lens> lenses = config.makeLenses(combined, analysis, monitor);
 
-        monitor.updateStatus(ExecuteListener.Stage.INITIALIZING, "Loading Feature Extractors");
-        AlignmentSet prematch = new Prematcher().prematch(blocking.block(leftModel, rightModel), leftModel, rightModel, monitor);
-        List<TextFeature> textFeatures = config.makeTextFeatures();
-        List<GraphFeature> dataFeatures = config.makeGraphFeatures(combined, analysis, prematch, monitor);
-
         monitor.updateStatus(ExecuteListener.Stage.BLOCKING, "Blocking");
-        final Iterable<Blocking> blocks = blocking.block(leftModel, rightModel);
-
-        monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Constructing Training Data");
-        Set<String> goldProps = goldAlignments.properties();
-        if (goldProps.isEmpty()) {
-            monitor.updateStatus(ExecuteListener.Stage.FAILED, "No properties in the gold set. Is the training data empty?");
-            return new HashMap<>();
-        }
-        for (String prop : goldProps) {
-            trainingData.put(prop, new ArrayList<>());
-        }
-
-        boolean blocksGenerated = false;
+        final MaterializedBlocking blocks = MaterializedBlocking.materialize(
+                preblocked != null ? preblocked : blocking.block(leftModel, rightModel, monitor),
+                config.maxBlocksInMemory, monitor);
+        try {
+            monitor.updateStatus(ExecuteListener.Stage.INITIALIZING, "Loading Feature Extractors");
+            AlignmentSet prematch = new Prematcher().prematch(blocks, leftModel, rightModel, monitor);
+            List<TextFeature> textFeatures = config.makeTextFeatures();
+            List<GraphFeature> dataFeatures = config.makeGraphFeatures(combined, analysis, prematch, monitor);
 
-        // We use the negative sampling as the seed such that the experiment
-        // produces the same result every time
-        final Random random = new Random(Double.doubleToLongBits(negativeSampling));
-        final int estimatedSize = blocking.estimateSize(leftModel, rightModel);
-        final double negSampProp = negativeSampling > 0
-                ? negativeSampling * (double) (goldAlignments.size()) / (double) (estimatedSize - goldAlignments.size())
-                : -1.0;
-        final Object2IntMap<String> positives = new Object2IntOpenHashMap<>(),
-                negatives = new Object2IntOpenHashMap<>();
-        int count = 0;
-        for (Blocking block : blocks) {
-            blocksGenerated = true;
-            if (++count % 10000 == 0) {
-                monitor.updateStatus(ExecuteListener.Stage.SCORING,
-                        String.format("Generating Features (%.2f%%)", (double) count / estimatedSize * 100.0));
+            monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Constructing Training Data");
+            Set<String> goldProps = goldAlignments.properties();
+            if (goldProps.isEmpty()) {
+                monitor.updateStatus(ExecuteListener.Stage.FAILED, "No properties in the gold set. Is the training data empty?");
+                return new HashMap<>();
             }
             for (String prop : goldProps) {
-                Resource block1 = block.asJena1(leftModel), block2 = block.asJena2(rightModel);
-                Option<Alignment> a = goldAlignments.find(block.entity1, block.entity2, prop);
+                trainingData.put(prop, new ArrayList<>());
+            }
 
-                if (a.has()) {
-                    FeatureSet featureSet = makeFeatures(block.entity1, block.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel);
-                    trainingData.get(prop).add(featureSet.withScore(a.get().probability));
-                    goldAlignments.remove(a.get());
-                    positives.put(prop, positives.getInt(prop) + 1);
-                } else {
-                    if (negativeSampling > 0 && random.nextDouble() < negSampProp) {
-                        FeatureSet featureSet = makeFeatures(block.entity1, block.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel);
-                        trainingData.get(prop).add(featureSet.withScore(0.0));
-                        negatives.put(prop, negatives.getInt(prop) + 1);
+            boolean blocksGenerated = false;
+
+            // We use the negative sampling as the seed such that the experiment
+            // produces the same result every time
+            final Random random = new Random(Double.doubleToLongBits(negativeSampling));
+            final int estimatedSize = blocks.size();
+            final double negSampProp = negativeSampling > 0
+                    ? negativeSampling * (double) (goldAlignments.size()) / (double) (estimatedSize - goldAlignments.size())
+                    : -1.0;
+            // The training data is kept, so no value arrays are returned to the pool
+            final FeatureSchema schema = new FeatureSchema(1);
+            final EntityCache entityCache = new EntityCache(config.entityCacheSize);
+            final Object2IntMap<String> positives = new Object2IntOpenHashMap<>(),
+                    negatives = new Object2IntOpenHashMap<>();
+            int count = 0;
+            for (Blocking block : blocks) {
+                blocksGenerated = true;
+                if (++count % 10000 == 0) {
+                    monitor.updateStatus(ExecuteListener.Stage.SCORING,
+                            String.format("Generating Features (%.2f%%)", (double) count / estimatedSize * 100.0));
+                }
+                for (String prop : goldProps) {
+                    Resource block1 = block.asJena1(leftModel), block2 = block.asJena2(rightModel);
+                    Option<Alignment> a = goldAlignments.find(block.entity1, block.entity2, prop);
+
+                    if (a.has()) {
+                        FeatureSet featureSet = makeFeatures(block.entity1, block.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel, schema, entityCache);
+                        trainingData.get(prop).add(featureSet.withScore(a.get().probability));
+                        goldAlignments.remove(a.get());
+                        positives.put(prop, positives.getInt(prop) + 1);
+                    } else {
+                        if (negativeSampling > 0 && random.nextDouble() < negSampProp) {
+                            FeatureSet featureSet = makeFeatures(block.entity1, block.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel, schema, entityCache);
+                            trainingData.get(prop).add(featureSet.withScore(0.0));
+                            negatives.put(prop, negatives.getInt(prop) + 1);
+                        }
                     }
                 }
             }
-        }
 
-        int unblockedGold = 0;
-        for (Alignment a : goldAlignments) {
-            FeatureSet featureSet = makeFeatures(a.entity1,
-                    a.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel);
-            trainingData.get(a.property).add(featureSet.withScore(a.probability));
-            unblockedGold++;
-        }
+            int unblockedGold = 0;
+            for (Alignment a : goldAlignments) {
+                FeatureSet featureSet = makeFeatures(a.entity1,
+                        a.entity2, lenses, monitor, textFeatures, dataFeatures, leftModel, rightModel, schema, entityCache);
+                trainingData.get(a.property).add(featureSet.withScore(a.probability));
+                unblockedGold++;
+            }
+            MemoizedTextFeature.report(textFeatures, monitor);
 
-        for (String prop : goldProps) {
-            if (negativeSampling > 0) {
-                monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Adding " + negatives.getInt(prop)
-                        + " negative examples to " + positives.getInt(prop)
-                        + " positive examples for property " + prop);
-            } else {
-                monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Generated data for "
-                        + positives.getInt(prop) + " examples");
+            for (String prop : goldProps) {
+                if (negativeSampling > 0) {
+                    monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Adding " + negatives.getInt(prop)
+                            + " negative examples to " + positives.getInt(prop)
+                            + " positive examples for property " + prop);
+                } else {
+                    monitor.updateStatus(ExecuteListener.Stage.TRAINING, "Generated data for "
+                            + positives.getInt(prop) + " examples");
+                }
             }
-        }
 
-        if (!blocksGenerated) {
-            monitor.updateStatus(ExecuteListener.Stage.FAILED, "No blocks were generated");
-            return new HashMap<>();
-        }
-        if (unblockedGold > 0) {
-            monitor.updateStatus(ExecuteListener.Stage.TRAINING, unblockedGold + " gold standard values were not generated by the blocking strategy. If this value is high consider using a more exhaustive blocking method");
+            if (!blocksGenerated) {
+                monitor.updateStatus(ExecuteListener.Stage.FAILED, "No blocks were generated");
+                return new HashMap<>();
+            }
+            if (unblockedGold > 0) {
+                monitor.updateStatus(ExecuteListener.Stage.TRAINING, unblockedGold + " gold standard values were not generated by the blocking strategy. If this value is high consider using a more exhaustive blocking method");
+            }
+            return trainingData;
+        } finally {
+            if (blocks != preblocked) {
+                blocks.close();
+            }
         }
-        return trainingData;
 
     }
 
@@ -359,18 +420,16 @@ public class Train {
         }
     }
 
-    private static FeatureSet makeFeatures(URIRes res1, URIRes res2, List<Lens> lenses, ExecuteListener monitor, List<TextFeature> textFeatures, List<GraphFeature> dataFeatures, Dataset left, Dataset right) {
-        FeatureSet featureSet = new FeatureSet();
+    private static FeatureSet makeFeatures(URIRes res1, URIRes res2, List<Lens> lenses, ExecuteListener monitor, List<TextFeature> textFeatures, List<GraphFeature> dataFeatures, Dataset left, Dataset right, FeatureSchema schema, EntityCache entityCache) {
+        FeatureSchema.Builder builder = schema.builder();
         boolean labelsProduced = false;
         for (Lens lens : lenses) {
-            for(LensResult facet : lens.extract(res1, res2)) {
+            for(LensResult facet : lens.extract(res1, res2, NaiscListener.DEFAULT, entityCache)) {
                 labelsProduced = true;
                 for (TextFeature featureExtractor : textFeatures) {
                     if (featureExtractor.tags() == null || facet.tag == null
                             || featureExtractor.tags().contains(facet.tag)) {
-                        Feature[] features = featureExtractor.extractFeatures(facet);
-                        featureSet = featureSet.add(new FeatureSet(features,
-                                facet.tag));
+                        builder.add(featureExtractor.extractFeatures(facet), facet.tag);
                     }
                 }
             }
@@ -379,10 +438,9 @@ public class Train {
             monitor.updateStatus(ExecuteListener.Stage.INITIALIZING, String.format("Lens produced no label for %s %s", res1, res2));
         }
         for (GraphFeature feature : dataFeatures) {
-            Feature[] features = feature.extractFeatures(res1, res2);
-            featureSet = featureSet.add(new FeatureSet(features, feature.id()));
+            builder.add(feature.extractFeatures(res1, res2), feature.id());
         }
-        return featureSet;
+        return builder.build();
     }
     /*
     @SuppressWarnings("UseSpecificCatch")
@@ -392,6 +450,7 @@ public class Train {
                 {
                     accepts("c", "The configuration to use").withRequiredArg().ofType(File.class);
                     accepts("q", "Quiet (suppress output)");
+                    accepts("snapshot", "Keep a binary snapshot of each dataset and open the snapshot on later runs");
                     accepts("n", "Negative Sampling rate (number of negative examples/positive example)").withRequiredArg().ofType(Double.class);
                     nonOptions("Two RDF files and One Alignment RDF files (N-Triples, one per line with probability after as a comment)");
                 }
@@ -431,7 +490,7 @@ public class Train {
             final double negativeSampling = os.has("n") ? (Double) os.valueOf("n") : 5.0;
             execute("train", left, right, alignment, negativeSampling, configuration,
                     os.has("q") ? NONE : STDERR,
-                    new DefaultDatasetLoader());
+                    os.has("snapshot") ? new SnapshotDatasetLoader() : new DefaultDatasetLoader());
         } catch (Throwable x) {
             x.printStackTrace();
             System.exit(-1);
@@ -1,5 +1,8 @@
 package org.insightcentre.uld.naisc.matcher;
 
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import java.util.*;
 
 import org.apache.jena.rdf.model.Resource;
@@ -19,27 +22,30 @@ public class Prematcher {
 
     public AlignmentSet prematch(Collection<Blocking> blocking, Dataset left, Dataset right, ExecuteListener listener) {
         AlignmentSet prematch = new AlignmentSet();
-        Map<URIRes, URIRes> l2r = new HashMap<>();
-        Map<URIRes, URIRes> r2l = new HashMap<>();
-        Set<URIRes> lburnt = new HashSet<>();
-        Set<URIRes> rburnt = new HashSet<>();
+        EntityRegistry lefts = new EntityRegistry();
+        EntityRegistry rights = new EntityRegistry();
+        Int2IntOpenHashMap l2r = new Int2IntOpenHashMap();
+        Int2IntOpenHashMap r2l = new Int2IntOpenHashMap();
+        IntOpenHashSet lburnt = new IntOpenHashSet();
+        IntOpenHashSet rburnt = new IntOpenHashSet();
         int count = 0;
         for(Blocking block : blocking) {
             if(++count % 100000 == 0) {
                 listener.updateStatus(NaiscListener.Stage.MATCHING, format("Prematched %d entities", count));
             }
-            if(l2r.containsKey(block.entity1) || r2l.containsKey(block.entity2)) {
-                l2r.remove(block.entity1);
-                r2l.remove(block.entity2);
-                lburnt.add(block.entity1);
-                rburnt.add(block.entity2);
-            } else if(!lburnt.contains(block.entity1) && !rburnt.contains(block.entity2)) {
-                l2r.put(block.entity1, block.entity2);
-                r2l.put(block.entity2, block.entity1);
+            final int l = lefts.id(block.entity1), r = rights.id(block.entity2);
+            if(l2r.containsKey(l) || r2l.containsKey(r)) {
+                l2r.remove(l);
+                r2l.remove(r);
+                lburnt.add(l);
+                rburnt.add(r);
+            } else if(!lburnt.contains(l) && !rburnt.contains(r)) {
+                l2r.put(l, r);
+                r2l.put(r, l);
             }
         }
-        for(Map.Entry<URIRes, URIRes> e : l2r.entrySet()) {
-            prematch.add(new Alignment(e.getKey(), e.getValue(), 1.0));
+        for(Int2IntMap.Entry e : l2r.int2IntEntrySet()) {
+            prematch.add(new Alignment(lefts.get(e.getIntKey()), rights.get(e.getIntValue()), 1.0));
         }
         return prematch;
     }
@@ -2,7 +2,6 @@ package org.insightcentre.uld.naisc.matcher;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.insightcentre.uld.naisc.*;
@@ -49,12 +48,7 @@ public class Threshold implements MatcherFactory {
         @Override
         public AlignmentSet alignWith(AlignmentSet matches, AlignmentSet initial, ExecuteListener monitor) {
             matches.addAll(initial);
-            Iterator<Alignment> iter = matches.iterator();
-            while(iter.hasNext()) {
-                final double score = iter.next().probability;
-                if(score < threshold)
-                    iter.remove();
-            }
+            matches.removeIf(a -> a.probability < threshold);
             
             return matches;
         }
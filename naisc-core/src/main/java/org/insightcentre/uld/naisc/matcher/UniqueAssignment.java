@@ -5,7 +5,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntMaps;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrays;
@@ -14,8 +13,6 @@ import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
@@ -108,27 +105,17 @@ public class UniqueAssignment implements MatcherFactory {
                     }
                 }
                 
-                Object2IntMap<URIRes> lefts = new Object2IntOpenHashMap<>();
-                Object2IntMap<URIRes> rights = new Object2IntOpenHashMap<>();
-                Int2ObjectMap<URIRes> linv = new Int2ObjectArrayMap<>();
-                Int2ObjectMap<URIRes> rinv = new Int2ObjectArrayMap<>();
+                EntityRegistry lefts = new EntityRegistry();
+                EntityRegistry rights = new EntityRegistry();
                 HashMap<IntStringTriple, Alignment> origAligns = new HashMap<>();
 
                 for (Alignment alignment : matches.getAlignments()) {
                     if (rel.equals(alignment.property) && alignment.probability >= threshold &&
                             !leftExclusion.contains(alignment.entity1) &&
                             !rightExclusion.contains(alignment.entity2)) {
-                        if (!lefts.containsKey(alignment.entity1)) {
-                            linv.put(lefts.size(), alignment.entity1);
-                            lefts.put(alignment.entity1, lefts.size());
-                        }
-                        if (!rights.containsKey(alignment.entity2)) {
-                            rinv.put(rights.size(), alignment.entity2);
-                            rights.put(alignment.entity2, rights.size());
-                        }
                         relations.add(alignment.property);
-                        origAligns.put(new IntStringTriple(lefts.getInt(alignment.entity1),
-                                rights.getInt(alignment.entity2), alignment.property),
+                        origAligns.put(new IntStringTriple(lefts.id(alignment.entity1),
+                                rights.id(alignment.entity2), alignment.property),
                                 alignment);
                     }
                 }
@@ -138,21 +125,23 @@ public class UniqueAssignment implements MatcherFactory {
                         if (alignment.probability < 0) {
                             throw new RuntimeException("Invalid (negative) alignment probability generated");
                         }
-                        m.add(lefts.getInt(alignment.entity1), rights.getInt(alignment.entity2),
-                                alignment.probability);
-                                //Math.log(alignment.probability == 0 ? 1e-6 : alignment.probability / baseProbability));
+                        final int l = lefts.find(alignment.entity1), r = rights.find(alignment.entity2);
+                        if (l >= 0 && r >= 0) {
+                            m.add(l, r, alignment.probability);
+                            //Math.log(alignment.probability == 0 ? 1e-6 : alignment.probability / baseProbability));
+                        }
                     }
                 }
                 MunkRes munkRes = new MunkRes(m);
                 //double[] sim = m.sim();
                 for (IntPair ip : munkRes.execute()) {
-                    if(linv.containsKey(ip._1) && rinv.containsKey(ip._2)) {
+                    if(ip._1 < lefts.size() && ip._2 < rights.size()) {
                         Alignment orig = origAligns.get(new IntStringTriple(ip._1, ip._2, rel));
                         if(orig != null) {
-                            alignmentSet.add(new Alignment(linv.get(ip._1), rinv.get(ip._2),
+                            alignmentSet.add(new Alignment(lefts.get(ip._1), rights.get(ip._2),
                                 orig.probability, rel, orig.features == null || orig.features instanceof Object2DoubleMap ? (Object2DoubleMap<String>)orig.features : new Object2DoubleOpenHashMap<>(orig.features)));
                         } else {
-                            alignmentSet.add(new Alignment(linv.get(ip._1), rinv.get(ip._2),
+                            alignmentSet.add(new Alignment(lefts.get(ip._1), rights.get(ip._2),
                                     baseProbability, rel, null));
                         }
                     }
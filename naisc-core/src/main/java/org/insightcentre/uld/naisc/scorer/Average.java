@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.IOException;
 import static java.lang.Double.max;
 import static java.lang.Double.min;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -79,18 +80,36 @@ public class Average implements ScorerFactory {
             if(weights != null && weights.length != features.values.length) {
                 throw new IllegalArgumentException("Length of feature vector does not match that of weights");
             }
+            return Collections.singletonList(new ScoreResult(score(features.values), relation));
+        }
+
+        @Override
+        public List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) {
+            List<List<ScoreResult>> results = new ArrayList<>(features.size());
+            for(FeatureSet fs : features) {
+                if(weights != null && weights.length != fs.values.length) {
+                    throw new IllegalArgumentException("Length of feature vector does not match that of weights");
+                }
+                results.add(Collections.singletonList(new ScoreResult(score(fs.values), relation)));
+            }
+            return results;
+        }
+
+        private double score(double[] values) {
             double score = 0.0;
-            for(int i = 0; i < features.values.length; i++) {
-                if(weights == null) {
-                    score += features.values[i] / features.values.length;
-                } else {
-                    score += features.values[i] * weights[i];
+            if(weights == null) {
+                for(int i = 0; i < values.length; i++) {
+                    score += values[i] / values.length;
+                }
+            } else {
+                for(int i = 0; i < values.length; i++) {
+                    score += values[i] * weights[i];
                 }
             }
             if(softmax) {
-                return Collections.singletonList(new ScoreResult(sigmoid(score), relation));
+                return sigmoid(score);
             } else {
-                return Collections.singletonList(new ScoreResult(max(0.0, min(1.0, score)), relation));
+                return max(0.0, min(1.0, score));
             }
         }
 
@@ -1,5 +1,6 @@
 package org.insightcentre.uld.naisc.scorer;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -28,9 +29,10 @@ public class ExternalScorer implements ScorerFactory {
     public Scorer makeScorer(Map<String, Object> params, File modelPath) throws IOException {
         Configuration config = new ObjectMapper().convertValue(params, Configuration.class);
         if(config.path == null) {
-            return new ExternalScorerImpl(String.format("%s/naisc/%s/score", config.endpoint, config.configName));
+            return new ExternalScorerImpl(String.format("%s/naisc/%s/score", config.endpoint, config.configName),
+                    config.batchPath == null ? String.format("%s/naisc/%s/score_batch", config.endpoint, config.configName) : config.batchPath);
         } else {
-            return new ExternalScorerImpl(config.path);
+            return new ExternalScorerImpl(config.path, config.batchPath);
         }
     }
 
@@ -49,31 +51,67 @@ public class ExternalScorer implements ScorerFactory {
 
         @ConfigurationParameter(description = "The path or null if the path is $endpoint/naisc/$configName/score")
         public String path;
+
+        @ConfigurationParameter(description = "The path to score a batch of feature sets in a single request. If this is null, the path is $endpoint/naisc/$configName/score_batch, unless the path is set, in which case each feature set is sent in a separate request. If the service does not have this path, each feature set is sent in a separate request")
+        public String batchPath;
     }
 
     private static class ExternalScorerImpl implements Scorer {
         private final String endpoint;
+        private final String batchEndpoint;
+        private final ObjectMapper mapper = new ObjectMapper();
+        // Set if the service does not score batches
+        private volatile boolean noBatches = false;
 
-        public ExternalScorerImpl(String endpoint) {
+        public ExternalScorerImpl(String endpoint, String batchEndpoint) {
             this.endpoint = endpoint;
+            this.batchEndpoint = batchEndpoint;
         }
 
         @Override
         public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) {
+            return post(endpoint, features, mapper.getTypeFactory().constructCollectionType(List.class, ScoreResult.class));
+        }
+
+        @Override
+        public List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) throws ModelNotTrainedException {
+            if(batchEndpoint == null || noBatches) {
+                return Scorer.super.similarityBatch(features, log);
+            }
+            final List<List<ScoreResult>> results;
+            try {
+                results = post(batchEndpoint, features,
+                        mapper.getTypeFactory().constructCollectionType(List.class,
+                                mapper.getTypeFactory().constructCollectionType(List.class, ScoreResult.class)));
+            } catch(StatusException x) {
+                if(x.status != 404 && x.status != 405) {
+                    throw x;
+                }
+                noBatches = true;
+                log.message(NaiscListener.Stage.SCORING, NaiscListener.Level.WARNING,
+                        String.format("%s returned status code %d, so each feature set will be sent in a separate request", batchEndpoint, x.status));
+                return Scorer.super.similarityBatch(features, log);
+            }
+            if(results.size() != features.size()) {
+                throw new RuntimeException(String.format("%s returned %d results for %d feature sets", batchEndpoint, results.size(), features.size()));
+            }
+            return results;
+        }
+
+        private <E> E post(String endpoint, Object body, JavaType type) {
             try(CloseableHttpClient client = HttpClients.createDefault()) {
-                ObjectMapper mapper = new ObjectMapper();
                 HttpPost post = new HttpPost(endpoint);
-                StringEntity entity = new StringEntity(mapper.writeValueAsString(features));
+                StringEntity entity = new StringEntity(mapper.writeValueAsString(body));
                 entity.setContentType("application/json");
                 post.setEntity(entity);
-                ResponseHandler<List<ScoreResult>> handler = new ResponseHandler<List<ScoreResult>>() {
+                ResponseHandler<E> handler = new ResponseHandler<E>() {
                     @Override
-                    public List<ScoreResult> handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
+                    public E handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
                         int status = httpResponse.getStatusLine().getStatusCode();
                         if(status == 200) {
-                            return mapper.readValue(httpResponse.getEntity().getContent(), mapper.getTypeFactory().constructCollectionType(List.class, ScoreResult.class));
+                            return mapper.readValue(httpResponse.getEntity().getContent(), type);
                         } else {
-                            throw new RuntimeException(String.format("%s returned status code %d", endpoint, status));
+                            throw new StatusException(endpoint, status);
                         }
                     }
                 };
@@ -88,4 +126,16 @@ public class ExternalScorer implements ScorerFactory {
 
         }
     }
+
+    /**
+     * The service returned a status code other than 200
+     */
+    private static class StatusException extends RuntimeException {
+        private final int status;
+
+        public StatusException(String endpoint, int status) {
+            super(String.format("%s returned status code %d", endpoint, status));
+            this.status = status;
+        }
+    }
 }
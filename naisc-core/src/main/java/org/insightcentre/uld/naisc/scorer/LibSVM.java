@@ -13,6 +13,7 @@ import org.insightcentre.uld.naisc.main.ConfigurationException;
 import org.insightcentre.uld.naisc.util.None;
 import org.insightcentre.uld.naisc.util.Option;
 import org.insightcentre.uld.naisc.util.Some;
+import org.insightcentre.uld.naisc.util.StringPair;
 
 import java.io.*;
 import java.util.*;
@@ -349,16 +350,40 @@ public class LibSVM implements ScorerFactory {
             this.relation = relation;
         }
 
+        private static final int TOTAL_CLASSES = 2;
+
         boolean checkedFeatures = false;
         boolean failedFeatures = false;
 
         @Override
         public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) throws ModelNotTrainedException{
+            checkFeatures(features);
+            final Instance instance = buildInstance(features, 0.0, null);
+            assert (instance.x.length == featNames.length);
+            return Collections.singletonList(new ScoreResult(predict(instance, new double[TOTAL_CLASSES]), relation));
+        }
+
+        @Override
+        public List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) throws ModelNotTrainedException {
+            final List<List<ScoreResult>> results = new ArrayList<>(features.size());
+            final double[] probEstimates = new double[TOTAL_CLASSES];
+            StringPair[] checkedNames = null;
+            for (FeatureSet fs : features) {
+                // Feature sets from the same configuration normally share the name array
+                if (fs.names != checkedNames) {
+                    checkFeatures(fs);
+                    checkedNames = fs.names;
+                }
+                final Instance instance = buildInstance(fs, 0.0, null);
+                results.add(Collections.singletonList(new ScoreResult(predict(instance, probEstimates), relation)));
+            }
+            return results;
+        }
+
+        private void checkFeatures(FeatureSet features) throws ModelNotTrainedException {
             if(failedFeatures) {
                 throw new ModelNotTrainedException();
             }
-            final svm_problem instances = makeInstances(features);
-            final Instance instance = buildInstance(features, 0.0, instances);
             if (features.names.length != featNames.length) {
                 System.err.println(Arrays.toString(features.names));
                 System.err.println(Arrays.toString(featNames));
@@ -374,18 +399,12 @@ public class LibSVM implements ScorerFactory {
                 }
                 checkedFeatures = true;
             }
-            assert (instance.x.length == featNames.length);
-            //instances.x = new svm_node[][] { instance };
-            //instance.setDataset(instances);
+        }
+
+        private double predict(Instance instance, double[] probEstimates) {
             try {
-                int totalClasses = 2;
-                int[] labels = new int[totalClasses];
-                svm.svm_get_labels(classifier, labels);
-
-                double[] prob_estimates = new double[totalClasses];
-                svm.svm_predict_probability(classifier, instance.x, prob_estimates);
-                double sim = prob_estimates[0];
-                return Collections.singletonList(new ScoreResult(sim, relation));
+                svm.svm_predict_probability(classifier, instance.x, probEstimates);
+                return probEstimates[0];
             } catch (IndexOutOfBoundsException x) {
                 throw new RuntimeException("Length of test-time vector is not the same as train. Please retrain the model for this configuration", x);
             } catch (Exception x) {
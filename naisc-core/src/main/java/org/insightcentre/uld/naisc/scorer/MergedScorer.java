@@ -29,6 +29,19 @@ public class MergedScorer implements Scorer {
         return results;
     }
 
+    @Override
+    public List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) throws ModelNotTrainedException {
+        List<List<ScoreResult>> results1 = scorer1.similarityBatch(features, log);
+        List<List<ScoreResult>> results2 = scorer2.similarityBatch(features, log);
+        List<List<ScoreResult>> results = new ArrayList<>(features.size());
+        for(int i = 0; i < features.size(); i++) {
+            List<ScoreResult> r = new ArrayList<>(results1.get(i));
+            r.addAll(results2.get(i));
+            results.add(r);
+        }
+        return results;
+    }
+
     @Override
     public void close() throws IOException {
         scorer1.close();
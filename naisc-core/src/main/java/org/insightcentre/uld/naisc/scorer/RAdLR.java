@@ -8,8 +8,6 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdKeyDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
@@ -153,28 +151,36 @@ public class RAdLR implements ScorerFactory {
 
         @Override
         public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) {
-            List<ScoreResult> results = new ArrayList<>();
+            return similarityBatch(Collections.singletonList(features), log).get(0);
+        }
+
+        @Override
+        public List<List<ScoreResult>> similarityBatch(List<FeatureSet> features, NaiscListener log) {
+            List<List<ScoreResult>> results = new ArrayList<>(features.size());
+            for(int i = 0; i < features.size(); i++) {
+                results.add(new ArrayList<>(models.size()));
+            }
             for(RAdLRModel model : models) {
-                DoubleList weights = new DoubleArrayList(features.names.length);
-                double[] result = new double[features.names.length];
-                LogGap[] loggaps = new LogGap[features.names.length];
-                //List<ScoreResult> result = new ArrayList<>(features.names.length);
-                for (int i = 0; i < features.names.length; i++) {
-                    weights.add(model.weights.getOrDefault(features.names[i], 1.0));
-                    synchronized (model) {
-                        final LogGap lg;
-                        if (!model.feats.containsKey(features.names[i])) {
-                            lg = new LogGap();
-                        } else {
-                            lg = LogGap.fromModel(model.feats.get(features.names[i]));
+                // The weights and normalizers are resolved once for each
+                // feature layout in the batch rather than once per pair
+                StringPair[] names = null;
+                double[] weights = null;
+                LogGap[] loggaps = null;
+                for(int i = 0; i < features.size(); i++) {
+                    FeatureSet fs = features.get(i);
+                    if(fs.names != names && !Arrays.equals(fs.names, names)) {
+                        names = fs.names;
+                        weights = new double[names.length];
+                        loggaps = new LogGap[names.length];
+                        for(int j = 0; j < names.length; j++) {
+                            weights[j] = model.weights.getOrDefault(names[j], 1.0);
+                            LogGap.LogGapModel lgm = model.feats.get(names[j]);
+                            // An unseen feature is not normalized
+                            loggaps[j] = lgm == null ? null : LogGap.fromModel(lgm);
                         }
-                        //result.add(feats.get(features.names[i]).result(features.values[i]));
-                        lg.addResult(features.values[i]);
-                        result[i] = features.values[i];
-                        loggaps[i] = lg;
                     }
+                    results.get(i).add(new ScoreResult(logGapScore(fs.values, weights, model, loggaps), model.property));
                 }
-                results.add(new ScoreResult(logGapScore(result, weights, model, loggaps, model.property), model.property));
             }
             return results;
         }
@@ -185,13 +191,12 @@ public class RAdLR implements ScorerFactory {
 
     }
 
-
-    private static double logGapScore(double[] features, DoubleList weights, RAdLRModel model, LogGap[] feats, String relation) {
+    private static double logGapScore(double[] features, double[] weights, RAdLRModel model, LogGap[] feats) {
         double x = 0.0;
         int n = 0;
         for (int i = 0; i < features.length; i++) {
             if (Double.isFinite(features[i])) {
-                x += weights.get(i) * feats[i].normalize(features[i]);
+                x += weights[i] * (feats[i] == null ? features[i] : feats[i].normalize(features[i]));
                 n++;
             }
         }
@@ -185,7 +185,7 @@ public class FastPPR {
 
         private final ArrayList<GraphNode> nodes = new ArrayList<>();
 
-        public final SimpleCache<Integer, Pair<Int2FloatMap, Float>> inversePPRBalancedCache = new SimpleCache<>(100);
+        public final StripedCache<Integer, Pair<Int2FloatMap, Float>> inversePPRBalancedCache = new StripedCache<>(100);
 
         public int addNode() {
             int id = nodes.size();
@@ -13,7 +13,7 @@ public final class PrettyGoodTokenizer {
     private final static Pattern pattern1 = Pattern.compile("(\\.\\.\\.+|[\\p{Po}\\p{Ps}\\p{Pe}\\p{Pi}\\p{Pf}\u2013\u2014\u2015&&[^'\\.]]|(?<!(\\.|\\.\\p{L}))\\.(?=[\\p{Z}\\p{Pf}\\p{Pe}]|\\Z)|(?<!\\p{L})'(?!\\p{L}))");
     private final static Pattern pattern2 = Pattern.compile("\\p{C}|^\\p{Z}+|\\p{Z}+$");
 
-    private final static SimpleCache<String, String[]> cache = new SimpleCache(10000);
+    private final static StripedCache<String, String[]> cache = new StripedCache<>(10000);
 
     private final static class DoTokenize implements Function<String, String[]> {
 
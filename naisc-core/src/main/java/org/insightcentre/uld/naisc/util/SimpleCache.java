@@ -1,27 +1,17 @@
 package org.insightcentre.uld.naisc.util;
 
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.function.Function;
 
 /**
- * A LRU cache for any objects. Please note that this is NOT thread-safe!
+ * A LRU cache for any objects. This is now a wrapper around a
+ * {@link StripedCache}, so it is thread-safe.
  *
  * @author John McCrae
+ * @deprecated Use {@link StripedCache}
  */
+@Deprecated
 public class SimpleCache<E, F> {
 
-    private static final class CacheEntry<E> {
-
-        public final E i;
-        public int age;
-
-        public CacheEntry(E i, int age) {
-            this.i = i;
-            this.age = age;
-        }
-    }
-
     /**
      * SAM to compute a cached entry
      *
@@ -33,10 +23,7 @@ public class SimpleCache<E, F> {
         public F get(E e);
     }
 
-    private final HashMap<E, CacheEntry<F>> data = new HashMap<>();
-    private int age = 0;
-    private final int capacity;
-    private int tooOld = 0;
+    private final StripedCache<E, F> cache;
 
     /**
      * Create a cache
@@ -44,7 +31,7 @@ public class SimpleCache<E, F> {
      * @param capacity The maximum capacity
      */
     public SimpleCache(int capacity) {
-        this.capacity = capacity;
+        this.cache = new StripedCache<>(capacity);
     }
 
     /**
@@ -55,39 +42,14 @@ public class SimpleCache<E, F> {
      * @return The result of get.get(e) possibly from the cache
      */
     public F get(E e, Function<E, F> get) {
-        synchronized (data) {
-            if (data.containsKey(e)) {
-                final CacheEntry<F> ce;
-                ce = data.get(e);
-                ce.age = age++;
-                return ce.i;
-            }
-        }
-        CacheEntry<F> ce = new CacheEntry(get.apply(e), age++);
-        synchronized (data) {
-            data.put(e, ce);
-            while (data.size() > capacity) {
-                tooOld += Math.max(1, capacity / 10);
-                Iterator<CacheEntry<F>> iter = data.values().iterator();
-                while (iter.hasNext()) {
-                    if (iter.next().age < tooOld) {
-                        iter.remove();
-                    }
-                }
-            }
-        }
-        return ce.i;
+        return cache.get(e, get);
     }
 
     /**
      * Invalidate the whole cache
      */
     public void clear() {
-        if (age > 0) {
-            data.clear();
-            tooOld = 0;
-            age = 0;
-        }
+        cache.clear();
     }
 
     /**
@@ -96,6 +58,6 @@ public class SimpleCache<E, F> {
      * @return
      */
     public int size() {
-        return data.size();
+        return cache.size();
     }
 }
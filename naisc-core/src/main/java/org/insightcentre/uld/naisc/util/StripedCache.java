@@ -0,0 +1,270 @@
+package org.insightcentre.uld.naisc.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded LRU cache that may be used by many threads at once. The keys are
+ * divided by their hash between a number of stripes, each of which is a
+ * small LRU map with its own lock, so that threads looking up different keys
+ * rarely wait for each other. The least recently used entry of a stripe is
+ * dropped when the stripe is full.
+ *
+ * Each value is computed once: a thread that asks for a key whose value is
+ * being computed by another thread waits for that value. Null values are
+ * returned but not kept.
+ *
+ * @author John McCrae
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class StripedCache<K, V> {
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe<K, V>[] stripes;
+    private final int mask;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    // The number of entries and values being computed, so that clearing an
+    // empty cache does not need to take any locks
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Create a cache
+     *
+     * @param capacity The maximum number of entries
+     */
+    public StripedCache(int capacity) {
+        this(capacity, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param capacity The maximum number of entries
+     * @param stripes The number of stripes (rounded down to a power of two
+     * and to no more than the capacity)
+     */
+    @SuppressWarnings("unchecked")
+    public StripedCache(int capacity, int stripes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        int n = 1;
+        while (n * 2 <= stripes && n * 2 <= capacity) {
+            n <<= 1;
+        }
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe<>(capacity / n + (i < capacity % n ? 1 : 0), evictions, active);
+        }
+        this.mask = n - 1;
+    }
+
+    private Stripe<K, V> stripe(Object key) {
+        final int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Get the value for a key, computing it if it is not in the cache. If
+     * another thread is computing the value this waits for it. If the value
+     * is needed to compute itself (in the same thread) it is computed again
+     * and not kept.
+     *
+     * @param key The key
+     * @param compute The function to compute the value
+     * @return The value
+     */
+    public V get(K key, Function<? super K, ? extends V> compute) {
+        final Stripe<K, V> stripe = stripe(key);
+        Loading<V> loading;
+        boolean load = false;
+        synchronized (stripe) {
+            final V v = stripe.get(key);
+            if (v != null) {
+                hits.increment();
+                return v;
+            }
+            loading = stripe.loading.get(key);
+            if (loading == null) {
+                loading = new Loading<>();
+                stripe.loading.put(key, loading);
+                active.incrementAndGet();
+                load = true;
+            }
+        }
+        if (!load) {
+            if (loading.thread == Thread.currentThread()) {
+                misses.increment();
+                return compute.apply(key);
+            }
+            hits.increment();
+            return loading.await();
+        }
+        misses.increment();
+        final V v;
+        try {
+            v = compute.apply(key);
+        } catch (RuntimeException | Error x) {
+            synchronized (stripe) {
+                if (stripe.loading.remove(key, loading)) {
+                    active.decrementAndGet();
+                }
+            }
+            loading.fail(x);
+            throw x;
+        }
+        synchronized (stripe) {
+            // The cache may have been cleared while the value was computed
+            if (stripe.loading.remove(key, loading)) {
+                active.decrementAndGet();
+                if (v != null && stripe.put(key, v) == null) {
+                    active.incrementAndGet();
+                }
+            }
+        }
+        loading.complete(v);
+        return v;
+    }
+
+    /**
+     * The number of lookups that found their value in the cache
+     *
+     * @return The number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of lookups that computed their value
+     *
+     * @return The number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of entries that were dropped because the cache was full
+     *
+     * @return The number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * The proportion of lookups that found their value in the cache
+     *
+     * @return The hit rate (0 if there have been no lookups)
+     */
+    public double hitRate() {
+        final long h = hits.sum(), m = misses.sum();
+        return h + m == 0 ? 0.0 : (double) h / (h + m);
+    }
+
+    /**
+     * The number of entries in the cache
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        int n = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Remove all entries from the cache
+     */
+    public void clear() {
+        if (active.get() == 0) {
+            return;
+        }
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                active.addAndGet(-stripe.size() - stripe.loading.size());
+                stripe.clear();
+                stripe.loading.clear();
+            }
+        }
+    }
+
+    private static class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        private final int capacity;
+        private final LongAdder evictions;
+        private final AtomicInteger active;
+        private final HashMap<K, Loading<V>> loading = new HashMap<>();
+
+        public Stripe(int capacity, LongAdder evictions, AtomicInteger active) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+            this.active = active;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                active.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A value that is being computed
+     */
+    private static final class Loading<V> {
+
+        private final Thread thread = Thread.currentThread();
+        private boolean done;
+        private V value;
+        private Throwable failure;
+
+        public synchronized void complete(V v) {
+            value = v;
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized void fail(Throwable x) {
+            failure = x;
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized V await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new RuntimeException("The value could not be computed", failure);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.insightcentre.uld.naisc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class AlignmentTableTest {
+
+    public AlignmentTableTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static URIRes l(int i) {
+        return new URIRes("http://www.example.com/left" + i, "left");
+    }
+
+    private static URIRes r(int i) {
+        return new URIRes("http://www.example.com/right" + i, "right");
+    }
+
+    /**
+     * Test of find method, of class AlignmentTable.
+     */
+    @Test
+    public void testFind() {
+        System.out.println("find");
+        AlignmentTable instance = new AlignmentTable();
+        instance.add(l(1), r(1), 0.5, Alignment.SKOS_EXACT_MATCH);
+        instance.add(l(1), r(2), 0.25, "http://www.example.com/related");
+        assertEquals(0, instance.find(l(1), r(1), Alignment.SKOS_EXACT_MATCH));
+        assertEquals(-1, instance.find(l(1), r(2), Alignment.SKOS_EXACT_MATCH));
+        assertEquals(1, instance.find(l(1), r(2), "http://www.example.com/related"));
+        assertEquals(-1, instance.find(l(3), r(2), "http://www.example.com/related"));
+        assertTrue(instance.hasLink(l(1), r(2)));
+        assertFalse(instance.hasLink(l(2), r(1)));
+        assertEquals("http://www.example.com/related", instance.findLink(l(1), r(2)));
+        assertEquals(0.25, instance.probability(1), 0.0);
+        assertEquals(r(2), instance.entity2(1));
+    }
+
+    /**
+     * Test of removeRow method, of class AlignmentTable.
+     */
+    @Test
+    public void testRemove() {
+        System.out.println("remove");
+        AlignmentTable instance = new AlignmentTable();
+        for (int i = 0; i < 10; i++) {
+            instance.add(l(i), r(i), 0.1 * i, Alignment.SKOS_EXACT_MATCH);
+        }
+        assertTrue(instance.removeRow(3));
+        assertFalse(instance.removeRow(3));
+        assertTrue(instance.remove(new Alignment(l(4), r(4), 0.4)));
+        Iterator<Alignment> iter = instance.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().entity1.equals(l(5))) {
+                iter.remove();
+            }
+        }
+        assertEquals(7, instance.size());
+        assertFalse(instance.hasLink(l(3), r(3)));
+        assertFalse(instance.hasLink(l(5), r(5)));
+        List<Alignment> alignments = new ArrayList<>(instance);
+        assertEquals(7, alignments.size());
+        assertEquals(l(6), alignments.get(3).entity1);
+    }
+
+    /**
+     * Test of sortByScore method, of class AlignmentTable.
+     */
+    @Test
+    public void testSortByScore() {
+        System.out.println("sortByScore");
+        AlignmentTable instance = new AlignmentTable();
+        double[] scores = {0.3, 0.9, 0.1, 0.9, 0.5};
+        for (int i = 0; i < scores.length; i++) {
+            instance.add(l(i), r(i), scores[i], Alignment.SKOS_EXACT_MATCH);
+        }
+        instance.removeRow(4);
+        instance.sortByScore();
+        assertEquals(4, instance.rows());
+        assertEquals(l(1), instance.entity1(0));
+        assertEquals(l(3), instance.entity1(1));
+        assertEquals(l(0), instance.entity1(2));
+        assertEquals(l(2), instance.entity1(3));
+        assertEquals(2, instance.find(l(0), r(0), Alignment.SKOS_EXACT_MATCH));
+        assertEquals(-1, instance.find(l(4), r(4), Alignment.SKOS_EXACT_MATCH));
+        assertEquals(4, instance.toAlignmentSet().size());
+    }
+}
@@ -0,0 +1,74 @@
+package org.insightcentre.uld.naisc;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class EntityRegistryTest {
+
+    public EntityRegistryTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of id method, of class EntityRegistry.
+     */
+    @Test
+    public void testId() {
+        System.out.println("id");
+        EntityRegistry instance = new EntityRegistry();
+        assertEquals(0, instance.id(new URIRes("http://www.example.com/a", "left")));
+        assertEquals(1, instance.id(new URIRes("http://www.example.com/b", "left")));
+        assertEquals(2, instance.id(new URIRes("http://www.example.com/a", "right")));
+        assertEquals(0, instance.id(new URIRes("http://www.example.com/a", "left")));
+        assertEquals(3, instance.size());
+        assertEquals(new URIRes("http://www.example.com/b", "left"), instance.get(1));
+    }
+
+    /**
+     * Test of find method, of class EntityRegistry.
+     */
+    @Test
+    public void testFind() {
+        System.out.println("find");
+        EntityRegistry instance = new EntityRegistry();
+        instance.id(new URIRes("http://www.example.com/a", "left"));
+        assertEquals(0, instance.find(new URIRes("http://www.example.com/a", "left")));
+        assertEquals(-1, instance.find(new URIRes("http://www.example.com/b", "left")));
+        assertEquals(1, instance.size());
+    }
+
+    /**
+     * Test of intern method, of class EntityRegistry.
+     */
+    @Test
+    public void testIntern() {
+        System.out.println("intern");
+        EntityRegistry instance = new EntityRegistry();
+        URIRes a = new URIRes("http://www.example.com/a", "left");
+        assertSame(a, instance.intern(a));
+        assertSame(a, instance.intern(new URIRes("http://www.example.com/a", "left")));
+    }
+}
@@ -0,0 +1,89 @@
+package org.insightcentre.uld.naisc;
+
+import org.insightcentre.uld.naisc.util.StringPair;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class FeatureSchemaTest {
+
+    public FeatureSchemaTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static Feature[] features(double a, double b) {
+        return new Feature[]{new Feature("jaccard", a), new Feature("dice", b)};
+    }
+
+    /**
+     * Test of builder method, of class FeatureSchema.
+     */
+    @Test
+    public void testBuilder() {
+        System.out.println("builder");
+        FeatureSchema instance = new FeatureSchema(10);
+        FeatureSet fs1 = instance.builder().add(features(0.1, 0.2), "label")
+                .add(new Feature[]{new Feature("ppr", 0.3)}, "ppr").build();
+        FeatureSet expected = new FeatureSet(features(0.1, 0.2), "label")
+                .add(new FeatureSet(new Feature[]{new Feature("ppr", 0.3)}, "ppr"));
+        assertArrayEquals(expected.names, fs1.names);
+        assertArrayEquals(expected.values, fs1.values, 0.0);
+        FeatureSet fs2 = instance.builder().add(features(0.4, 0.5), "label")
+                .add(new Feature[]{new Feature("ppr", 0.6)}, "ppr").build();
+        assertSame(fs1.names, fs2.names);
+        assertSame(fs1.names, instance.names());
+        assertArrayEquals(new double[]{0.4, 0.5, 0.6}, fs2.values, 0.0);
+        // A different layout
+        FeatureSet fs3 = instance.builder().add(features(0.7, 0.8), "label").build();
+        assertArrayEquals(new StringPair[]{new StringPair("jaccard", "label"), new StringPair("dice", "label")}, fs3.names);
+        assertArrayEquals(new double[]{0.7, 0.8}, fs3.values, 0.0);
+        assertSame(fs1.names, instance.names());
+    }
+
+    /**
+     * Test of release method, of class FeatureSchema.
+     */
+    @Test
+    public void testRelease() {
+        System.out.println("release");
+        FeatureSchema instance = new FeatureSchema(10);
+        FeatureSet fs1 = instance.builder().add(features(0.1, 0.2), "label").build();
+        double[] values = fs1.values;
+        instance.release(fs1);
+        FeatureSet fs2 = instance.builder().add(features(0.3, 0.4), "label").build();
+        assertSame(values, fs2.values);
+        assertArrayEquals(new double[]{0.3, 0.4}, fs2.values, 0.0);
+    }
+
+    /**
+     * Duplicate names are rejected when the layout is compiled
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicate() {
+        System.out.println("duplicate");
+        FeatureSchema instance = new FeatureSchema(10);
+        instance.builder().add(features(0.1, 0.2), "label").add(features(0.1, 0.2), "label").build();
+    }
+}
@@ -1,5 +1,9 @@
 package org.insightcentre.uld.naisc.blocking;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -251,6 +255,69 @@ public class ApproximateStringMatchingTest {
         return (double)(Math.min(a, 31) + Math.min(b, 31) + Math.min(c, 31)) / (s.length() + 93.0);
     }
 
+    /**
+     * Test of the n-gram index against a direct computation of the scores
+     */
+    @Test
+    public void testNgramIndex() {
+        System.out.println("ngramIndex");
+        Random random = new Random(0);
+        Model model = ModelFactory.createDefaultModel();
+        NgramIndex index = new NgramIndex(2);
+        List<Pair<Resource, String>> labels = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Resource r = model.createResource("file:id" + i);
+            int id = index.addEntity(r);
+            for (int j = 0; j <= i % 2; j++) {
+                String s = randomString(random);
+                labels.add(new Pair<>(r, s));
+                index.add(id, s);
+            }
+        }
+        index.compile(1000);
+        for (int k = 0; k < 20; k++) {
+            List<String> query = new ArrayList<>();
+            query.add(randomString(random));
+            query.add(randomString(random));
+            // Direct computation
+            Map<Resource, Map<String, Integer>> freqs = new HashMap<>();
+            Map<Resource, Map<String, Integer>> lens = new HashMap<>();
+            for (Pair<Resource, String> l : labels) {
+                for (int i = 0; i < l._2.length() - 1; i++) {
+                    String ng = l._2.substring(i, i + 2);
+                    freqs.computeIfAbsent(l._1, x -> new HashMap<>()).merge(ng, 1, Integer::sum);
+                    lens.computeIfAbsent(l._1, x -> new HashMap<>()).put(ng, l._2.length());
+                }
+            }
+            Map<Resource, Double> scores = new HashMap<>();
+            Map<String, Integer> reps = new HashMap<>();
+            for (String q : query) {
+                for (int i = 0; i < q.length() - 1; i++) {
+                    String ng = q.substring(i, i + 2);
+                    for (Resource r : freqs.keySet()) {
+                        Integer f = freqs.get(r).get(ng);
+                        if (f != null && reps.getOrDefault(ng, 0) < f) {
+                            scores.merge(r, 1.0 / (lens.get(r).get(ng) + q.length()), Double::sum);
+                        }
+                    }
+                    reps.merge(ng, 1, Integer::sum);
+                }
+            }
+            List<Resource> expResult = new ArrayList<>(scores.keySet());
+            expResult.sort(Comparator.comparing((Resource r) -> -scores.get(r)).thenComparing(Resource::getURI));
+            assertEquals(expResult.subList(0, Math.min(10, expResult.size())), index.nearest(query, 10));
+        }
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int n = 3 + random.nextInt(8);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('a' + random.nextInt(6)));
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testNgramNearest() {
         ApproximateStringMatching asm = new ApproximateStringMatching();
@@ -315,6 +382,95 @@ public class ApproximateStringMatchingTest {
         assertEquals(new Blocking(left.createResource("file:id1"), right.createResource("file:id6"), "left", "right"), result.next());
     }
 
+    /**
+     * The parallel query gives the same blocking as the sequential query
+     */
+    @Test
+    public void testParallelBlocking() {
+        System.out.println("parallelBlocking");
+        Random random = new Random(1);
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 300; i++) {
+            left.add(left.createResource("file:left" + i), left.createProperty(Label.RDFS_LABEL), randomString(random));
+            right.add(right.createResource("file:right" + i), right.createProperty(Label.RDFS_LABEL), randomString(random));
+        }
+        for (String metric : new String[]{"ngrams", "levenshtein", "bktree"}) {
+            ApproximateStringMatching asm = new ApproximateStringMatching();
+            Map<String, Object> config = new HashMap<>();
+            config.put("maxMatches", 3);
+            if (metric.equals("bktree")) {
+                config.put("metric", "levenshtein");
+                config.put("maxDistance", 20);
+            } else {
+                config.put("metric", metric);
+            }
+            BlockingStrategy sequential = asm.makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+            config.put("threads", 4);
+            BlockingStrategy parallel = asm.makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+            List<Blocking> expResult = new ArrayList<>();
+            sequential.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(expResult::add);
+            List<Blocking> result = new ArrayList<>();
+            parallel.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(result::add);
+            assertEquals(900, result.size());
+            assertEquals(expResult, result);
+        }
+    }
+
+    /**
+     * A stored index gives the same blocking as building the index
+     */
+    @Test
+    public void testIndexDirectory() throws Exception {
+        System.out.println("indexDirectory");
+        Random random = new Random(2);
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 100; i++) {
+            left.add(left.createResource("file:left" + i), left.createProperty(Label.RDFS_LABEL), randomString(random));
+            right.add(right.createResource("file:right" + i), right.createProperty(Label.RDFS_LABEL), randomString(random));
+        }
+        File dir = Files.createTempDirectory("ngram").toFile();
+        File rightFile = File.createTempFile("right", ".nt");
+        try {
+            try (FileOutputStream out = new FileOutputStream(rightFile)) {
+                right.write(out, "N-TRIPLES");
+            }
+            URL location = rightFile.toURI().toURL();
+            ApproximateStringMatching asm = new ApproximateStringMatching();
+            Map<String, Object> config = new HashMap<>();
+            config.put("maxMatches", 3);
+            BlockingStrategy built = asm.makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+            config.put("indexDirectory", dir.getPath());
+            BlockingStrategy stored = asm.makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+            List<Blocking> expResult = new ArrayList<>();
+            built.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(expResult::add);
+            for (int run = 0; run < 2; run++) {
+                List<Blocking> result = new ArrayList<>();
+                stored.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", location)).forEach(result::add);
+                assertEquals(expResult, result);
+                assertEquals(1, dir.listFiles().length);
+            }
+            // Changing the file changes the index
+            right.add(right.createResource("file:right100"), right.createProperty(Label.RDFS_LABEL), randomString(random));
+            try (FileOutputStream out = new FileOutputStream(rightFile)) {
+                right.write(out, "N-TRIPLES");
+            }
+            rightFile.setLastModified(rightFile.lastModified() + 2000);
+            stored.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", location)).forEach(b -> {});
+            assertEquals(2, dir.listFiles().length);
+            // A dataset that is not a file is not indexed on disk
+            stored.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(b -> {});
+            assertEquals(2, dir.listFiles().length);
+        } finally {
+            rightFile.delete();
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
     @Test
     public void testTypedMatching() {
         ApproximateStringMatching asm = new ApproximateStringMatching();
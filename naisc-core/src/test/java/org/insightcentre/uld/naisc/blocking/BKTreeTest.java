@@ -0,0 +1,100 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import static org.insightcentre.uld.naisc.blocking.ApproximateStringMatching.editDistance;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class BKTreeTest {
+
+    public BKTreeTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int n = random.nextInt(maxLength);
+        for (int i = 0; i < n; i++) {
+            int c = random.nextInt(6);
+            sb.append(c == 5 ? 'é' : (char) ('a' + c));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test of the distance method, of class BKTree.Pattern.
+     */
+    @Test
+    public void testDistance() {
+        System.out.println("distance");
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            String s = randomString(random, i % 10 == 0 ? 100 : 20);
+            String t = randomString(random, 20);
+            if (s.length() > 0 && t.length() > 0) {
+                assertEquals(s + " " + t, editDistance(s, t), new BKTree.Pattern(s).distance(t));
+            }
+        }
+        assertEquals(3, new BKTree.Pattern("kitten").distance("sitting"));
+        assertEquals(7, new BKTree.Pattern("").distance("sitting"));
+        assertEquals(6, new BKTree.Pattern("kitten").distance(""));
+    }
+
+    /**
+     * Test of nearest method, of class BKTree.
+     */
+    @Test
+    public void testNearest() {
+        System.out.println("nearest");
+        Random random = new Random(1);
+        BKTree<String> instance = new BKTree<>();
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String s = randomString(random, 12);
+            if (s.length() > 0) {
+                strings.add(s);
+                instance.add(s, s);
+            }
+        }
+        assertEquals(strings.size(), instance.size());
+        for (int i = 0; i < 50; i++) {
+            String q = randomString(random, 12) + "a";
+            List<String> expResult = new ArrayList<>();
+            for (String s : strings) {
+                if (editDistance(q, s) <= 3) {
+                    expResult.add(s);
+                }
+            }
+            expResult.sort(Comparator.comparing((String s) -> (double) editDistance(q, s) / (q.length() + s.length()))
+                    .thenComparing(Comparator.naturalOrder()));
+            List<String> result = instance.nearest(q, 5, 3);
+            assertEquals(expResult.subList(0, Math.min(5, expResult.size())), result);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.BlockingStrategy;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.lens.Label;
+import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
+import org.insightcentre.uld.naisc.util.Lazy;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class EmbeddingsTest {
+
+    public EmbeddingsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of makeBlockingStrategy method, of class Embeddings.
+     */
+    @Test
+    public void testMakeBlockingStrategy() throws Exception {
+        System.out.println("makeBlockingStrategy");
+        File indexFile = File.createTempFile("naisc-embeddings", ".bin");
+        indexFile.delete();
+        indexFile.deleteOnExit();
+        Map<String, Object> config = new HashMap<>();
+        config.put("embeddingPath", "src/test/resources/glove.test");
+        config.put("maxMatches", 1);
+        config.put("indexFile", indexFile.getPath());
+        Model left = ModelFactory.createDefaultModel();
+        left.add(left.createResource("file:left1"), left.createProperty(Label.RDFS_LABEL), "a test");
+        left.add(left.createResource("file:left2"), left.createProperty(Label.RDFS_LABEL), "unknown");
+        Model right = ModelFactory.createDefaultModel();
+        right.add(right.createResource("file:right1"), right.createProperty(Label.RDFS_LABEL), "is also");
+        right.add(right.createResource("file:right2"), right.createProperty(Label.RDFS_LABEL), "A test");
+        right.add(right.createResource("file:right3"), right.createProperty(Label.RDFS_LABEL), "also");
+        // The second time the index is loaded from the file
+        for (int i = 0; i < 2; i++) {
+            BlockingStrategy strategy = new Embeddings().makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+            List<Blocking> result = new ArrayList<>();
+            strategy.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(result::add);
+            assertEquals(1, result.size());
+            assertEquals("file:left1", result.get(0).entity1.getURI());
+            assertEquals("file:right2", result.get(0).entity2.getURI());
+            assertTrue(indexFile.exists());
+        }
+        indexFile.delete();
+    }
+}
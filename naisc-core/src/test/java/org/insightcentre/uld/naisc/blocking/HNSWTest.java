@@ -0,0 +1,121 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class HNSWTest {
+
+    public HNSWTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static float[] randomVector(Random random, int dim) {
+        float[] v = new float[dim];
+        double norm = 0.0;
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) random.nextGaussian();
+            norm += v[i] * v[i];
+        }
+        for (int i = 0; i < dim; i++) {
+            v[i] /= Math.sqrt(norm);
+        }
+        return v;
+    }
+
+    private static int bruteForce(float[][] vectors, float[] q) {
+        int best = -1;
+        double bestSim = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < vectors.length; i++) {
+            double sim = 0.0;
+            for (int j = 0; j < q.length; j++) {
+                sim += q[j] * vectors[i][j];
+            }
+            if (sim > bestSim) {
+                bestSim = sim;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Test of nearest method, of class HNSW.
+     */
+    @Test
+    public void testNearest() {
+        System.out.println("nearest");
+        Random random = new Random(0);
+        HNSW instance = new HNSW(10, 8, 100);
+        float[][] vectors = new float[2000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, 10);
+            assertEquals(i, instance.add(vectors[i]));
+        }
+        assertEquals(2000, instance.size());
+        // Every vector is its own nearest neighbour
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, instance.nearest(vectors[i], 1, 50)[0]);
+        }
+        int correct = 0;
+        for (int i = 0; i < 100; i++) {
+            float[] q = randomVector(random, 10);
+            int[] result = instance.nearest(q, 5, 50);
+            assertEquals(5, result.length);
+            if (result[0] == bruteForce(vectors, q)) {
+                correct++;
+            }
+        }
+        assertTrue("Recall was " + correct + "%", correct >= 90);
+    }
+
+    /**
+     * Test of write and read methods, of class HNSW.
+     */
+    @Test
+    public void testWriteRead() throws Exception {
+        System.out.println("writeRead");
+        Random random = new Random(1);
+        HNSW instance = new HNSW(5, 4, 20);
+        for (int i = 0; i < 200; i++) {
+            instance.add(randomVector(random, 5));
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            instance.write(out);
+        }
+        HNSW result = HNSW.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(instance.size(), result.size());
+        for (int i = 0; i < 20; i++) {
+            float[] q = randomVector(random, 5);
+            assertArrayEquals(instance.nearest(q, 3, 10), result.nearest(q, 3, 10));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.URIRes;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class MaterializedBlockingTest {
+
+    public MaterializedBlockingTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private List<Blocking> makeBlocks(int n) {
+        List<Blocking> blocks = new ArrayList<>();
+        for(int i = 0; i < n; i++) {
+            blocks.add(new Blocking(new URIRes("file:left#e" + (i / 3), "left"),
+                new URIRes("file:right#e" + (i % 7), "right")));
+        }
+        return blocks;
+    }
+
+    /**
+     * Test of materialize method, of class MaterializedBlocking.
+     */
+    @Test
+    public void testMaterialize() throws Exception {
+        System.out.println("materialize");
+        List<Blocking> blocks = makeBlocks(100);
+        MaterializedBlocking result = MaterializedBlocking.materialize(blocks, 0, NaiscListener.DEFAULT);
+        assertEquals(100, result.size());
+        assertEquals(34, result.leftSize());
+        assertEquals(7, result.rightSize());
+        assertEquals(blocks, new ArrayList<>(result));
+        // Can be iterated more than once
+        assertEquals(blocks, new ArrayList<>(result));
+        assertEquals(new URIRes("file:left#e1", "left"), result.left(result.leftId(new URIRes("file:left#e1", "left"))));
+        assertEquals(-1, result.rightId(new URIRes("file:right#e8", "right")));
+        result.close();
+    }
+
+    /**
+     * Test of the spilling of the blocking to disk
+     */
+    @Test
+    public void testSpill() throws Exception {
+        System.out.println("spill");
+        List<Blocking> blocks = makeBlocks(1005);
+        MaterializedBlocking result = MaterializedBlocking.materialize(blocks, 10, NaiscListener.DEFAULT);
+        assertEquals(1005, result.size());
+        assertEquals(blocks, new ArrayList<>(result));
+        assertEquals(blocks, new ArrayList<>(result));
+        // An iterator that is not read to the end is closed with the blocking
+        Iterator<Blocking> iter = result.iterator();
+        assertEquals(blocks.get(0), iter.next());
+        result.close();
+        assertEquals(0, result.size());
+        try {
+            iter.next();
+            fail("The iterator was not closed");
+        } catch(RuntimeException x) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.insightcentre.uld.naisc.blocking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.BlockingStrategy;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.lens.Label;
+import org.insightcentre.uld.naisc.main.ConfigurationException;
+import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
+import org.insightcentre.uld.naisc.util.Lazy;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class MinHashLSHTest {
+
+    public MinHashLSHTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static final String[] LABELS = new String[]{
+        "Frontal Lobe", "Frontal Bone", "Frontal Sinus", "Frontal Gyrus", "Frontal Nerve",
+        "Frontal Artery", "Spleen", "Splenic White Part", "Nipple", "Scapula", "Dendrite"
+    };
+
+    private List<Blocking> block(Map<String, Object> config) {
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        for (int i = 0; i < LABELS.length; i++) {
+            left.add(left.createResource("file:left" + i), left.createProperty(Label.RDFS_LABEL), LABELS[i].toLowerCase());
+            right.add(right.createResource("file:right" + i), right.createProperty(Label.RDFS_LABEL), LABELS[i]);
+        }
+        BlockingStrategy strategy = new MinHashLSH().makeBlockingStrategy(config, Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+        List<Blocking> result = new ArrayList<>();
+        strategy.block(new ModelDataset(left, "left", null), new ModelDataset(right, "right", null)).forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Test of makeBlockingStrategy method, of class MinHashLSH.
+     */
+    @Test
+    public void testMakeBlockingStrategy() {
+        System.out.println("makeBlockingStrategy");
+        Map<String, Object> config = new HashMap<>();
+        config.put("maxMatches", 1);
+        List<Blocking> result = block(config);
+        assertEquals(LABELS.length, result.size());
+        for (Blocking b : result) {
+            assertEquals(b.entity1.getURI().replace("left", "right"), b.entity2.getURI());
+        }
+    }
+
+    /**
+     * Test of blocking by tokens with multiple matches
+     */
+    @Test
+    public void testTokens() {
+        System.out.println("tokens");
+        Map<String, Object> config = new HashMap<>();
+        config.put("maxMatches", 3);
+        config.put("shingles", "tokens");
+        config.put("shingleSize", 1);
+        config.put("bands", 50);
+        config.put("rows", 1);
+        config.put("threads", 2);
+        List<Blocking> result = block(config);
+        List<String> frontal = new ArrayList<>();
+        for (Blocking b : result) {
+            if (b.entity1.getURI().equals("file:left0")) {
+                frontal.add(b.entity2.getURI());
+            }
+        }
+        assertEquals(3, frontal.size());
+        // The exact match is the best candidate
+        assertEquals("file:right0", frontal.get(0));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testNoMaxMatches() {
+        System.out.println("noMaxMatches");
+        new MinHashLSH().makeBlockingStrategy(new HashMap<>(), Lazy.fromClosure(() -> null), NaiscListener.DEFAULT);
+    }
+}
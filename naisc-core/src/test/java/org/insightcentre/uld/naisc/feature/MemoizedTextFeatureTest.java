@@ -0,0 +1,92 @@
+package org.insightcentre.uld.naisc.feature;
+
+import eu.monnetproject.lang.Language;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.insightcentre.uld.naisc.Feature;
+import org.insightcentre.uld.naisc.LensResult;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.TextFeature;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class MemoizedTextFeatureTest {
+
+    public MemoizedTextFeatureTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static class CountingFeature implements TextFeature {
+
+        int calls = 0;
+
+        @Override
+        public String id() {
+            return "count";
+        }
+
+        @Override
+        public Feature[] extractFeatures(LensResult facet, NaiscListener log) {
+            calls++;
+            return new Feature[]{new Feature("len", facet.string1.length() + facet.string2.length())};
+        }
+
+        @Override
+        public Set<String> tags() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    /**
+     * Test of extractFeatures method, of class MemoizedTextFeature.
+     */
+    @Test
+    public void testExtractFeatures() {
+        System.out.println("extractFeatures");
+        CountingFeature f1 = new CountingFeature(), f2 = new CountingFeature();
+        List<TextFeature> features = MemoizedTextFeature.memoize(Arrays.asList(f1, f2), 100);
+        TextFeature instance = features.get(0);
+        assertEquals(10.0, instance.extractFeatures(new LensResult(Language.ENGLISH, Language.ENGLISH, "apple", "fruit", "label"))[0].value, 0.0);
+        assertEquals(10.0, instance.extractFeatures(new LensResult(Language.ENGLISH, Language.ENGLISH, "apple", "fruit", "definition"))[0].value, 0.0);
+        assertEquals(1, f1.calls);
+        instance.extractFeatures(new LensResult(Language.FRENCH, Language.ENGLISH, "apple", "fruit", "label"));
+        assertEquals(2, f1.calls);
+        // The cache is shared but the features are kept apart
+        features.get(1).extractFeatures(new LensResult(Language.ENGLISH, Language.ENGLISH, "apple", "fruit", "label"));
+        assertEquals(1, f2.calls);
+        assertEquals(1.0 / 3.0, ((MemoizedTextFeature) instance).hitRate(), 1e-9);
+        final List<String> messages = new ArrayList<>();
+        MemoizedTextFeature.report(features, (stage, level, message) -> messages.add(message));
+        assertEquals(2, messages.size());
+    }
+}
@@ -0,0 +1,81 @@
+package org.insightcentre.uld.naisc.feature.embeddings;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.insightcentre.uld.naisc.AnalyzedLabel;
+import org.insightcentre.uld.naisc.feature.WordEmbeddings;
+import org.insightcentre.uld.naisc.util.Vectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class CosineSimAlignerTest {
+
+    public CosineSimAlignerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of align method, of class CosineSimAligner.
+     */
+    @Test
+    public void testAlign() {
+        System.out.println("align");
+        WordVectorExtractor wve = new WordVectorExtractor("src/test/resources/glove.test");
+        CosineSimAligner instance = new CosineSimAligner(wve);
+        String[] s1 = new String[]{"is", "a", "test", "unknown"};
+        String[] s2 = new String[]{"also", "a", "test"};
+        WordAlignment result = instance.align("is a test unknown", "also a test");
+        SentenceVectors sv1 = wve.extractFeatures(s1), sv2 = wve.extractFeatures(s2);
+        assertEquals(4, result.getSourceSize());
+        assertEquals(3, result.getTargetSize());
+        for (int i = 0; i < s1.length; i++) {
+            for (int j = 0; j < s2.length; j++) {
+                assertEquals(Vectors.cosine(sv1.vector(i), sv2.vector(j)), result.alignment(i, j), 1e-5);
+            }
+        }
+        assertEquals(1.0, result.alignment(1, 1), 1e-5);
+        assertEquals(0.0, result.alignment(3, 0), 0.0);
+    }
+
+    /**
+     * Test of alignFeatures method, of class CosineSimAligner.
+     */
+    @Test
+    public void testAlignFeatures() {
+        System.out.println("alignFeatures");
+        CosineSimAligner instance = new CosineSimAligner(new WordVectorExtractor("src/test/resources/glove.test"));
+        StandardWordAlignmentFeatureExtractor wafe = new StandardWordAlignmentFeatureExtractor(
+                Arrays.asList(WordEmbeddings.DEFAULT_FEATURES), null);
+        double[] expResult = wafe.makeFeatures(instance.align("this is a test", "this is also a test"));
+        // Align a longer pair first so that the buffer is reused
+        instance.alignFeatures(new AnalyzedLabel("a test is a test is a test"), new AnalyzedLabel("also a test also"), null, wafe);
+        AnalyzedLabel x = new AnalyzedLabel("this is a test"), y = new AnalyzedLabel("this is also a test");
+        double[] result = instance.alignFeatures(x, y, null, wafe);
+        assertArrayEquals(expResult, result, 1e-9);
+        double[] result2 = instance.alignFeatures(x, y, Collections.singleton("is"), wafe);
+        assertArrayEquals(wafe.makeFeatures(instance.align("this is a test", "this is also a test", Collections.singleton("is"))), result2, 1e-9);
+    }
+}
@@ -0,0 +1,100 @@
+package org.insightcentre.uld.naisc.feature.embeddings;
+
+import java.io.File;
+import java.io.PrintWriter;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class EmbeddingStoreTest {
+
+    public EmbeddingStoreTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static File textFile() throws Exception {
+        File file = File.createTempFile("glove", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int i = 0; i < 1000; i++) {
+                out.print("word" + i);
+                for (int j = 0; j < 5; j++) {
+                    out.print(" " + ((i * 7 + j * 13) % 21 - 10) / 10.0);
+                }
+                out.println();
+            }
+            out.println("café 1.0 0.0 -1.0 0.5 0.25");
+        }
+        return file;
+    }
+
+    /**
+     * Test of convert method, of class EmbeddingStore.
+     */
+    @Test
+    public void testConvert() throws Exception {
+        System.out.println("convert");
+        File text = textFile();
+        for (boolean quantize : new boolean[]{false, true}) {
+            File binary = File.createTempFile("glove", ".emb");
+            binary.deleteOnExit();
+            EmbeddingStore.convert(text, binary, quantize);
+            assertTrue(EmbeddingStore.isStore(binary));
+            EmbeddingStore store = EmbeddingStore.open(binary);
+            assertEquals(1001, store.size());
+            assertEquals(5, store.dimension());
+            assertEquals(quantize, store.isQuantized());
+            double tolerance = quantize ? 0.01 : 1e-6;
+            for (int i = 0; i < 1000; i++) {
+                float[] v = store.get("word" + i);
+                assertEquals("word" + i, store.word(store.find("word" + i)));
+                for (int j = 0; j < 5; j++) {
+                    assertEquals(((i * 7 + j * 13) % 21 - 10) / 10.0, v[j], tolerance);
+                }
+            }
+            assertArrayEquals(new float[]{1.0f, 0.0f, -1.0f, 0.5f, 0.25f}, store.get("café"), (float) tolerance);
+            assertNull(store.get("unknown"));
+            assertEquals(-1, store.find("word1000"));
+        }
+    }
+
+    /**
+     * Test that text files are converted when opened and that the store is
+     * shared
+     */
+    @Test
+    public void testOpen() throws Exception {
+        System.out.println("open");
+        File text = textFile();
+        assertFalse(EmbeddingStore.isStore(text));
+        EmbeddingStore store = EmbeddingStore.open(text);
+        assertSame(store, EmbeddingStore.open(text));
+        assertEquals(1001, store.size());
+        WordVectorExtractor wve = new WordVectorExtractor(text.getPath());
+        SentenceVectors sv = wve.extractFeatures(new String[]{"word1", "unknown"});
+        assertEquals(store.get("word1")[2], sv.vector(0).getDouble(2), 1e-6);
+        assertEquals(0.0, sv.vector(1).norm(), 0.0);
+    }
+}
@@ -8,8 +8,10 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.EntityCache;
 import org.insightcentre.uld.naisc.Lens;
 import org.insightcentre.uld.naisc.LensResult;
+import org.insightcentre.uld.naisc.NaiscListener;
 import org.insightcentre.uld.naisc.URIRes;
 import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
 import org.insightcentre.uld.naisc.util.LangStringPair;
@@ -20,6 +22,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  *
@@ -109,4 +112,31 @@ public class LabelTest {
         assertEquals(lens.extract(res, res5).iterator().next(), LensResult.fromLangStringPair(new LangStringPair(Language.UNDEFINED, Language.UNDEFINED, "", ""), "label"));
     }
 
+    /**
+     * Test of extract method with a cache, of class Label.
+     */
+    @Test
+    public void testExtractCached() {
+        System.out.println("extractCached");
+        Model model = ModelFactory.createDefaultModel();
+        Dataset dataset = new ModelDataset(model, "model", null);
+        Lens lens = new Label().makeLens(dataset, new HashMap<>());
+        final URIRes res = new URIRes("http://www.example.com/foo", "model");
+        final URIRes res2 = new URIRes("http://www.example.com/foo2", "model");
+        final URIRes res3 = new URIRes("http://www.example.com/foo3", "model");
+        model.add(res.toJena(dataset), model.createProperty(Label.RDFS_LABEL), model.createLiteral("english", "en"));
+        model.add(res2.toJena(dataset), model.createProperty(Label.RDFS_LABEL), model.createLiteral("???"));
+        model.add(res3.toJena(dataset), model.createProperty(Label.RDFS_LABEL), model.createLiteral("more english", "en"));
+        EntityCache cache = new EntityCache(100);
+        LensResult r1 = lens.extract(res, res2, NaiscListener.DEFAULT, cache).iterator().next();
+        LensResult r2 = lens.extract(res, res3, NaiscListener.DEFAULT, cache).iterator().next();
+        assertEquals(lens.extract(res, res2).iterator().next(), r1);
+        assertEquals(lens.extract(res, res3).iterator().next(), r2);
+        assertSame(r1.analysis1(), r2.analysis1());
+        assertEquals(3, cache.size());
+        // Changes to the data are not seen once the entity is cached
+        model.add(res.toJena(dataset), model.createProperty(Label.RDFS_LABEL), model.createLiteral("anglais", "fr"));
+        assertEquals(r1, lens.extract(res, res2, NaiscListener.DEFAULT, cache).iterator().next());
+    }
+
 }
\ No newline at end of file
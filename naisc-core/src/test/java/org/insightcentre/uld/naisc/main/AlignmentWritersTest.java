@@ -0,0 +1,120 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+import org.insightcentre.uld.naisc.Alignment;
+import org.insightcentre.uld.naisc.AlignmentSet;
+import org.insightcentre.uld.naisc.AlignmentWriter;
+import org.insightcentre.uld.naisc.URIRes;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class AlignmentWritersTest {
+
+    public AlignmentWritersTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static AlignmentSet alignments(String prefix) {
+        AlignmentSet alignments = new AlignmentSet();
+        for (int i = 0; i < 5000; i++) {
+            alignments.add(new Alignment(new URIRes("http://www.example.com/left/" + prefix + i, "left"),
+                    new URIRes("http://www.example.com/right/" + i, "right"), (i % 100) / 100.0,
+                    i % 2 == 0 ? Alignment.SKOS_EXACT_MATCH : "http://www.example.com/related", null));
+        }
+        return alignments;
+    }
+
+    private static File write(AlignmentSet alignments, String suffix) throws Exception {
+        File file = File.createTempFile("alignments", suffix);
+        file.deleteOnExit();
+        try (AlignmentWriter out = AlignmentWriters.forFile(file)) {
+            out.writeAll(alignments);
+        }
+        return file;
+    }
+
+    /**
+     * Test that N-Triples output can be read as alignments
+     */
+    @Test
+    public void testNTriples() throws Exception {
+        System.out.println("nTriples");
+        // Train reads with the default character set so this is ASCII only
+        AlignmentSet alignments = alignments("e");
+        File file = write(alignments, ".nt");
+        AlignmentSet result = Train.readAlignments(file, "left", "right", null, null);
+        assertEquals(alignments.size(), result.size());
+        for (int i = 0; i < alignments.size(); i++) {
+            assertEquals(alignments.get(i).entity1, result.get(i).entity1);
+            assertEquals(alignments.get(i).entity2, result.get(i).entity2);
+            assertEquals(alignments.get(i).property, result.get(i).property);
+            assertEquals(alignments.get(i).probability, result.get(i).probability, 1e-4);
+        }
+    }
+
+    /**
+     * Test that compressed TSV output has a line per alignment
+     */
+    @Test
+    public void testTsvGzip() throws Exception {
+        System.out.println("tsvGzip");
+        AlignmentSet alignments = alignments("é");
+        File file = write(alignments, ".tsv.gz");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"))) {
+            String[] first = in.readLine().split("\t");
+            assertArrayEquals(new String[]{"http://www.example.com/left/é0", "http://www.example.com/right/0", "0.0", Alignment.SKOS_EXACT_MATCH}, first);
+            int n = 1;
+            while (in.readLine() != null) {
+                n++;
+            }
+            assertEquals(alignments.size(), n);
+        }
+    }
+
+    /**
+     * Test that the binary format can be read back
+     */
+    @Test
+    public void testBinary() throws Exception {
+        System.out.println("binary");
+        AlignmentSet alignments = alignments("é");
+        for (String suffix : new String[]{".bin", ".bin.gz"}) {
+            File file = write(alignments, suffix);
+            AlignmentSet result = AlignmentWriters.readBinary(file, "left", "right");
+            assertEquals(alignments.size(), result.size());
+            for (int i = 0; i < alignments.size(); i++) {
+                assertEquals(alignments.get(i).entity1, result.get(i).entity1);
+                assertEquals(alignments.get(i).entity2, result.get(i).entity2);
+                assertEquals(alignments.get(i).property, result.get(i).property);
+                assertEquals(alignments.get(i).probability, result.get(i).probability, 1e-6);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.insightcentre.uld.naisc.Dataset;
+import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class CompactDatasetTest {
+
+    public CompactDatasetTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static Model randomModel(Random random) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < 500; i++) {
+            Resource s = model.createResource("http://www.example.com/s" + random.nextInt(50));
+            Property p = model.createProperty("http://www.example.com/p" + random.nextInt(5));
+            RDFNode o = random.nextBoolean() ? model.createResource("http://www.example.com/s" + random.nextInt(50))
+                    : model.createLiteral("label " + random.nextInt(20), random.nextBoolean() ? "en" : "");
+            model.add(s, p, o);
+        }
+        model.add(model.createResource(), model.createProperty("http://www.example.com/p0"), "blank");
+        model.addLiteral(model.createResource("http://www.example.com/s0"), model.createProperty("http://www.example.com/p4"), 42);
+        return model;
+    }
+
+    private static <X> Set<X> set(java.util.Iterator<X> iter) {
+        Set<X> s = new HashSet<>();
+        iter.forEachRemaining(s::add);
+        return s;
+    }
+
+    private static void assertSameAs(Model model, CompactDataset instance) {
+        Dataset expected = new ModelDataset(model, "test", null);
+        assertEquals(model.size(), instance.size());
+        assertEquals(set(expected.listSubjects()), set(instance.listSubjects()));
+        assertEquals(set(expected.listStatements()), set(instance.listStatements()));
+        for (int j = 0; j < 6; j++) {
+            Property p = model.createProperty("http://www.example.com/p" + j);
+            assertEquals(set(expected.listSubjectsWithProperty(p)), set(instance.listSubjectsWithProperty(p)));
+            for (int i = 0; i < 50; i++) {
+                Resource s = model.createResource("http://www.example.com/s" + i);
+                assertEquals(set(expected.listObjectsOfProperty(s, p)), set(instance.listObjectsOfProperty(s, p)));
+                assertEquals(set(expected.listSubjectsWithProperty(p, s)), set(instance.listSubjectsWithProperty(p, s)));
+                assertEquals(set(expected.listStatements(s, p, null)), set(instance.listStatements(s, p, null)));
+                assertEquals(set(expected.listStatements(null, p, s)), set(instance.listStatements(null, p, s)));
+                assertEquals(set(expected.listStatements(null, null, s)), set(instance.listStatements(null, null, s)));
+            }
+        }
+        for (Statement st : model.listStatements().toList()) {
+            assertTrue(instance.listStatements(st.getSubject(), st.getPredicate(), st.getObject()).hasNext());
+        }
+    }
+
+    /**
+     * Test that the compact dataset answers all lookups as the model does
+     */
+    @Test
+    public void testFromModel() {
+        System.out.println("fromModel");
+        Model model = randomModel(new Random(0));
+        assertSameAs(model, CompactDataset.fromModel(model, "test", null));
+    }
+
+    /**
+     * Test that a snapshot answers all lookups as the model does
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        System.out.println("snapshot");
+        Model model = randomModel(new Random(2));
+        File file = File.createTempFile("compact", ".snapshot");
+        file.deleteOnExit();
+        CompactDataset.fromModel(model, "test", null).write(file);
+        assertSameAs(model, CompactDataset.open(file, "test", null));
+    }
+
+    /**
+     * Test that a snapshot read through a small block cache is the same
+     */
+    @Test
+    public void testOpenOnDisk() throws Exception {
+        System.out.println("openOnDisk");
+        Model model = randomModel(new Random(4));
+        File file = File.createTempFile("compact", ".snapshot");
+        file.deleteOnExit();
+        CompactDataset.fromModel(model, "test", null).write(file);
+        assertSameAs(model, CompactDataset.openOnDisk(file, "test", null, 64, 4));
+        assertSameAs(model, CompactDataset.openOnDisk(file, "test", null, 1));
+    }
+
+    /**
+     * Test that the snapshot loader writes a snapshot and opens it later
+     */
+    @Test
+    public void testSnapshotLoader() throws Exception {
+        System.out.println("snapshotLoader");
+        Model model = randomModel(new Random(3));
+        File file = File.createTempFile("compact", ".nt");
+        file.deleteOnExit();
+        try (Writer out = new FileWriter(file)) {
+            model.write(out, "N-TRIPLES");
+        }
+        SnapshotDatasetLoader loader = new SnapshotDatasetLoader();
+        File snapshot = loader.snapshotFile(file);
+        snapshot.deleteOnExit();
+        assertFalse(snapshot.exists());
+        CompactDataset first = loader.fromFile(file, "test");
+        assertTrue(snapshot.exists());
+        CompactDataset second = loader.fromFile(file, "test");
+        assertEquals(first.size(), second.size());
+        assertTrue(model.isIsomorphicWith(second.asModel()));
+        CompactDataset third = new DiskDatasetLoader().fromFile(file, "test");
+        assertTrue(model.isIsomorphicWith(third.asModel()));
+    }
+
+    /**
+     * Test that the snapshot is rebuilt when the file is replaced, even by
+     * an older file
+     */
+    @Test
+    public void testSnapshotReplaced() throws Exception {
+        System.out.println("snapshotReplaced");
+        File file = File.createTempFile("compact", ".nt");
+        file.deleteOnExit();
+        try (Writer out = new FileWriter(file)) {
+            out.write("<file:a> <file:p> \"A\" .\n");
+        }
+        SnapshotDatasetLoader loader = new SnapshotDatasetLoader();
+        File snapshot = loader.snapshotFile(file);
+        snapshot.deleteOnExit();
+        assertEquals(1, loader.fromFile(file, "test").size());
+        assertTrue(CompactDataset.isSnapshotOf(snapshot, file));
+        try (Writer out = new FileWriter(file)) {
+            out.write("<file:a> <file:p> \"B\" .\n");
+            out.write("<file:b> <file:p> \"B\" .\n");
+        }
+        assertTrue(file.setLastModified(snapshot.lastModified() - 60000));
+        assertFalse(CompactDataset.isSnapshotOf(snapshot, file));
+        assertEquals(2, loader.fromFile(file, "test").size());
+        assertEquals(2, new DiskDatasetLoader().fromFile(file, "test").size());
+    }
+
+    /**
+     * Test that a file streamed into a snapshot through many small sorted
+     * runs is the same as the model
+     */
+    @Test
+    public void testDiskConversion() throws Exception {
+        System.out.println("diskConversion");
+        Model model = randomModel(new Random(5));
+        model.removeAll(null, model.createProperty("http://www.example.com/p0"), model.createLiteral("blank"));
+        File file = File.createTempFile("compact", ".nt");
+        file.deleteOnExit();
+        try (Writer out = new FileWriter(file)) {
+            model.write(out, "N-TRIPLES");
+            model.write(out, "N-TRIPLES");
+        }
+        DiskDatasetLoader loader = new DiskDatasetLoader(null, 1, 1, 16, ExecuteListeners.NONE);
+        loader.snapshotFile(file).deleteOnExit();
+        assertSameAs(model, loader.fromFile(file, "test"));
+        assertSameAs(model, CompactDataset.open(loader.snapshotFile(file), "test", null));
+    }
+
+    /**
+     * Test that SPARQL queries work on the compact dataset
+     */
+    @Test
+    public void testCreateQuery() {
+        System.out.println("createQuery");
+        Model model = randomModel(new Random(1));
+        CompactDataset instance = CompactDataset.fromModel(model, "test", null);
+        String query = "SELECT (COUNT(*) AS ?c) WHERE { ?s <http://www.example.com/p1> ?o }";
+        try (QueryExecution qe = instance.createQuery(QueryFactory.create(query))) {
+            assertEquals(model.listStatements(null, model.createProperty("http://www.example.com/p1"), (RDFNode) null).toList().size(),
+                    qe.execSelect().next().getLiteral("c").getInt());
+        }
+    }
+
+    /**
+     * Test of loading a file with the compact loader
+     */
+    @Test
+    public void testLoader() throws Exception {
+        System.out.println("loader");
+        File file = File.createTempFile("compact", ".nt");
+        file.deleteOnExit();
+        try (Writer out = new FileWriter(file)) {
+            out.write("<file:a> <file:p> \"A\" .\n");
+            out.write("<file:a> <file:p> \"A\" .\n");
+            out.write("<file:b> <file:p> <file:a> .\n");
+        }
+        CompactDataset ds = new CompactDatasetLoader().fromFile(file, "test");
+        assertEquals(2, ds.size());
+        assertEquals("A", ds.listObjectsOfProperty(ds.createResource("file:a"), ds.createProperty("file:p")).next().asLiteral().getLexicalForm());
+        assertEquals("file:b", ds.listSubjectsWithProperty(ds.createProperty("file:p"), ds.createResource("file:a")).next().getURI());
+    }
+}
@@ -0,0 +1,171 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.WrappedGraph;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.shared.AddDeniedException;
+import org.insightcentre.uld.naisc.main.DefaultDatasetLoader.ModelDataset;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class DefaultDatasetLoaderTest {
+
+    public DefaultDatasetLoaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of combine method, of class DefaultDatasetLoader.
+     */
+    @Test
+    public void testCombine() {
+        System.out.println("combine");
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        Property label = left.createProperty("http://www.example.com/label");
+        Resource a = left.createResource("http://www.example.com/a");
+        Resource b = left.createResource("http://www.example.com/b");
+        left.add(a, label, "a");
+        left.add(b, label, "both");
+        right.add(b, label, "both");
+        right.add(b, label, "b");
+        ModelDataset combined = new DefaultDatasetLoader().combine(new ModelDataset(left, "left", null),
+                new ModelDataset(right, "right", null), "combined");
+        assertEquals("left+right", combined.id());
+        List<Statement> statements = combined.listStatements().toList();
+        assertEquals(3, statements.size());
+        assertEquals(2, combined.listObjectsOfProperty(b, label).toList().size());
+        assertEquals(2, combined.listSubjectsWithProperty(label).toList().size());
+        try (QueryExecution qe = combined.createQuery(QueryFactory.create("SELECT ?o WHERE { <http://www.example.com/b> <http://www.example.com/label> ?o }"))) {
+            int n = 0;
+            for (org.apache.jena.query.ResultSet rs = qe.execSelect(); rs.hasNext(); rs.next()) {
+                n++;
+            }
+            assertEquals(2, n);
+        }
+        // The union is a view so the inputs are not copied
+        right.add(a, label, "new");
+        assertEquals(2, combined.listObjectsOfProperty(a, label).toList().size());
+    }
+
+    /**
+     * The combined dataset cannot be changed
+     */
+    @Test(expected = AddDeniedException.class)
+    public void testCombineReadOnly() {
+        System.out.println("combineReadOnly");
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        ModelDataset combined = new DefaultDatasetLoader().combine(new ModelDataset(left, "left", null),
+                new ModelDataset(right, "right", null), "combined");
+        combined.model.add(left.createResource("http://www.example.com/a"), left.createProperty("http://www.example.com/label"), "a");
+    }
+
+    /**
+     * A full scan of a large union streams both models
+     */
+    @Test
+    public void testCombineScan() {
+        System.out.println("combineScan");
+        Model left = ModelFactory.createDefaultModel();
+        Model right = ModelFactory.createDefaultModel();
+        Property label = left.createProperty("http://www.example.com/label");
+        for (int i = 0; i < 100000; i++) {
+            left.add(left.createResource("http://www.example.com/e" + i), label, "l" + i);
+            right.add(right.createResource("http://www.example.com/e" + i), label, (i % 2 == 0 ? "l" : "r") + i);
+        }
+        AtomicInteger lookups = new AtomicInteger();
+        Graph counted = new WrappedGraph(left.getGraph()) {
+            @Override
+            public boolean contains(Triple t) {
+                lookups.incrementAndGet();
+                return super.contains(t);
+            }
+        };
+        ModelDataset combined = DefaultDatasetLoader.union(ModelFactory.createModelForGraph(counted), right, "combined");
+        StmtIterator iter = combined.listStatements();
+        int n = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            n++;
+        }
+        // The duplicates are found by looking up the triples of the right
+        // model in the left model, not by remembering the left triples
+        assertEquals(100000, lookups.get());
+        assertEquals(150000, n);
+    }
+
+    /**
+     * Reading N-Triples in parallel gives the same model as reading them
+     * directly
+     */
+    @Test
+    public void testParallelNTriples() throws Exception {
+        System.out.println("parallelNTriples");
+        for (String suffix : new String[]{".nt", ".nt.gz"}) {
+            File file = File.createTempFile("parallel", suffix);
+            file.deleteOnExit();
+            try (Writer out = new OutputStreamWriter(suffix.endsWith(".gz")
+                    ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file), "UTF-8")) {
+                for (int i = 0; i < 2000; i++) {
+                    out.write("<http://www.example.com/e" + i + "> <http://www.example.com/label> \"label \u00e9 " + i + "\"@en .\n");
+                    out.write("<http://www.example.com/e" + i + "> <http://www.example.com/link> _:b" + (i % 100) + " .\n");
+                    out.write("_:b" + (i % 100) + " <http://www.example.com/value> \"" + i + "\" .\n");
+                }
+            }
+            Model expected = ModelFactory.createDefaultModel();
+            try (InputStream in = suffix.endsWith(".gz") ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file)) {
+                expected.read(in, null, "N-TRIPLES");
+            }
+            Model result = ModelFactory.createDefaultModel();
+            long n = ParallelNTriplesReader.read(file, StreamRDFLib.graph(result.getGraph()), 4, ExecuteListeners.NONE, 1000);
+            assertEquals(6000, n);
+            assertEquals(expected.size(), result.size());
+            assertTrue(expected.isIsomorphicWith(result));
+            ModelDataset ds = new DefaultDatasetLoader(4, ExecuteListeners.NONE).fromFile(file, "test");
+            assertTrue(expected.isIsomorphicWith(ds.model));
+        }
+    }
+}
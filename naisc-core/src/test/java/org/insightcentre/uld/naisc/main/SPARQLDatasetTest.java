@@ -7,6 +7,11 @@ import org.apache.jena.update.UpdateRequest;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -17,7 +22,15 @@ public class SPARQLDatasetTest {
     }
 
     private SPARQLDataset fromModel(Model model, String uriSpace) {
-        return new SPARQLDataset("http://www.example.com/example", "test", 1000, null, uriSpace) {
+        return fromModel(model, uriSpace, new AtomicInteger());
+    }
+
+    private SPARQLDataset fromModel(Model model, String uriSpace, AtomicInteger queries) {
+        return fromModel(model, uriSpace, queries, 1000, new AtomicInteger());
+    }
+
+    private SPARQLDataset fromModel(Model model, String uriSpace, AtomicInteger queries, int limit, AtomicInteger failures) {
+        return new SPARQLDataset("http://www.example.com/example", "test", limit, null, uriSpace, 10, 100, 4) {
             @Override protected RDFConnection makeConnection() {
                 return new RDFConnection() {
                     @Override
@@ -66,6 +79,10 @@ public class SPARQLDatasetTest {
                     }
 
                     @Override public QueryExecution query(Query q) {
+                        queries.incrementAndGet();
+                        if(failures.getAndDecrement() > 0) {
+                            throw new RuntimeException("Endpoint not available");
+                        }
                         return QueryExecutionFactory.create(q, model);
                     }
 
@@ -283,4 +300,75 @@ public class SPARQLDatasetTest {
         assert(results.contains(m.createResource("http://www.example.com/ex2")));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPrefetch() {
+        Model m = ModelFactory.createDefaultModel();
+        Property p1 = m.createProperty("http://www.example.com/p1");
+        for(int i = 0; i < 25; i++) {
+            m.add(m.createResource("http://www.example.com/ex" + i), p1, m.createResource("http://www.example.com/ex" + (i + 1)));
+            m.add(m.createResource("http://www.example.com/ex" + i), p1, "label " + i);
+        }
+        AtomicInteger queries = new AtomicInteger();
+        SPARQLDataset dataset = fromModel(m, null, queries);
+        for(int i = 0; i < 25; i++) {
+            dataset.prefetch(m.createResource("http://www.example.com/ex" + i));
+        }
+        // Two full batches are fetched in the background
+        for(int i = 0; i < 25; i++) {
+            List<RDFNode> results = dataset.listObjectsOfProperty(m.createResource("http://www.example.com/ex" + i), p1).toList();
+            assertEquals(2, results.size());
+            assert(results.contains(m.createResource("http://www.example.com/ex" + (i + 1))));
+            assert(results.contains(m.createLiteral("label " + i)));
+        }
+        // The remaining five subjects are fetched in one batch
+        assertEquals(3, queries.get());
+        assertEquals(1, dataset.listStatements(m.createResource("http://www.example.com/ex3"), p1, m.createLiteral("label 3")).toList().size());
+        assertEquals(0, dataset.listStatements(m.createResource("http://www.example.com/ex30"), null, null).toList().size());
+        assertEquals(4, queries.get());
+        assertEquals(0, dataset.listStatements(m.createResource("http://www.example.com/ex30"), null, null).toList().size());
+        assertEquals(4, queries.get());
+    }
+
+    @Test
+    public void testFetchOnce() throws Exception {
+        Model m = ModelFactory.createDefaultModel();
+        Property p1 = m.createProperty("http://www.example.com/p1");
+        for(int i = 0; i < 25; i++) {
+            m.add(m.createResource("http://www.example.com/ex" + i), p1, "label " + i);
+        }
+        AtomicInteger queries = new AtomicInteger();
+        SPARQLDataset dataset = fromModel(m, null, queries);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for(int i = 0; i < 25; i++) {
+                    assertEquals(1, dataset.listObjectsOfProperty(m.createResource("http://www.example.com/ex" + i), p1).toList().size());
+                }
+            }));
+        }
+        for(Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        // Each subject is fetched once, however many threads ask for it
+        assertEquals(25, queries.get());
+    }
+
+    @Test
+    public void testPagedSubjects() {
+        Model m = ModelFactory.createDefaultModel();
+        for(int i = 0; i < 25; i++) {
+            m.add(m.createResource("http://www.example.com/ex" + i), m.createProperty("http://www.example.com/p1"), "label " + i);
+        }
+        AtomicInteger queries = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger(1);
+        SPARQLDataset dataset = fromModel(m, null, queries, 3, failures);
+        List<Resource> results = dataset.listSubjectsWithProperty(m.createProperty("http://www.example.com/p1")).toList();
+        assertEquals(25, results.size());
+        assertEquals(25, results.stream().distinct().count());
+        // Nine pages, at most three past the last one and one retry
+        assert(queries.get() >= 10 && queries.get() <= 13);
+    }
+}
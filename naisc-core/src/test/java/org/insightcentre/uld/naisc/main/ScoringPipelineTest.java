@@ -0,0 +1,169 @@
+package org.insightcentre.uld.naisc.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.insightcentre.uld.naisc.Alignment;
+import org.insightcentre.uld.naisc.Blocking;
+import org.insightcentre.uld.naisc.FeatureSet;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.ScoreResult;
+import org.insightcentre.uld.naisc.Scorer;
+import org.insightcentre.uld.naisc.URIRes;
+import org.insightcentre.uld.naisc.blocking.MaterializedBlocking;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class ScoringPipelineTest {
+
+    public ScoringPipelineTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test that an error in the workers stops the pipeline rather than
+     * leaving it waiting forever
+     */
+    @Test(timeout = 10000)
+    public void testWorkerError() throws Exception {
+        System.out.println("workerError");
+        MaterializedBlocking blocks = new MaterializedBlocking(100);
+        ScoringPipeline pipeline = new ScoringPipeline(2, 1, 2, 10, block -> {
+            throw new AssertionError("extraction failed");
+        }, new Scorer() {
+            @Override
+            public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }, false, new ScoringPipeline.Results(blocks), ExecuteListeners.NONE);
+        try {
+            for (int i = 0; i < 100; i++) {
+                pipeline.submit(new Blocking(new URIRes("file:e1" + i, "left"), new URIRes("file:e2" + i, "right")));
+            }
+            pipeline.finish();
+            fail("The error was not thrown");
+        } catch (AssertionError x) {
+            assertEquals("extraction failed", x.getMessage());
+        } finally {
+            pipeline.abort();
+            blocks.close();
+        }
+    }
+
+    private static List<Blocking> makeBlocks(MaterializedBlocking blocks, int n) {
+        List<Blocking> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Blocking block = new Blocking(new URIRes("file:e1" + i, "left"), new URIRes("file:e2" + i, "right"));
+            blocks.add(block);
+            result.add(block);
+        }
+        return result;
+    }
+
+    /**
+     * Test that with no scoring threads a single thread extracts and scores
+     */
+    @Test(timeout = 10000)
+    public void testSingleThread() throws Exception {
+        System.out.println("singleThread");
+        MaterializedBlocking blocks = new MaterializedBlocking(1000);
+        ScoringPipeline.Results results = new ScoringPipeline.Results(blocks);
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        ScoringPipeline pipeline = new ScoringPipeline(1, 0, 10, 10, block -> {
+            threads.add(Thread.currentThread());
+            return new FeatureSet(new String[] { "f" }, "lens", new double[] { 0.5 });
+        }, new Scorer() {
+            @Override
+            public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) {
+                threads.add(Thread.currentThread());
+                return Arrays.asList(new ScoreResult(features.values[0], Alignment.SKOS_EXACT_MATCH));
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }, false, results, ExecuteListeners.NONE);
+        for (Blocking block : makeBlocks(blocks, 95)) {
+            pipeline.submit(block);
+        }
+        assertEquals(95, pipeline.finish());
+        assertEquals(95, results.size());
+        assertEquals(1, threads.size());
+        blocks.close();
+    }
+
+    /**
+     * Test that when a batch cannot be scored only the pairs that fail are
+     * lost
+     */
+    @Test(timeout = 10000)
+    public void testBatchFailure() throws Exception {
+        System.out.println("batchFailure");
+        MaterializedBlocking blocks = new MaterializedBlocking(1000);
+        ScoringPipeline.Results results = new ScoringPipeline.Results(blocks);
+        AtomicInteger released = new AtomicInteger();
+        ScoringPipeline pipeline = new ScoringPipeline(2, 1, 10, 10, new ScoringPipeline.FeatureExtraction() {
+            @Override
+            public FeatureSet extract(Blocking block) {
+                return new FeatureSet(new String[] { "f" }, "lens",
+                        new double[] { block.entity1.uri.equals("file:e17") ? -1.0 : 0.5 });
+            }
+
+            @Override
+            public void release(FeatureSet featureSet) {
+                released.incrementAndGet();
+            }
+        }, new Scorer() {
+            @Override
+            public List<ScoreResult> similarity(FeatureSet features, NaiscListener log) {
+                if (features.values[0] < 0) {
+                    throw new IllegalArgumentException("bad feature");
+                }
+                return Arrays.asList(new ScoreResult(features.values[0], Alignment.SKOS_EXACT_MATCH));
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }, false, results, ExecuteListeners.NONE);
+        for (Blocking block : makeBlocks(blocks, 50)) {
+            pipeline.submit(block);
+        }
+        assertEquals(50, pipeline.finish());
+        assertEquals(49, results.size());
+        assertEquals(50, released.get());
+        blocks.close();
+    }
+}
@@ -0,0 +1,129 @@
+package org.insightcentre.uld.naisc.scorer;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.insightcentre.uld.naisc.FeatureSet;
+import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.ScoreResult;
+import org.insightcentre.uld.naisc.Scorer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class ExternalScorerTest {
+
+    public ExternalScorerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static final String SCORE = "[{\"probability\":0.5,\"property\":\"p\"}]";
+
+    private HttpServer server(boolean batches, AtomicInteger requests) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/naisc/default/", exchange -> {
+            requests.incrementAndGet();
+            String body;
+            if (exchange.getRequestURI().getPath().endsWith("/score")) {
+                body = SCORE;
+            } else if (batches && exchange.getRequestURI().getPath().endsWith("/score_batch")) {
+                body = "[" + SCORE + "," + SCORE + "," + SCORE + "]";
+            } else {
+                body = null;
+            }
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                byte[] b = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, b.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(b);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    private static Scorer scorer(HttpServer server) throws Exception {
+        Map<String, Object> params = new HashMap<>();
+        params.put("endpoint", "http://localhost:" + server.getAddress().getPort());
+        return new ExternalScorer().makeScorer(params, null);
+    }
+
+    private static List<FeatureSet> batch() {
+        List<FeatureSet> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new FeatureSet(new String[]{"f"}, "lens", new double[]{0.1 * i}));
+        }
+        return batch;
+    }
+
+    /**
+     * Test that a batch is sent in a single request, of class ExternalScorer.
+     */
+    @Test
+    public void testSimilarityBatch() throws Exception {
+        System.out.println("similarityBatch");
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = server(true, requests);
+        try {
+            List<List<ScoreResult>> result = scorer(server).similarityBatch(batch(), NaiscListener.DEFAULT);
+            assertEquals(3, result.size());
+            assertEquals(0.5, result.get(2).get(0).getProbability(), 1e-9);
+            assertEquals(1, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test that a service without the batch path is sent each feature set,
+     * of class ExternalScorer.
+     */
+    @Test
+    public void testSimilarityBatchFallback() throws Exception {
+        System.out.println("similarityBatchFallback");
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = server(false, requests);
+        try {
+            Scorer scorer = scorer(server);
+            assertEquals(3, scorer.similarityBatch(batch(), NaiscListener.DEFAULT).size());
+            assertEquals(4, requests.get());
+            // The batch path is not tried again
+            assertEquals(3, scorer.similarityBatch(batch(), NaiscListener.DEFAULT).size());
+            assertEquals(7, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.insightcentre.uld.naisc.Alignment;
 import org.insightcentre.uld.naisc.FeatureSet;
 import org.insightcentre.uld.naisc.FeatureSetWithScore;
 import org.insightcentre.uld.naisc.NaiscListener;
+import org.insightcentre.uld.naisc.ScoreResult;
 import org.insightcentre.uld.naisc.Scorer;
 import org.insightcentre.uld.naisc.ScorerTrainer;
 import org.insightcentre.uld.naisc.scorer.RAdLR.FMRAdLRFunction;
@@ -133,6 +134,39 @@ public class RAdLRTest {
         assert (score < 0.630);
     }
 
+    /**
+     * Test of similarityBatch method, of class RAdLR.
+     */
+    @Test
+    public void testSimilarityBatch() throws Exception {
+        System.out.println("similarityBatch");
+        RAdLR instance = new RAdLR();
+        File f = File.createTempFile("foo", "bar");
+        f.deleteOnExit();
+        ScorerTrainer trainer = instance.makeTrainer(new HashMap<>(), Alignment.SKOS_EXACT_MATCH, f).get();
+        StringPair[] names = new StringPair[]{
+            new StringPair("foo", "bar"),
+            new StringPair("this", "that")
+        };
+        List<FeatureSetWithScore> data = new ArrayList<>();
+        data.add(new FeatureSetWithScore(0.1, names, new double[]{0.1, 0.8}, "e1", "e2"));
+        data.add(new FeatureSetWithScore(0.9, names, new double[]{0.8, 0.1}, "e1", "e2"));
+        data.add(new FeatureSetWithScore(0.2, names, new double[]{0.2, 0.7}, "e1", "e2"));
+        Scorer trained = trainer.train(data, NaiscListener.DEFAULT);
+        List<FeatureSet> batch = new ArrayList<>();
+        batch.add(new FeatureSet(names, new double[]{0.3, 0.4}));
+        batch.add(new FeatureSet(names, new double[]{0.9, Double.NaN}));
+        batch.add(new FeatureSet(new StringPair[]{
+            new StringPair("foo", "bar"),
+            new StringPair("unseen", "feature")
+        }, new double[]{0.5, 0.5}));
+        List<List<ScoreResult>> result = trained.similarityBatch(batch);
+        assertEquals(batch.size(), result.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(trained.similarity(batch.get(i)), result.get(i));
+        }
+    }
+
     @Test
     public void testGradient() {
         Random r = new Random();
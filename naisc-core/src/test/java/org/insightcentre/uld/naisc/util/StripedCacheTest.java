@@ -0,0 +1,147 @@
+package org.insightcentre.uld.naisc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class StripedCacheTest {
+
+    public StripedCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of get method, of class StripedCache.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        StripedCache<String, String> instance = new StripedCache<>(2, 1);
+        assertEquals("ay", instance.get("a", t -> t + "y"));
+        assertEquals("by", instance.get("b", t -> t + "y"));
+        assertEquals("ay", instance.get("a", t -> "wrong"));
+        // b is the least recently used so it is dropped
+        assertEquals("cy", instance.get("c", t -> t + "y"));
+        assertEquals("ay", instance.get("a", t -> "wrong"));
+        assertEquals("new", instance.get("b", t -> "new"));
+        assertEquals(2, instance.size());
+        assertEquals(2, instance.hits());
+        assertEquals(4, instance.misses());
+        assertEquals(1.0 / 3.0, instance.hitRate(), 1e-9);
+        assertEquals(2, instance.evictions());
+    }
+
+    /**
+     * Test that each value is computed once, of class StripedCache.
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        System.out.println("singleFlight");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final StripedCache<String, String> instance = new StripedCache<>(100);
+        final AtomicInteger computed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return instance.get("x", t -> {
+                    computed.incrementAndGet();
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException x) {
+                    }
+                    return t + "y";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("xy", result.get());
+        }
+        executor.shutdown();
+        assertEquals(1, computed.get());
+        assertEquals(1, instance.misses());
+        assertEquals(7, instance.hits());
+        // A value needed to compute itself is computed again rather than waited for
+        assertEquals("zzz", instance.get("z", t -> instance.get(t, u -> u + u) + t));
+    }
+
+    /**
+     * Test of get method from many threads, of class StripedCache.
+     */
+    @Test
+    public void testThreadSafety() throws Exception {
+        System.out.println("threadSafety");
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        final StripedCache<String, String> instance = new StripedCache<>(20);
+        final AtomicReference<AssertionError> failure = new AtomicReference<>();
+        for (int i = 0; i < 1000; i++) {
+            final int j = i;
+            executor.execute(() -> {
+                final String s = instance.get(String.format("x%d", j % 50), t -> String.format("%sy", t));
+                if (!String.format("x%dy", j % 50).equals(s)) {
+                    failure.set(new AssertionError(s));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertTrue(instance.size() <= 20);
+        assertEquals(1000, instance.hits() + instance.misses());
+    }
+
+    /**
+     * Test of clear method, of class StripedCache.
+     */
+    @Test
+    public void testClear() {
+        System.out.println("clear");
+        StripedCache<String, String> instance = new StripedCache<>(2, 1);
+        instance.clear();
+        assertEquals("ab", instance.get("a", x -> x + "b"));
+        assertEquals("cd", instance.get("c", x -> x + "d"));
+        assertEquals("ef", instance.get("e", x -> x + "f"));
+        assertEquals(2, instance.size());
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertEquals("ag", instance.get("a", x -> x + "g"));
+        assertEquals(1, instance.size());
+        instance.clear();
+        assertEquals("ah", instance.get("a", x -> x + "h"));
+    }
+}
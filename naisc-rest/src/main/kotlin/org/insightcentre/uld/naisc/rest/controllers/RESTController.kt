@@ -112,6 +112,23 @@ class RESTController {
         }
     }
 
+    @POST
+    @Path("/{config}/score_batch")
+    @Consumes("application/json")
+    @Produces("application/json")
+    @Throws(NotFoundException::class)
+    fun scoreBatch(@PathParam("config") config: String, body: List<List<Feature>>, @Context @Suppress("UNUSED_PARAMETER") securityContext: SecurityContext): Response {
+        try {
+            val scorers = ConfigurationManager.getScorer(config)
+            val sims = scorers.similarityBatch(body.map { FeatureSet(it) })
+            val scores = sims.map { s -> s.map { sim -> Score(sim.property, sim.probability) } }
+            return Response.ok().entity(scores).build()
+        } catch(x : Exception) {
+            x.printStackTrace()
+            return Response.status(500).entity(x.message).build()
+        }
+    }
+
     @POST
     @Path("/{config}/text_features")
     @Consumes("application/json")